@@ -0,0 +1,156 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Compiles many source files concurrently on a fixed pool of threads.
+ *
+ * Each file is compiled by Compiler.compile with its own lexer, parser and
+ * visitors, so nothing is shared between compilations except immutable
+ * state such as the Type singletons and ANTLR's generated tables. (In
+ * particular, EnvironmentEntry.getMarker() creates a new marker for each
+ * scope rather than sharing one.) The diagnostics printed while compiling
+ * a file are buffered and printed once it is finished, in the order the
+ * files were given, so the output is the same regardless of scheduling.
+ */
+public class BatchCompiler {
+
+	/**
+	 * The result of compiling a single file.
+	 */
+	private static class Result {
+		final int status;
+		final byte[] out;
+		final byte[] err;
+
+		Result(int status, byte[] out, byte[] err) {
+			this.status = status;
+			this.out = out;
+			this.err = err;
+		}
+	}
+
+	private final List<String> compilerOptions;
+	private final int threadCount;
+
+	/**
+	 * @param compilerOptions The options passed to the Compiler for every file.
+	 * @param threadCount The number of files to compile at once.
+	 */
+	public BatchCompiler(List<String> compilerOptions, int threadCount) {
+		assert threadCount > 0;
+		this.compilerOptions = compilerOptions;
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Returns the given source files, with each directory replaced by all
+	 * the .ul files it contains (recursively) in sorted order.
+	 */
+	public static List<String> expandDirectories(List<String> paths) throws IOException {
+		var sourceFileNames = new ArrayList<String>();
+
+		for (var path : paths) {
+			if (!Files.isDirectory(Path.of(path))) {
+				sourceFileNames.add(path);
+				continue;
+			}
+
+			try (Stream<Path> files = Files.walk(Path.of(path))) {
+				sourceFileNames.addAll(
+					files.filter(f -> f.toString().endsWith(".ul") && Files.isRegularFile(f))
+						 .map(Path::toString)
+						 .sorted()
+						 .collect(Collectors.toList())
+				);
+			}
+		}
+
+		return sourceFileNames;
+	}
+
+	/**
+	 * Compiles each of the files and prints their diagnostics to the given
+	 * streams in order. Returns a non-zero status if any file failed to
+	 * compile.
+	 */
+	public int compileAll(List<String> sourceFileNames, PrintStream out, PrintStream err) {
+		var executor = Executors.newFixedThreadPool(threadCount);
+		var results = new ArrayList<Future<Result>>();
+
+		// Two files with the same name would be compiled to the same output
+		// file, so only the first of them is compiled.
+		var programFiles = new HashMap<String, String>();
+
+		try {
+			for (var sourceFileName : sourceFileNames) {
+				var programName = Path.of(sourceFileName).getFileName().toString().split("\\.")[0];
+				var previous = programFiles.putIfAbsent(programName, sourceFileName);
+				if (previous != null) {
+					var message = String.format("%s: Program %s is already compiled from %s\n", sourceFileName, programName, previous);
+					results.add(CompletableFuture.completedFuture(
+						new Result(Compiler.COMPILATION_ERROR_STATUS, new byte[0], message.getBytes())
+					));
+					continue;
+				}
+
+				results.add(executor.submit(() -> compile(sourceFileName)));
+			}
+
+			int status = 0;
+			for (var future : results) {
+				Result result;
+				try {
+					result = future.get();
+				}
+				catch (InterruptedException | ExecutionException e) {
+					throw new IllegalStateException("Batch compilation was interrupted", e);
+				}
+
+				out.write(result.out, 0, result.out.length);
+				out.flush();
+				err.write(result.err, 0, result.err.length);
+				err.flush();
+
+				if (result.status != 0) {
+					status = result.status;
+				}
+			}
+
+			return status;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Result compile(String sourceFileName) {
+		var args = new ArrayList<String>(compilerOptions);
+		args.add(sourceFileName);
+
+		var compilerOut = new ByteArrayOutputStream();
+		var compilerErr = new ByteArrayOutputStream();
+		int status;
+
+		try (var outStream = new PrintStream(compilerOut, true);
+			 var errStream = new PrintStream(compilerErr, true)) {
+			try {
+				status = Compiler.compile(args.toArray(new String[0]), null, outStream, errStream);
+			}
+			catch (RuntimeException | Error e) {
+				// Failures the compiler does not handle itself (e.g. a stack
+				// overflow) only fail the file which caused them.
+				e.printStackTrace(errStream);
+				status = Compiler.COMPILATION_ERROR_STATUS;
+			}
+		}
+
+		return new Result(status, compilerOut.toByteArray(), compilerErr.toByteArray());
+	}
+}
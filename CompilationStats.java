@@ -0,0 +1,315 @@
+import ast.*;
+import codegen.*;
+import common.PhaseEvent;
+import ir.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Collects statistics about the compilation of one program for --stats:
+ * the wall time, CPU time and bytes allocated by each phase, the size of
+ * the AST, the instructions and temporaries of each IR function when it is
+ * generated and when it is compiled, and the size of the generated code.
+ * The statistics are written as JSON, so that slow compilations can be
+ * attributed to a phase and to the functions that make it slow.
+ *
+ * The times and allocations are those of the compiling thread. When the
+ * statistics are disabled, nothing is measured or written, but each phase
+ * is still reported to Java Flight Recorder as a PhaseEvent, which costs
+ * almost nothing unless a recording is running.
+ */
+public class CompilationStats {
+
+	/**
+	 * The measurements of one phase.
+	 */
+	private static class PhaseStats {
+		final String name;
+		long wallNanos;
+		long cpuNanos;
+		long allocatedBytes;
+
+		PhaseStats(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * The sizes of one function.
+	 */
+	private static class FunctionStats {
+		final String name;
+		int generatedInstructions;
+		int generatedTemps;
+		int instructions;
+		int temps;
+		// Only known when the class file is written directly.
+		int bytecodeBytes = -1;
+
+		FunctionStats(String name) {
+			this.name = name;
+		}
+	}
+
+	private final String sourceName;
+	private final boolean isEnabled;
+	private final com.sun.management.ThreadMXBean threads;
+	private final List<PhaseStats> phases;
+	private final Map<String, FunctionStats> functions;
+	private int astNodeCount;
+	private int cachedFunctionCount;
+
+	// The phase being measured, and the thread's counters when it began.
+	private PhaseEvent currentEvent;
+	private PhaseStats currentPhase;
+	private long phaseStartWallNanos;
+	private long phaseStartCpuNanos;
+	private long phaseStartAllocatedBytes;
+
+	/**
+	 * @param sourceName The name of the source file, given in each
+	 *                   PhaseEvent.
+	 * @param isEnabled Whether to collect the statistics.
+	 */
+	public CompilationStats(String sourceName, boolean isEnabled) {
+		this.sourceName = sourceName;
+		this.isEnabled = isEnabled;
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		phases = new ArrayList<PhaseStats>();
+		functions = new LinkedHashMap<String, FunctionStats>();
+	}
+
+	private long cpuNanos() {
+		return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+	}
+
+	private long allocatedBytes() {
+		return threads.isThreadAllocatedMemorySupported() ? threads.getCurrentThreadAllocatedBytes() : 0;
+	}
+
+	/**
+	 * Starts measuring the given phase, which lasts until the next call to
+	 * {@link #endPhase}.
+	 */
+	public void beginPhase(String name) {
+		currentEvent = new PhaseEvent();
+		currentEvent.phase = name;
+		currentEvent.begin();
+
+		if (!isEnabled) {
+			return;
+		}
+
+		currentPhase = new PhaseStats(name);
+		phaseStartAllocatedBytes = allocatedBytes();
+		phaseStartCpuNanos = cpuNanos();
+		phaseStartWallNanos = System.nanoTime();
+	}
+
+	public void endPhase() {
+		currentEvent.end();
+		if (currentEvent.shouldCommit()) {
+			currentEvent.program = sourceName;
+			currentEvent.commit();
+		}
+		currentEvent = null;
+
+		if (!isEnabled) {
+			return;
+		}
+
+		currentPhase.wallNanos = System.nanoTime() - phaseStartWallNanos;
+		currentPhase.cpuNanos = cpuNanos() - phaseStartCpuNanos;
+		currentPhase.allocatedBytes = allocatedBytes() - phaseStartAllocatedBytes;
+		phases.add(currentPhase);
+		currentPhase = null;
+	}
+
+	public void recordAst(Program program) throws ASTVisitorException {
+		if (isEnabled) {
+			astNodeCount = new NodeCountVisitor().visit(program);
+		}
+	}
+
+	/**
+	 * Adds the nodes of one function to the size of the AST, when the
+	 * program is parsed one function at a time.
+	 */
+	public void recordAst(Function function) throws ASTVisitorException {
+		if (isEnabled) {
+			astNodeCount += new NodeCountVisitor().visit(function);
+		}
+	}
+
+	/**
+	 * Records how many functions were reused from the cache, and so have no
+	 * IR sizes.
+	 */
+	public void recordCachedFunctions(int count) {
+		cachedFunctionCount = count;
+	}
+
+	private FunctionStats function(String name) {
+		return functions.computeIfAbsent(name, FunctionStats::new);
+	}
+
+	/**
+	 * Records the sizes of the functions as the IR was first generated.
+	 */
+	public void recordGeneratedIr(IRProgram program) {
+		if (!isEnabled) {
+			return;
+		}
+
+		for (var irFunction : program.functions) {
+			recordGeneratedIr(irFunction);
+		}
+	}
+
+	public void recordGeneratedIr(IRFunction irFunction) {
+		if (!isEnabled) {
+			return;
+		}
+
+		var stats = function(irFunction.name);
+		stats.generatedInstructions = irFunction.instructions.size();
+		stats.generatedTemps = irFunction.temps.size();
+	}
+
+	/**
+	 * Records the sizes of the functions as they are passed to the code
+	 * generator, after any optimization.
+	 */
+	public void recordCompiledIr(IRProgram program) {
+		if (!isEnabled) {
+			return;
+		}
+
+		for (var irFunction : program.functions) {
+			recordCompiledIr(irFunction);
+		}
+	}
+
+	public void recordCompiledIr(IRFunction irFunction) {
+		if (!isEnabled) {
+			return;
+		}
+
+		var stats = function(irFunction.name);
+		stats.instructions = irFunction.instructions.size();
+		stats.temps = irFunction.temps.size();
+	}
+
+	/**
+	 * Records the length of the bytecode generated for each function. This
+	 * is only known when the class file has been written by the visitor.
+	 */
+	public void recordCode(JvmCodeVisitor codeVisitor) {
+		if (!isEnabled) {
+			return;
+		}
+
+		for (var stats : functions.values()) {
+			var method = codeVisitor.getFunctionMethod(stats.name);
+			if (method != null) {
+				stats.bytecodeBytes = method.getCodeLength();
+			}
+		}
+	}
+
+	/**
+	 * Records the length of the bytecode generated for one function, when
+	 * the methods are written one at a time.
+	 */
+	public void recordCode(String functionName, MethodAssembler method) {
+		if (isEnabled) {
+			function(functionName).bytecodeBytes = method.getCodeLength();
+		}
+	}
+
+	private static String quote(String s) {
+		var quoted = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			}
+			else if (c < ' ') {
+				quoted.append(String.format("\\u%04x", (int) c));
+			}
+			else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	/**
+	 * Returns the statistics as a JSON object. A bytecode size of null means
+	 * that the size is not known, because Jasmin code was generated.
+	 */
+	public String toJson(String programName, File sourceFile, File outputFile) {
+		var json = new StringBuilder("{\n");
+		json.append("  \"program\": ").append(quote(programName)).append(",\n");
+		json.append("  \"source\": ").append(quote(sourceFile.getPath())).append(",\n");
+		json.append("  \"sourceBytes\": ").append(sourceFile.length()).append(",\n");
+		json.append("  \"output\": ").append(quote(outputFile.getPath())).append(",\n");
+		json.append("  \"outputBytes\": ").append(outputFile.length()).append(",\n");
+		json.append("  \"astNodes\": ").append(astNodeCount).append(",\n");
+		json.append("  \"cachedFunctions\": ").append(cachedFunctionCount).append(",\n");
+
+		long totalWallNanos = 0;
+		long totalCpuNanos = 0;
+		long totalAllocatedBytes = 0;
+		json.append("  \"phases\": [");
+		for (int i = 0; i < phases.size(); ++i) {
+			var phase = phases.get(i);
+			json.append(i == 0 ? "\n" : ",\n")
+				.append("    {\"name\": ").append(quote(phase.name))
+				.append(", \"wallNanos\": ").append(phase.wallNanos)
+				.append(", \"cpuNanos\": ").append(phase.cpuNanos)
+				.append(", \"allocatedBytes\": ").append(phase.allocatedBytes)
+				.append('}');
+			totalWallNanos += phase.wallNanos;
+			totalCpuNanos += phase.cpuNanos;
+			totalAllocatedBytes += phase.allocatedBytes;
+		}
+		json.append("\n  ],\n");
+		json.append("  \"total\": {\"wallNanos\": ").append(totalWallNanos)
+			.append(", \"cpuNanos\": ").append(totalCpuNanos)
+			.append(", \"allocatedBytes\": ").append(totalAllocatedBytes)
+			.append("},\n");
+
+		json.append("  \"functions\": [");
+		int index = 0;
+		for (var function : functions.values()) {
+			json.append(index++ == 0 ? "\n" : ",\n")
+				.append("    {\"name\": ").append(quote(function.name))
+				.append(", \"generatedInstructions\": ").append(function.generatedInstructions)
+				.append(", \"generatedTemps\": ").append(function.generatedTemps)
+				.append(", \"instructions\": ").append(function.instructions)
+				.append(", \"temps\": ").append(function.temps)
+				.append(", \"bytecodeBytes\": ").append(function.bytecodeBytes < 0 ? "null" : function.bytecodeBytes)
+				.append('}');
+		}
+		json.append("\n  ]\n}\n");
+
+		return json.toString();
+	}
+
+	public void writeJson(File statsFile, String programName, File sourceFile, File outputFile) throws IOException {
+		if (!isEnabled) {
+			return;
+		}
+
+		try (var writer = new PrintWriter(statsFile)) {
+			writer.print(toJson(programName, sourceFile, outputFile));
+		}
+	}
+}
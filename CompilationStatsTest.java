@@ -0,0 +1,136 @@
+import common.TestUtils;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Set;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/*
+ * Tests the statistics written by the compiler with --stats, and the
+ * events it reports to Java Flight Recorder.
+ */
+public class CompilationStatsTest {
+
+	// The AST has 23 nodes: the program; f, its declaration, return type,
+	// name, parameter (with its type and name), body and return statement
+	// (with its identifier); and main, its declaration, return type, name,
+	// body, variable declaration (with its type and name) and println
+	// statement (with the call, its name and its argument).
+	private static final String SOURCE =
+		"int f(int a) {\n" +
+		"\treturn a;\n" +
+		"}\n" +
+		"\n" +
+		"void main() {\n" +
+		"\tint x;\n" +
+		"\tprintln f(1);\n" +
+		"}\n";
+
+	private static String compileWithStats(Path directory, String... options) throws Exception {
+		var args = new String[options.length + 2];
+		System.arraycopy(options, 0, args, 0, options.length);
+		args[options.length] = "--stats";
+		args[options.length + 1] = "Stats.ul";
+
+		var output = new ByteArrayOutputStream();
+		var stream = new PrintStream(output, true);
+		int status = Compiler.compile(args, directory.toFile(), stream, stream);
+		assert status == 0 : output;
+
+		return Files.readString(directory.resolve("Stats.stats.json"));
+	}
+
+	private static void testStats(Path directory) throws Exception {
+		Files.writeString(directory.resolve("Stats.ul"), SOURCE);
+
+		var json = compileWithStats(directory, "--classfile", "-O");
+		assert json.contains("\"program\": \"Stats\"");
+		assert json.contains("\"astNodes\": 23,");
+		for (var phase : new String[] { "lex", "parse", "typecheck", "irgen", "fold", "dce", "coalesce", "classfile" }) {
+			assert json.contains("{\"name\": \"" + phase + "\", \"wallNanos\": ") : phase;
+		}
+		assert json.contains("\"outputBytes\": " + Files.size(directory.resolve("Stats.class")) + ",");
+		assert json.matches("(?s).*\\{\"name\": \"f\", \"generatedInstructions\": \\d+, \"generatedTemps\": 1, \"instructions\": \\d+, \"temps\": \\d+, \"bytecodeBytes\": [1-9]\\d*\\}.*");
+		assert json.contains("{\"name\": \"main\", ");
+
+		// The optimization phases are only run with -O, and the size of the
+		// bytecode is not known when Jasmin code is generated.
+		json = compileWithStats(directory);
+		assert !json.contains("\"fold\"");
+		assert json.contains("{\"name\": \"jasmin\", ");
+		assert json.contains("\"bytecodeBytes\": null}");
+		assert !json.matches("(?s).*\"bytecodeBytes\": \\d.*");
+	}
+
+	private static void testEvents(Path directory) throws Exception {
+		Files.writeString(directory.resolve("Events.ul"), SOURCE);
+
+		var recordingFile = directory.resolve("events.jfr");
+		try (var recording = new Recording()) {
+			recording.enable("ul.Phase");
+			recording.enable("ul.FunctionLowering");
+			recording.enable("ul.FunctionCodegen");
+			recording.start();
+
+			var output = new ByteArrayOutputStream();
+			var stream = new PrintStream(output, true);
+			int status = Compiler.compile(new String[] { "--classfile", "Events.ul" }, directory.toFile(), stream, stream);
+			assert status == 0 : output;
+
+			recording.stop();
+			recording.dump(recordingFile);
+		}
+
+		var phases = new HashMap<String, RecordedEvent>();
+		var lowered = new HashMap<String, RecordedEvent>();
+		var generated = new HashMap<String, RecordedEvent>();
+		for (var event : RecordingFile.readAllEvents(recordingFile)) {
+			switch (event.getEventType().getName()) {
+			case "ul.Phase":
+				assert event.getString("program").equals("Events.ul");
+				phases.put(event.getString("phase"), event);
+				break;
+			case "ul.FunctionLowering":
+				lowered.put(event.getString("functionName"), event);
+				break;
+			case "ul.FunctionCodegen":
+				generated.put(event.getString("functionName"), event);
+				break;
+			}
+		}
+
+		// The optimization phases are not run without -O, and without --stats
+		// the input is lexed as it is parsed.
+		assert phases.keySet().equals(Set.of("parse", "typecheck", "irgen", "coalesce", "classfile"));
+		assert lowered.keySet().equals(Set.of("f", "main"));
+		assert generated.keySet().equals(Set.of("f", "main"));
+
+		// f only has the temporary for its parameter, which it returns, and
+		// no labels.
+		assert lowered.get("f").getInt("tempCount") == 1;
+		assert lowered.get("f").getInt("labelCount") == 0;
+		assert lowered.get("f").getInt("instructionCount") > 0;
+		assert generated.get("f").getInt("instructionCount") > 0;
+		// Code is generated after the temporaries are coalesced.
+		assert generated.get("main").getInt("tempCount") <= lowered.get("main").getInt("tempCount");
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestUtils.startTestRun("CompilationStats");
+
+		var directory = Files.createTempDirectory("compilation-stats-test");
+		try {
+			testStats(directory);
+			testEvents(directory);
+		}
+		finally {
+			TestUtils.deleteRecursively(directory);
+		}
+
+		TestUtils.finishTestRun(true);
+	}
+}
@@ -0,0 +1,134 @@
+import java.io.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A thin client for the CompileServer. Each source file given on the
+ * command line is sent to the server to be compiled, and the diagnostics
+ * are printed just as the Compiler would print them. The exit status
+ * matches that of the Compiler: non-zero if any of the files failed to
+ * compile.
+ *
+ * If no server is running, the files are compiled in this process instead.
+ */
+public class CompileClient {
+
+	private static final String USAGE =
+		"Usage: CompileClient [--socket path] [--shutdown] [compiler options] filename.ul...";
+
+	public static void main(String[] args) throws IOException {
+		Path socketPath = CompileServer.defaultSocketPath();
+		boolean shutdown = false;
+		List<String> compilerOptions = new ArrayList<String>();
+		List<String> sourceFileNames = new ArrayList<String>();
+
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("--socket") && i + 1 < args.length) {
+				socketPath = Path.of(args[++i]);
+			}
+			else if (args[i].equals("--shutdown")) {
+				shutdown = true;
+			}
+			else if (Compiler.OPTIONS_WITH_VALUES.contains(args[i])) {
+				// These compiler options take a value.
+				if (i + 1 == args.length) {
+					System.err.println(String.format("%s needs a value", args[i]));
+					System.err.println(USAGE);
+					System.exit(Compiler.COMPILATION_ERROR_STATUS);
+				}
+				compilerOptions.add(args[i]);
+				compilerOptions.add(args[++i]);
+			}
+			else if (args[i].startsWith("-")) {
+				// Other options are passed on to the Compiler.
+				compilerOptions.add(args[i]);
+			}
+			else {
+				sourceFileNames.add(args[i]);
+			}
+		}
+
+		if (sourceFileNames.isEmpty() && !shutdown) {
+			System.out.println(USAGE);
+			return;
+		}
+
+		SocketChannel channel;
+		try {
+			channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+		}
+		catch (IOException e) {
+			if (shutdown) {
+				System.out.println("No compile server is running on " + socketPath);
+				return;
+			}
+
+			compileLocally(compilerOptions, sourceFileNames);
+			return;
+		}
+
+		int status = 0;
+		try (channel) {
+			var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			var workingDirectory = new File("").getAbsolutePath();
+
+			for (var sourceFileName : sourceFileNames) {
+				var compilerArgs = new ArrayList<String>(compilerOptions);
+				compilerArgs.add(sourceFileName);
+
+				out.writeInt(CompileServer.COMPILE_COMMAND);
+				out.writeUTF(workingDirectory);
+				out.writeInt(compilerArgs.size());
+				for (var arg : compilerArgs) {
+					out.writeUTF(arg);
+				}
+				out.flush();
+
+				int fileStatus = in.readInt();
+				System.out.write(in.readNBytes(in.readInt()));
+				System.out.flush();
+				System.err.write(in.readNBytes(in.readInt()));
+				System.err.flush();
+
+				if (fileStatus != 0) {
+					status = fileStatus;
+				}
+			}
+
+			if (shutdown) {
+				out.writeInt(CompileServer.SHUTDOWN_COMMAND);
+				out.flush();
+			}
+		}
+
+		if (status != 0) {
+			System.exit(status);
+		}
+	}
+
+	/**
+	 * Compiles each file without a server.
+	 */
+	private static void compileLocally(List<String> compilerOptions, List<String> sourceFileNames) {
+		int status = 0;
+
+		for (var sourceFileName : sourceFileNames) {
+			var compilerArgs = new ArrayList<String>(compilerOptions);
+			compilerArgs.add(sourceFileName);
+
+			int fileStatus = Compiler.compile(compilerArgs.toArray(new String[0]), null, System.out, System.err);
+			if (fileStatus != 0) {
+				status = fileStatus;
+			}
+		}
+
+		if (status != 0) {
+			System.exit(status);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * A long-running compile server. Starting a new JVM for each compilation
+ * means the ANTLR runtime, the generated parser and the rest of the compiler
+ * are loaded and JIT-compiled from scratch every time. The server keeps them
+ * loaded in a single JVM and runs compilations requested by a CompileClient
+ * over a local (Unix domain) socket.
+ *
+ * Requests are handled one at a time, in the order the connections are
+ * accepted.
+ *
+ * Protocol: The client sends a sequence of requests, each starting with
+ * an int command. A COMPILE_COMMAND is followed by the client's working
+ * directory and the Compiler's command line arguments (an int count and
+ * then each string). The server replies with the exit status of the
+ * compilation followed by everything the compiler printed to its output and
+ * error streams (each as an int length followed by the bytes). A
+ * SHUTDOWN_COMMAND stops the server after the current connection is closed.
+ * All strings are sent with DataOutput.writeUTF.
+ */
+public class CompileServer {
+
+	static final int COMPILE_COMMAND = 1;
+	static final int SHUTDOWN_COMMAND = 2;
+
+	/**
+	 * The socket used when no path is given, shared by all compile servers
+	 * run by the current user.
+	 */
+	static Path defaultSocketPath() {
+		var fileName = "ul-compile-server-" + System.getProperty("user.name") + ".sock";
+		return Path.of(System.getProperty("java.io.tmpdir"), fileName);
+	}
+
+	private final Path socketPath;
+	private boolean isShutdownRequested;
+
+	public CompileServer(Path socketPath) {
+		this.socketPath = socketPath;
+		isShutdownRequested = false;
+	}
+
+	/**
+	 * Accepts and serves connections until a client requests a shutdown.
+	 */
+	public void run() throws IOException {
+		// A socket file left behind by a server that was killed would stop us
+		// from binding the address.
+		Files.deleteIfExists(socketPath);
+
+		try (var serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			serverChannel.bind(UnixDomainSocketAddress.of(socketPath));
+			System.out.println("Compile server listening on " + socketPath);
+
+			while (!isShutdownRequested) {
+				try (var channel = serverChannel.accept()) {
+					serve(channel);
+				}
+				catch (IOException e) {
+					// The client went away. This should not stop the server.
+					System.err.println("Lost connection to client: " + e);
+				}
+			}
+		}
+		finally {
+			Files.deleteIfExists(socketPath);
+		}
+	}
+
+	/**
+	 * Handles each request sent over a connection until the client closes it.
+	 */
+	private void serve(SocketChannel channel) throws IOException {
+		var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+		var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+		while (true) {
+			int command;
+			try {
+				command = in.readInt();
+			}
+			catch (EOFException e) {
+				return; // The client has closed the connection.
+			}
+
+			switch (command) {
+				case COMPILE_COMMAND:
+					compile(in, out);
+					break;
+
+				case SHUTDOWN_COMMAND:
+					isShutdownRequested = true;
+					break;
+
+				default:
+					throw new IOException("Unknown compile server command " + command);
+			}
+		}
+	}
+
+	private static void compile(DataInputStream in, DataOutputStream out) throws IOException {
+		var workingDirectory = new File(in.readUTF());
+		var args = new String[in.readInt()];
+		for (int i = 0; i < args.length; ++i) {
+			args[i] = in.readUTF();
+		}
+
+		var compilerOut = new ByteArrayOutputStream();
+		var compilerErr = new ByteArrayOutputStream();
+		int status;
+
+		try (var outStream = new PrintStream(compilerOut, true);
+			 var errStream = new PrintStream(compilerErr, true)) {
+			try {
+				status = Compiler.compile(args, workingDirectory, outStream, errStream);
+			}
+			catch (RuntimeException | Error e) {
+				// Anything the compiler itself does not handle (e.g. a stack
+				// overflow on a deeply nested program) fails this compilation
+				// only.
+				e.printStackTrace(errStream);
+				status = Compiler.COMPILATION_ERROR_STATUS;
+			}
+		}
+
+		out.writeInt(status);
+		out.writeInt(compilerOut.size());
+		compilerOut.writeTo(out);
+		out.writeInt(compilerErr.size());
+		compilerErr.writeTo(out);
+		out.flush();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length > 1) {
+			System.out.println("Usage: CompileServer [socket path]");
+			return;
+		}
+
+		var socketPath = args.length == 1 ? Path.of(args[0]) : defaultSocketPath();
+		new CompileServer(socketPath).run();
+	}
+}
@@ -2,6 +2,11 @@ import ast.*;
 import codegen.*;
 import ir.*;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
 import org.antlr.runtime.*;
 import semantic.*;
 
@@ -11,9 +16,27 @@ import semantic.*;
  */
 public class Compiler {
     
+	private static final String USAGE = "Usage: Compiler [-O] [--classfile] [--no-stack-temps] [--no-fused-branches] [--indy-concat] [--buffered-output] [--ir-comments] [--stats] [--parallel] [--streaming] [--cache dir] [--cache-size n] [--jobs n] filename.ul|directory...";
+
+	// The exit status used when a program fails to compile. This allows
+	// error code checking to automate testing.
+	public static final int COMPILATION_ERROR_STATUS = 1;
+
+	// The options which are followed by a value.
+	static final Set<String> OPTIONS_WITH_VALUES = Set.of("--cache", "--cache-size", "--jobs");
+
 	private static void handleCompilationError() {
-		// Allows error code checking to automate testing.
-		System.exit(1); 
+		System.exit(COMPILATION_ERROR_STATUS); 
+	}
+
+	/**
+	 * Reports a mistake in the arguments, followed by the usage message,
+	 * and returns the exit status for it.
+	 */
+	private static int reportUsageError(PrintStream err, String message) {
+		err.println(message);
+		err.println(USAGE);
+		return COMPILATION_ERROR_STATUS;
 	}
 
 	private static String programNameFromFileName(String fileName) throws Exception {
@@ -41,62 +64,388 @@ public class Compiler {
 		}
 	}
 
-    public static void main (String[] args) throws IOException {
-		
-		if (args.length == 0) {
-			System.out.println("Usage: Compiler filename.ul");
-			return;
+	/**
+	 * Compiles a single source file with the given command line arguments and
+	 * returns the exit status for the compilation. Relative paths are resolved
+	 * against the given working directory (or the current directory if it is
+	 * null), and output files are written there. Diagnostics are printed to 
+	 * the given streams rather than to System.out and System.err so that the
+	 * compiler can be run by a {@link CompileServer}.
+	 */
+	public static int compile(String[] args, File workingDirectory, PrintStream out, PrintStream err) {
+
+		// With --classfile, the class file is generated directly rather
+		// than writing Jasmin code to be assembled separately.
+		boolean emitClassFile = false;
+
+		// With --no-stack-temps, every temporary is stored to its local
+		// variable, even if its value could stay on the operand stack.
+		boolean keepTempsOnStack = true;
+
+		// With --no-fused-branches, comparisons used by conditional jumps
+		// compute a boolean which is then tested.
+		boolean fuseBranches = true;
+
+		// With --indy-concat, strings are concatenated by invokedynamic
+		// call sites. This needs a newer class file version than Jasmin
+		// supports, so it is only allowed with --classfile.
+		boolean concatenateDynamically = false;
+
+		// With --buffered-output, the generated program prints through the
+		// buffer of the runtime.Output class, which is written next to it.
+		boolean bufferOutput = false;
+
+		// With -O, operations on constants are evaluated by the compiler,
+		// and instructions which have no effect are removed.
+		boolean optimize = false;
+
+		// With --ir-comments, each IR instruction is written in a comment
+		// before the Jasmin code generated for it.
+		boolean writeIrComments = false;
+
+		// With --stats, the time and memory taken by each phase, and the
+		// sizes of the program at each stage, are written as JSON to a
+		// .stats.json file next to the output.
+		boolean collectStats = false;
+
+		// With --parallel, the function bodies are type checked, and the
+		// functions lowered to IR and compiled to JVM code, concurrently on
+		// the common fork-join pool.
+		boolean compileInParallel = false;
+
+		// With --streaming, the functions are parsed, checked and compiled
+		// one at a time, after a first pass which finds their signatures,
+		// so that only one function is held in memory at once. It can't
+		// be used with --parallel or --cache, which need every function.
+		boolean compileStreaming = false;
+
+		// With --cache, the method generated for each function is kept in
+		// the given directory, and reused by later compilations as long as
+		// the function and the signatures it uses are unchanged.
+		// --cache-size bounds the number of methods kept.
+		String cacheDirectoryName = null;
+		int cacheSize = FunctionCache.DEFAULT_MAX_ENTRIES;
+
+		String sourceFileName = null;
+		for (int i = 0; i < args.length; ++i) {
+			var arg = args[i];
+			if (OPTIONS_WITH_VALUES.contains(arg) && i + 1 == args.length) {
+				return reportUsageError(err, String.format("%s needs a value", arg));
+			}
+			else if (arg.equals("--cache")) {
+				cacheDirectoryName = args[++i];
+			}
+			else if (arg.equals("--cache-size")) {
+				try {
+					cacheSize = Math.max(1, Integer.parseInt(args[++i]));
+				}
+				catch (NumberFormatException e) {
+					return reportUsageError(err, String.format("--cache-size must be a number, not %s", args[i]));
+				}
+			}
+			else if (arg.equals("--classfile")) {
+				emitClassFile = true;
+			}
+			else if (arg.equals("--no-stack-temps")) {
+				keepTempsOnStack = false;
+			}
+			else if (arg.equals("--no-fused-branches")) {
+				fuseBranches = false;
+			}
+			else if (arg.equals("--indy-concat")) {
+				concatenateDynamically = true;
+			}
+			else if (arg.equals("--buffered-output")) {
+				bufferOutput = true;
+			}
+			else if (arg.equals("-O")) {
+				optimize = true;
+			}
+			else if (arg.equals("--ir-comments")) {
+				writeIrComments = true;
+			}
+			else if (arg.equals("--stats")) {
+				collectStats = true;
+			}
+			else if (arg.equals("--parallel")) {
+				compileInParallel = true;
+			}
+			else if (arg.equals("--streaming")) {
+				compileStreaming = true;
+			}
+			else if (arg.equals("--jobs")) {
+				// Only main compiles several files at once, but the option
+				// may be passed on by a CompileClient.
+				++i;
+			}
+			else if (arg.startsWith("-")) {
+				return reportUsageError(err, String.format("Unknown option %s", arg));
+			}
+			else if (sourceFileName == null) {
+				sourceFileName = arg;
+			}
 		}
 
-		String sourceFileName = args[0];
+		if (sourceFileName == null) {
+			out.println(USAGE);
+			return 0;
+		}
+
+		if (concatenateDynamically && !emitClassFile) {
+			err.println("--indy-concat can only be used with --classfile");
+			return COMPILATION_ERROR_STATUS;
+		}
+
+		if (compileStreaming && (compileInParallel || cacheDirectoryName != null)) {
+			err.println("--streaming can't be used with --parallel or --cache");
+			return COMPILATION_ERROR_STATUS;
+		}
 
-		ANTLRInputStream input;
+		File sourceFile = new File(sourceFileName);
+		if (!sourceFile.isAbsolute() && workingDirectory != null) {
+			sourceFile = new File(workingDirectory, sourceFileName);
+		}
+
+		CharStream input;
 		try {
-			input = new ANTLRInputStream(new FileInputStream(sourceFileName));	
+			input = MappedCharStream.open(sourceFile);
 		}
 		catch (FileNotFoundException e) {
-			System.out.println(String.format("Could not open file %s", sourceFileName));
-			return;
+			out.println(String.format("Could not open file %s", sourceFileName));
+			return 0;
+		}
+		catch (IOException e) {
+			err.println(e);
+			return COMPILATION_ERROR_STATUS;
 		}
 
-		// The name of the grammar here is "UnnamedLanguage", so ANTLR 
-		// generates UnnamedLanguageLexer and UnnamedLanguageParser
-		UnnamedLanguageLexer lexer = new UnnamedLanguageLexer(input);
-		CommonTokenStream tokens = new CommonTokenStream(lexer);
-		UnnamedLanguageParser parser = new UnnamedLanguageParser(tokens);
+		FunctionCache cache;
+		if (cacheDirectoryName != null) {
+			File cacheDirectory = new File(cacheDirectoryName);
+			if (!cacheDirectory.isAbsolute() && workingDirectory != null) {
+				cacheDirectory = new File(workingDirectory, cacheDirectoryName);
+			}
+
+			// Everything which changes the code generated for a function.
+			String configuration = String.format("classfile=%b stack-temps=%b fused-branches=%b indy-concat=%b buffered-output=%b O=%b ir-comments=%b",
+				emitClassFile, keepTempsOnStack, fuseBranches, concatenateDynamically, bufferOutput, optimize, writeIrComments);
+			cache = new FunctionCache(cacheDirectory, cacheSize, configuration);
+		}
+		else {
+			cache = null;
+		}
+
+		JvmCodeVisitor codeVisitor;
+		if (emitClassFile) {
+			// Generate the class file from the IR representation.
+			codeVisitor = new BytecodeVisitor(workingDirectory);
+		}
+		else {
+			// Generate Jasmin code from the IR representation and save it
+			// to the output file.
+			JasminVisitor jasminVisitor = new JasminVisitor(workingDirectory);
+			jasminVisitor.setIrCommentsEnabled(writeIrComments);
+			codeVisitor = jasminVisitor;
+		}
+		codeVisitor.setStackingEnabled(keepTempsOnStack);
+		codeVisitor.setBranchFusionEnabled(fuseBranches);
+		codeVisitor.setDynamicConcatenationEnabled(concatenateDynamically);
+		codeVisitor.setOutputBuffered(bufferOutput);
+		if (compileInParallel) {
+			codeVisitor.setExecutor(ForkJoinPool.commonPool());
+		}
+
+		CompilationStats stats = new CompilationStats(sourceFileName, collectStats);
 
 		try {
+			String programName = programNameFromFileName(sourceFileName);
+			String outputFileName = programName + (emitClassFile ? ".class" : ".j");
+
+			if (compileStreaming) {
+				var streamingCompiler = new StreamingCompiler(input, err, stats);
+				ConstantFolder folder = null;
+				DeadCodeEliminator eliminator = null;
+				if (optimize) {
+					folder = new ConstantFolder();
+					eliminator = new DeadCodeEliminator();
+					streamingCompiler.setOptimizers(folder, eliminator);
+				}
+				if (streamingCompiler.compile(programName, codeVisitor)) {
+					if (optimize) {
+						out.println(String.format("Constant folding removed %d instructions", folder.getRemovedInstructionCount()));
+						out.println(String.format("Dead code elimination removed %d instructions", eliminator.getRemovedInstructionCount()));
+					}
+
+					stats.writeJson(new File(workingDirectory, programName + ".stats.json"),
+						programName, sourceFile, new File(workingDirectory, outputFileName));
+					return 0;
+				}
+
+				// The program has a syntax error, which a normal compilation
+				// reports.
+			}
+
+			// The name of the grammar here is "UnnamedLanguage", so ANTLR 
+			// generates UnnamedLanguageLexer and UnnamedLanguageParser
+			UnnamedLanguageLexer lexer = new UnnamedLanguageLexer(input);
+			lexer.setErrorStream(err);
+			CommonTokenStream tokens = new CommonTokenStream(lexer);
+			UnnamedLanguageParser parser = new UnnamedLanguageParser(tokens);
+			parser.setErrorStream(err);
+
+			// With --stats, the whole input is lexed before it is parsed, so
+			// that the two can be measured separately. Otherwise the parser
+			// lexes as it goes, as the lexer reports some errors differently
+			// when it runs ahead of the parser.
+			if (collectStats) {
+				stats.beginPhase("lex");
+				tokens.fill();
+				stats.endPhase();
+			}
+
+			stats.beginPhase("parse");
 			Program astProgram = parser.program();
+			stats.endPhase();
+			stats.recordAst(astProgram);
+
+			// The functions whose methods are found in the cache are not
+			// checked or compiled again.
+			Predicate<Function> isCompiled = function -> true;
+			if (cache != null) {
+				stats.beginPhase("cache");
+				cache.lookup(astProgram, programName);
+				stats.endPhase();
+				stats.recordCachedFunctions(cache.getCachedCount());
+				isCompiled = function -> !cache.isCached(function);
+			}
             
 			// Ensure the type system and language semantics are respected.
+			stats.beginPhase("typecheck");
             TypeCheckVisitor semanticVisitor = new TypeCheckVisitor();
-            semanticVisitor.visit(astProgram);
+			if (compileInParallel) {
+				semanticVisitor.setExecutor(ForkJoinPool.commonPool());
+			}
+            semanticVisitor.visit(astProgram, isCompiled);
+			stats.endPhase();
 
 			// Create the intermediate representation.
+			stats.beginPhase("irgen");
 			IRAstVisitor irVisitor = new IRAstVisitor();
-			String programName = programNameFromFileName(sourceFileName);
-			IRProgram irProgram = irVisitor.buildIRProgram(astProgram, programName);
-			
-			// Generate Jasmin code from the IR representation and save it
-			// to the output file.
-			JasminVisitor jasminVisitor = new JasminVisitor();
-			jasminVisitor.visit(irProgram);
+			if (compileInParallel) {
+				irVisitor.setExecutor(ForkJoinPool.commonPool());
+			}
+			IRProgram irProgram = irVisitor.buildIRProgram(astProgram, programName, isCompiled);
+			stats.endPhase();
+			stats.recordGeneratedIr(irProgram);
+
+			if (optimize) {
+				stats.beginPhase("fold");
+				ConstantFolder folder = new ConstantFolder();
+				irProgram = folder.fold(irProgram);
+				stats.endPhase();
+				out.println(String.format("Constant folding removed %d instructions", folder.getRemovedInstructionCount()));
+
+				stats.beginPhase("dce");
+				DeadCodeEliminator eliminator = new DeadCodeEliminator();
+				irProgram = eliminator.eliminate(irProgram);
+				stats.endPhase();
+				out.println(String.format("Dead code elimination removed %d instructions", eliminator.getRemovedInstructionCount()));
+			}
+
+			// Let temporaries which are never live at the same time share
+			// local variable slots.
+			stats.beginPhase("coalesce");
+			irProgram = TempCoalescer.coalesce(irProgram);
+			stats.endPhase();
+			stats.recordCompiledIr(irProgram);
+
+			if (cache != null) {
+				cache.addCachedMethods(astProgram, codeVisitor);
+			}
+			stats.beginPhase(emitClassFile ? "classfile" : "jasmin");
+			codeVisitor.visit(irProgram);
+			stats.endPhase();
+			stats.recordCode(codeVisitor);
+
+			if (cache != null) {
+				stats.beginPhase("cache-update");
+				cache.update(astProgram, codeVisitor);
+				stats.endPhase();
+			}
+
+			stats.writeJson(new File(workingDirectory, programName + ".stats.json"),
+				programName, sourceFile, new File(workingDirectory, outputFileName));
         }
         catch (RecognitionException e )	{
     		// A lexical or parsing error occured.
 	    	// ANTLR will have already printed information about the error
-		    // to System.err.
-			handleCompilationError();
+		    // to the error stream.
+			return COMPILATION_ERROR_STATUS;
 		}
 		catch(SemanticException e) {
 			// Print out the cause of the error and positional information 
 			// if appropriate.
-			System.err.println(e.getMessageWithPosition());
-			handleCompilationError();
+			err.println(e.getMessageWithPosition());
+			return COMPILATION_ERROR_STATUS;
 		}
 		catch (Exception e) {
-			System.err.println(e);
-			e.printStackTrace();
+			err.println(e);
+			e.printStackTrace(err);
+			return COMPILATION_ERROR_STATUS;
+		}
+
+		return 0;
+	}
+
+    public static void main (String[] args) throws IOException {
+		// Several files, or a directory of files, are compiled in parallel.
+		// --jobs sets the number of files to compile at once.
+		List<String> compilerOptions = new ArrayList<String>();
+		List<String> paths = new ArrayList<String>();
+		int jobs = Runtime.getRuntime().availableProcessors();
+
+		for (int i = 0; i < args.length; ++i) {
+			if (OPTIONS_WITH_VALUES.contains(args[i]) && i + 1 == args.length) {
+				// Otherwise a file name would be taken as the value.
+				reportUsageError(System.err, String.format("%s needs a value", args[i]));
+				handleCompilationError();
+			}
+			else if (args[i].equals("--jobs")) {
+				try {
+					jobs = Math.max(1, Integer.parseInt(args[++i]));
+				}
+				catch (NumberFormatException e) {
+					reportUsageError(System.err, String.format("--jobs must be a number, not %s", args[i]));
+					handleCompilationError();
+				}
+			}
+			else if (OPTIONS_WITH_VALUES.contains(args[i])) {
+				compilerOptions.add(args[i]);
+				compilerOptions.add(args[++i]);
+			}
+			else if (args[i].startsWith("-")) {
+				compilerOptions.add(args[i]);
+			}
+			else {
+				paths.add(args[i]);
+			}
+		}
+
+		int status;
+		if (paths.size() == 1 && !new File(paths.get(0)).isDirectory()) {
+			compilerOptions.addAll(paths);
+			status = compile(compilerOptions.toArray(new String[0]), null, System.out, System.err);
+		}
+		else if (paths.isEmpty()) {
+			System.out.println(USAGE);
+			return;
+		}
+		else {
+			var sourceFileNames = BatchCompiler.expandDirectories(paths);
+			status = new BatchCompiler(compilerOptions, jobs).compileAll(sourceFileNames, System.out, System.err);
+		}
+
+		if (status != 0) {
 			handleCompilationError();
 		}
 	}
@@ -0,0 +1,229 @@
+import ast.*;
+import codegen.JvmCodeVisitor;
+import codegen.MethodAssembler;
+import codegen.MethodSerializer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import type.MethodType;
+
+/*
+ * An on-disk cache of the methods generated for each function, used by
+ * --cache to recompile programs incrementally.
+ *
+ * Each entry holds the method generated for one function, and is keyed by
+ * a hash of the function's fingerprint, the signatures of the functions it
+ * calls, the name of the program (which owns the method) and the options
+ * which change the generated code. A function whose key is in the cache is
+ * not type checked or generated again, since it could only differ if its
+ * own text or a signature it depends on had changed. Changing a function's
+ * signature changes the key of each of its callers, so they are rechecked.
+ *
+ * The number of entries is bounded. Each entry is a file in the cache
+ * directory whose modification time is updated when it is used, and the
+ * least recently used entries are deleted once there are too many. Several
+ * compilations may share a cache directory, so entries are written
+ * atomically, and an entry which can't be read is treated as missing.
+ */
+public class FunctionCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+	private static final String ENTRY_EXTENSION = ".method";
+
+	// Part of every key. This must be changed whenever the code generated
+	// for the same function changes, so that older entries are not used.
+	private static final String CODE_VERSION = "1";
+
+	private final File directory;
+	private final int maxEntries;
+	private final String configuration;
+
+	// The key of each function of the program, and the methods found in the
+	// cache.
+	private final Map<Function, String> keys;
+	private final Map<Function, MethodAssembler> cachedMethods;
+
+	/**
+	 * @param directory The cache directory, which is created if needed.
+	 * @param maxEntries The most entries to keep in the directory.
+	 * @param configuration The compiler options which change the generated
+	 *                      code, in any consistent form.
+	 */
+	public FunctionCache(File directory, int maxEntries, String configuration) {
+		assert maxEntries > 0;
+		this.directory = directory;
+		this.maxEntries = maxEntries;
+		this.configuration = configuration;
+		keys = new LinkedHashMap<Function, String>();
+		cachedMethods = new HashMap<Function, MethodAssembler>();
+	}
+
+	private static String signature(FunctionDecl declaration) {
+		var signature = new StringBuilder("(");
+		for (var formal : declaration.formals) {
+			signature.append(formal.typeNode.type.toString()).append(';');
+		}
+		return signature.append(')').append(declaration.typeNode.type.toString()).toString();
+	}
+
+	/**
+	 * Returns the type of the method generated for a function.
+	 */
+	private static MethodType methodType(FunctionDecl declaration) {
+		var builder = new MethodType.Builder().withReturnType(declaration.typeNode.type);
+		for (var formal : declaration.formals) {
+			builder.addArgumentType(formal.typeNode.type);
+		}
+		return builder.build();
+	}
+
+	private File entryFile(String key) {
+		return new File(directory, key + ENTRY_EXTENSION);
+	}
+
+	/**
+	 * Returns the method in the cache entry with the given key, or null if
+	 * there is no such entry or it can't be read.
+	 */
+	private MethodAssembler load(String key) {
+		var file = entryFile(key);
+		try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			var method = MethodSerializer.read(in);
+			file.setLastModified(System.currentTimeMillis());
+			return method;
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	private void store(String key, MethodAssembler method) throws IOException {
+		var temporaryFile = Files.createTempFile(directory.toPath(), key, ".tmp");
+		try {
+			try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile.toFile())))) {
+				MethodSerializer.write(method, out);
+			}
+			Files.move(temporaryFile, entryFile(key).toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until no more than the
+	 * maximum number are left. Entries deleted by another compilation in
+	 * the meantime are ignored.
+	 */
+	private void evict() {
+		File[] entries = directory.listFiles((dir, name) -> name.endsWith(ENTRY_EXTENSION));
+		if (entries == null || entries.length <= maxEntries) {
+			return;
+		}
+
+		Map<File, Long> lastUsed = new HashMap<File, Long>();
+		for (var entry : entries) {
+			lastUsed.put(entry, entry.lastModified());
+		}
+
+		List<File> byAge = new ArrayList<File>(lastUsed.keySet());
+		byAge.sort(Comparator.comparing(lastUsed::get));
+		for (var entry : byAge.subList(0, byAge.size() - maxEntries)) {
+			entry.delete();
+		}
+	}
+
+	/**
+	 * Computes the key of each function of the program and loads the
+	 * methods of those which are in the cache.
+	 */
+	public void lookup(Program program, String programName) throws ASTVisitorException, IOException {
+		Files.createDirectories(directory.toPath());
+
+		Map<String, FunctionDecl> declarations = new HashMap<String, FunctionDecl>();
+		for (var function : program.functions) {
+			declarations.putIfAbsent(function.declaration.identifier.value, function.declaration);
+		}
+
+		var fingerprinter = new FingerprintVisitor();
+		for (var function : program.functions) {
+			var keyText = new StringBuilder()
+				.append(CODE_VERSION).append('\n')
+				.append(configuration).append('\n')
+				.append(programName).append('\n')
+				.append(fingerprinter.fingerprint(function));
+
+			// A call to a function which doesn't exist can never have been
+			// compiled, so it gives a key which is never in the cache.
+			for (var calledFunction : fingerprinter.getCalledFunctions()) {
+				var declaration = declarations.get(calledFunction);
+				keyText.append('\n').append(calledFunction).append(' ')
+					.append(declaration == null ? "undefined" : signature(declaration));
+			}
+
+			String key = FingerprintVisitor.hash(keyText.toString());
+			keys.put(function, key);
+
+			var method = load(key);
+			if (method != null) {
+				cachedMethods.put(function, method);
+			}
+		}
+	}
+
+	/**
+	 * Answers whether the method for the function was found in the cache.
+	 */
+	public boolean isCached(Function function) {
+		return cachedMethods.containsKey(function);
+	}
+
+	public int getCachedCount() {
+		return cachedMethods.size();
+	}
+
+	/**
+	 * Gives the code visitor the method of each function found in the cache.
+	 */
+	public void addCachedMethods(Program program, JvmCodeVisitor codeVisitor) {
+		for (int i = 0; i < program.functions.size(); ++i) {
+			var function = program.functions.get(i);
+			var method = cachedMethods.get(function);
+			if (method != null) {
+				var declaration = function.declaration;
+				codeVisitor.addPrecompiledMethod(i, declaration.identifier.value, methodType(declaration), method);
+			}
+		}
+	}
+
+	/**
+	 * Stores the methods generated for the functions which were not in the
+	 * cache, then evicts the least recently used entries.
+	 */
+	public void update(Program program, JvmCodeVisitor codeVisitor) throws IOException {
+		for (var entry : keys.entrySet()) {
+			var function = entry.getKey();
+			if (!isCached(function)) {
+				var method = codeVisitor.getFunctionMethod(function.declaration.identifier.value);
+				store(entry.getValue(), method);
+			}
+		}
+
+		evict();
+	}
+}
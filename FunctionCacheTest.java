@@ -0,0 +1,182 @@
+import common.TestUtils;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/*
+ * Tests that --cache reuses the methods of unchanged functions, recompiles
+ * the functions which changed and the callers of functions whose signature
+ * changed, and keeps the cache within its bounds.
+ */
+public class FunctionCacheTest {
+
+	private static final String SOURCE =
+		"int twice(int x) {\n" +
+		"\treturn x + x;\n" +
+		"}\n" +
+		"\n" +
+		"float half(float x) {\n" +
+		"\treturn x * 0.5;\n" +
+		"}\n" +
+		"\n" +
+		"int quadruple(int x) {\n" +
+		"\treturn twice(twice(x));\n" +
+		"}\n" +
+		"\n" +
+		"void main() {\n" +
+		"\tprintln quadruple(3);\n" +
+		"\tprintln half(3.0);\n" +
+		"\tprintln \"done\";\n" +
+		"}\n";
+
+	private static final Pattern CACHED_FUNCTIONS = Pattern.compile("\"cachedFunctions\": (\\d+)");
+
+	private static int compile(Path directory, String source, String... options) throws Exception {
+		Files.writeString(directory.resolve("Cached.ul"), source);
+
+		var args = Arrays.copyOf(options, options.length + 2);
+		args[options.length] = "--stats";
+		args[options.length + 1] = "Cached.ul";
+
+		var output = new ByteArrayOutputStream();
+		var stream = new PrintStream(output, true);
+		return Compiler.compile(args, directory.toFile(), stream, stream);
+	}
+
+	/**
+	 * Compiles the source, which must succeed, and returns how many of its
+	 * functions were found in the cache.
+	 */
+	private static int compileCached(Path directory, String source, String... options) throws Exception {
+		int status = compile(directory, source, options);
+		assert status == 0;
+
+		var matcher = CACHED_FUNCTIONS.matcher(Files.readString(directory.resolve("Cached.stats.json")));
+		assert matcher.find();
+		return Integer.parseInt(matcher.group(1));
+	}
+
+	private static String run(Path directory) throws Exception {
+		var programOutput = new ByteArrayOutputStream();
+		var out = System.out;
+		try (var loader = new URLClassLoader(new URL[] { directory.toUri().toURL() }, null)) {
+			System.setOut(new PrintStream(programOutput, true));
+			loader.loadClass("Cached").getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+		}
+		finally {
+			System.setOut(out);
+		}
+		return programOutput.toString();
+	}
+
+	private static File[] entries(Path cacheDirectory) {
+		return cacheDirectory.toFile().listFiles((dir, name) -> name.endsWith(".method"));
+	}
+
+	private static void testReuse(Path directory) throws Exception {
+		String[] options = { "--classfile", "-O", "--cache", "cache" };
+
+		assert compileCached(directory, SOURCE, options) == 0;
+		var classFile = Files.readAllBytes(directory.resolve("Cached.class"));
+		assert run(directory).equals("12\n1.5\ndone\n");
+		assert entries(directory.resolve("cache")).length == 4;
+
+		// The methods are written in the same order, so the class file is
+		// the same when every function is cached.
+		assert compileCached(directory, SOURCE, options) == 4;
+		assert Arrays.equals(classFile, Files.readAllBytes(directory.resolve("Cached.class")));
+
+		// Layout doesn't change a fingerprint, but a change to one function
+		// only recompiles that function.
+		assert compileCached(directory, SOURCE.replace("\treturn x + x;", "return x+x;"), options) == 4;
+		assert compileCached(directory, SOURCE.replace("\"done\"", "\"finished\""), options) == 3;
+		assert run(directory).equals("12\n1.5\nfinished\n");
+
+		// Other options generate different code for the same functions.
+		assert compileCached(directory, SOURCE, "--classfile", "--cache", "cache") == 0;
+		assert compileCached(directory, SOURCE, "--cache", "cache") == 0;
+		var jasminFile = Files.readString(directory.resolve("Cached.j"));
+		assert compileCached(directory, SOURCE, "--cache", "cache") == 4;
+		assert jasminFile.equals(Files.readString(directory.resolve("Cached.j")));
+	}
+
+	private static void testSignatureChanges(Path directory) throws Exception {
+		String[] options = { "--classfile", "--cache", "signatures" };
+		assert compileCached(directory, SOURCE, options) == 0;
+
+		// Changing the signature of twice() recompiles its caller, which no
+		// longer type checks.
+		String changed = SOURCE.replace("int twice(int x)", "int twice(float x)").replace("x + x", "1");
+		assert compile(directory, changed, options) == Compiler.COMPILATION_ERROR_STATUS;
+
+		// Changing the return type of half() recompiles main(), which
+		// prints it.
+		changed = SOURCE.replace("float half(float x)", "int half(float x)").replace("x * 0.5", "2");
+		assert compileCached(directory, changed, options) == 2;
+		assert run(directory).equals("12\n2\ndone\n");
+	}
+
+	private static void testEviction(Path directory) throws Exception {
+		var cacheDirectory = directory.resolve("small");
+		String[] options = { "--classfile", "--cache", "small", "--cache-size", "2" };
+
+		assert compileCached(directory, SOURCE, options) == 0;
+		assert entries(cacheDirectory).length == 2;
+		assert compileCached(directory, SOURCE, options) == 2;
+		assert entries(cacheDirectory).length == 2;
+		assert run(directory).equals("12\n1.5\ndone\n");
+	}
+
+	private static void testDamagedEntries(Path directory) throws Exception {
+		var cacheDirectory = directory.resolve("damaged");
+		String[] options = { "--classfile", "--cache", "damaged" };
+
+		assert compileCached(directory, SOURCE, options) == 0;
+		for (var entry : entries(cacheDirectory)) {
+			Files.write(entry.toPath(), new byte[] { 0, 0, 0, 1, 2 });
+		}
+		assert compileCached(directory, SOURCE, options) == 0;
+		assert compileCached(directory, SOURCE, options) == 4;
+		assert run(directory).equals("12\n1.5\ndone\n");
+	}
+
+	private static void testInvalidOptions(Path directory) throws Exception {
+		var output = TestUtils.compile(directory, "Sized", SOURCE, "--cache", "sized", "--cache-size", "abc");
+		assert output.startsWith(Compiler.COMPILATION_ERROR_STATUS + "\n") : output;
+		assert output.contains("--cache-size must be a number, not abc") && output.contains("Usage:") : output;
+		assert !Files.exists(directory.resolve("Sized.j"));
+
+		// The file name is not taken as the cache directory.
+		var args = new String[] { "Sized.ul", "--cache" };
+		var stream = new PrintStream(new ByteArrayOutputStream(), true);
+		assert Compiler.compile(args, directory.toFile(), stream, stream) == Compiler.COMPILATION_ERROR_STATUS;
+
+		output = TestUtils.compile(directory, "Sized", SOURCE, "--cache", "sized", "--cach-size", "2");
+		assert output.startsWith(Compiler.COMPILATION_ERROR_STATUS + "\n") && output.contains("Unknown option --cach-size") : output;
+		assert !Files.exists(directory.resolve("Sized.j"));
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestUtils.startTestRun("FunctionCache");
+
+		var directory = Files.createTempDirectory("function-cache-test");
+		try {
+			testReuse(directory);
+			testSignatureChanges(directory);
+			testEviction(directory);
+			testDamagedEntries(directory);
+			testInvalidOptions(directory);
+		}
+		finally {
+			TestUtils.deleteRecursively(directory);
+		}
+
+		TestUtils.finishTestRun(true);
+	}
+}
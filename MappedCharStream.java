@@ -0,0 +1,217 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.antlr.runtime.CharStream;
+
+/*
+ * A source file for the lexer which is read directly from a memory mapping
+ * of the file, one byte per character. Nothing is copied when the file is
+ * opened, and the pages of the file are only read as the lexer reaches
+ * them. The text of a token is only decoded when it's asked for, since
+ * CommonToken gets its text from the stream.
+ *
+ * The grammar is ASCII, so a file which only holds ASCII is the same when
+ * read a byte at a time. Other characters can still appear in comments, so
+ * once the lexer reaches one, the whole file is decoded with the default
+ * charset, just as a stream of it would be, and read from the decoded text
+ * from then on. Every byte before it is ASCII, so the indices of the
+ * characters already read, and of the marks and tokens, stay the same.
+ *
+ * The stream has no source name, as an ANTLRInputStream has none, since
+ * the lexer and parser would otherwise add it to every error they report.
+ */
+public class MappedCharStream implements CharStream {
+
+	/**
+	 * The position, line and column saved by a mark.
+	 */
+	private static class Mark {
+		int index;
+		int line;
+		int charPositionInLine;
+	}
+
+	private final MappedByteBuffer data;
+
+	// The decoded text, once a character which isn't ASCII has been read.
+	private String text;
+
+	private int index;
+	private int line;
+	private int charPositionInLine;
+
+	// The marks are reused, as the lexer sets one for every token.
+	private final List<Mark> marks;
+	private int markDepth;
+	private int lastMark;
+
+	private MappedCharStream(MappedByteBuffer data) {
+		this.data = data;
+		text = null;
+		index = 0;
+		line = 1;
+		charPositionInLine = 0;
+		marks = new ArrayList<Mark>();
+		markDepth = 0;
+		lastMark = 0;
+	}
+
+	/**
+	 * Returns the character at the given position, or EOF if it is past the
+	 * end of the file.
+	 */
+	private int charAt(int position) {
+		if (text == null) {
+			if (position >= data.limit()) {
+				return EOF;
+			}
+			byte b = data.get(position);
+			if (b >= 0) {
+				return b;
+			}
+			text = Charset.defaultCharset().decode(data.duplicate()).toString();
+		}
+		return position < text.length() ? text.charAt(position) : EOF;
+	}
+
+	/**
+	 * Opens the file for the lexer. The file can be closed, or changed,
+	 * once this returns, though changing it changes the text of tokens
+	 * which are read after that.
+	 * @throws java.io.FileNotFoundException If the file can't be opened.
+	 * @throws IOException If the file can't be mapped, or is larger than
+	 *                     the 2GB that the indices of tokens can address.
+	 */
+	public static CharStream open(File file) throws IOException {
+		try (var inputStream = new FileInputStream(file); var channel = inputStream.getChannel()) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(String.format("%s is too large to compile (%d bytes)", file, size));
+			}
+
+			return new MappedCharStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+		}
+	}
+
+	public void consume() {
+		int c = charAt(index);
+		if (c != EOF) {
+			++charPositionInLine;
+			if (c == '\n') {
+				++line;
+				charPositionInLine = 0;
+			}
+			++index;
+		}
+	}
+
+	public int LA(int i) {
+		if (i == 0) {
+			// Undefined, as in ANTLRStringStream.
+			return 0;
+		}
+		if (i < 0) {
+			// LA(-1) is the previous character.
+			++i;
+		}
+
+		int position = index + i - 1;
+		return position < 0 ? EOF : charAt(position);
+	}
+
+	public int LT(int i) {
+		return LA(i);
+	}
+
+	public int index() {
+		return index;
+	}
+
+	public int size() {
+		return text == null ? data.limit() : text.length();
+	}
+
+	public int mark() {
+		if (markDepth == marks.size()) {
+			marks.add(new Mark());
+		}
+		var mark = marks.get(markDepth);
+		mark.index = index;
+		mark.line = line;
+		mark.charPositionInLine = charPositionInLine;
+
+		++markDepth;
+		lastMark = markDepth;
+		return markDepth;
+	}
+
+	public void rewind(int marker) {
+		var mark = marks.get(marker - 1);
+		seek(mark.index);
+		line = mark.line;
+		charPositionInLine = mark.charPositionInLine;
+		release(marker);
+	}
+
+	public void rewind() {
+		rewind(lastMark);
+	}
+
+	public void release(int marker) {
+		// Releases this mark and every mark set after it.
+		markDepth = marker - 1;
+	}
+
+	/**
+	 * Moves to the given index. Moving back doesn't restore the line and
+	 * column, which rewind() does.
+	 */
+	public void seek(int index) {
+		if (index <= this.index) {
+			this.index = index;
+			return;
+		}
+		while (this.index < index) {
+			consume();
+		}
+	}
+
+	public String substring(int start, int stop) {
+		int size = size();
+		if (start >= size) {
+			return "";
+		}
+		if (text != null) {
+			return text.substring(start, Math.min(stop, size - 1) + 1);
+		}
+		var bytes = new byte[Math.min(stop, size - 1) - start + 1];
+		data.get(start, bytes);
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+
+	public int getLine() {
+		return line;
+	}
+
+	public void setLine(int line) {
+		this.line = line;
+	}
+
+	public int getCharPositionInLine() {
+		return charPositionInLine;
+	}
+
+	public void setCharPositionInLine(int charPositionInLine) {
+		this.charPositionInLine = charPositionInLine;
+	}
+
+	public String getSourceName() {
+		return null;
+	}
+}
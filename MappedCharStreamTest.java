@@ -0,0 +1,110 @@
+import common.TestUtils;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.antlr.runtime.ANTLRInputStream;
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CharStream;
+import org.antlr.runtime.Token;
+
+/*
+ * Tests that the lexer gives the same tokens from a mapped source file as
+ * from the text of the file, whether or not the file is ASCII.
+ */
+public class MappedCharStreamTest {
+
+	/**
+	 * Returns the type, text and position of each token, with the hidden
+	 * ones, on a line each.
+	 */
+	private static String tokens(CharStream input) {
+		var lexer = new UnnamedLanguageLexer(input);
+		var result = new StringBuilder();
+		for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+			result.append(String.format("%d %d:%d %s%n", token.getType(), token.getLine(), token.getCharPositionInLine(), token.getText()));
+		}
+		return result.toString();
+	}
+
+	private static CharStream open(Path directory, byte[] source) throws Exception {
+		var file = directory.resolve("Source.ul");
+		Files.write(file, source);
+		return MappedCharStream.open(file.toFile());
+	}
+
+	private static CharStream open(Path directory, String source) throws Exception {
+		return open(directory, source.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private static void testSameTokens(Path directory) throws Exception {
+		var source = new ProgramGenerator.Builder()
+			.withFunctionCount(50)
+			.withSeed(3)
+			.build()
+			.generate();
+
+		var input = open(directory, source);
+		assert input instanceof MappedCharStream;
+		assert input.size() == source.length();
+		assert tokens(input).equals(tokens(new ANTLRStringStream(source)));
+	}
+
+	private static void testNonAscii(Path directory) throws Exception {
+		// The file is decoded once the comment is reached, so the comment,
+		// and the tokens after it, are the same as when the file is read
+		// through a stream.
+		// In UTF-8 the characters take more than one byte each.
+		var text = "void main() {\n\t// Gr\u00f6\u00dfe\n\tprintln \"e\";\n}\n";
+		for (var charset : new Charset[] { StandardCharsets.ISO_8859_1, StandardCharsets.UTF_8 }) {
+			var source = text.getBytes(charset);
+			var input = open(directory, source);
+			var expected = new ANTLRInputStream(new ByteArrayInputStream(source));
+			assert tokens(input).equals(tokens(expected)) : charset;
+			assert input.size() == expected.size() : charset;
+		}
+	}
+
+	private static void testEmpty(Path directory) throws Exception {
+		var input = open(directory, "");
+		assert input.size() == 0 && input.LA(1) == CharStream.EOF;
+		assert tokens(input).isEmpty();
+	}
+
+	private static void testRewind(Path directory) throws Exception {
+		var input = open(directory, "ab\ncd");
+		input.consume();
+		int start = input.mark();
+		input.consume();
+		input.consume();
+		assert input.LA(1) == 'c' && input.LA(-1) == '\n';
+		assert input.getLine() == 2 && input.getCharPositionInLine() == 0;
+		assert input.substring(1, 3).equals("b\nc");
+
+		input.rewind(start);
+		assert input.index() == 1 && input.LA(1) == 'b';
+		assert input.getLine() == 1 && input.getCharPositionInLine() == 1;
+
+		input.seek(5);
+		assert input.LA(1) == CharStream.EOF && input.getCharPositionInLine() == 2;
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestUtils.startTestRun("MappedCharStream");
+
+		var directory = Files.createTempDirectory("mapped-char-stream-test");
+		try {
+			testSameTokens(directory);
+			testNonAscii(directory);
+			testEmpty(directory);
+			testRewind(directory);
+		}
+		finally {
+			Files.deleteIfExists(directory.resolve("Source.ul"));
+			Files.delete(directory);
+		}
+
+		TestUtils.finishTestRun(true);
+	}
+}
@@ -0,0 +1,104 @@
+import ast.Program;
+import common.TestUtils;
+import ir.IRAstVisitor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CommonTokenStream;
+
+/*
+ * Tests that compiling with --parallel gives the same output, and reports
+ * the same error, as compiling one function at a time.
+ */
+public class ParallelCompileTest {
+
+	private static void testSameOutput(Path directory) throws Exception {
+		var source = new ProgramGenerator.Builder()
+			.withFunctionCount(200)
+			.withSeed(7)
+			.build()
+			.generate();
+
+		String[][] optionSets = {
+			{ "--classfile" },
+			{ "--classfile", "-O" },
+			{ "--classfile", "--indy-concat" },
+			{},
+			{ "-O", "--ir-comments" },
+		};
+		for (var options : optionSets) {
+			String extension = Arrays.asList(options).contains("--classfile") ? ".class" : ".j";
+
+			var parallelOptions = Arrays.copyOf(options, options.length + 1);
+			parallelOptions[options.length] = "--parallel";
+
+			assert TestUtils.compile(directory, "Sequential", source, options).startsWith("0\n");
+			assert TestUtils.compile(directory, "Concurrent", source, parallelOptions).startsWith("0\n");
+
+			// The class names, which have the same length, are the only
+			// difference between the two outputs.
+			var sequential = new String(Files.readAllBytes(directory.resolve("Sequential" + extension)), "ISO-8859-1");
+			var concurrent = new String(Files.readAllBytes(directory.resolve("Concurrent" + extension)), "ISO-8859-1");
+			assert sequential.replace("Sequential", "Concurrent").equals(concurrent) : Arrays.toString(options);
+		}
+	}
+
+	private static Program parse(String source) throws Exception {
+		var lexer = new UnnamedLanguageLexer(new ANTLRStringStream(source));
+		return new UnnamedLanguageParser(new CommonTokenStream(lexer)).program();
+	}
+
+	private static void testSameIr() throws Exception {
+		var program = parse(new ProgramGenerator.Builder().withFunctionCount(300).build().generate());
+		String expected = new IRAstVisitor().buildIRProgram(program, "Ir").toString();
+
+		for (int i = 0; i < 5; ++i) {
+			var visitor = new IRAstVisitor();
+			visitor.setExecutor(ForkJoinPool.commonPool());
+			assert visitor.buildIRProgram(program, "Ir").toString().equals(expected);
+		}
+	}
+
+	private static void testFirstErrorReported(Path directory) throws Exception {
+		// Several functions have errors, and the one reported must be the
+		// first in the program, in f3 on line 14, however the checks are
+		// scheduled.
+		var source = new StringBuilder();
+		for (int i = 0; i < 100; ++i) {
+			source.append("int f").append(i).append("(int x) {\n");
+			if (i % 10 == 3) {
+				source.append("\treturn x + \"").append(i).append("\";\n");
+			}
+			else {
+				source.append("\treturn x + ").append(i).append(";\n");
+			}
+			source.append("}\n\n");
+		}
+		source.append("void main() {\n\tprintln f99(1);\n}\n");
+
+		String expected = TestUtils.compile(directory, "Errors", source.toString());
+		assert expected.startsWith("1\n") && expected.contains(" 14:") : expected;
+		for (int i = 0; i < 10; ++i) {
+			String actual = TestUtils.compile(directory, "Errors", source.toString(), "--parallel");
+			assert actual.equals(expected) : actual;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestUtils.startTestRun("ParallelCompile");
+
+		var directory = Files.createTempDirectory("parallel-compile-test");
+		try {
+			testSameOutput(directory);
+			testSameIr();
+			testFirstErrorReported(directory);
+		}
+		finally {
+			TestUtils.deleteRecursively(directory);
+		}
+
+		TestUtils.finishTestRun(true);
+	}
+}
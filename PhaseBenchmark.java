@@ -0,0 +1,347 @@
+import ast.*;
+import codegen.*;
+import common.TestUtils;
+import ir.*;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+import org.antlr.runtime.*;
+import semantic.*;
+
+/*
+ * Measures each phase of the compiler separately, in the style of JMH, over
+ * synthetic programs of several shapes. Each phase is run repeatedly on the
+ * output of the previous phases, which is computed once beforehand. For
+ * every shape and phase, the throughput and the allocation rate (measured
+ * with the ThreadMXBean of the benchmark thread) are reported.
+ *
+ * Run with: java PhaseBenchmark [-wi warmup iterations] [-i iterations]
+ *                               [-r milliseconds per iteration] [-s scale]
+ *                               [regex matching shape.phase...]
+ */
+public class PhaseBenchmark {
+
+	/**
+	 * A compiler phase, run on the output of the previous phases.
+	 */
+	interface Phase {
+		Object run(Inputs inputs) throws Exception;
+	}
+
+	/**
+	 * The source of a program, and the output of each phase for it.
+	 */
+	static class Inputs {
+		final String name;
+		final String source;
+		final List<Token> tokens;
+		final Program ast;
+		final IRProgram ir;
+		final IRProgram coalescedIr;
+		final File outputDirectory;
+
+		Inputs(String name, String source, File outputDirectory) throws Exception {
+			this.name = name;
+			this.source = source;
+			this.outputDirectory = outputDirectory;
+			tokens = lex(this);
+			ast = parse(this);
+			new TypeCheckVisitor().visit(ast);
+			ir = new IRAstVisitor().buildIRProgram(ast, name);
+			coalescedIr = TempCoalescer.coalesce(ir);
+		}
+	}
+
+	/**
+	 * Replays the tokens produced by an earlier run of the lexer, so that the
+	 * parser can be measured on its own.
+	 */
+	private static class ReplayTokenSource implements TokenSource {
+		private final List<Token> tokens;
+		private int next;
+
+		ReplayTokenSource(List<Token> tokens) {
+			this.tokens = tokens;
+			next = 0;
+		}
+
+		public Token nextToken() {
+			return tokens.get(Math.min(next++, tokens.size() - 1));
+		}
+
+		public String getSourceName() {
+			return "replay";
+		}
+	}
+
+	static final Map<String, Phase> PHASES = new LinkedHashMap<String, Phase>();
+	static {
+		PHASES.put("lex", PhaseBenchmark::lex);
+		PHASES.put("parse", PhaseBenchmark::parse);
+		PHASES.put("typecheck", inputs -> new TypeCheckVisitor().visit(inputs.ast));
+		// The allocations of the pool's threads are not measured by the
+		// parallel phases.
+		PHASES.put("typecheck-par", inputs -> {
+			var visitor = new TypeCheckVisitor();
+			visitor.setExecutor(ForkJoinPool.commonPool());
+			return visitor.visit(inputs.ast);
+		});
+		PHASES.put("irgen", inputs -> new IRAstVisitor().buildIRProgram(inputs.ast, inputs.name));
+		PHASES.put("irgen-par", inputs -> {
+			var visitor = new IRAstVisitor();
+			visitor.setExecutor(ForkJoinPool.commonPool());
+			return visitor.buildIRProgram(inputs.ast, inputs.name);
+		});
+		PHASES.put("fold", inputs -> new ConstantFolder().fold(inputs.ir));
+		PHASES.put("dce", inputs -> new DeadCodeEliminator().eliminate(inputs.ir));
+		PHASES.put("coalesce", inputs -> TempCoalescer.coalesce(inputs.ir));
+		PHASES.put("jasmin", inputs -> new JasminVisitor(inputs.outputDirectory).visit(inputs.coalescedIr));
+		PHASES.put("classfile", inputs -> new BytecodeVisitor(inputs.outputDirectory).visit(inputs.coalescedIr));
+		PHASES.put("jasmin-par", inputs -> {
+			var visitor = new JasminVisitor(inputs.outputDirectory);
+			visitor.setExecutor(ForkJoinPool.commonPool());
+			return visitor.visit(inputs.coalescedIr);
+		});
+		PHASES.put("classfile-par", inputs -> {
+			var visitor = new BytecodeVisitor(inputs.outputDirectory);
+			visitor.setExecutor(ForkJoinPool.commonPool());
+			return visitor.visit(inputs.coalescedIr);
+		});
+	}
+
+	// Stops the JIT from optimizing away the result of a phase.
+	private static volatile Object sink;
+
+	private static List<Token> lex(Inputs inputs) {
+		var lexer = new UnnamedLanguageLexer(new ANTLRStringStream(inputs.source));
+		var tokens = new ArrayList<Token>();
+
+		Token token;
+		do {
+			token = lexer.nextToken();
+			tokens.add(token);
+		} while (token.getType() != Token.EOF);
+
+		return tokens;
+	}
+
+	private static Program parse(Inputs inputs) throws RecognitionException {
+		var parser = new UnnamedLanguageParser(new CommonTokenStream(new ReplayTokenSource(inputs.tokens)));
+		return parser.program();
+	}
+
+	/*
+	 * The synthetic programs. Each is valid UL, and grows with the scale.
+	 */
+
+	/**
+	 * Alternately nested if and while statements.
+	 */
+	private static String deepNesting(int scale) {
+		int depth = 20 * scale;
+		var source = new StringBuilder("void main() {\n\tint i;\n\ti = 0;\n");
+
+		for (int level = 0; level < depth; ++level) {
+			source.append(level % 2 == 0 ? "\tif (i < " : "\twhile (i < ").append(level + 1).append(") {\n");
+			source.append("\t\ti = i + 1;\n");
+		}
+		source.append("\tprintln i;\n");
+		for (int level = depth - 1; level >= 0; --level) {
+			source.append(level % 2 == 0 ? "\t} else {\n\t\tprintln i;\n\t}\n" : "\t}\n");
+		}
+
+		return source.append("}\n").toString();
+	}
+
+	/**
+	 * Functions which each call the previous one.
+	 */
+	private static String manyFunctions(int scale) {
+		int count = 100 * scale;
+		var source = new StringBuilder();
+
+		source.append("int f0(int a, float b) {\n\treturn a;\n}\n\n");
+		for (int f = 1; f < count; ++f) {
+			source.append("int f").append(f).append("(int a, float b) {\n")
+				.append("\tint x;\n")
+				.append("\tx = a * 2 + ").append(f).append(";\n")
+				.append("\tif (x < 10) {\n\t\treturn x;\n\t}\n")
+				.append("\treturn f").append(f - 1).append("(x - 1, b * 0.5);\n")
+				.append("}\n\n");
+		}
+
+		source.append("void main() {\n\tprintln f").append(count - 1).append("(3, 1.0);\n}\n");
+		return source.toString();
+	}
+
+	/**
+	 * Long arithmetic and boolean expressions. They are split among several
+	 * functions, since a JVM method can only hold 64K of bytecode.
+	 */
+	private static String longExpressions(int scale) {
+		int statements = 10 * scale;
+		int statementsPerFunction = 10;
+		int terms = 100;
+		var source = new StringBuilder();
+
+		int functionCount = (statements + statementsPerFunction - 1) / statementsPerFunction;
+		for (int f = 0; f < functionCount; ++f) {
+			source.append("int e").append(f).append("(int x, int y) {\n\tboolean b;\n");
+			for (int s = f * statementsPerFunction; s < Math.min(statements, (f + 1) * statementsPerFunction); ++s) {
+				source.append("\tx = x");
+				for (int t = 0; t < terms; ++t) {
+					source.append(t % 3 == 0 ? " + y * " : t % 3 == 1 ? " - x * " : " + ").append(t);
+				}
+				source.append(";\n\tb = x < y == (y < ").append(s).append(");\n");
+			}
+			source.append("\tprintln b;\n\treturn x;\n}\n\n");
+		}
+
+		source.append("void main() {\n\tint x;\n\tx = 1;\n");
+		for (int f = 0; f < functionCount; ++f) {
+			source.append("\tx = e").append(f).append("(x, 2);\n");
+		}
+		return source.append("\tprintln x;\n}\n").toString();
+	}
+
+	/**
+	 * Many long string literals, concatenated and printed.
+	 */
+	private static String hugeLiterals(int scale) {
+		int count = 20 * scale;
+		var literal = "abcdefghijklmnopqrstuvwxyz0123456789 ".repeat(30);
+		var source = new StringBuilder("void main() {\n\tstring s;\n");
+
+		for (int i = 0; i < count; ++i) {
+			source.append("\ts = \"").append(literal).append(i).append("\" + \"").append(literal).append("\";\n");
+			source.append("\tprintln s;\n");
+		}
+
+		return source.append("}\n").toString();
+	}
+
+	/*
+	 * The measurement.
+	 */
+
+	private static long allocatedBytes() {
+		var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return threads.getCurrentThreadAllocatedBytes();
+	}
+
+	/**
+	 * Runs the phase until the given time has passed, and returns the number
+	 * of times it was run.
+	 */
+	private static long runIteration(Phase phase, Inputs inputs, long nanos) throws Exception {
+		long operations = 0;
+		long start = System.nanoTime();
+		do {
+			sink = phase.run(inputs);
+			++operations;
+		} while (System.nanoTime() - start < nanos);
+		return operations;
+	}
+
+	private static void measure(String shape, String phaseName, Phase phase, Inputs inputs,
+			int warmupIterations, int iterations, long iterationNanos) throws Exception {
+		for (int i = 0; i < warmupIterations; ++i) {
+			runIteration(phase, inputs, iterationNanos);
+		}
+
+		double[] throughputs = new double[iterations];
+		long totalOperations = 0;
+		long totalNanos = 0;
+		long totalBytes = 0;
+		for (int i = 0; i < iterations; ++i) {
+			long bytesBefore = allocatedBytes();
+			long start = System.nanoTime();
+			long operations = runIteration(phase, inputs, iterationNanos);
+			long elapsed = System.nanoTime() - start;
+			totalBytes += allocatedBytes() - bytesBefore;
+
+			throughputs[i] = operations * 1e9 / elapsed;
+			totalOperations += operations;
+			totalNanos += elapsed;
+		}
+
+		double mean = 0;
+		for (double throughput : throughputs) {
+			mean += throughput / iterations;
+		}
+		double variance = 0;
+		for (double throughput : throughputs) {
+			variance += (throughput - mean) * (throughput - mean) / Math.max(1, iterations - 1);
+		}
+
+		System.out.println(String.format("%-12s %-13s %12.1f %10.1f %12.1f %14d %10.1f",
+			shape,
+			phaseName,
+			mean,
+			Math.sqrt(variance),
+			totalNanos / 1e3 / totalOperations,
+			totalBytes / totalOperations,
+			totalBytes / 1e6 / (totalNanos / 1e9)));
+	}
+
+	public static void main(String[] args) throws Exception {
+		int warmupIterations = 3;
+		int iterations = 5;
+		long iterationMillis = 200;
+		int scale = 5;
+		var filters = new ArrayList<Pattern>();
+
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-wi") && i + 1 < args.length) {
+				warmupIterations = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-i") && i + 1 < args.length) {
+				iterations = Math.max(1, Integer.parseInt(args[++i]));
+			}
+			else if (args[i].equals("-r") && i + 1 < args.length) {
+				iterationMillis = Long.parseLong(args[++i]);
+			}
+			else if (args[i].equals("-s") && i + 1 < args.length) {
+				scale = Math.max(1, Integer.parseInt(args[++i]));
+			}
+			else {
+				filters.add(Pattern.compile(args[i]));
+			}
+		}
+
+		var shapes = new LinkedHashMap<String, String>();
+		shapes.put("nesting", deepNesting(scale));
+		shapes.put("functions", manyFunctions(scale));
+		shapes.put("expressions", longExpressions(scale));
+		shapes.put("literals", hugeLiterals(scale));
+
+		var outputDirectory = Files.createTempDirectory("phase-benchmark");
+		try {
+			System.out.println(String.format("%-12s %-13s %12s %10s %12s %14s %10s",
+				"shape", "phase", "ops/s", "error", "us/op", "alloc B/op", "alloc MB/s"));
+
+			for (var shape : shapes.entrySet()) {
+				var inputs = new Inputs("Bench_" + shape.getKey(), shape.getValue(), outputDirectory.toFile());
+
+				for (var phase : PHASES.entrySet()) {
+					String name = shape.getKey() + "." + phase.getKey();
+					if (!filters.isEmpty() && filters.stream().noneMatch(filter -> filter.matcher(name).find())) {
+						continue;
+					}
+
+					measure(shape.getKey(), phase.getKey(), phase.getValue(), inputs,
+						warmupIterations, iterations, iterationMillis * 1000000);
+				}
+			}
+		}
+		finally {
+			TestUtils.deleteRecursively(outputDirectory);
+		}
+	}
+}
@@ -0,0 +1,594 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Generates large, valid and type correct UL programs for scaling tests.
+ * The programs are made from a seeded random number generator, so the same
+ * seed and parameters always give the same program.
+ *
+ * Each generated function f<k> takes an int depth followed by parameters
+ * of random types, and returns immediately once the depth has run out. It
+ * only calls functions declared before it, always with a smaller depth, so
+ * the programs terminate, and main calls the last few functions with a
+ * small depth and prints what they return. Loops run a small constant
+ * number of times, array elements are only indexed by constants within
+ * the array, and every local variable is assigned before it is used.
+ *
+ * Run with: java ProgramGenerator [-seed n] [-functions n] [-statements n]
+ *                                 [-depth n] [-array n] [-calls n]
+ *                                 [-string n] [filename.ul]
+ * The program is printed if no file name is given.
+ */
+public class ProgramGenerator {
+
+	private enum ValueType {
+		INT("int", "vi", "ai"),
+		FLOAT("float", "vf", "af"),
+		CHAR("char", "vc", null),
+		STRING("string", "vs", "as"),
+		BOOLEAN("boolean", "vb", null);
+
+		final String keyword;
+		// The local variable of this type in every function.
+		final String local;
+		// The local array of this type in every function, if there is one.
+		final String array;
+
+		ValueType(String keyword, String local, String array) {
+			this.keyword = keyword;
+			this.local = local;
+			this.array = array;
+		}
+	}
+
+	// The characters which may appear in string and character literals.
+	private static final String LITERAL_CHARACTERS =
+		"abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789!_,.:{} ";
+
+	// The largest number of statements in the body of an if or while.
+	private static final int MAX_BLOCK_STATEMENTS = 3;
+	private static final int MAX_NESTING = 2;
+	private static final int MAX_LOOP_ITERATIONS = 3;
+	private static final int MAX_PARAMETERS = 3;
+
+	// The depth passed by main, which bounds how deep the calls go.
+	private static final int MAIN_DEPTH = 2;
+	private static final int MAIN_CALLS = 3;
+
+	private final long seed;
+	private final int functionCount;
+	private final int statementsPerFunction;
+	private final int expressionDepth;
+	private final int arraySize;
+	private final int callFanOut;
+	private final int stringLiteralLength;
+
+	/**
+	 * The signature of a generated function.
+	 */
+	private static class Signature {
+		final String name;
+		// Null for a void function.
+		final ValueType returnType;
+		final List<ValueType> parameterTypes = new ArrayList<ValueType>();
+		// Whether the last parameter is an int array.
+		boolean takesArray;
+
+		Signature(String name, ValueType returnType) {
+			this.name = name;
+			this.returnType = returnType;
+		}
+	}
+
+	/**
+	 * The state used while generating one function.
+	 */
+	private class FunctionWriter {
+		final StringBuilder source;
+		final Random random;
+		final Signature signature;
+		final List<Signature> callees;
+		int remainingStatements;
+
+		FunctionWriter(StringBuilder source, Random random, Signature signature, List<Signature> callees) {
+			this.source = source;
+			this.random = random;
+			this.signature = signature;
+			this.callees = callees;
+		}
+
+		void indent(int nesting) {
+			for (int i = 0; i <= nesting; ++i) {
+				source.append('\t');
+			}
+		}
+
+		/**
+		 * Returns the variables and array elements of the given type which
+		 * may be read in the body of the function.
+		 */
+		List<String> variables(ValueType type) {
+			var variables = new ArrayList<String>();
+			variables.add(type.local);
+			for (int i = 0; i < signature.parameterTypes.size(); ++i) {
+				if (signature.parameterTypes.get(i) == type) {
+					variables.add("p" + i);
+				}
+			}
+			if (type.array != null) {
+				variables.add(type.array + "[" + random.nextInt(arraySize) + "]");
+			}
+			if (type == ValueType.INT && signature.takesArray) {
+				variables.add("pa[" + random.nextInt(arraySize) + "]");
+			}
+			return variables;
+		}
+
+		/**
+		 * Appends an expression of the given type with at most the given
+		 * depth of operators. Binary operations are always parenthesized
+		 * when they are nested, since their operand types differ from their
+		 * result types.
+		 */
+		void expression(ValueType type, int depth, boolean isNested) {
+			if (depth == 0 || random.nextInt(5) == 0) {
+				leaf(type);
+				return;
+			}
+
+			switch (type) {
+			case INT:
+			case FLOAT:
+				binary(type, "+-*".charAt(random.nextInt(3)) + "", depth, isNested);
+				break;
+			case STRING:
+				binary(type, "+", depth, isNested);
+				break;
+			case BOOLEAN:
+				var operandType = randomType();
+				binary(operandType, random.nextBoolean() && operandType != ValueType.BOOLEAN ? "<" : "==",
+					depth, isNested);
+				break;
+			default:
+				// There are no operations on characters which keep them
+				// printable, so they are always leaves.
+				leaf(type);
+			}
+		}
+
+		void binary(ValueType operandType, String operator, int depth, boolean isNested) {
+			if (isNested) {
+				source.append('(');
+			}
+			expression(operandType, depth - 1, true);
+			source.append(' ').append(operator).append(' ');
+			expression(operandType, depth - 1, true);
+			if (isNested) {
+				source.append(')');
+			}
+		}
+
+		void leaf(ValueType type) {
+			// Strings are built only from literals and array elements, which
+			// are themselves assigned only literals, so that they cannot grow
+			// without bound in loops.
+			if (type == ValueType.STRING) {
+				if (random.nextBoolean()) {
+					source.append("as[").append(random.nextInt(arraySize)).append(']');
+				}
+				else {
+					literal(type);
+				}
+				return;
+			}
+
+			if (random.nextInt(3) == 0) {
+				literal(type);
+			}
+			else {
+				var variables = variables(type);
+				source.append(variables.get(random.nextInt(variables.size())));
+			}
+		}
+
+		void literal(ValueType type) {
+			switch (type) {
+			case INT:
+				source.append(random.nextInt(1000));
+				break;
+			case FLOAT:
+				source.append(random.nextInt(100)).append('.').append(random.nextInt(100));
+				break;
+			case CHAR:
+				source.append('\'').append(literalCharacter(random)).append('\'');
+				break;
+			case STRING:
+				source.append('"');
+				for (int i = 0; i < stringLiteralLength; ++i) {
+					source.append(literalCharacter(random));
+				}
+				source.append('"');
+				break;
+			case BOOLEAN:
+				source.append(random.nextBoolean());
+				break;
+			}
+		}
+
+		ValueType randomType() {
+			return ValueType.values()[random.nextInt(ValueType.values().length)];
+		}
+
+		/**
+		 * Appends statements until the statements of the function run out
+		 * or the given number have been appended.
+		 */
+		void statements(int count, int nesting) {
+			for (int i = 0; i < count && remainingStatements > 0; ++i) {
+				--remainingStatements;
+				statement(nesting);
+			}
+		}
+
+		void statement(int nesting) {
+			int choice = random.nextInt(nesting < MAX_NESTING ? 8 : 6);
+			indent(nesting);
+
+			switch (choice) {
+			case 0:
+			case 1: {
+				var type = randomType();
+				source.append(type.local).append(" = ");
+				expression(type, expressionDepth, false);
+				source.append(";\n");
+				break;
+			}
+			case 2: {
+				var types = new ValueType[] { ValueType.INT, ValueType.FLOAT, ValueType.STRING };
+				var type = types[random.nextInt(types.length)];
+				source.append(type.array).append('[').append(random.nextInt(arraySize)).append("] = ");
+				if (type == ValueType.STRING) {
+					literal(type);
+				}
+				else {
+					expression(type, expressionDepth, false);
+				}
+				source.append(";\n");
+				break;
+			}
+			case 3:
+			case 4: {
+				source.append(random.nextBoolean() ? "print " : "println ");
+				expression(randomType(), expressionDepth, false);
+				source.append(";\n");
+				break;
+			}
+			case 5:
+				source.append(ValueType.INT.local).append(" = ").append(ValueType.INT.local).append(" + 1;\n");
+				break;
+			case 6: {
+				source.append("if (");
+				expression(ValueType.BOOLEAN, Math.max(1, expressionDepth), false);
+				source.append(") {\n");
+				statements(1 + random.nextInt(MAX_BLOCK_STATEMENTS), nesting + 1);
+				indent(nesting);
+				if (random.nextBoolean()) {
+					source.append("} else {\n");
+					statements(1 + random.nextInt(MAX_BLOCK_STATEMENTS), nesting + 1);
+					indent(nesting);
+				}
+				source.append("}\n");
+				break;
+			}
+			case 7: {
+				// Each level of nesting has its own loop counter, which no
+				// other statement assigns.
+				var counter = "loop" + nesting;
+				source.append(counter).append(" = 0;\n");
+				indent(nesting);
+				source.append("while (").append(counter).append(" < ")
+					.append(1 + random.nextInt(MAX_LOOP_ITERATIONS)).append(") {\n");
+				statements(1 + random.nextInt(MAX_BLOCK_STATEMENTS), nesting + 1);
+				indent(nesting + 1);
+				source.append(counter).append(" = ").append(counter).append(" + 1;\n");
+				indent(nesting);
+				source.append("}\n");
+				break;
+			}
+			}
+		}
+
+		/**
+		 * Appends a call to the given function, which assigns its result to
+		 * the local of its return type.
+		 */
+		void call(Signature callee, String depth) {
+			indent(0);
+			if (callee.returnType != null) {
+				source.append(callee.returnType.local).append(" = ");
+			}
+			source.append(callee.name).append('(').append(depth);
+			for (var type : callee.parameterTypes) {
+				source.append(", ");
+				expression(type, Math.min(1, expressionDepth), false);
+			}
+			if (callee.takesArray) {
+				source.append(", ").append(ValueType.INT.array);
+			}
+			source.append(");\n");
+		}
+
+		void declarations() {
+			for (var type : ValueType.values()) {
+				indent(0);
+				source.append(type.keyword).append(' ').append(type.local).append(";\n");
+			}
+			for (var type : ValueType.values()) {
+				if (type.array != null) {
+					indent(0);
+					source.append(type.keyword).append('[').append(arraySize).append("] ")
+						.append(type.array).append(";\n");
+				}
+			}
+			for (int nesting = 0; nesting < MAX_NESTING; ++nesting) {
+				indent(0);
+				source.append("int loop").append(nesting).append(";\n");
+			}
+		}
+
+		/**
+		 * Assigns every local variable, and every element of the string
+		 * array, since they would otherwise be null.
+		 */
+		void initializations() {
+			for (var type : ValueType.values()) {
+				indent(0);
+				source.append(type.local).append(" = ");
+				literal(type);
+				source.append(";\n");
+			}
+
+			indent(0);
+			source.append("loop0 = 0;\n");
+			indent(0);
+			source.append("while (loop0 < ").append(arraySize).append(") {\n");
+			indent(1);
+			source.append(ValueType.STRING.array).append("[loop0] = ");
+			literal(ValueType.STRING);
+			source.append(";\n");
+			indent(1);
+			source.append("loop0 = loop0 + 1;\n");
+			indent(0);
+			source.append("}\n");
+		}
+
+		void function() {
+			source.append(signature.returnType == null ? "void" : signature.returnType.keyword)
+				.append(' ').append(signature.name).append("(int depth");
+			for (int i = 0; i < signature.parameterTypes.size(); ++i) {
+				source.append(", ").append(signature.parameterTypes.get(i).keyword).append(" p").append(i);
+			}
+			if (signature.takesArray) {
+				source.append(", int[").append(arraySize).append("] pa");
+			}
+			source.append(") {\n");
+
+			declarations();
+			initializations();
+			depthGuard();
+
+			// The calls are spread among the other statements.
+			remainingStatements = statementsPerFunction;
+			int callsLeft = callees.size();
+			while (remainingStatements > 0 || callsLeft > 0) {
+				if (callsLeft > 0 && (remainingStatements == 0 || random.nextInt(remainingStatements + callsLeft) < callsLeft)) {
+					call(callees.get(callees.size() - callsLeft), "depth - 1");
+					--callsLeft;
+				}
+				else {
+					statements(1, 0);
+				}
+			}
+
+			returnStatement();
+			source.append("}\n\n");
+		}
+
+		/**
+		 * Returns a literal from the function once the depth has run out.
+		 */
+		void depthGuard() {
+			indent(0);
+			source.append("if (depth < 1) {\n");
+			indent(1);
+			source.append("return");
+			if (signature.returnType != null) {
+				source.append(' ');
+				literal(signature.returnType);
+			}
+			source.append(";\n");
+			indent(0);
+			source.append("}\n");
+		}
+
+		void returnStatement() {
+			indent(0);
+			source.append("return");
+			if (signature.returnType != null) {
+				source.append(' ');
+				expression(signature.returnType, expressionDepth, false);
+			}
+			source.append(";\n");
+		}
+
+		void main() {
+			source.append("void main() {\n");
+			declarations();
+			initializations();
+			for (var callee : callees) {
+				call(callee, Integer.toString(MAIN_DEPTH));
+				if (callee.returnType != null) {
+					indent(0);
+					source.append("println ").append(callee.returnType.local).append(";\n");
+				}
+			}
+			source.append("}\n");
+		}
+	}
+
+	public static class Builder {
+		private long seed = 0;
+		private int functionCount = 10;
+		private int statementsPerFunction = 10;
+		private int expressionDepth = 3;
+		private int arraySize = 8;
+		private int callFanOut = 2;
+		private int stringLiteralLength = 8;
+
+		public Builder withSeed(long seed) {
+			this.seed = seed;
+			return this;
+		}
+
+		public Builder withFunctionCount(int functionCount) {
+			this.functionCount = functionCount;
+			return this;
+		}
+
+		public Builder withStatementsPerFunction(int statementsPerFunction) {
+			this.statementsPerFunction = statementsPerFunction;
+			return this;
+		}
+
+		public Builder withExpressionDepth(int expressionDepth) {
+			this.expressionDepth = expressionDepth;
+			return this;
+		}
+
+		public Builder withArraySize(int arraySize) {
+			this.arraySize = arraySize;
+			return this;
+		}
+
+		public Builder withCallFanOut(int callFanOut) {
+			this.callFanOut = callFanOut;
+			return this;
+		}
+
+		public Builder withStringLiteralLength(int stringLiteralLength) {
+			this.stringLiteralLength = stringLiteralLength;
+			return this;
+		}
+
+		public ProgramGenerator build() {
+			if (functionCount < 1 || statementsPerFunction < 0 || expressionDepth < 0
+					|| arraySize < 1 || callFanOut < 0 || stringLiteralLength < 1) {
+				throw new IllegalArgumentException("Invalid program generator parameters");
+			}
+			return new ProgramGenerator(this);
+		}
+	}
+
+	private ProgramGenerator(Builder builder) {
+		seed = builder.seed;
+		functionCount = builder.functionCount;
+		statementsPerFunction = builder.statementsPerFunction;
+		expressionDepth = builder.expressionDepth;
+		arraySize = builder.arraySize;
+		callFanOut = builder.callFanOut;
+		stringLiteralLength = builder.stringLiteralLength;
+	}
+
+	private static char literalCharacter(Random random) {
+		return LITERAL_CHARACTERS.charAt(random.nextInt(LITERAL_CHARACTERS.length()));
+	}
+
+	/**
+	 * Returns the source of the program.
+	 */
+	public String generate() {
+		var random = new Random(seed);
+		var source = new StringBuilder();
+		var signatures = new ArrayList<Signature>();
+
+		for (int k = 0; k < functionCount; ++k) {
+			int returnType = random.nextInt(ValueType.values().length + 1);
+			var signature = new Signature("f" + k,
+				returnType == ValueType.values().length ? null : ValueType.values()[returnType]);
+			int parameterCount = random.nextInt(MAX_PARAMETERS + 1);
+			for (int i = 0; i < parameterCount; ++i) {
+				signature.parameterTypes.add(ValueType.values()[random.nextInt(ValueType.values().length)]);
+			}
+			signature.takesArray = random.nextInt(4) == 0;
+
+			// Functions only call those declared before them, so the first
+			// makes no calls.
+			var callees = new ArrayList<Signature>();
+			for (int i = 0; i < callFanOut && k > 0; ++i) {
+				callees.add(signatures.get(random.nextInt(k)));
+			}
+
+			new FunctionWriter(source, random, signature, callees).function();
+			signatures.add(signature);
+		}
+
+		var mainCallees = signatures.subList(Math.max(0, functionCount - MAIN_CALLS), functionCount);
+		new FunctionWriter(source, random, new Signature("main", null), mainCallees).main();
+
+		return source.toString();
+	}
+
+	public static void main(String[] args) throws IOException {
+		var builder = new Builder();
+		String fileName = null;
+
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].startsWith("-") && i + 1 < args.length) {
+				var option = args[i];
+				int value = Integer.parseInt(args[++i]);
+				switch (option) {
+				case "-seed":
+					builder.withSeed(value);
+					break;
+				case "-functions":
+					builder.withFunctionCount(value);
+					break;
+				case "-statements":
+					builder.withStatementsPerFunction(value);
+					break;
+				case "-depth":
+					builder.withExpressionDepth(value);
+					break;
+				case "-array":
+					builder.withArraySize(value);
+					break;
+				case "-calls":
+					builder.withCallFanOut(value);
+					break;
+				case "-string":
+					builder.withStringLiteralLength(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			}
+			else {
+				fileName = args[i];
+			}
+		}
+
+		var program = builder.build().generate();
+		if (fileName == null) {
+			System.out.print(program);
+		}
+		else {
+			try (Writer writer = new FileWriter(fileName)) {
+				writer.write(program);
+			}
+		}
+	}
+}
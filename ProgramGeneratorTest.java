@@ -0,0 +1,115 @@
+import common.TestUtils;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.regex.Pattern;
+
+/*
+ * Tests that the programs made by ProgramGenerator are deterministic, and
+ * that they compile and run, with the same output with and without
+ * optimization.
+ */
+public class ProgramGeneratorTest {
+
+	/**
+	 * Compiles the program to a class file in the given directory, runs it,
+	 * and returns what it printed.
+	 */
+	private static String compileAndRun(String source, String name, File directory, boolean optimize) throws Exception {
+		Files.writeString(directory.toPath().resolve(name + ".ul"), source);
+
+		var compilerOutput = new ByteArrayOutputStream();
+		var compilerStream = new PrintStream(compilerOutput, true);
+		String[] args = optimize
+			? new String[] { "--classfile", "-O", name + ".ul" }
+			: new String[] { "--classfile", name + ".ul" };
+		int status = Compiler.compile(args, directory, compilerStream, compilerStream);
+		assert status == 0 : name + " did not compile: " + compilerOutput;
+
+		var programOutput = new ByteArrayOutputStream();
+		var out = System.out;
+		try (var loader = new URLClassLoader(new URL[] { directory.toURI().toURL() }, null)) {
+			System.setOut(new PrintStream(programOutput, true));
+			loader.loadClass(name).getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+		}
+		finally {
+			System.setOut(out);
+		}
+		return programOutput.toString();
+	}
+
+	private static void testDeterminism() {
+		var builder = new ProgramGenerator.Builder().withFunctionCount(20);
+		String first = builder.withSeed(1).build().generate();
+		assert first.equals(builder.withSeed(1).build().generate());
+		assert !first.equals(builder.withSeed(2).build().generate());
+	}
+
+	private static void testParameters() {
+		var small = new ProgramGenerator.Builder().withFunctionCount(5).build().generate();
+		var large = new ProgramGenerator.Builder().withFunctionCount(50).build().generate();
+		assert large.length() > 5 * small.length();
+		assert large.contains("f49(") && !large.contains("f50(");
+
+		var longStrings = new ProgramGenerator.Builder().withStringLiteralLength(100).build().generate();
+		var literals = Pattern.compile("\"([^\"]*)\"").matcher(longStrings);
+		int literalCount = 0;
+		while (literals.find()) {
+			assert literals.group(1).length() == 100;
+			++literalCount;
+		}
+		assert literalCount > 0;
+
+		var bigArrays = new ProgramGenerator.Builder().withArraySize(1000).build().generate();
+		assert bigArrays.contains("int[1000] ai;");
+
+		try {
+			new ProgramGenerator.Builder().withFunctionCount(0).build();
+			assert false : "No functions should be rejected";
+		}
+		catch (IllegalArgumentException e) {
+			// This is expected.
+		}
+	}
+
+	private static void testCompiles(File directory) throws Exception {
+		ProgramGenerator.Builder[] builders = {
+			new ProgramGenerator.Builder(),
+			new ProgramGenerator.Builder().withFunctionCount(1).withCallFanOut(0),
+			new ProgramGenerator.Builder().withFunctionCount(40).withStatementsPerFunction(30).withCallFanOut(4),
+			new ProgramGenerator.Builder().withExpressionDepth(0).withArraySize(1).withStringLiteralLength(1),
+			new ProgramGenerator.Builder().withExpressionDepth(6).withStringLiteralLength(200),
+			new ProgramGenerator.Builder().withStatementsPerFunction(0),
+		};
+
+		for (int i = 0; i < builders.length; ++i) {
+			for (long seed = 0; seed < 3; ++seed) {
+				var source = builders[i].withSeed(seed).build().generate();
+				var name = "Generated" + i + "_" + seed;
+				String output = compileAndRun(source, name, directory, false);
+				String optimizedOutput = compileAndRun(source, name + "_O", directory, true);
+				assert output.equals(optimizedOutput) : name;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestUtils.startTestRun("ProgramGenerator");
+
+		testDeterminism();
+		testParameters();
+
+		var directory = Files.createTempDirectory("program-generator-test");
+		try {
+			testCompiles(directory.toFile());
+		}
+		finally {
+			TestUtils.deleteRecursively(directory);
+		}
+
+		TestUtils.finishTestRun(true);
+	}
+}
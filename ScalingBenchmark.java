@@ -0,0 +1,218 @@
+import common.TestUtils;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Measures how the time and memory taken by each phase of the compiler grow
+ * with the size of the program. Programs from ProgramGenerator with a
+ * doubling number of functions are compiled phase by phase, as in
+ * PhaseBenchmark, and for each size and phase the fastest time, the bytes
+ * allocated and the heap retained by the result are reported. A text plot
+ * of each phase shows whether it scales linearly.
+ *
+ * Run with: java ScalingBenchmark [-min functions] [-max functions]
+ *                                 [-statements n] [-depth n] [-runs n]
+ *                                 [-seed n] [-csv filename]
+ */
+public class ScalingBenchmark {
+
+	private static final int PLOT_WIDTH = 50;
+
+	// The number of times each phase is run on the smallest program before
+	// anything is measured, so that the smallest sizes are not measured
+	// while the JIT is still compiling the compiler.
+	private static final int WARMUP_RUNS = 20;
+
+	// Stops the JIT from optimizing away the result of a phase.
+	private static volatile Object sink;
+
+	/**
+	 * The measurements of one phase for one program size.
+	 */
+	private static class Result {
+		final int functionCount;
+		final int sourceLength;
+		final String phase;
+		final double millis;
+		final long allocatedBytes;
+		final long retainedBytes;
+
+		Result(int functionCount, int sourceLength, String phase, double millis, long allocatedBytes, long retainedBytes) {
+			this.functionCount = functionCount;
+			this.sourceLength = sourceLength;
+			this.phase = phase;
+			this.millis = millis;
+			this.allocatedBytes = allocatedBytes;
+			this.retainedBytes = retainedBytes;
+		}
+	}
+
+	private static long allocatedBytes() {
+		var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return threads.getCurrentThreadAllocatedBytes();
+	}
+
+	/**
+	 * Returns the heap in use after a full collection. This is only an
+	 * estimate, since System.gc() is a request.
+	 */
+	private static long usedHeap() {
+		for (int i = 0; i < 2; ++i) {
+			System.gc();
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static Result measure(int functionCount, PhaseBenchmark.Inputs inputs, String name,
+			PhaseBenchmark.Phase phase, int runs) throws Exception {
+		// Warm up, and measure the heap kept alive by the phase's result by
+		// how much is freed when it is released.
+		sink = phase.run(inputs);
+		long heapWithResult = usedHeap();
+		sink = null;
+		long retainedBytes = Math.max(0, heapWithResult - usedHeap());
+
+		long bestNanos = Long.MAX_VALUE;
+		long totalBytes = 0;
+		for (int i = 0; i < runs; ++i) {
+			long bytesBefore = allocatedBytes();
+			long start = System.nanoTime();
+			sink = phase.run(inputs);
+			bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+			totalBytes += allocatedBytes() - bytesBefore;
+		}
+
+		return new Result(functionCount, inputs.source.length(), name, bestNanos / 1e6, totalBytes / runs, retainedBytes);
+	}
+
+	private static String generate(long seed, int functionCount, int statements, int depth) {
+		return new ProgramGenerator.Builder()
+			.withSeed(seed)
+			.withFunctionCount(functionCount)
+			.withStatementsPerFunction(statements)
+			.withExpressionDepth(depth)
+			.build()
+			.generate();
+	}
+
+	private static String bar(double value, double max) {
+		int length = max > 0 ? (int) Math.round(value / max * PLOT_WIDTH) : 0;
+		return "#".repeat(length);
+	}
+
+	/**
+	 * Prints, for each phase, the time and the bytes allocated per thousand
+	 * characters of source, which stay level if the phase scales linearly,
+	 * and a bar for the time taken.
+	 */
+	private static void plot(List<Result> results) {
+		for (var phase : PhaseBenchmark.PHASES.keySet()) {
+			double maxMillis = 0;
+			for (var result : results) {
+				if (result.phase.equals(phase)) {
+					maxMillis = Math.max(maxMillis, result.millis);
+				}
+			}
+
+			System.out.println();
+			System.out.println(String.format("%-13s %9s %14s %14s", phase, "functions", "ms/kchar", "alloc KB/kchar"));
+			for (var result : results) {
+				if (result.phase.equals(phase)) {
+					double kiloChars = result.sourceLength / 1e3;
+					System.out.println(String.format("%-13s %9d %14.4f %14.1f  %s",
+						"", result.functionCount,
+						result.millis / kiloChars, result.allocatedBytes / 1e3 / kiloChars,
+						bar(result.millis, maxMillis)));
+				}
+			}
+		}
+	}
+
+	private static void writeCsv(List<Result> results, String fileName) throws Exception {
+		try (var writer = new PrintWriter(fileName)) {
+			writer.println("functions,source_chars,phase,ms,alloc_bytes,retained_bytes");
+			for (var result : results) {
+				writer.println(String.format("%d,%d,%s,%.4f,%d,%d", result.functionCount, result.sourceLength,
+					result.phase, result.millis, result.allocatedBytes, result.retainedBytes));
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int minFunctions = 25;
+		int maxFunctions = 800;
+		int statements = 20;
+		int depth = 3;
+		int runs = 5;
+		long seed = 0;
+		String csvFileName = null;
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "-min":
+				minFunctions = Math.max(1, Integer.parseInt(args[i + 1]));
+				break;
+			case "-max":
+				maxFunctions = Integer.parseInt(args[i + 1]);
+				break;
+			case "-statements":
+				statements = Integer.parseInt(args[i + 1]);
+				break;
+			case "-depth":
+				depth = Integer.parseInt(args[i + 1]);
+				break;
+			case "-runs":
+				runs = Math.max(1, Integer.parseInt(args[i + 1]));
+				break;
+			case "-seed":
+				seed = Long.parseLong(args[i + 1]);
+				break;
+			case "-csv":
+				csvFileName = args[i + 1];
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		var results = new ArrayList<Result>();
+		var outputDirectory = Files.createTempDirectory("scaling-benchmark");
+		try {
+			System.out.println(String.format("%9s %12s %-13s %10s %14s %14s",
+				"functions", "source chars", "phase", "ms", "alloc bytes", "retained bytes"));
+
+			var warmupInputs = new PhaseBenchmark.Inputs("Warmup", generate(seed, minFunctions, statements, depth),
+				outputDirectory.toFile());
+			for (var phase : PhaseBenchmark.PHASES.values()) {
+				for (int i = 0; i < WARMUP_RUNS; ++i) {
+					sink = phase.run(warmupInputs);
+				}
+			}
+
+			for (int functionCount = minFunctions; functionCount <= maxFunctions; functionCount *= 2) {
+				var inputs = new PhaseBenchmark.Inputs("Scaling" + functionCount,
+					generate(seed, functionCount, statements, depth), outputDirectory.toFile());
+
+				for (Map.Entry<String, PhaseBenchmark.Phase> phase : PhaseBenchmark.PHASES.entrySet()) {
+					var result = measure(functionCount, inputs, phase.getKey(), phase.getValue(), runs);
+					results.add(result);
+					System.out.println(String.format("%9d %12d %-13s %10.3f %14d %14d",
+						result.functionCount, result.sourceLength, result.phase,
+						result.millis, result.allocatedBytes, result.retainedBytes));
+				}
+			}
+		}
+		finally {
+			TestUtils.deleteRecursively(outputDirectory);
+		}
+
+		plot(results);
+		if (csvFileName != null) {
+			writeCsv(results, csvFileName);
+		}
+	}
+}
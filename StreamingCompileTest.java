@@ -0,0 +1,140 @@
+import common.TestUtils;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/*
+ * Tests that compiling with --streaming gives the same output as compiling
+ * the whole program at once, and that a program with errors is rejected
+ * without leaving a partly written output file.
+ */
+public class StreamingCompileTest {
+
+	private static String[] withStreaming(String[] options) {
+		var streamingOptions = Arrays.copyOf(options, options.length + 1);
+		streamingOptions[options.length] = "--streaming";
+		return streamingOptions;
+	}
+
+	private static void testSameOutput(Path directory) throws Exception {
+		var source = new ProgramGenerator.Builder()
+			.withFunctionCount(100)
+			.withSeed(11)
+			.build()
+			.generate();
+
+		String[][] optionSets = {
+			{},
+			{ "-O", "--ir-comments" },
+			{ "--classfile" },
+			{ "--classfile", "-O", "--indy-concat" },
+			{ "--classfile", "--buffered-output" },
+		};
+		for (var options : optionSets) {
+			String extension = Arrays.asList(options).contains("--classfile") ? ".class" : ".j";
+
+			// The messages printed by -O are also the same.
+			String expected = TestUtils.compile(directory, "Whole", source, options);
+			String actual = TestUtils.compile(directory, "Parts", source, withStreaming(options));
+			assert expected.startsWith("0\n") && actual.equals(expected) : actual;
+
+			// The class names, which have the same length, are the only
+			// difference between the two outputs.
+			var whole = new String(Files.readAllBytes(directory.resolve("Whole" + extension)), "ISO-8859-1");
+			var parts = new String(Files.readAllBytes(directory.resolve("Parts" + extension)), "ISO-8859-1");
+			assert whole.replace("Whole", "Parts").equals(parts) : Arrays.toString(options);
+		}
+
+		// Only the output file is left behind.
+		try (Stream<Path> files = Files.list(directory)) {
+			assert files.noneMatch(file -> file.toString().endsWith(".tmp"));
+		}
+	}
+
+	private static void testSameDiagnostics(Path directory) throws Exception {
+		String[] sources = {
+			// A type error in a function body.
+			"int f(int x) {\n\treturn x + \"1\";\n}\n\nvoid main() {\n\tprintln f(1);\n}\n",
+			// An invalid declaration of a function which is called, with
+			// matching types, before it is declared.
+			"void main() {\n\tg(f());\n}\n\nvoid g(void v) {\n}\n\nvoid f() {\n}\n",
+			// A call to an undefined function.
+			"void main() {\n\tprintln h(1);\n}\n",
+			// Duplicate functions.
+			"void f() {\n}\n\nvoid f() {\n}\n\nvoid main() {\n}\n",
+			// A syntax error in a declaration.
+			"void main() {\n}\n\nint f(int x,) {\n\treturn x;\n}\n",
+			// A syntax error in a body.
+			"void main() {\n\tprintln 1 +;\n}\n",
+			// A stray closing brace, which the parser reports and skips, so
+			// the program still compiles.
+			"void main() {\n}\n}\n",
+			// An empty program.
+			"// Nothing here\n",
+		};
+		var allSources = new ArrayList<String>(Arrays.asList(sources));
+
+		// The programs with syntax errors, which are run from the top of the
+		// tree.
+		try (Stream<Path> files = Files.list(Path.of("test-cases", "invalid"))) {
+			for (var file : (Iterable<Path>) files.sorted()::iterator) {
+				allSources.add(Files.readString(file));
+			}
+		}
+
+		for (var source : allSources) {
+			String expected = TestUtils.compile(directory, "Errors", source);
+			String actual = TestUtils.compile(directory, "Errors", source, "--streaming");
+			assert actual.equals(expected) : actual;
+		}
+	}
+
+	private static void testOutputKeptOnError(Path directory) throws Exception {
+		String valid = "void main() {\n\tprintln 1;\n}\n";
+		assert TestUtils.compile(directory, "Kept", valid, "--streaming").startsWith("0\n");
+		var output = Files.readString(directory.resolve("Kept.j"));
+
+		// The error is found after main() has been written.
+		String invalid = valid + "\nint f() {\n\treturn 'a';\n}\n";
+		assert TestUtils.compile(directory, "Kept", invalid, "--streaming").startsWith(Compiler.COMPILATION_ERROR_STATUS + "\n");
+		assert Files.readString(directory.resolve("Kept.j")).equals(output);
+		try (Stream<Path> files = Files.list(directory)) {
+			assert files.noneMatch(file -> file.toString().endsWith(".tmp"));
+		}
+	}
+
+	private static void testIncompatibleOptions(Path directory) throws Exception {
+		String source = "void main() {\n}\n";
+		assert TestUtils.compile(directory, "Options", source, "--streaming", "--parallel").startsWith(Compiler.COMPILATION_ERROR_STATUS + "\n");
+		assert TestUtils.compile(directory, "Options", source, "--streaming", "--cache", "cache").startsWith(Compiler.COMPILATION_ERROR_STATUS + "\n");
+	}
+
+	private static void testShortName(Path directory) throws Exception {
+		// The name of the temporary output file starts with the class name.
+		String source = "void main() {\n\tprintln 1;\n}\n";
+		for (var name : new String[] { "a", "g1" }) {
+			assert TestUtils.compile(directory, name, source, "--streaming").startsWith("0\n");
+			assert TestUtils.compile(directory, name, source, "--streaming", "--classfile").startsWith("0\n");
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestUtils.startTestRun("StreamingCompile");
+
+		var directory = Files.createTempDirectory("streaming-compile-test");
+		try {
+			testSameOutput(directory);
+			testSameDiagnostics(directory);
+			testOutputKeptOnError(directory);
+			testIncompatibleOptions(directory);
+			testShortName(directory);
+		}
+		finally {
+			TestUtils.deleteRecursively(directory);
+		}
+
+		TestUtils.finishTestRun(true);
+	}
+}
@@ -0,0 +1,240 @@
+import ast.*;
+import codegen.JvmCodeVisitor;
+import ir.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.antlr.runtime.*;
+import semantic.TypeCheckVisitor;
+import type.MethodType;
+
+/*
+ * Compiles a program one function at a time for --streaming, so that the
+ * memory needed depends on the size of the largest function rather than
+ * on the size of the whole program.
+ *
+ * The source is parsed twice. The first pass parses each function and
+ * keeps only its declaration, to find the signatures that every function
+ * is checked and lowered against. The second pass parses each function
+ * again, type checks it, lowers it to IR, optimizes it and writes its
+ * method, and keeps none of its tokens, AST or IR once the next function
+ * is parsed. The output is the same as that of a normal compilation.
+ *
+ * If the first pass finds a syntax error anywhere, nothing is compiled, so
+ * that the program can be compiled normally to report its errors, as they
+ * are reported before any semantic error. Otherwise, the declarations are
+ * checked before any function is compiled, and each function is checked
+ * before the next one is parsed. So when a program has several semantic
+ * errors, the one reported may not be the one a normal compilation would
+ * report first.
+ */
+public class StreamingCompiler {
+
+	/**
+	 * Passes on the tokens of a lexer one function at a time. After the
+	 * closing brace of a function body, it gives EOF until the stream of
+	 * the next function is requested, so that a parser only ever sees the
+	 * tokens of one function.
+	 */
+	private static class FunctionTokenSource implements TokenSource {
+
+		private final TokenSource lexer;
+
+		// How many braces are open, and the EOF given once the closing
+		// brace of the current function has been passed.
+		private int braceDepth;
+		private Token functionEnd;
+
+		FunctionTokenSource(TokenSource lexer) {
+			this.lexer = lexer;
+			braceDepth = 0;
+			functionEnd = null;
+		}
+
+		/**
+		 * Returns a stream of the tokens of the next function, which starts
+		 * with EOF if there are no more functions.
+		 */
+		CommonTokenStream nextFunction() {
+			functionEnd = null;
+			return new CommonTokenStream(this);
+		}
+
+		public Token nextToken() {
+			if (functionEnd != null) {
+				return functionEnd;
+			}
+
+			Token token = lexer.nextToken();
+			if (token.getType() == UnnamedLanguageLexer.OPEN_BRACE) {
+				++braceDepth;
+			}
+			else if (token.getType() == UnnamedLanguageLexer.CLOSE_BRACE && --braceDepth <= 0) {
+				// An unmatched closing brace also ends a function, so that
+				// the parser reports it.
+				braceDepth = 0;
+				functionEnd = new CommonToken(Token.EOF, "<EOF>");
+				functionEnd.setLine(token.getLine());
+				functionEnd.setCharPositionInLine(token.getCharPositionInLine() + 1);
+			}
+			return token;
+		}
+
+		public String getSourceName() {
+			return lexer.getSourceName();
+		}
+	}
+
+	private final CharStream input;
+	private final PrintStream err;
+	private final CompilationStats stats;
+	private ConstantFolder folder;
+	private DeadCodeEliminator eliminator;
+
+	/**
+	 * @param input The source, which is read twice.
+	 * @param err The stream to which syntax errors are reported.
+	 * @param stats The statistics for --stats, which are collected for the
+	 *              functions as they are compiled.
+	 */
+	public StreamingCompiler(CharStream input, PrintStream err, CompilationStats stats) {
+		this.input = input;
+		this.err = err;
+		this.stats = stats;
+		folder = null;
+		eliminator = null;
+	}
+
+	/**
+	 * Sets the optimizations applied to each function before its code is
+	 * generated, which count the instructions they remove across all the
+	 * functions. Both are null by default, so nothing is optimized.
+	 */
+	public void setOptimizers(ConstantFolder folder, DeadCodeEliminator eliminator) {
+		this.folder = folder;
+		this.eliminator = eliminator;
+	}
+
+	private UnnamedLanguageParser newParser(PrintStream errorStream) {
+		var parser = new UnnamedLanguageParser(null);
+		parser.setErrorStream(errorStream);
+		return parser;
+	}
+
+	private FunctionTokenSource newFunctionTokenSource(PrintStream errorStream) {
+		var lexer = new UnnamedLanguageLexer(input);
+		lexer.setErrorStream(errorStream);
+		return new FunctionTokenSource(lexer);
+	}
+
+	/**
+	 * Returns the declaration of each function, in order, without keeping
+	 * the tokens or AST of the function bodies, or null if there is a
+	 * syntax error anywhere in the program. An empty program is also a
+	 * syntax error.
+	 */
+	private List<FunctionDecl> scanDeclarations() {
+		// Errors are only recorded here. They are reported when the program
+		// is compiled normally.
+		var errors = new ByteArrayOutputStream();
+		var errorStream = new PrintStream(errors);
+		var functionTokens = newFunctionTokenSource(errorStream);
+		var parser = newParser(errorStream);
+
+		List<FunctionDecl> declarations = new ArrayList<FunctionDecl>();
+		try {
+			for (var tokens = functionTokens.nextFunction(); tokens.LA(1) != Token.EOF; tokens = functionTokens.nextFunction()) {
+				parser.setTokenStream(tokens);
+				declarations.add(parser.function().declaration);
+			}
+		}
+		catch (RecognitionException e) {
+			return null;
+		}
+
+		errorStream.flush();
+		return errors.size() > 0 || declarations.isEmpty() ? null : declarations;
+	}
+
+	private static MethodType methodType(FunctionDecl declaration) {
+		var builder = new MethodType.Builder().withReturnType(declaration.typeNode.type);
+		for (var formal : declaration.formals) {
+			builder.addArgumentType(formal.typeNode.type);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Compiles the program to a class with the given name, which is written
+	 * by the code visitor. Returns false, having written nothing, if the
+	 * declarations could not be parsed. The input is then back at the start
+	 * of the program.
+	 */
+	public boolean compile(String programName, JvmCodeVisitor codeVisitor) throws RecognitionException, ASTVisitorException, IOException {
+		int start = input.mark();
+		stats.beginPhase("scan");
+		var declarations = scanDeclarations();
+		stats.endPhase();
+		input.rewind(start);
+
+		if (declarations == null) {
+			return false;
+		}
+
+		var semanticVisitor = new TypeCheckVisitor();
+		semanticVisitor.declareFunctions(declarations);
+
+		// A function is compiled before the functions it calls are
+		// checked, so their declarations must be checked first.
+		for (var declaration : declarations) {
+			semanticVisitor.checkDeclaration(declaration);
+		}
+
+		var irVisitor = new IRAstVisitor();
+		irVisitor.declareFunctions(declarations);
+
+		Map<String, MethodType> functionTypes = new LinkedHashMap<String, MethodType>();
+		for (var declaration : declarations) {
+			functionTypes.put(declaration.identifier.value, methodType(declaration));
+		}
+
+		stats.beginPhase("compile");
+		codeVisitor.beginClass(programName, functionTypes);
+		try {
+			var functionTokens = newFunctionTokenSource(err);
+			var parser = newParser(err);
+			for (var tokens = functionTokens.nextFunction(); tokens.LA(1) != Token.EOF; tokens = functionTokens.nextFunction()) {
+				parser.setTokenStream(tokens);
+				Function function = parser.function();
+				stats.recordAst(function);
+
+				function.accept(semanticVisitor);
+
+				IRFunction irFunction = irVisitor.buildIRFunction(function);
+				stats.recordGeneratedIr(irFunction);
+				if (folder != null) {
+					irFunction = folder.fold(irFunction);
+				}
+				if (eliminator != null) {
+					irFunction = eliminator.eliminate(irFunction);
+				}
+				irFunction = TempCoalescer.coalesce(irFunction);
+				stats.recordCompiledIr(irFunction);
+
+				var method = codeVisitor.generateFunction(irFunction);
+				stats.recordCode(irFunction.name, method);
+			}
+			codeVisitor.endClass();
+		}
+		finally {
+			codeVisitor.discardClass();
+		}
+		stats.endPhase();
+
+		return true;
+	}
+}
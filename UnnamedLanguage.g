@@ -8,6 +8,20 @@ grammar UnnamedLanguage;
 
 @members
 {
+        // Errors are printed here rather than always to System.err so that
+        // they can be returned to the client of a CompileServer.
+        private java.io.PrintStream errorStream = System.err;
+
+        public void setErrorStream(java.io.PrintStream stream)
+        {
+                errorStream = stream;
+        }
+
+        public void emitErrorMessage(String msg)
+        {
+                errorStream.println(msg);
+        }
+
         protected void mismatch (IntStream input, int ttype, BitSet follow) throws RecognitionException
         {
                 throw new MismatchedTokenException(ttype, input);
@@ -20,6 +34,22 @@ grammar UnnamedLanguage;
         }
 }
 
+@lexer::members
+{
+        // See the parser's errorStream.
+        private java.io.PrintStream errorStream = System.err;
+
+        public void setErrorStream(java.io.PrintStream stream)
+        {
+                errorStream = stream;
+        }
+
+        public void emitErrorMessage(String msg)
+        {
+                errorStream.println(msg);
+        }
+}
+
 @rulecatch {
         catch (RecognitionException ex) {
                 reportError(ex);
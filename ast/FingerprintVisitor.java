@@ -0,0 +1,316 @@
+package ast;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Computes a fingerprint of a function: a SHA-256 hash of a canonical
+ * form of its subtree, which includes every identifier, type and literal
+ * but not the positions of the nodes. Two functions have the same
+ * fingerprint if they only differ in layout or comments. The names of the
+ * functions called by the function are collected as it is visited.
+ */
+public class FingerprintVisitor implements ASTVisitor<Void> {
+
+	private final StringBuilder form;
+	private final Set<String> calledFunctions;
+
+	public FingerprintVisitor() {
+		form = new StringBuilder();
+		calledFunctions = new LinkedHashSet<String>();
+	}
+
+	/**
+	 * Returns the SHA-256 hash of the text as a hexadecimal string.
+	 */
+	public static String hash(String text) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+			var hex = new StringBuilder();
+			for (byte b : hash) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the fingerprint of the given function as a hexadecimal string.
+	 */
+	public String fingerprint(Function function) throws ASTVisitorException {
+		form.setLength(0);
+		calledFunctions.clear();
+		function.accept(this);
+		return hash(form.toString());
+	}
+
+	/**
+	 * The names of the functions called by the last function fingerprinted,
+	 * in the order they are first called.
+	 */
+	public Set<String> getCalledFunctions() {
+		return calledFunctions;
+	}
+
+	private void open(String tag) {
+		form.append('(').append(tag);
+	}
+
+	private void close() {
+		form.append(')');
+	}
+
+	private void visitAll(List<? extends ASTNode> nodes) throws ASTVisitorException {
+		form.append('[');
+		for (var node : nodes) {
+			node.accept(this);
+		}
+		form.append(']');
+	}
+
+	private Void visitBinary(String tag, BinaryOperationExpression node) throws ASTVisitorException {
+		open(tag);
+		node.left.accept(this);
+		node.right.accept(this);
+		close();
+		return null;
+	}
+
+	public Void visit(AddExpression node) throws ASTVisitorException {
+		return visitBinary("+", node);
+	}
+
+	public Void visit(ArrayAssignmentStatement node) throws ASTVisitorException {
+		open("array=");
+		node.arrayId.accept(this);
+		node.indexExpression.accept(this);
+		node.valueExpression.accept(this);
+		close();
+		return null;
+	}
+
+	public Void visit(ArrayReference node) throws ASTVisitorException {
+		open("[]");
+		node.id.accept(this);
+		node.indexExpression.accept(this);
+		close();
+		return null;
+	}
+
+	public Void visit(ArrayTypeNode node) throws ASTVisitorException {
+		// The type includes the size of the array.
+		open("type ");
+		form.append(node.type.toString());
+		close();
+		return null;
+	}
+
+	public Void visit(AssignmentStatement node) throws ASTVisitorException {
+		open("=");
+		node.id.accept(this);
+		node.value.accept(this);
+		close();
+		return null;
+	}
+
+	public Void visit(ASTNode node) throws ASTVisitorException {
+		throw new UnsupportedOperationException("Visit called with ASTNode type");
+	}
+
+	public Void visit(BinaryOperationExpression node) throws ASTVisitorException {
+		throw new UnsupportedOperationException("Visit called with BinaryOperationExpression type");
+	}
+
+	public Void visit(Block node) throws ASTVisitorException {
+		open("block");
+		visitAll(node.statements);
+		close();
+		return null;
+	}
+
+	public Void visit(BooleanLiteral node) throws ASTVisitorException {
+		form.append(node.value ? "true" : "false");
+		return null;
+	}
+
+	public Void visit(CharacterLiteral node) throws ASTVisitorException {
+		form.append("'").append((int) node.value).append("'");
+		return null;
+	}
+
+	public Void visit(EqualityExpression node) throws ASTVisitorException {
+		return visitBinary("==", node);
+	}
+
+	public Void visit(Expression node) throws ASTVisitorException {
+		throw new UnsupportedOperationException("Visit called with Expression type");
+	}
+
+	public Void visit(ExpressionStatement node) throws ASTVisitorException {
+		open("expression");
+		node.expression.accept(this);
+		close();
+		return null;
+	}
+
+	public Void visit(FloatLiteral node) throws ASTVisitorException {
+		// The bits are used so that the form does not depend on formatting.
+		form.append('f').append(Integer.toHexString(Float.floatToRawIntBits(node.value)));
+		return null;
+	}
+
+	public Void visit(FormalParameter node) throws ASTVisitorException {
+		open("formal");
+		node.typeNode.accept(this);
+		node.identifier.accept(this);
+		close();
+		return null;
+	}
+
+	public Void visit(FunctionBody node) throws ASTVisitorException {
+		open("body");
+		visitAll(node.declarations);
+		visitAll(node.statements);
+		close();
+		return null;
+	}
+
+	public Void visit(FunctionCall node) throws ASTVisitorException {
+		calledFunctions.add(node.id.value);
+
+		open("call");
+		node.id.accept(this);
+		visitAll(node.arguments);
+		close();
+		return null;
+	}
+
+	public Void visit(FunctionDecl node) throws ASTVisitorException {
+		open("declaration");
+		node.typeNode.accept(this);
+		node.identifier.accept(this);
+		visitAll(node.formals);
+		close();
+		return null;
+	}
+
+	public Void visit(Function node) throws ASTVisitorException {
+		open("function");
+		node.declaration.accept(this);
+		node.body.accept(this);
+		close();
+		return null;
+	}
+
+	public Void visit(Identifier node) throws ASTVisitorException {
+		form.append(' ').append(node.value).append(' ');
+		return null;
+	}
+
+	public Void visit(IfStatement node) throws ASTVisitorException {
+		open("if");
+		node.condition.accept(this);
+		node.ifBlock.accept(this);
+		if (node.elseBlock.isPresent()) {
+			node.elseBlock.get().accept(this);
+		}
+		close();
+		return null;
+	}
+
+	public Void visit(IntLiteral node) throws ASTVisitorException {
+		form.append('i').append(node.value);
+		return null;
+	}
+
+	public Void visit(LessThanExpression node) throws ASTVisitorException {
+		return visitBinary("<", node);
+	}
+
+	public Void visit(MultiplyExpression node) throws ASTVisitorException {
+		return visitBinary("*", node);
+	}
+
+	public Void visit(ParenExpression node) throws ASTVisitorException {
+		open("paren");
+		node.expression.accept(this);
+		close();
+		return null;
+	}
+
+	public Void visit(PrintlnStatement node) throws ASTVisitorException {
+		open("println");
+		node.expression.accept(this);
+		close();
+		return null;
+	}
+
+	public Void visit(PrintStatement node) throws ASTVisitorException {
+		open("print");
+		node.expression.accept(this);
+		close();
+		return null;
+	}
+
+	public Void visit(Program node) throws ASTVisitorException {
+		throw new UnsupportedOperationException("Only functions are fingerprinted");
+	}
+
+	public Void visit(ReturnStatement node) throws ASTVisitorException {
+		open("return");
+		if (node.returnExpression.isPresent()) {
+			node.returnExpression.get().accept(this);
+		}
+		close();
+		return null;
+	}
+
+	public Void visit(SimpleTypeNode node) throws ASTVisitorException {
+		open("type ");
+		form.append(node.type.toString());
+		close();
+		return null;
+	}
+
+	public Void visit(Statement node) throws ASTVisitorException {
+		throw new UnsupportedOperationException("Visit called with Statement type");
+	}
+
+	public Void visit(StringLiteral node) throws ASTVisitorException {
+		// The length is given so that the end of the string is unambiguous.
+		form.append('"').append(node.value.length()).append(':').append(node.value);
+		return null;
+	}
+
+	public Void visit(SubtractExpression node) throws ASTVisitorException {
+		return visitBinary("-", node);
+	}
+
+	public Void visit(TypeNode node) throws ASTVisitorException {
+		throw new UnsupportedOperationException("Visit called with TypeNode type");
+	}
+
+	public Void visit(VariableDeclaration node) throws ASTVisitorException {
+		open("variable");
+		node.typeNode.accept(this);
+		node.id.accept(this);
+		close();
+		return null;
+	}
+
+	public Void visit(WhileStatement node) throws ASTVisitorException {
+		open("while");
+		node.condition.accept(this);
+		node.block.accept(this);
+		close();
+		return null;
+	}
+}
@@ -0,0 +1,175 @@
+package ast;
+
+import java.util.List;
+
+/**
+ * Counts the nodes of an abstract syntax tree. Each visit returns the
+ * number of nodes in the subtree rooted at the visited node, including
+ * the identifiers and type nodes.
+ */
+public class NodeCountVisitor implements ASTVisitor<Integer> {
+
+	private int count(List<? extends ASTNode> nodes) throws ASTVisitorException {
+		int count = 0;
+		for (var node : nodes) {
+			count += node.accept(this);
+		}
+		return count;
+	}
+
+	private int countBinary(BinaryOperationExpression node) throws ASTVisitorException {
+		return 1 + node.left.accept(this) + node.right.accept(this);
+	}
+
+	public Integer visit(AddExpression node) throws ASTVisitorException {
+		return countBinary(node);
+	}
+
+	public Integer visit(ArrayAssignmentStatement node) throws ASTVisitorException {
+		return 1 + node.arrayId.accept(this) + node.indexExpression.accept(this) + node.valueExpression.accept(this);
+	}
+
+	public Integer visit(ArrayReference node) throws ASTVisitorException {
+		return 1 + node.id.accept(this) + node.indexExpression.accept(this);
+	}
+
+	public Integer visit(ArrayTypeNode node) throws ASTVisitorException {
+		return 1;
+	}
+
+	public Integer visit(AssignmentStatement node) throws ASTVisitorException {
+		return 1 + node.id.accept(this) + node.value.accept(this);
+	}
+
+	public Integer visit(ASTNode node) throws ASTVisitorException {
+		throw new UnsupportedOperationException("Visit called with ASTNode type");
+	}
+
+	public Integer visit(BinaryOperationExpression node) throws ASTVisitorException {
+		throw new UnsupportedOperationException("Visit called with BinaryOperationExpression type");
+	}
+
+	public Integer visit(Block node) throws ASTVisitorException {
+		return 1 + count(node.statements);
+	}
+
+	public Integer visit(BooleanLiteral node) throws ASTVisitorException {
+		return 1;
+	}
+
+	public Integer visit(CharacterLiteral node) throws ASTVisitorException {
+		return 1;
+	}
+
+	public Integer visit(EqualityExpression node) throws ASTVisitorException {
+		return countBinary(node);
+	}
+
+	public Integer visit(Expression node) throws ASTVisitorException {
+		throw new UnsupportedOperationException("Visit called with Expression type");
+	}
+
+	public Integer visit(ExpressionStatement node) throws ASTVisitorException {
+		return 1 + node.expression.accept(this);
+	}
+
+	public Integer visit(FloatLiteral node) throws ASTVisitorException {
+		return 1;
+	}
+
+	public Integer visit(FormalParameter node) throws ASTVisitorException {
+		return 1 + node.typeNode.accept(this) + node.identifier.accept(this);
+	}
+
+	public Integer visit(FunctionBody node) throws ASTVisitorException {
+		return 1 + count(node.declarations) + count(node.statements);
+	}
+
+	public Integer visit(FunctionCall node) throws ASTVisitorException {
+		return 1 + node.id.accept(this) + count(node.arguments);
+	}
+
+	public Integer visit(FunctionDecl node) throws ASTVisitorException {
+		return 1 + node.typeNode.accept(this) + node.identifier.accept(this) + count(node.formals);
+	}
+
+	public Integer visit(Function node) throws ASTVisitorException {
+		return 1 + node.declaration.accept(this) + node.body.accept(this);
+	}
+
+	public Integer visit(Identifier node) throws ASTVisitorException {
+		return 1;
+	}
+
+	public Integer visit(IfStatement node) throws ASTVisitorException {
+		int count = 1 + node.condition.accept(this) + node.ifBlock.accept(this);
+		if (node.elseBlock.isPresent()) {
+			count += node.elseBlock.get().accept(this);
+		}
+		return count;
+	}
+
+	public Integer visit(IntLiteral node) throws ASTVisitorException {
+		return 1;
+	}
+
+	public Integer visit(LessThanExpression node) throws ASTVisitorException {
+		return countBinary(node);
+	}
+
+	public Integer visit(MultiplyExpression node) throws ASTVisitorException {
+		return countBinary(node);
+	}
+
+	public Integer visit(ParenExpression node) throws ASTVisitorException {
+		return 1 + node.expression.accept(this);
+	}
+
+	public Integer visit(PrintlnStatement node) throws ASTVisitorException {
+		return 1 + node.expression.accept(this);
+	}
+
+	public Integer visit(PrintStatement node) throws ASTVisitorException {
+		return 1 + node.expression.accept(this);
+	}
+
+	public Integer visit(Program node) throws ASTVisitorException {
+		return 1 + count(node.functions);
+	}
+
+	public Integer visit(ReturnStatement node) throws ASTVisitorException {
+		int count = 1;
+		if (node.returnExpression.isPresent()) {
+			count += node.returnExpression.get().accept(this);
+		}
+		return count;
+	}
+
+	public Integer visit(SimpleTypeNode node) throws ASTVisitorException {
+		return 1;
+	}
+
+	public Integer visit(Statement node) throws ASTVisitorException {
+		throw new UnsupportedOperationException("Visit called with Statement type");
+	}
+
+	public Integer visit(StringLiteral node) throws ASTVisitorException {
+		return 1;
+	}
+
+	public Integer visit(SubtractExpression node) throws ASTVisitorException {
+		return countBinary(node);
+	}
+
+	public Integer visit(TypeNode node) throws ASTVisitorException {
+		throw new UnsupportedOperationException("Visit called with TypeNode type");
+	}
+
+	public Integer visit(VariableDeclaration node) throws ASTVisitorException {
+		return 1 + node.typeNode.accept(this) + node.id.accept(this);
+	}
+
+	public Integer visit(WhileStatement node) throws ASTVisitorException {
+		return 1 + node.condition.accept(this) + node.block.accept(this);
+	}
+}
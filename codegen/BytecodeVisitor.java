@@ -0,0 +1,63 @@
+package codegen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * A Visitor for an IRProgram that generates the corresponding JVM class
+ * file directly, without going through Jasmin. The code generated for
+ * each IR construct is the same as that of {@link JasminVisitor}.
+ * BytecodeVisitors are single-use, and should only be used to visit a
+ * single IRProgram.
+ *
+ * The generated class is saved in a file with a .class extension.
+ */
+public class BytecodeVisitor extends JvmCodeVisitor {
+
+    public BytecodeVisitor() {
+        this(null);
+    }
+
+    /**
+     * Creates a BytecodeVisitor which writes its output file to the given
+     * directory. If it is null, the current directory is used.
+     */
+    public BytecodeVisitor(File outputDirectory) {
+        super(outputDirectory);
+    }
+
+    protected File getOutputFile(String className) {
+        return new File(outputDirectory, className + ".class");
+    }
+
+    /**
+     * Returns a writer which encodes each method as it is written, and
+     * writes the class file when it is closed, since the constant pool
+     * comes before the methods.
+     */
+    protected MethodWriter openMethodWriter(String className, OutputStream out) {
+        var classWriter = new ClassFileWriter(className, className + ".ir");
+        return new MethodWriter() {
+            public void writeMethod(MethodAssembler method) throws IOException {
+                classWriter.addMethod(method);
+            }
+
+            public void close() throws IOException {
+                try (out) {
+                    out.write(classWriter.toByteArray());
+                }
+            }
+        };
+    }
+
+    protected void writeOutput(String className, List<MethodAssembler> methods) throws IOException {
+        try (var writer = openMethodWriter(className, new FileOutputStream(getOutputFile(className)))) {
+            for (var method : methods) {
+                writer.writeMethod(method);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package codegen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Builds the binary contents of a class file from a set of assembled
+ * methods. The class is public, extends java.lang.Object and has no
+ * fields.
+ */
+public class ClassFileWriter {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    // Java 8. This is the lowest version which requires a StackMapTable
+    // attribute on methods with branches.
+    private static final int MAJOR_VERSION = 52;
+
+    // Java 9, which added the StringConcatFactory bootstrap methods used by
+    // invokedynamic string concatenation.
+    private static final int DYNAMIC_CONCATENATION_MAJOR_VERSION = 53;
+    private static final int MINOR_VERSION = 0;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final String OBJECT_FQN = "java/lang/Object";
+
+    private final String className;
+    private final String sourceFileName;
+    private final ConstantPool pool;
+    private final int thisClassIndex;
+    private final int superClassIndex;
+
+    // The methods encoded so far.
+    private final ByteArrayOutputStream methodBytes;
+    private final DataOutputStream methodsOut;
+    private int methodCount;
+
+    /**
+     * @param className The internal name of the class.
+     * @param sourceFileName The name recorded in the SourceFile attribute.
+     */
+    public ClassFileWriter(String className, String sourceFileName) {
+        this.className = className;
+        this.sourceFileName = sourceFileName;
+        pool = new ConstantPool();
+        thisClassIndex = pool.addClass(className);
+        superClassIndex = pool.addClass(OBJECT_FQN);
+        methodBytes = new ByteArrayOutputStream();
+        methodsOut = new DataOutputStream(methodBytes);
+        methodCount = 0;
+    }
+
+    /**
+     * Encodes the method, adding the constants it refers to to the pool.
+     * Only its encoding is kept, so a class can be built one method at a
+     * time without keeping every MethodAssembler.
+     */
+    public void addMethod(MethodAssembler method) throws IOException {
+        if (!method.owner.equals(className)) {
+            throw new IllegalArgumentException("Method " + method.name + " does not belong to class " + className);
+        }
+
+        methodsOut.writeShort(method.accessFlags);
+        methodsOut.writeShort(pool.addUtf8(method.name));
+        methodsOut.writeShort(pool.addUtf8(method.descriptor));
+        methodsOut.writeShort(1); // Only the Code attribute
+        method.writeCodeAttribute(pool, methodsOut);
+        ++methodCount;
+    }
+
+    /**
+     * Encodes the class. The constant pool is only complete once every
+     * method has been encoded, so the header and pool are written in front
+     * of the methods at the end. Classes using invokedynamic are given the
+     * version which supports its bootstrap methods.
+     */
+    public byte[] toByteArray() throws IOException {
+        var attributes = new ByteArrayOutputStream();
+        var attributesOut = new DataOutputStream(attributes);
+        boolean hasBootstrapMethods = pool.hasBootstrapMethods();
+        attributesOut.writeShort(hasBootstrapMethods ? 2 : 1);
+        attributesOut.writeShort(pool.addUtf8("SourceFile"));
+        attributesOut.writeInt(2);
+        attributesOut.writeShort(pool.addUtf8(sourceFileName));
+        if (hasBootstrapMethods) {
+            pool.writeBootstrapMethodsAttribute(attributesOut);
+        }
+
+        var result = new ByteArrayOutputStream(methodBytes.size() + attributes.size() + 1024);
+        var out = new DataOutputStream(result);
+        out.writeInt(MAGIC);
+        out.writeShort(MINOR_VERSION);
+        out.writeShort(hasBootstrapMethods ? DYNAMIC_CONCATENATION_MAJOR_VERSION : MAJOR_VERSION);
+        pool.write(out);
+
+        out.writeShort(ACC_PUBLIC | ACC_SUPER);
+        out.writeShort(thisClassIndex);
+        out.writeShort(superClassIndex);
+        out.writeShort(0); // No interfaces
+        out.writeShort(0); // No fields
+
+        out.writeShort(methodCount);
+        methodBytes.writeTo(out);
+        attributes.writeTo(out);
+
+        return result.toByteArray();
+    }
+}
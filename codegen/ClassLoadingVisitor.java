@@ -0,0 +1,54 @@
+package codegen;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A JvmCodeVisitor for tests and benchmarks, which defines the generated
+ * class in memory rather than writing it to a file.
+ */
+class ClassLoadingVisitor extends JvmCodeVisitor {
+
+    private final ClassLoader loader = new ClassLoader(ClassLoadingVisitor.class.getClassLoader()) {
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (classFile == null || !name.equals(loadedName)) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    };
+
+    private String loadedName;
+    private List<MethodAssembler> methods;
+    private byte[] classFile;
+
+    ClassLoadingVisitor() {
+        super(null);
+    }
+
+    protected void writeOutput(String className, List<MethodAssembler> methods) throws IOException {
+        var classWriter = new ClassFileWriter(className, className + ".ir");
+        for (var method : methods) {
+            classWriter.addMethod(method);
+        }
+        loadedName = className;
+        this.methods = methods;
+        classFile = classWriter.toByteArray();
+    }
+
+    /**
+     * Returns the generated code for the method with the given name.
+     */
+    MethodAssembler getMethod(String name) {
+        for (var method : methods) {
+            if (method.name.equals(name)) {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException("No method named " + name);
+    }
+
+    Class<?> load() throws ClassNotFoundException {
+        return loader.loadClass(loadedName);
+    }
+}
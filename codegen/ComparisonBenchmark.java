@@ -0,0 +1,145 @@
+package codegen;
+
+import common.LabelFactory;
+import ir.BinaryOperation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import type.IntegerType;
+
+/**
+ * Compares the time taken by the generated code for an integer less than
+ * comparison, used as a value and as the condition of a branch, with the
+ * isub and iflt sequence the code generator used to emit. The operands
+ * are the boundary values from {@link ComparisonTest}, for which the isub
+ * sequence gives the wrong answer whenever the subtraction overflows.
+ *
+ * Run with: java codegen.ComparisonBenchmark [iterations]
+ */
+public class ComparisonBenchmark {
+
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 5;
+
+    // Stops the JIT from optimizing away the comparisons.
+    private static int sink;
+
+    /**
+     * Assembles the code that used to be generated for a < b:
+     *      iload_0; iload_1; isub; iflt L0; iconst_0; goto L1;
+     *  L0: iconst_1;
+     *  L1: ireturn
+     */
+    private static Class<?> subtractingClass() throws Exception {
+        var method = new MethodAssembler(MethodAssembler.ACC_PUBLIC | MethodAssembler.ACC_STATIC,
+            "Subtracting", "lessInt", "(II)Z");
+        var labels = new LabelFactory();
+        var trueLabel = labels.getLabel();
+        var doneLabel = labels.getLabel();
+
+        method.addInstruction(Opcode.ILOAD, 0);
+        method.addInstruction(Opcode.ILOAD, 1);
+        method.addInstruction(Opcode.ISUB);
+        method.addInstruction(Opcode.IFLT, trueLabel);
+        method.pushInt(0);
+        method.addInstruction(Opcode.GOTO, doneLabel);
+        method.placeLabel(trueLabel);
+        method.pushInt(1);
+        method.placeLabel(doneLabel);
+        method.addInstruction(Opcode.IRETURN);
+
+        var classWriter = new ClassFileWriter("Subtracting", "Subtracting.ir");
+        classWriter.addMethod(method);
+        byte[] classFile = classWriter.toByteArray();
+
+        var loader = new ClassLoader(ComparisonBenchmark.class.getClassLoader()) {
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                return defineClass(name, classFile, 0, classFile.length);
+            }
+        };
+        return loader.loadClass("Subtracting");
+    }
+
+    /**
+     * Returns the number of pairs for which the comparison was true.
+     */
+    private static int run(MethodHandle lessThan, int iterations) throws Throwable {
+        int[] values = ComparisonTest.INT_VALUES;
+        int trueCount = 0;
+
+        for (int n = 0; n < iterations; ++n) {
+            for (int a : values) {
+                for (int b : values) {
+                    if ((boolean) lessThan.invokeExact(a, b)) {
+                        ++trueCount;
+                    }
+                }
+            }
+        }
+
+        return trueCount;
+    }
+
+    /**
+     * Returns the average time per comparison in nanoseconds.
+     */
+    private static double measure(MethodHandle lessThan, int iterations) throws Throwable {
+        for (int i = 0; i < WARMUP_RUNS; ++i) {
+            sink += run(lessThan, iterations);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_RUNS; ++i) {
+            sink += run(lessThan, iterations);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int comparisons = ComparisonTest.INT_VALUES.length * ComparisonTest.INT_VALUES.length;
+        return (double) elapsed / ((long) MEASURED_RUNS * iterations * comparisons);
+    }
+
+    /**
+     * Counts the pairs of boundary values for which the comparison gives
+     * the wrong answer.
+     */
+    private static int countWrong(MethodHandle lessThan) throws Throwable {
+        int wrong = 0;
+        for (int a : ComparisonTest.INT_VALUES) {
+            for (int b : ComparisonTest.INT_VALUES) {
+                if ((boolean) lessThan.invokeExact(a, b) != a < b) {
+                    ++wrong;
+                }
+            }
+        }
+        return wrong;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        var generated = ComparisonTest.load(ComparisonTest.comparisonProgram("Comparisons"), true);
+        var lookup = MethodHandles.publicLookup();
+        var signature = MethodType.methodType(boolean.class, int.class, int.class);
+
+        String[] names = {
+            "isub, iflt",
+            "if_icmplt value",
+            "if_icmplt branch",
+        };
+        MethodHandle[] handles = {
+            lookup.findStatic(subtractingClass(), "lessInt", signature),
+            lookup.findStatic(generated, ComparisonTest.functionName(BinaryOperation.Operators.LESS, IntegerType.INSTANCE, false), signature),
+            lookup.findStatic(generated, ComparisonTest.functionName(BinaryOperation.Operators.LESS, IntegerType.INSTANCE, true), signature),
+        };
+
+        System.out.println(String.format("%-20s %10s %10s", "code", "ns/op", "wrong"));
+        for (int i = 0; i < handles.length; ++i) {
+            double time = measure(handles[i], iterations);
+            System.out.println(String.format("%-20s %10.2f %10d", names[i], time, countWrong(handles[i])));
+        }
+
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package codegen;
+
+import common.LabelFactory;
+import common.TestUtils;
+import ir.*;
+import java.lang.reflect.Method;
+import java.util.List;
+import type.*;
+
+/**
+ * A differential test of the code generated for integer and character
+ * comparisons. Each comparison is generated both as a boolean value and
+ * as a conditional jump, with and without branch fusion, and the results
+ * of running the generated code over boundary values (where a comparison
+ * based on subtraction would overflow) are checked against Java's own
+ * comparison operators.
+ */
+public class ComparisonTest {
+
+    static final int[] INT_VALUES = {
+        Integer.MIN_VALUE, Integer.MIN_VALUE + 1, -65536, -2, -1, 0, 1, 2, 65535, Integer.MAX_VALUE - 1, Integer.MAX_VALUE
+    };
+
+    static final char[] CHAR_VALUES = {
+        0, 1, 'A', 0x7ffe, 0x7fff, 0x8000, 0xfffe, 0xffff
+    };
+
+    /**
+     * Generates the code for the program and loads the resulting class.
+     */
+    static Class<?> load(IRProgram program, boolean isBranchFusionEnabled) throws Exception {
+        var visitor = new ClassLoadingVisitor();
+        visitor.setBranchFusionEnabled(isBranchFusionEnabled);
+        visitor.visit(program);
+        return visitor.load();
+    }
+
+    static String functionName(BinaryOperation.Operators operator, Type type, boolean isBranch) {
+        return (operator == BinaryOperation.Operators.LESS ? "less" : "equal")
+            + (TypeUtils.isChar(type) ? "Char" : "Int")
+            + (isBranch ? "Branch" : "Value");
+    }
+
+    /**
+     * Builds a function which returns the result of comparing its two
+     * arguments. If isBranch is set the result is used by a conditional
+     * jump, as for the condition of an if statement:
+     *      T0 := a < b;
+     *      T1 := Z! T0;
+     *      IF T1 GOTO L0;
+     *      T2 := TRUE;
+     *      RETURN T2;
+     *  L0:
+     *      T2 := FALSE;
+     *      RETURN T2;
+     * Otherwise the result is returned directly.
+     */
+    static IRFunction comparisonFunction(BinaryOperation.Operators operator, Type type, boolean isBranch) throws Exception {
+        var factory = new TempFactory();
+        var a = factory.acquireParam(type, "a");
+        var b = factory.acquireParam(type, "b");
+        var t0 = factory.acquireTemp(BooleanType.INSTANCE);
+
+        var builder = new IRFunction.Builder()
+            .withName(functionName(operator, type, isBranch))
+            .withMethodType(new MethodType.Builder()
+                .addArgumentType(type)
+                .addArgumentType(type)
+                .withReturnType(BooleanType.INSTANCE)
+                .build())
+            .addInstruction(new TemporaryAssignmentInstruction(t0, BinaryOperation.getOperation(operator, a, b)));
+
+        if (isBranch) {
+            var t1 = factory.acquireTemp(BooleanType.INSTANCE);
+            var t2 = factory.acquireTemp(BooleanType.INSTANCE);
+            var otherwise = new LabelFactory().getLabel();
+
+            builder.addInstructions(
+                new TemporaryAssignmentInstruction(t1, new NegationOperation(t0)),
+                new ConditionalJumpInstruction(t1, otherwise),
+                new TemporaryAssignmentInstruction(t2, IRConstant.forBoolean(true)),
+                new ReturnInstruction(t2),
+                new LabelInstruction(otherwise),
+                new TemporaryAssignmentInstruction(t2, IRConstant.forBoolean(false)),
+                new ReturnInstruction(t2)
+            );
+        }
+        else {
+            builder.addInstruction(new ReturnInstruction(t0));
+        }
+
+        return builder.withTemps(factory.getAllTemps()).build();
+    }
+
+    /**
+     * Builds a program with every comparison function, and an empty main
+     * function.
+     */
+    static IRProgram comparisonProgram(String name) throws Exception {
+        var builder = new IRProgram.Builder().withName(name);
+
+        for (var operator : List.of(BinaryOperation.Operators.LESS, BinaryOperation.Operators.EQUAL)) {
+            for (Type type : List.of(IntegerType.INSTANCE, CharacterType.INSTANCE)) {
+                builder.addFunction(comparisonFunction(operator, type, false));
+                builder.addFunction(comparisonFunction(operator, type, true));
+            }
+        }
+
+        builder.addFunction(new IRFunction.Builder()
+            .withName("main")
+            .withMethodType(new MethodType(VoidType.INSTANCE))
+            .addInstruction(new ReturnInstruction())
+            .build());
+
+        return builder.build();
+    }
+
+    private static void checkInts(Class<?> generated, String name, boolean isLess) throws Exception {
+        Method method = generated.getMethod(name, int.class, int.class);
+        for (int a : INT_VALUES) {
+            for (int b : INT_VALUES) {
+                boolean expected = isLess ? a < b : a == b;
+                boolean actual = (Boolean) method.invoke(null, a, b);
+                assert actual == expected : name + "(" + a + ", " + b + ") returned " + actual;
+            }
+        }
+    }
+
+    private static void checkChars(Class<?> generated, String name, boolean isLess) throws Exception {
+        Method method = generated.getMethod(name, char.class, char.class);
+        for (char a : CHAR_VALUES) {
+            for (char b : CHAR_VALUES) {
+                boolean expected = isLess ? a < b : a == b;
+                boolean actual = (Boolean) method.invoke(null, a, b);
+                assert actual == expected : name + "(" + (int) a + ", " + (int) b + ") returned " + actual;
+            }
+        }
+    }
+
+    private static void testComparisons(boolean isBranchFusionEnabled) throws Exception {
+        var generated = load(comparisonProgram("Comparisons"), isBranchFusionEnabled);
+
+        for (boolean isBranch : new boolean[] { false, true }) {
+            for (boolean isLess : new boolean[] { false, true }) {
+                var operator = isLess ? BinaryOperation.Operators.LESS : BinaryOperation.Operators.EQUAL;
+                checkInts(generated, functionName(operator, IntegerType.INSTANCE, isBranch), isLess);
+                checkChars(generated, functionName(operator, CharacterType.INSTANCE, isBranch), isLess);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        TestUtils.startTestRun("ComparisonTest");
+
+        testComparisons(true);
+        testComparisons(false);
+
+        TestUtils.finishTestRun(true);
+    }
+}
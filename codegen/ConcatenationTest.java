@@ -0,0 +1,194 @@
+package codegen;
+
+import common.TestUtils;
+import ir.*;
+import java.util.ArrayList;
+import java.util.List;
+import type.*;
+
+/**
+ * Tests the code generated for chains of string concatenations, using both
+ * a StringBuilder and invokedynamic, by running it and checking which
+ * instructions were used.
+ */
+public class ConcatenationTest {
+
+    // Longer than one invokedynamic call site can take.
+    private static final int LONG_CHAIN_LENGTH = 300;
+
+    private static BinaryOperation concatenation(Temporary left, Temporary right) {
+        return BinaryOperation.getOperation(BinaryOperation.Operators.PLUS, left, right);
+    }
+
+    private static MethodType stringFunctionType(int argumentCount) {
+        var builder = new MethodType.Builder().withReturnType(StringType.INSTANCE);
+        for (int i = 0; i < argumentCount; ++i) {
+            builder.addArgumentType(StringType.INSTANCE);
+        }
+        return builder.build();
+    }
+
+    /**
+     * T0 := a S+ b; T1 := T0 S+ c; T2 := T1 S+ d; RETURN T2;
+     */
+    private static IRFunction concat4() throws Exception {
+        var factory = new TempFactory();
+        var a = factory.acquireParam(StringType.INSTANCE, "a");
+        var b = factory.acquireParam(StringType.INSTANCE, "b");
+        var c = factory.acquireParam(StringType.INSTANCE, "c");
+        var d = factory.acquireParam(StringType.INSTANCE, "d");
+        var t0 = factory.acquireTemp(StringType.INSTANCE);
+        var t1 = factory.acquireTemp(StringType.INSTANCE);
+        var t2 = factory.acquireTemp(StringType.INSTANCE);
+
+        return new IRFunction.Builder()
+            .withName("concat4")
+            .withMethodType(stringFunctionType(4))
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, concatenation(a, b)),
+                new TemporaryAssignmentInstruction(t1, concatenation(t0, c)),
+                new TemporaryAssignmentInstruction(t2, concatenation(t1, d)),
+                new ReturnInstruction(t2)
+            )
+            .build();
+    }
+
+    /**
+     * T0 := "<"; T1 := ">"; T2 := T0 S+ a; T3 := T2 S+ T1; RETURN T3;
+     */
+    private static IRFunction bracket() throws Exception {
+        var factory = new TempFactory();
+        var a = factory.acquireParam(StringType.INSTANCE, "a");
+        var t0 = factory.acquireTemp(StringType.INSTANCE);
+        var t1 = factory.acquireTemp(StringType.INSTANCE);
+        var t2 = factory.acquireTemp(StringType.INSTANCE);
+        var t3 = factory.acquireTemp(StringType.INSTANCE);
+
+        return new IRFunction.Builder()
+            .withName("bracket")
+            .withMethodType(stringFunctionType(1))
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, IRConstant.forString("<")),
+                new TemporaryAssignmentInstruction(t1, IRConstant.forString(">")),
+                new TemporaryAssignmentInstruction(t2, concatenation(t0, a)),
+                new TemporaryAssignmentInstruction(t3, concatenation(t2, t1)),
+                new ReturnInstruction(t3)
+            )
+            .build();
+    }
+
+    /**
+     * A chain whose first string is the result of a call, which is left on
+     * the operand stack:
+     *      T0 := concat4(a, a, a, a); T1 := T0 S+ a; T2 := T1 S+ a; RETURN T2;
+     */
+    private static IRFunction afterCall() throws Exception {
+        var factory = new TempFactory();
+        var a = factory.acquireParam(StringType.INSTANCE, "a");
+        var t0 = factory.acquireTemp(StringType.INSTANCE);
+        var t1 = factory.acquireTemp(StringType.INSTANCE);
+        var t2 = factory.acquireTemp(StringType.INSTANCE);
+
+        return new IRFunction.Builder()
+            .withName("afterCall")
+            .withMethodType(stringFunctionType(1))
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, new IRFunctionCall("concat4", List.of(a, a, a, a))),
+                new TemporaryAssignmentInstruction(t1, concatenation(t0, a)),
+                new TemporaryAssignmentInstruction(t2, concatenation(t1, a)),
+                new ReturnInstruction(t2)
+            )
+            .build();
+    }
+
+    /**
+     * Concatenates LONG_CHAIN_LENGTH copies of the argument in one chain.
+     */
+    private static IRFunction repeat() throws Exception {
+        var factory = new TempFactory();
+        var a = factory.acquireParam(StringType.INSTANCE, "a");
+
+        var instructions = new ArrayList<IRInstruction>();
+        Temporary previous = a;
+        for (int i = 1; i < LONG_CHAIN_LENGTH; ++i) {
+            var next = factory.acquireTemp(StringType.INSTANCE);
+            instructions.add(new TemporaryAssignmentInstruction(next, concatenation(previous, a)));
+            previous = next;
+        }
+        instructions.add(new ReturnInstruction(previous));
+
+        return new IRFunction.Builder()
+            .withName("repeat")
+            .withMethodType(stringFunctionType(1))
+            .withTemps(factory.getAllTemps())
+            .addInstructions(instructions.toArray(new IRInstruction[0]))
+            .build();
+    }
+
+    private static IRProgram concatenationProgram() throws Exception {
+        return new IRProgram.Builder()
+            .withName("Concatenations")
+            .addFunction(concat4())
+            .addFunction(bracket())
+            .addFunction(afterCall())
+            .addFunction(repeat())
+            .addFunction(new IRFunction.Builder()
+                .withName("main")
+                .withMethodType(new MethodType(VoidType.INSTANCE))
+                .addInstruction(new ReturnInstruction())
+                .build())
+            .build();
+    }
+
+    private static int count(MethodAssembler method, Opcode opcode) {
+        int count = 0;
+        for (var instruction : method.getInstructions()) {
+            if (instruction.opcode == opcode) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private static void testConcatenation(boolean isStackingEnabled, boolean isDynamic) throws Exception {
+        var visitor = new ClassLoadingVisitor();
+        visitor.setStackingEnabled(isStackingEnabled);
+        visitor.setDynamicConcatenationEnabled(isDynamic);
+        visitor.visit(concatenationProgram());
+        var generated = visitor.load();
+
+        var concat4 = generated.getMethod("concat4", String.class, String.class, String.class, String.class);
+        assert concat4.invoke(null, "a", "b", "c", "d").equals("abcd");
+        var bracket = generated.getMethod("bracket", String.class);
+        assert bracket.invoke(null, "x").equals("<x>");
+        var afterCall = generated.getMethod("afterCall", String.class);
+        assert afterCall.invoke(null, "y").equals("yyyyyy");
+        var repeat = generated.getMethod("repeat", String.class);
+        assert repeat.invoke(null, "z").equals("z".repeat(LONG_CHAIN_LENGTH));
+
+        // Each chain is evaluated with one StringBuilder, or by as few call
+        // sites as possible.
+        for (var name : List.of("concat4", "bracket", "afterCall")) {
+            var method = visitor.getMethod(name);
+            assert count(method, isDynamic ? Opcode.INVOKEDYNAMIC : Opcode.NEW) == 1 : name;
+        }
+        var repeatMethod = visitor.getMethod("repeat");
+        assert isDynamic
+            ? count(repeatMethod, Opcode.INVOKEDYNAMIC) == 2
+            : count(repeatMethod, Opcode.NEW) == 1;
+    }
+
+    public static void main(String[] args) throws Exception {
+        TestUtils.startTestRun("ConcatenationTest");
+
+        testConcatenation(true, false);
+        testConcatenation(false, false);
+        testConcatenation(true, true);
+        testConcatenation(false, true);
+
+        TestUtils.finishTestRun(true);
+    }
+}
@@ -0,0 +1,290 @@
+package codegen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The constant pool of a class file under construction. Entries are
+ * added on demand and de-duplicated, and each add method returns the
+ * index of the (possibly pre-existing) entry.
+ *
+ * The pool also collects the bootstrap methods referred to by invokedynamic
+ * entries, which are written in the BootstrapMethods attribute of the class.
+ */
+public class ConstantPool {
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+
+    // The reference kind of a method handle for a static method.
+    private static final int REF_INVOKE_STATIC = 6;
+
+    // The largest number of entries allowed by the class file format.
+    private static final int MAX_ENTRIES = 65535;
+
+    private final ByteArrayOutputStream bytes;
+    private final Map<String, Integer> indices;
+    private int nextIndex;
+
+    // Each bootstrap method is the index of its method handle followed by
+    // the indices of its arguments.
+    private final List<int[]> bootstrapMethods;
+    private final Map<String, Integer> bootstrapMethodIndices;
+
+    public ConstantPool() {
+        bytes = new ByteArrayOutputStream();
+        indices = new HashMap<String, Integer>();
+        nextIndex = 1; // Index 0 is not used
+        bootstrapMethods = new ArrayList<int[]>();
+        bootstrapMethodIndices = new HashMap<String, Integer>();
+    }
+
+    /**
+     * The value of the constant_pool_count item of the class file.
+     */
+    public int count() {
+        return nextIndex;
+    }
+
+    /**
+     * Writes all entries to the given stream, preceded by their count.
+     */
+    public void write(DataOutputStream stream) throws IOException {
+        stream.writeShort(count());
+        bytes.writeTo(stream);
+    }
+
+    public int addUtf8(String value) {
+        String key = CONSTANT_UTF8 + ":" + value;
+        Integer index = indices.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        // Encode the string first so a failure leaves the pool untouched.
+        var encoded = new ByteArrayOutputStream(value.length() + 2);
+        try {
+            new DataOutputStream(encoded).writeUTF(value);
+        }
+        catch (IOException e) {
+            // Thrown by writeUTF when the encoded string is longer than 65535 bytes.
+            throw new IllegalArgumentException("String constant is too long for the class file format", e);
+        }
+
+        int newIndex = startEntry(key, CONSTANT_UTF8);
+        bytes.writeBytes(encoded.toByteArray());
+        return newIndex;
+    }
+
+    public int addInteger(int value) {
+        String key = CONSTANT_INTEGER + ":" + value;
+        Integer index = indices.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        int newIndex = startEntry(key, CONSTANT_INTEGER);
+        writeInt(value);
+        return newIndex;
+    }
+
+    public int addFloat(float value) {
+        // Key on the bits so that e.g. 0.0 and -0.0 are kept distinct.
+        int bits = Float.floatToRawIntBits(value);
+        String key = CONSTANT_FLOAT + ":" + bits;
+        Integer index = indices.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        int newIndex = startEntry(key, CONSTANT_FLOAT);
+        writeInt(bits);
+        return newIndex;
+    }
+
+    /**
+     * Adds a class reference given its internal name (e.g. java/lang/String)
+     * or, for array classes, its descriptor (e.g. [I).
+     */
+    public int addClass(String internalName) {
+        return addReferenceTo(CONSTANT_CLASS, addUtf8(internalName));
+    }
+
+    public int addString(String value) {
+        return addReferenceTo(CONSTANT_STRING, addUtf8(value));
+    }
+
+    public int addNameAndType(String name, String descriptor) {
+        return addReferencePair(CONSTANT_NAME_AND_TYPE, addUtf8(name), addUtf8(descriptor));
+    }
+
+    public int addFieldReference(MemberReference field) {
+        return addReferencePair(CONSTANT_FIELDREF, addClass(field.owner), addNameAndType(field.name, field.descriptor));
+    }
+
+    public int addMethodReference(MemberReference method) {
+        return addReferencePair(CONSTANT_METHODREF, addClass(method.owner), addNameAndType(method.name, method.descriptor));
+    }
+
+    /**
+     * Adds a handle for the given static method.
+     */
+    public int addStaticMethodHandle(MemberReference method) {
+        int reference = addMethodReference(method);
+        String key = CONSTANT_METHOD_HANDLE + ":" + REF_INVOKE_STATIC + ":" + reference;
+        Integer index = indices.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        int newIndex = startEntry(key, CONSTANT_METHOD_HANDLE);
+        writeByte(REF_INVOKE_STATIC);
+        writeShort(reference);
+        return newIndex;
+    }
+
+    /**
+     * Adds an invokedynamic entry for the call site, along with its bootstrap
+     * method.
+     */
+    public int addInvokeDynamic(DynamicCallSite callSite) {
+        int bootstrapMethod = addBootstrapMethod(callSite.bootstrapMethod, callSite.bootstrapArguments);
+        return addReferencePair(CONSTANT_INVOKE_DYNAMIC, bootstrapMethod, addNameAndType(callSite.name, callSite.descriptor));
+    }
+
+    /**
+     * Adds a bootstrap method with string arguments, and returns its index
+     * in the BootstrapMethods attribute.
+     */
+    private int addBootstrapMethod(MemberReference method, List<String> arguments) {
+        int[] entry = new int[arguments.size() + 1];
+        entry[0] = addStaticMethodHandle(method);
+        for (int i = 0; i < arguments.size(); ++i) {
+            entry[i + 1] = addString(arguments.get(i));
+        }
+
+        String key = Arrays.toString(entry);
+        Integer index = bootstrapMethodIndices.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        int newIndex = bootstrapMethods.size();
+        bootstrapMethods.add(entry);
+        bootstrapMethodIndices.put(key, newIndex);
+        return newIndex;
+    }
+
+    public boolean hasBootstrapMethods() {
+        return !bootstrapMethods.isEmpty();
+    }
+
+    /**
+     * Writes the BootstrapMethods attribute of the class. Its name is added
+     * to the pool, so this must be called before the pool is written.
+     */
+    public void writeBootstrapMethodsAttribute(DataOutputStream stream) throws IOException {
+        int length = 2;
+        for (int[] entry : bootstrapMethods) {
+            length += 2 + 2 * entry.length;
+        }
+
+        stream.writeShort(addUtf8("BootstrapMethods"));
+        stream.writeInt(length);
+        stream.writeShort(bootstrapMethods.size());
+        for (int[] entry : bootstrapMethods) {
+            stream.writeShort(entry[0]);
+            stream.writeShort(entry.length - 1);
+            for (int i = 1; i < entry.length; ++i) {
+                stream.writeShort(entry[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds the appropriate entry for a constant loaded by an ldc instruction.
+     */
+    public int addLoadableConstant(Object value) {
+        if (value instanceof Integer) {
+            return addInteger((Integer) value);
+        }
+        else if (value instanceof Float) {
+            return addFloat((Float) value);
+        }
+        else if (value instanceof String) {
+            return addString((String) value);
+        }
+        else {
+            throw new IllegalArgumentException("Cannot load constant " + value);
+        }
+    }
+
+    private int addReferenceTo(int tag, int target) {
+        String key = tag + ":" + target;
+        Integer index = indices.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        int newIndex = startEntry(key, tag);
+        writeShort(target);
+        return newIndex;
+    }
+
+    private int addReferencePair(int tag, int first, int second) {
+        String key = tag + ":" + first + ":" + second;
+        Integer index = indices.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        int newIndex = startEntry(key, tag);
+        writeShort(first);
+        writeShort(second);
+        return newIndex;
+    }
+
+    /**
+     * Reserves an index for a new entry and writes its tag.
+     */
+    private int startEntry(String key, int tag) {
+        if (nextIndex >= MAX_ENTRIES) {
+            throw new IllegalStateException("Too many constants for the class file format");
+        }
+
+        int index = nextIndex++;
+        indices.put(key, index);
+        writeByte(tag);
+        return index;
+    }
+
+    // Big-endian writers used for the contents of each entry.
+
+    private void writeByte(int b) {
+        bytes.write(b);
+    }
+
+    private void writeShort(int s) {
+        bytes.write(s >>> 8);
+        bytes.write(s);
+    }
+
+    private void writeInt(int i) {
+        writeShort(i >>> 16);
+        writeShort(i & 0xffff);
+    }
+}
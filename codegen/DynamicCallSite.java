@@ -0,0 +1,35 @@
+package codegen;
+
+import java.util.List;
+
+/**
+ * The operand of an invokedynamic instruction: the name and descriptor of
+ * the call, and the static bootstrap method which links the call site the
+ * first time it is executed, along with the string constants passed to
+ * it.
+ */
+public class DynamicCallSite {
+
+    public final String name;
+    public final String descriptor;
+    public final MemberReference bootstrapMethod;
+    public final List<String> bootstrapArguments;
+
+    /**
+     * @param name The name of the call, passed to the bootstrap method.
+     * @param descriptor The method descriptor of the call.
+     * @param bootstrapMethod A static method returning a CallSite.
+     * @param bootstrapArguments The extra constant arguments passed to the
+     *                           bootstrap method.
+     */
+    public DynamicCallSite(String name, String descriptor, MemberReference bootstrapMethod, List<String> bootstrapArguments) {
+        this.name = name;
+        this.descriptor = descriptor;
+        this.bootstrapMethod = bootstrapMethod;
+        this.bootstrapArguments = List.copyOf(bootstrapArguments);
+    }
+
+    public String toString() {
+        return name + descriptor + " via " + bootstrapMethod.toJasminMethodString();
+    }
+}
@@ -0,0 +1,35 @@
+package codegen;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event covering the generation of the JVM code for
+ * one IR function by {@link JvmCodeVisitor}, for either back end. The
+ * counts are of the JVM instructions and labels in the generated method,
+ * and of the IR function's temporaries. They are only filled in when the
+ * event is recorded.
+ */
+@Name("ul.FunctionCodegen")
+@Label("Code Generation")
+@Category("UL Compiler")
+@StackTrace(false)
+@Description("The generation of the JVM code for a UL function")
+public class FunctionCodegenEvent extends Event {
+
+    @Label("Function")
+    public String functionName;
+
+    @Label("Instructions")
+    public int instructionCount;
+
+    @Label("Temporaries")
+    public int tempCount;
+
+    @Label("Labels")
+    public int labelCount;
+}
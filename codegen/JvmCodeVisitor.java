@@ -0,0 +1,1573 @@
+package codegen;
+
+import ir.*;
+import common.*;
+import type.*;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A Visitor for an IRProgram that generates the JVM instructions for each
+ * function, collecting them in a {@link MethodAssembler} per method.
+ * Subclasses decide how the resulting class is written out. JvmCodeVisitors
+ * are single-use, and should only be used to visit a single IRProgram, or
+ * to write a single class one function at a time with
+ * {@link #beginClass}, {@link #generateFunction} and {@link #endClass}.
+ */
+public abstract class JvmCodeVisitor implements IRProgramVisitor<Void> {
+
+    private static final String UL_MAIN_METHOD = "__main";
+
+    private static final String OBJECT_FQN = "java/lang/Object";
+    private static final String STRING_FQN = "java/lang/String";
+    private static final String STRING_BUILDER_FQN = "java/lang/StringBuilder";
+    private static final String PRINT_STREAM_FQN = "java/io/PrintStream";
+
+    // The class of the buffered output runtime, which is copied next to the
+    // generated class when it is used.
+    private static final String OUTPUT_RUNTIME_FQN = "runtime/Output";
+
+    private static final MemberReference SYSTEM_OUT =
+        new MemberReference("java/lang/System", "out", "L" + PRINT_STREAM_FQN + ";");
+
+    private static final MemberReference MAKE_CONCAT_WITH_CONSTANTS = new MemberReference(
+        "java/lang/invoke/StringConcatFactory",
+        "makeConcatWithConstants",
+        "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+            + "Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;"
+    );
+
+    // The most arguments StringConcatFactory accepts for one call site.
+    private static final int MAX_CONCAT_ARGUMENTS = 200;
+
+    // The capacity reserved for each concatenated string whose length isn't
+    // known. This is the amount StringBuilder reserves beyond the length of
+    // its initial contents.
+    private static final int DEFAULT_CONCAT_OPERAND_LENGTH = 16;
+
+    /**
+     * Returns the load instruction for values of the given type.
+     */
+    private static Opcode loadOpcode(Type t) {
+        if (TypeUtils.isReferenceType(t)) {
+            return Opcode.ALOAD;
+        }
+        else if (TypeUtils.isInt(t) || TypeUtils.isBoolean(t) || TypeUtils.isChar(t)) {
+            return Opcode.ILOAD;
+        }
+        else if (TypeUtils.isFloat(t)) {
+            return Opcode.FLOAD;
+        }
+        else {
+            throw new IllegalArgumentException("Cannot load a value of type " + t.toString());
+        }
+    }
+
+    /**
+     * Returns the store instruction for values of the given type.
+     */
+    private static Opcode storeOpcode(Type t) {
+        if (TypeUtils.isReferenceType(t)) {
+            return Opcode.ASTORE;
+        }
+        else if (TypeUtils.isInt(t) || TypeUtils.isBoolean(t) || TypeUtils.isChar(t)) {
+            return Opcode.ISTORE;
+        }
+        else if (TypeUtils.isFloat(t)) {
+            return Opcode.FSTORE;
+        }
+        else {
+            throw new IllegalArgumentException("Cannot store a value of type " + t.toString());
+        }
+    }
+
+    /**
+     * Returns the return instruction for values of the given type.
+     */
+    private static Opcode returnOpcode(Type t) {
+        if (TypeUtils.isReferenceType(t)) {
+            return Opcode.ARETURN;
+        }
+        else if (TypeUtils.isInt(t) || TypeUtils.isBoolean(t) || TypeUtils.isChar(t)) {
+            return Opcode.IRETURN;
+        }
+        else if (TypeUtils.isFloat(t)) {
+            return Opcode.FRETURN;
+        }
+        else {
+            throw new IllegalArgumentException("Cannot return a value of type " + t.toString());
+        }
+    }
+
+    /**
+     * Returns the instruction used to load an element of an array of the
+     * given type.
+     */
+    private static Opcode arrayLoadOpcode(ArrayType t) {
+        var elementType = t.simpleType;
+
+        if (TypeUtils.isReferenceType(elementType)) {
+            return Opcode.AALOAD;
+        }
+        else if (TypeUtils.isInt(elementType)) {
+            return Opcode.IALOAD;
+        }
+        else if (TypeUtils.isBoolean(elementType)) {
+            return Opcode.BALOAD;
+        }
+        else if (TypeUtils.isChar(elementType)) {
+            return Opcode.CALOAD;
+        }
+        else if (TypeUtils.isFloat(elementType)) {
+            return Opcode.FALOAD;
+        }
+        else {
+            throw new IllegalArgumentException("Cannot load from array of type " + t.toString());
+        }
+    }
+
+    /**
+     * Returns the instruction used to store an element of an array of the
+     * given type.
+     */
+    private static Opcode arrayStoreOpcode(ArrayType t) {
+        var elementType = t.simpleType;
+
+        if (TypeUtils.isReferenceType(elementType)) {
+            return Opcode.AASTORE;
+        }
+        else if (TypeUtils.isInt(elementType)) {
+            return Opcode.IASTORE;
+        }
+        else if (TypeUtils.isBoolean(elementType)) {
+            return Opcode.BASTORE;
+        }
+        else if (TypeUtils.isChar(elementType)) {
+            return Opcode.CASTORE;
+        }
+        else if (TypeUtils.isFloat(elementType)) {
+            return Opcode.FASTORE;
+        }
+        else {
+            throw new IllegalArgumentException("Cannot store to array of type " + t.toString());
+        }
+    }
+
+    /**
+     * Returns the newarray type code for arrays of the given primitive
+     * element type.
+     */
+    private static int newArrayTypeCode(SimpleType elementType) {
+        if (TypeUtils.isInt(elementType)) {
+            return MethodAssembler.T_INT;
+        }
+        else if (TypeUtils.isBoolean(elementType)) {
+            return MethodAssembler.T_BOOLEAN;
+        }
+        else if (TypeUtils.isChar(elementType)) {
+            return MethodAssembler.T_CHAR;
+        }
+        else if (TypeUtils.isFloat(elementType)) {
+            return MethodAssembler.T_FLOAT;
+        }
+        else {
+            throw new IllegalArgumentException("Cannot create a primitive array of type " + elementType.toString());
+        }
+    }
+
+    /**
+     * Returns the temporary whose value is needed first by the code
+     * generated for an instruction, or null if there is none. If its value
+     * is already on top of the operand stack, the code can use it from
+     * there.
+     */
+    private static Temporary firstOperand(IRInstruction instruction) {
+        if (instruction instanceof TemporaryAssignmentInstruction) {
+            var value = ((TemporaryAssignmentInstruction) instruction).value;
+            if (value instanceof Temporary) {
+                return (Temporary) value;
+            }
+            else if (value instanceof BinaryOperation) {
+                return ((BinaryOperation) value).left;
+            }
+            else if (value instanceof NegationOperation) {
+                return ((NegationOperation) value).operand;
+            }
+            else if (value instanceof IRArrayAccess) {
+                return ((IRArrayAccess) value).array;
+            }
+            else if (value instanceof IRFunctionCall) {
+                return firstArgument((IRFunctionCall) value);
+            }
+            else {
+                return null;
+            }
+        }
+        else if (instruction instanceof ArrayAssignmentInstruction) {
+            return ((ArrayAssignmentInstruction) instruction).arrayAccess.array;
+        }
+        else if (instruction instanceof ConditionalJumpInstruction) {
+            return ((ConditionalJumpInstruction) instruction).condition;
+        }
+        else if (instruction instanceof FunctionCallInstruction) {
+            return firstArgument(((FunctionCallInstruction) instruction).functionCall);
+        }
+        else if (instruction instanceof PrintInstruction) {
+            return ((PrintInstruction) instruction).temp;
+        }
+        else if (instruction instanceof PrintlnInstruction) {
+            return ((PrintlnInstruction) instruction).temp;
+        }
+        else if (instruction instanceof ReturnInstruction) {
+            return ((ReturnInstruction) instruction).operand.orElse(null);
+        }
+        else {
+            return null;
+        }
+    }
+
+    private static Temporary firstArgument(IRFunctionCall functionCall) {
+        return functionCall.args.isEmpty() ? null : functionCall.args.get(0);
+    }
+
+    /**
+     * Returns the number of times an instruction reads the given temporary.
+     */
+    private static int countUses(IRInstruction instruction, Temporary temp) {
+        var counter = new TempRewriter() {
+            int count = 0;
+
+            protected Temporary rewriteUse(Temporary used) {
+                if (used.globalIndex() == temp.globalIndex()) {
+                    ++count;
+                }
+                return used;
+            }
+        };
+        counter.rewrite(instruction);
+        return counter.count;
+    }
+
+    private static final int[] NO_TEMPS = new int[0];
+
+    /**
+     * Finds the temporaries read by each instruction which are not live
+     * after it. Each block is walked backwards from the temporaries live at
+     * its end, so the sets live after every instruction are never all kept.
+     */
+    private static int[][] findLastUses(IRFunction irFunction) {
+        var instructions = irFunction.instructions;
+        int[][] lastUses = new int[instructions.size()][];
+        var liveness = new Liveness(irFunction);
+
+        for (var block : liveness.getControlFlowGraph().getBlocks()) {
+            var live = liveness.getLiveOut(block);
+            for (int i = block.end - 1; i >= block.start; --i) {
+                List<Integer> dead = new ArrayList<Integer>();
+                new TempRewriter() {
+                    protected Temporary rewriteUse(Temporary used) {
+                        if (!live.get(used.globalIndex())) {
+                            dead.add(used.globalIndex());
+                        }
+                        return used;
+                    }
+                }.rewrite(instructions.get(i));
+
+                lastUses[i] = dead.isEmpty() ? NO_TEMPS : dead.stream().mapToInt(Integer::intValue).toArray();
+                Liveness.stepBackwards(instructions.get(i), live);
+            }
+        }
+
+        return lastUses;
+    }
+
+    private static boolean isLastUse(int[][] lastUses, int index, Temporary temp) {
+        for (int used : lastUses[index]) {
+            if (used == temp.globalIndex()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the instructions which assign a true temporary that is only
+     * read once, as the first operand of the next instruction. Instead of
+     * storing the value and loading it straight back, the value can be left
+     * on the operand stack for the next instruction to use. Chains of such
+     * instructions evaluate an expression tree entirely on the stack.
+     */
+    private static boolean[] findSingleUseResults(List<IRInstruction> instructions, int[][] lastUses) {
+        boolean[] isSingleUse = new boolean[instructions.size()];
+
+        for (int i = 0; i + 1 < instructions.size(); ++i) {
+            if (!(instructions.get(i) instanceof TemporaryAssignmentInstruction)) {
+                continue;
+            }
+
+            var destination = ((TemporaryAssignmentInstruction) instructions.get(i)).destination;
+            var operand = firstOperand(instructions.get(i + 1));
+            if (operand != null
+                    && operand.globalIndex() == destination.globalIndex()
+                    && isOnlyUsedBy(instructions, lastUses, i, i + 1)) {
+                isSingleUse[i] = true;
+            }
+        }
+
+        return isSingleUse;
+    }
+
+    /**
+     * Answers whether the instruction at definitionIndex assigns a true
+     * temporary which is read exactly once by the instruction at useIndex,
+     * and is not needed afterwards.
+     */
+    private static boolean isOnlyUsedBy(List<IRInstruction> instructions, int[][] lastUses, int definitionIndex, int useIndex) {
+        var destination = ((TemporaryAssignmentInstruction) instructions.get(definitionIndex)).destination;
+        var use = instructions.get(useIndex);
+        if (!(destination instanceof TrueTemp) || countUses(use, destination) != 1) {
+            return false;
+        }
+
+        // The value must not be needed after it is used, unless the using
+        // instruction assigns the temporary again.
+        boolean isReassigned = use instanceof TemporaryAssignmentInstruction
+            && ((TemporaryAssignmentInstruction) use).destination.globalIndex() == destination.globalIndex();
+        return isReassigned || isLastUse(lastUses, useIndex, destination);
+    }
+
+    /**
+     * Returns the number of instructions, starting at the given index,
+     * which can be generated as a single compare-and-branch instruction, or
+     * 0 if they can't. This is the case for a comparison whose result is
+     * only used by a conditional jump, possibly after being negated:
+     *      T0 := a < b;
+     *      T1 := Z! T0;
+     *      IF T1 GOTO L0;
+     */
+    private static int fusedBranchLength(List<IRInstruction> instructions, int index, boolean[] isSingleUse) {
+        if (!isSingleUse[index] || !(instructions.get(index) instanceof TemporaryAssignmentInstruction)) {
+            return 0;
+        }
+
+        var value = ((TemporaryAssignmentInstruction) instructions.get(index)).value;
+        if (!(value instanceof BinaryOperation)) {
+            return 0;
+        }
+
+        var operator = ((BinaryOperation) value).operator;
+        if (operator != BinaryOperation.Operators.LESS && operator != BinaryOperation.Operators.EQUAL) {
+            return 0;
+        }
+
+        var next = instructions.get(index + 1);
+        if (next instanceof ConditionalJumpInstruction) {
+            return 2;
+        }
+        else if (next instanceof TemporaryAssignmentInstruction
+                && ((TemporaryAssignmentInstruction) next).value instanceof NegationOperation
+                && isSingleUse[index + 1]
+                && instructions.get(index + 2) instanceof ConditionalJumpInstruction) {
+            return 3;
+        }
+        else {
+            return 0;
+        }
+    }
+
+    private static boolean isStringConcatenation(IRInstruction instruction) {
+        if (!(instruction instanceof TemporaryAssignmentInstruction)) {
+            return false;
+        }
+
+        var value = ((TemporaryAssignmentInstruction) instruction).value;
+        return value instanceof BinaryOperation
+            && ((BinaryOperation) value).operator == BinaryOperation.Operators.PLUS
+            && TypeUtils.isString(((BinaryOperation) value).operationType());
+    }
+
+    private static boolean isStringConstantAssignment(IRInstruction instruction) {
+        return instruction instanceof TemporaryAssignmentInstruction
+            && ((TemporaryAssignmentInstruction) instruction).value instanceof IRConstant
+            && TypeUtils.isString(((TemporaryAssignmentInstruction) instruction).destination.type());
+    }
+
+    /**
+     * Returns the number of instructions, starting at the given index, which
+     * form a chain of string concatenations where each result is only used
+     * as the left operand of the next one, as in the IR for a + b + "c":
+     *      T0 := a S+ b;
+     *      T1 := "c";
+     *      T2 := T0 S+ T1;
+     * A constant which is assigned between two concatenations and only used
+     * as the right operand of the second one is part of the chain. The
+     * whole chain can be evaluated with a single StringBuilder. Returns 0 if
+     * the instruction is not a string concatenation.
+     */
+    private static int concatenationChainLength(List<IRInstruction> instructions, int index, int[][] lastUses) {
+        if (!isStringConcatenation(instructions.get(index))) {
+            return 0;
+        }
+
+        int end = index + 1;
+        while (end < instructions.size()) {
+            int last = end - 1;
+            var next = instructions.get(end);
+
+            if (isStringConcatenation(next)
+                    && isLeftOperand(next, instructions.get(last))
+                    && isOnlyUsedBy(instructions, lastUses, last, end)) {
+                end += 1;
+            }
+            else if (isStringConstantAssignment(next)
+                    && end + 1 < instructions.size()
+                    && isStringConcatenation(instructions.get(end + 1))
+                    && isLeftOperand(instructions.get(end + 1), instructions.get(last))
+                    && isOnlyUsedBy(instructions, lastUses, last, end + 1)
+                    && isOnlyUsedBy(instructions, lastUses, end, end + 1)) {
+                end += 2;
+            }
+            else {
+                break;
+            }
+        }
+        return end - index;
+    }
+
+    /**
+     * Answers whether the left operand of a concatenation is the temporary
+     * assigned by the given instruction.
+     */
+    private static boolean isLeftOperand(IRInstruction concatenation, IRInstruction definition) {
+        var left = ((BinaryOperation) ((TemporaryAssignmentInstruction) concatenation).value).left;
+        return left.globalIndex() == ((TemporaryAssignmentInstruction) definition).destination.globalIndex();
+    }
+
+    /**
+     * Returns the strings concatenated by a chain of instructions, in order.
+     * Constants assigned within the chain are used directly.
+     */
+    private static List<IRAssignableExpression> concatenationChainOperands(List<IRInstruction> chain) {
+        var operands = new ArrayList<IRAssignableExpression>();
+        operands.add(((BinaryOperation) ((TemporaryAssignmentInstruction) chain.get(0)).value).left);
+
+        IRConstant<?> constant = null;
+        for (var instruction : chain) {
+            var value = ((TemporaryAssignmentInstruction) instruction).value;
+            if (value instanceof IRConstant) {
+                constant = (IRConstant<?>) value;
+            }
+            else {
+                var right = ((BinaryOperation) value).right;
+                operands.add(constant != null ? constant : right);
+                constant = null;
+            }
+        }
+        return operands;
+    }
+
+    /**
+     * Sanitizes a method name to make sure there are no conflicts with boilerplate
+     * JVM methods that are always added.
+     */
+    private static String sanitizeMethodName(String methodName) {
+        return methodName.equals("main") ? UL_MAIN_METHOD : methodName;
+    }
+
+    /**
+     * Generates the method for a single IR function on behalf of another
+     * visitor, so that functions can be generated concurrently. It has the
+     * settings of that visitor and shares its table of function types,
+     * which is only read once the functions are being generated.
+     */
+    private static class FunctionVisitor extends JvmCodeVisitor {
+
+        private final JvmCodeVisitor parent;
+
+        FunctionVisitor(JvmCodeVisitor parent) {
+            super(parent.outputDirectory, parent.className, parent.functionEnv);
+            this.parent = parent;
+            setStackingEnabled(parent.isStackingEnabled);
+            setBranchFusionEnabled(parent.isBranchFusionEnabled);
+            setDynamicConcatenationEnabled(parent.isDynamicConcatenationEnabled);
+            setOutputBuffered(parent.isOutputBuffered);
+        }
+
+        /**
+         * Generates and analyzes the method for the function.
+         */
+        MethodAssembler generate(IRFunction function) {
+            visit(function);
+            var method = getFunctionMethod(function.name);
+            method.analyze();
+            return method;
+        }
+
+        protected void beforeInstruction(MethodAssembler method, IRInstruction instruction) {
+            parent.beforeInstruction(method, instruction);
+        }
+
+        protected void writeOutput(String className, List<MethodAssembler> methods) {
+            throw new UnsupportedOperationException("Function visitors do not write output");
+        }
+    }
+
+    /**
+     * Writes the methods of a class to its output, one at a time.
+     */
+    protected interface MethodWriter extends Closeable {
+        void writeMethod(MethodAssembler method) throws IOException;
+    }
+
+    protected final File outputDirectory;
+    private final List<MethodAssembler> methods;
+
+    // Methods from an earlier compilation, by the position of their
+    // function in the program.
+    private final Map<Integer, MethodAssembler> precompiledMethods;
+    private String className;
+    private final Environment<String, MethodType> functionEnv;
+    private LabelFactory labelFactory;
+    private MethodAssembler method;
+    private boolean isStackingEnabled;
+    private boolean isBranchFusionEnabled;
+    private boolean isDynamicConcatenationEnabled;
+    private boolean isOutputBuffered;
+
+    // If set, the functions are generated concurrently on this pool.
+    private ExecutorService executor;
+
+    // The output of a class which is being written one function at a
+    // time, and the temporary file it goes to until the class is complete.
+    private MethodWriter classWriter;
+    private Path temporaryOutputFile;
+    private OutputStream temporaryOutput;
+
+    // The lengths of the string constants held by variables at the current
+    // point of the current basic block, used to size the StringBuilder for
+    // a concatenation.
+    private final Map<Integer, Integer> constantStringLengths;
+
+    // Whether the value computed by the current instruction should be left
+    // on the operand stack, and the temporary whose value is currently
+    // there, if any.
+    private boolean isResultStacked;
+    private Temporary stackedTemp;
+
+    // This is used to drop the jumps and returns which directly follow
+    // another jump or return. Any other unreachable code is removed by the
+    // MethodAssembler.
+    boolean isUnreachable;
+
+    /**
+     * Creates a JvmCodeVisitor which writes its output file to the given
+     * directory. If it is null, the current directory is used.
+     */
+    protected JvmCodeVisitor(File outputDirectory) {
+        this(outputDirectory, null, new Environment<String, MethodType>());
+    }
+
+    private JvmCodeVisitor(File outputDirectory, String className, Environment<String, MethodType> functionEnv) {
+        this.outputDirectory = outputDirectory;
+        this.className = className;
+        methods = new ArrayList<MethodAssembler>();
+        precompiledMethods = new HashMap<Integer, MethodAssembler>();
+        this.functionEnv = functionEnv;
+        constantStringLengths = new HashMap<Integer, Integer>();
+        isStackingEnabled = true;
+        isBranchFusionEnabled = true;
+        isDynamicConcatenationEnabled = false;
+        isOutputBuffered = false;
+        executor = null;
+        classWriter = null;
+        temporaryOutputFile = null;
+        temporaryOutput = null;
+        isUnreachable = false;
+    }
+
+    /**
+     * Chooses whether the value of a true temporary which is only used by
+     * the next instruction is left on the operand stack, rather than being
+     * stored to its local variable and loaded straight back. This is
+     * enabled by default.
+     */
+    public void setStackingEnabled(boolean isStackingEnabled) {
+        this.isStackingEnabled = isStackingEnabled;
+    }
+
+    /**
+     * Chooses whether a comparison which is only used by a conditional
+     * jump is generated as a single compare-and-branch instruction, rather
+     * than computing a boolean and then testing it. This is enabled by
+     * default.
+     */
+    public void setBranchFusionEnabled(boolean isBranchFusionEnabled) {
+        this.isBranchFusionEnabled = isBranchFusionEnabled;
+    }
+
+    /**
+     * Chooses whether strings are concatenated by an invokedynamic call to
+     * StringConcatFactory.makeConcatWithConstants, rather than with a
+     * StringBuilder. This requires a Java 9 class file, which Jasmin can't
+     * produce, so it is disabled by default.
+     */
+    public void setDynamicConcatenationEnabled(boolean isDynamicConcatenationEnabled) {
+        this.isDynamicConcatenationEnabled = isDynamicConcatenationEnabled;
+    }
+
+    /**
+     * Chooses whether print statements write to the buffer of the
+     * runtime.Output class, which is only flushed when it is full or the
+     * program ends, rather than to System.out. The runtime class is written
+     * to the runtime directory under the output directory. This is disabled
+     * by default.
+     */
+    public void setOutputBuffered(boolean isOutputBuffered) {
+        this.isOutputBuffered = isOutputBuffered;
+    }
+
+    /**
+     * Chooses a pool on which the methods of the IR functions are generated
+     * and analyzed concurrently, each by its own visitor. The methods are
+     * kept in program order, so the output is the same as when they are
+     * generated in order by this visitor, which is the default. Subclasses
+     * may also use the pool to write their output.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the pool given to {@link #setExecutor}, or null if there is
+     * none.
+     */
+    protected ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Generates the methods for the IR functions concurrently, and returns
+     * them in the same order.
+     */
+    private List<MethodAssembler> generateConcurrently(List<IRFunction> functions) {
+        var tasks = new ArrayList<ParallelTasks.Task<MethodAssembler, RuntimeException>>();
+        for (var function : functions) {
+            tasks.add(() -> new FunctionVisitor(this).generate(function));
+        }
+        return ParallelTasks.invokeInOrder(executor, tasks);
+    }
+
+    /**
+     * Supplies the method generated by an earlier compilation for a function
+     * which is left out of the IR program. Its position is the index of the
+     * function among all the functions of the program, so that the methods
+     * are written in the same order as when every function is generated.
+     */
+    public void addPrecompiledMethod(int position, String functionName, MethodType type, MethodAssembler method) {
+        assert method.name.equals(sanitizeMethodName(functionName));
+        functionEnv.bind(method.name, type);
+        precompiledMethods.put(position, method);
+    }
+
+    /**
+     * Returns the method generated for the IR function with the given name,
+     * or the precompiled method for it, or null if there is none.
+     */
+    public MethodAssembler getFunctionMethod(String functionName) {
+        String methodName = sanitizeMethodName(functionName);
+        for (var method : methods) {
+            if (method.name.equals(methodName)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the generated class, given the methods in the order they were
+     * generated.
+     */
+    protected abstract void writeOutput(String className, List<MethodAssembler> methods) throws IOException;
+
+    /**
+     * Returns the file the class with the given name is written to.
+     * Visitors which can write a class one method at a time override this
+     * and {@link #openMethodWriter}.
+     */
+    protected File getOutputFile(String className) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " can't write a class one method at a time");
+    }
+
+    /**
+     * Returns a writer for the methods of the class with the given name,
+     * which writes the class to the stream and closes it when it is closed.
+     */
+    protected MethodWriter openMethodWriter(String className, OutputStream out) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " can't write a class one method at a time");
+    }
+
+    /**
+     * Starts writing a class whose methods are then generated one IR
+     * function at a time by {@link #generateFunction}, rather than all at
+     * once from an IRProgram, so that only one function needs to be in
+     * memory at once. The type of every function must be given up front,
+     * since any of them may be called. The class is written to a temporary
+     * file, which replaces the output file when {@link #endClass} is
+     * called, or is deleted by {@link #discardClass}.
+     */
+    public void beginClass(String className, Map<String, MethodType> functionTypes) throws IOException {
+        assert classWriter == null;
+        this.className = className;
+        for (var entry : functionTypes.entrySet()) {
+            functionEnv.bind(sanitizeMethodName(entry.getKey()), entry.getValue());
+        }
+
+        // Unlike Files.createTempFile, this gives the file the usual
+        // permissions, which it keeps when it is moved. The prefix must be
+        // at least three characters long, which a class name may not be.
+        var outputFile = getOutputFile(className).getAbsoluteFile();
+        temporaryOutputFile = File.createTempFile("ul-" + className, ".tmp", outputFile.getParentFile()).toPath();
+        temporaryOutput = new FileOutputStream(temporaryOutputFile.toFile());
+        classWriter = openMethodWriter(className, temporaryOutput);
+
+        addObjectInitializer();
+        addMainMethod();
+        for (var method : methods) {
+            classWriter.writeMethod(method);
+        }
+        methods.clear();
+    }
+
+    /**
+     * Generates the method for the next function of the class begun by
+     * {@link #beginClass}, and writes it. The method is returned, but is
+     * not kept by the visitor.
+     */
+    public MethodAssembler generateFunction(IRFunction function) throws IOException {
+        visit(function);
+        var method = methods.remove(methods.size() - 1);
+        classWriter.writeMethod(method);
+        return method;
+    }
+
+    /**
+     * Finishes the class begun by {@link #beginClass} and moves it to the
+     * output file.
+     */
+    public void endClass() throws IOException {
+        classWriter.close();
+        classWriter = null;
+        temporaryOutput = null;
+        Files.move(temporaryOutputFile, getOutputFile(className).toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        temporaryOutputFile = null;
+
+        if (isOutputBuffered) {
+            writeOutputRuntime();
+        }
+    }
+
+    /**
+     * Abandons the class begun by {@link #beginClass}, if there is one, and
+     * deletes its temporary file. The output file is left as it was.
+     */
+    public void discardClass() throws IOException {
+        // The writer isn't closed, since it would finish the class.
+        classWriter = null;
+        try {
+            if (temporaryOutput != null) {
+                temporaryOutput.close();
+                temporaryOutput = null;
+            }
+        }
+        finally {
+            if (temporaryOutputFile != null) {
+                Files.deleteIfExists(temporaryOutputFile);
+                temporaryOutputFile = null;
+            }
+        }
+    }
+
+    /**
+     * Called before the instructions for each IR instruction are generated.
+     */
+    protected void beforeInstruction(MethodAssembler method, IRInstruction instruction) {
+        // Nothing to do by default.
+    }
+
+    private void placeLabel(Label label) {
+        method.placeLabel(label);
+        isUnreachable = false;
+
+        // Other paths may reach the label with different strings.
+        constantStringLengths.clear();
+    }
+
+    /**
+     * Uses a load instruction to push the value of a variable onto the
+     * operand stack.
+     */
+    private void pushVariable(Temporary temp) {
+        if (isOnStack(temp)) {
+            stackedTemp = null;
+            return;
+        }
+
+        method.addInstruction(loadOpcode(temp.type()), temp.globalIndex());
+    }
+
+    /**
+     * Answers whether the value of the temporary was left on top of the
+     * operand stack by the previous instruction.
+     */
+    private boolean isOnStack(Temporary temp) {
+        if (stackedTemp == null) {
+            return false;
+        }
+
+        // The stacked value must be the first one used.
+        assert stackedTemp.globalIndex() == temp.globalIndex();
+        return true;
+    }
+
+    /**
+     * Uses a store instruction to pop the value off the top of the
+     * operand stack into the given variable.
+     */
+    private void popVariable(Temporary temp) {
+        method.addInstruction(storeOpcode(temp.type()), temp.globalIndex());
+    }
+
+    private void invokeInitializer(String qualifiedClassName) {
+        var initializer = new MemberReference(qualifiedClassName, "<init>", "()V");
+        method.addInstruction(Opcode.INVOKESPECIAL, initializer);
+    }
+
+    private void invokeVirtualMethod(String qualifiedClassName, String methodName, MethodType methodType) {
+        var reference = new MemberReference(qualifiedClassName, methodName, methodType.toJasminString());
+        method.addInstruction(Opcode.INVOKEVIRTUAL, reference);
+    }
+
+    /**
+     * Invoke a static method within this class
+     */
+    private void invokeStatic(String methodName) {
+        methodName = sanitizeMethodName(methodName);
+        MethodType methodType = functionEnv.lookup(methodName);
+
+        var reference = new MemberReference(className, methodName, methodType.toJasminString());
+        method.addInstruction(Opcode.INVOKESTATIC, reference);
+    }
+
+    public Void visit(ArrayAssignmentInstruction irArrayAssignment) {
+        // Load a reference to the array, followed by the index and then the value
+        irArrayAssignment.arrayAccess.array.accept(this);
+        irArrayAssignment.arrayAccess.index.accept(this);
+        irArrayAssignment.value.accept(this);
+
+        var arrayTempType = irArrayAssignment.arrayAccess.array.type();
+        assert TypeUtils.isArray(arrayTempType);
+        method.addInstruction(arrayStoreOpcode((ArrayType) arrayTempType));
+
+        return null;
+    }
+
+    /**
+     * Call StringBuilder.append().
+     * The string to append and a reference to the StringBuilder should
+     * already be placed on the operand stack.
+     */
+    private void stringBuilderAppend() {
+        var append = new MemberReference(
+            STRING_BUILDER_FQN,
+            "append",
+            "(L" + STRING_FQN + ";)L" + STRING_BUILDER_FQN + ";"
+        );
+        method.addInstruction(Opcode.INVOKEVIRTUAL, append);
+    }
+
+    /**
+     * Returns the capacity needed to concatenate the strings, assuming a
+     * default length for those which aren't constants.
+     */
+    private int concatenationCapacity(List<? extends IRAssignableExpression> strings) {
+        int capacity = 0;
+        for (var s : strings) {
+            if (s instanceof IRConstant) {
+                capacity += ((String) ((IRConstant<?>) s).value()).length();
+            }
+            else {
+                int index = ((Temporary) s).globalIndex();
+                capacity += constantStringLengths.getOrDefault(index, DEFAULT_CONCAT_OPERAND_LENGTH);
+            }
+        }
+        return capacity;
+    }
+
+    /**
+     * Concatenates the strings, in order, and places the result on the
+     * operand stack. A single StringBuilder is used for all of them, sized
+     * to hold the result without growing when their lengths are known.
+     */
+    private void concatenateStrings(List<? extends IRAssignableExpression> strings) {
+        if (isDynamicConcatenationEnabled) {
+            concatenateStringsDynamically(strings);
+            return;
+        }
+
+        var first = strings.get(0);
+        boolean isFirstOnStack = first instanceof Temporary && isOnStack((Temporary) first);
+
+        method.addInstruction(Opcode.NEW, STRING_BUILDER_FQN);
+        method.addInstruction(Opcode.DUP);
+        method.pushInt(concatenationCapacity(strings));
+        method.addInstruction(Opcode.INVOKESPECIAL, new MemberReference(STRING_BUILDER_FQN, "<init>", "(I)V"));
+
+        if (isFirstOnStack) {
+            method.addInstruction(Opcode.SWAP);
+            stackedTemp = null;
+        }
+        else {
+            first.accept(this);
+        }
+        stringBuilderAppend();
+
+        for (var s : strings.subList(1, strings.size())) {
+            s.accept(this);
+            stringBuilderAppend();
+        }
+
+        invokeVirtualMethod(STRING_BUILDER_FQN, "toString", new MethodType(StringType.INSTANCE));
+    }
+
+    /**
+     * Concatenates the strings with invokedynamic call sites linked by
+     * StringConcatFactory. If there are more strings than one call site can
+     * take, the result of each call is the first argument of the next.
+     */
+    private void concatenateStringsDynamically(List<? extends IRAssignableExpression> strings) {
+        int argumentCount = 0;
+        for (var s : strings) {
+            if (argumentCount == MAX_CONCAT_ARGUMENTS) {
+                invokeConcatenation(argumentCount);
+                argumentCount = 1;
+            }
+            s.accept(this);
+            ++argumentCount;
+        }
+        invokeConcatenation(argumentCount);
+    }
+
+    /**
+     * Concatenates the given number of strings on top of the operand stack.
+     */
+    private void invokeConcatenation(int argumentCount) {
+        // Each \1 (U+0001) in the recipe stands for the next argument.
+        String recipe = "\1".repeat(argumentCount);
+        String descriptor = "(" + ("L" + STRING_FQN + ";").repeat(argumentCount) + ")L" + STRING_FQN + ";";
+
+        var callSite = new DynamicCallSite("makeConcatWithConstants", descriptor, MAKE_CONCAT_WITH_CONSTANTS, List.of(recipe));
+        method.addInstruction(Opcode.INVOKEDYNAMIC, callSite);
+    }
+
+    /**
+     * Answers whether values of the given type are compared directly by the
+     * if_icmp instructions.
+     */
+    private static boolean isComparedAsInt(Type t) {
+        return TypeUtils.isInt(t) || TypeUtils.isChar(t) || TypeUtils.isBoolean(t);
+    }
+
+    /**
+     * Compares the two float or string operand values on top of the stack
+     * and pushes an integer which is zero if they are equal, negative if
+     * the first is less than the second, and positive otherwise.
+     *
+     * Other types are compared directly by the if_icmp instructions. (The
+     * sign of their difference is not the result of the comparison if the
+     * subtraction overflows.)
+     */
+    private void compareValues(Type operationType) {
+        if (TypeUtils.isFloat(operationType)) {
+            method.addInstruction(Opcode.FCMPG);
+        }
+        else if (TypeUtils.isString(operationType)) {
+            MethodType methodType = new MethodType.Builder()
+                .addArgumentType(StringType.INSTANCE)
+                .withReturnType(IntegerType.INSTANCE)
+                .build();
+            invokeVirtualMethod(STRING_FQN, "compareTo", methodType);
+        }
+        else {
+            throw new UnsupportedOperationException("Cannot compare operands of type " + operationType.toString());
+        }
+    }
+
+    /**
+     * Replaces the comparison operands or result on top of the stack with a
+     * boolean (1 or 0) computed by the given conditional branch instruction.
+     */
+    private void comparisonResultToBoolean(Opcode comparisonOperation) {
+        var trueLabel = labelFactory.getLabel();
+        var doneLabel = labelFactory.getLabel();
+
+        method.addInstruction(comparisonOperation, trueLabel);
+        method.pushInt(0);
+        method.addInstruction(Opcode.GOTO, doneLabel);
+
+        placeLabel(trueLabel);
+        method.pushInt(1);
+
+        placeLabel(doneLabel);
+    }
+
+    /**
+     * Branches to the target if the result of the comparison, or its
+     * negation, is true.
+     */
+    private void compareAndBranch(BinaryOperation comparison, boolean isNegated, Label target) {
+        var operationType = comparison.operationType();
+        boolean isEqual = comparison.operator == BinaryOperation.Operators.EQUAL;
+
+        pushVariable(comparison.left);
+        pushVariable(comparison.right);
+
+        Opcode branch;
+        if (isComparedAsInt(operationType)) {
+            if (isEqual) {
+                branch = isNegated ? Opcode.IF_ICMPNE : Opcode.IF_ICMPEQ;
+            }
+            else {
+                branch = isNegated ? Opcode.IF_ICMPGE : Opcode.IF_ICMPLT;
+            }
+        }
+        else {
+            // Floats and strings are compared to an integer first. fcmpg
+            // gives 1 if either operand is NaN, so the negated branches
+            // are taken then.
+            compareValues(operationType);
+            if (isEqual) {
+                branch = isNegated ? Opcode.IFNE : Opcode.IFEQ;
+            }
+            else {
+                branch = isNegated ? Opcode.IFGE : Opcode.IFLT;
+            }
+        }
+
+        method.addInstruction(branch, target);
+    }
+
+    private void checkEqual(Type operationType) {
+        // Booleans can be compared more quickly than other types using xor.
+        if (TypeUtils.isBoolean(operationType)) {
+            method.addInstruction(Opcode.IXOR);
+            method.pushInt(1);
+            method.addInstruction(Opcode.IXOR);
+            return;
+        }
+
+        if (isComparedAsInt(operationType)) {
+            comparisonResultToBoolean(Opcode.IF_ICMPEQ);
+        }
+        else {
+            compareValues(operationType);
+            comparisonResultToBoolean(Opcode.IFEQ);
+        }
+    }
+
+    private void checkLessThan(Type operationType) {
+        if (isComparedAsInt(operationType)) {
+            comparisonResultToBoolean(Opcode.IF_ICMPLT);
+        }
+        else {
+            compareValues(operationType);
+            comparisonResultToBoolean(Opcode.IFLT);
+        }
+    }
+
+    public Void visit(BinaryOperation irBinaryOperation) {
+        var operationType = irBinaryOperation.operationType();
+        var left = irBinaryOperation.left;
+        var right = irBinaryOperation.right;
+        boolean isFloat = TypeUtils.isFloat(operationType);
+
+        // Push the operands onto the stack, unless we're doing string concatenation.
+        if (! irBinaryOperation.operator.equals(BinaryOperation.Operators.PLUS)
+                || ! TypeUtils.isString(operationType)) {
+            left.accept(this);
+            right.accept(this);
+        }
+
+        switch(irBinaryOperation.operator) {
+            case PLUS:
+                if (TypeUtils.isString(operationType)) {
+                    concatenateStrings(List.of(left, right));
+                }
+                else {
+                    method.addInstruction(isFloat ? Opcode.FADD : Opcode.IADD);
+                }
+                break;
+
+            case MINUS:
+                method.addInstruction(isFloat ? Opcode.FSUB : Opcode.ISUB);
+                break;
+
+            case MULTIPLY:
+                method.addInstruction(isFloat ? Opcode.FMUL : Opcode.IMUL);
+                break;
+
+            case EQUAL:
+                checkEqual(operationType);
+                break;
+
+            case LESS:
+                checkLessThan(operationType);
+                break;
+
+            default:
+                throw new IllegalArgumentException("No such binary operation is supported");
+        }
+
+        return null;
+    }
+
+    public Void visit(ConditionalJumpInstruction irConditionalJump) {
+        irConditionalJump.condition.accept(this);
+        method.addInstruction(Opcode.IFNE, irConditionalJump.label);
+
+        return null;
+    }
+
+    public Void visit(FunctionCallInstruction callInstruction) {
+        callInstruction.functionCall.accept(this);
+
+        // If there is a return value, pop it off the stack to discard it.
+        String functionName = sanitizeMethodName(callInstruction.functionCall.functionName);
+        var functionType = functionEnv.lookup(functionName);
+        if (!TypeUtils.isVoid(functionType.returnType)) {
+            method.addInstruction(Opcode.POP);
+        }
+
+        return null;
+    }
+
+    public Void visit(IRArrayAccess irArrayAccess) {
+        pushVariable(irArrayAccess.array);
+        pushVariable(irArrayAccess.index);
+
+        var arrayTempType = irArrayAccess.array.type();
+        assert TypeUtils.isArray(arrayTempType);
+        method.addInstruction(arrayLoadOpcode((ArrayType) arrayTempType));
+
+        return null;
+    }
+
+    public Void visit(IRArrayCreation irArrayCreation) {
+        var arrayType = irArrayCreation.arrayType;
+        SimpleType elementType = arrayType.simpleType;
+
+        method.pushInt(arrayType.size);
+        if (TypeUtils.isString(elementType)) {
+            method.addInstruction(Opcode.ANEWARRAY, STRING_FQN);
+        }
+        else {
+            method.addInstruction(Opcode.NEWARRAY, newArrayTypeCode(elementType));
+        }
+
+        return null;
+    }
+
+    public Void visit(IRAssignableExpression irAssignableExpression) {
+        throw new UnsupportedOperationException("visit called with abstract IRAssignableOperation parameter");
+    }
+
+    public Void visit(IRConstant irConstant) {
+        // Booleans and characters are pushed as integers.
+        var value = irConstant.value();
+
+        if (value instanceof Boolean) {
+            method.pushInt((Boolean) value ? 1 : 0);
+        }
+        else if (value instanceof Character) {
+            method.pushInt((Character) value);
+        }
+        else if (value instanceof Integer) {
+            method.pushInt((Integer) value);
+        }
+        else if (value instanceof Float) {
+            method.pushFloat((Float) value);
+        }
+        else {
+            method.pushString((String) value);
+        }
+
+        return null;
+    }
+
+    public Void visit(IRFunctionCall irFunctionCall) {
+        for (var arg : irFunctionCall.args) {
+            pushVariable(arg);
+        }
+
+        invokeStatic(irFunctionCall.functionName);
+
+        return null;
+    }
+
+    // Simple linear search to find all labels in the function and return
+    // the index of the largest one.
+    private int getMaxLabelUsed(IRFunction function) {
+        int max = -1;
+
+        for (var instruction : function.instructions) {
+            if (instruction instanceof LabelInstruction) {
+                max = Math.max(max, ((LabelInstruction) instruction).label.index);
+            }
+        }
+
+        return max;
+    }
+
+    public Void visit(IRFunction irFunction) {
+        var event = new FunctionCodegenEvent();
+        event.begin();
+
+        String methodName = sanitizeMethodName(irFunction.name);
+        method = new MethodAssembler(
+            MethodAssembler.ACC_PUBLIC | MethodAssembler.ACC_STATIC,
+            className,
+            methodName,
+            functionEnv.lookup(methodName).toJasminString()
+        );
+
+        labelFactory = new LabelFactory(getMaxLabelUsed(irFunction) + 1);
+
+        // All variables share the same scope, covering the whole method.
+        var startLabel = labelFactory.getLabel();
+        var endLabel = labelFactory.getLabel();
+        for (var temp : irFunction.temps) {
+            var declaration = new JasminVariableDeclaration(temp, startLabel, endLabel);
+            method.declareVariable(
+                declaration.n,
+                declaration.name,
+                declaration.type.toJasminString(),
+                startLabel,
+                endLabel
+            );
+        }
+
+        placeLabel(startLabel);
+
+        var instructions = irFunction.instructions;
+        int[][] lastUses = findLastUses(irFunction);
+        boolean[] isSingleUse = findSingleUseResults(instructions, lastUses);
+        for (int i = 0; i < instructions.size(); ++i) {
+            var instruction = instructions.get(i);
+            beforeInstruction(method, instruction);
+
+            int chainLength = concatenationChainLength(instructions, i, lastUses);
+            if (chainLength > 1) {
+                var chain = instructions.subList(i, i + chainLength);
+                for (var link : chain.subList(1, chainLength)) {
+                    beforeInstruction(method, link);
+                }
+
+                var last = (TemporaryAssignmentInstruction) chain.get(chainLength - 1);
+                isResultStacked = isStackingEnabled && isSingleUse[i + chainLength - 1];
+                concatenateStrings(concatenationChainOperands(chain));
+                assignResult(last.destination);
+
+                i += chainLength - 1;
+                continue;
+            }
+
+            int fusedLength = isBranchFusionEnabled ? fusedBranchLength(instructions, i, isSingleUse) : 0;
+            if (fusedLength > 0) {
+                for (int j = i + 1; j < i + fusedLength; ++j) {
+                    beforeInstruction(method, instructions.get(j));
+                }
+
+                var comparison = (BinaryOperation) ((TemporaryAssignmentInstruction) instruction).value;
+                var jump = (ConditionalJumpInstruction) instructions.get(i + fusedLength - 1);
+                compareAndBranch(comparison, fusedLength == 3, jump.label);
+
+                i += fusedLength - 1;
+                continue;
+            }
+
+            isResultStacked = isStackingEnabled && isSingleUse[i];
+            instruction.accept(this);
+        }
+        assert stackedTemp == null;
+
+        placeLabel(endLabel);
+
+        methods.add(method);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.functionName = irFunction.name;
+            event.tempCount = irFunction.temps.size();
+            for (var instruction : method.getInstructions()) {
+                if (instruction.isLabel()) {
+                    ++event.labelCount;
+                }
+                else {
+                    ++event.instructionCount;
+                }
+            }
+            event.commit();
+        }
+
+        method = null;
+
+        return null;
+    }
+
+    public Void visit(IRInstruction irInstruction) {
+        throw new UnsupportedOperationException("visit called with IRInstruction parameter");
+    }
+
+    /**
+     * Adds the boilerplate object initializer method.
+     */
+    private void addObjectInitializer() {
+        method = new MethodAssembler(MethodAssembler.ACC_PUBLIC, className, "<init>", "()V");
+        method.addInstruction(Opcode.ALOAD, 0);
+        invokeInitializer(OBJECT_FQN);
+        method.addInstruction(Opcode.RETURN);
+        methods.add(method);
+    }
+
+    /**
+     * Adds the boilerplate main method which calls the UL's renamed main
+     * method.
+     */
+    private void addMainMethod() {
+        method = new MethodAssembler(
+            MethodAssembler.ACC_PUBLIC | MethodAssembler.ACC_STATIC,
+            className,
+            "main",
+            "([L" + STRING_FQN + ";)V"
+        );
+        invokeStatic(UL_MAIN_METHOD);
+        if (isOutputBuffered) {
+            method.addInstruction(Opcode.INVOKESTATIC, new MemberReference(OUTPUT_RUNTIME_FQN, "flush", "()V"));
+        }
+        method.addInstruction(Opcode.RETURN);
+        methods.add(method);
+    }
+
+    public Void visit(IRProgram irProgram) throws Exception {
+        className = irProgram.programName;
+
+        for (var function : irProgram.functions) {
+            functionEnv.bind(sanitizeMethodName(function.name), function.type);
+        }
+
+        addObjectInitializer();
+        addMainMethod();
+
+        // The IR functions are in program order, with the precompiled
+        // functions left out.
+        int functionCount = irProgram.functions.size() + precompiledMethods.size();
+        var functions = irProgram.functions.iterator();
+        Iterator<MethodAssembler> generatedMethods = null;
+        if (executor != null) {
+            generatedMethods = generateConcurrently(irProgram.functions).iterator();
+        }
+
+        for (int position = 0; position < functionCount; ++position) {
+            var precompiledMethod = precompiledMethods.get(position);
+            if (precompiledMethod != null) {
+                methods.add(precompiledMethod);
+            }
+            else if (generatedMethods != null) {
+                methods.add(generatedMethods.next());
+            }
+            else {
+                functions.next().accept(this);
+            }
+        }
+
+        writeOutput(className, methods);
+        if (isOutputBuffered) {
+            writeOutputRuntime();
+        }
+
+        return null;
+    }
+
+    /**
+     * Copies the class file of the output runtime from the compiler's own
+     * class path. Several programs may be compiled to the same directory at
+     * once, so the file is replaced atomically.
+     */
+    private void writeOutputRuntime() throws IOException {
+        var directory = new File(outputDirectory, "runtime");
+        Files.createDirectories(directory.toPath());
+
+        try (InputStream in = JvmCodeVisitor.class.getResourceAsStream("/" + OUTPUT_RUNTIME_FQN + ".class")) {
+            if (in == null) {
+                throw new IOException("Could not find the " + OUTPUT_RUNTIME_FQN + " class");
+            }
+
+            var temporaryFile = Files.createTempFile(directory.toPath(), "Output", ".tmp");
+            try {
+                Files.copy(in, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temporaryFile, new File(directory, "Output.class").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally {
+                Files.deleteIfExists(temporaryFile);
+            }
+        }
+    }
+
+    public Void visit(JumpInstruction irJumpInstruction) {
+        if (isUnreachable) {
+            return null;
+        }
+
+        method.addInstruction(Opcode.GOTO, irJumpInstruction.label);
+        isUnreachable = true;
+
+        return null;
+    }
+
+    public Void visit(LabelInstruction irLabelInstruction) {
+        placeLabel(irLabelInstruction.label);
+        return null;
+    }
+
+    public Void visit(Label irLabel) {
+        throw new UnsupportedOperationException("Code generation not required for label usages");
+    }
+
+    public Void visit(LocalTemp irTempLocal) {
+        pushVariable(irTempLocal);
+        return null;
+    }
+
+    public Void visit(NegationOperation irNegationOperation) {
+        if ( !TypeUtils.isBoolean(irNegationOperation.operandType) ) {
+            throw new IllegalArgumentException("Code generation for negations is only supported for booleans");
+        }
+
+        // Take the XOR of the value to be negated with 1 to flip 0->1 or 1->0
+        pushVariable(irNegationOperation.operand);
+        method.pushInt(1);
+        method.addInstruction(Opcode.IXOR);
+
+        return null;
+    }
+
+    public Void visit(ParamTemp irTempParam) {
+        pushVariable(irTempParam);
+        return null;
+    }
+
+    private void print(Temporary temp, String printMethodName) {
+        if (isOutputBuffered) {
+            pushVariable(temp);
+
+            var descriptor = new MethodType.Builder().addArgumentType(temp.type()).build().toJasminString();
+            method.addInstruction(Opcode.INVOKESTATIC, new MemberReference(OUTPUT_RUNTIME_FQN, printMethodName, descriptor));
+            return;
+        }
+
+        if (isOnStack(temp)) {
+            method.addInstruction(Opcode.GETSTATIC, SYSTEM_OUT);
+            method.addInstruction(Opcode.SWAP);
+            stackedTemp = null;
+        }
+        else {
+            method.addInstruction(Opcode.GETSTATIC, SYSTEM_OUT);
+            pushVariable(temp);
+        }
+
+        var methodType = new MethodType.Builder().addArgumentType(temp.type()).build();
+        invokeVirtualMethod(PRINT_STREAM_FQN, printMethodName, methodType);
+    }
+
+    public Void visit(PrintInstruction irPrintInstruction) {
+        print(irPrintInstruction.temp, "print");
+        return null;
+    }
+
+    public Void visit(PrintlnInstruction irPrintlnInstruction) {
+        print(irPrintlnInstruction.temp, "println");
+        return null;
+    }
+
+    public Void visit(ReturnInstruction irReturnInstruction) {
+        if (isUnreachable) {
+            // A value left on the stack for the return is never used.
+            stackedTemp = null;
+            return null;
+        }
+
+        if (irReturnInstruction.operand.isPresent()) {
+            var temp = irReturnInstruction.operand.get();
+            pushVariable(temp);
+            method.addInstruction(returnOpcode(temp.type()));
+        }
+        else {
+            method.addInstruction(Opcode.RETURN);
+        }
+
+        isUnreachable = true;
+
+        return null;
+    }
+
+    /**
+     * Assigns the value on top of the operand stack to the destination of
+     * the current instruction, or leaves it there for the next instruction.
+     */
+    private void assignResult(Temporary destination) {
+        constantStringLengths.remove(destination.globalIndex());
+
+        if (isResultStacked) {
+            stackedTemp = destination;
+        }
+        else {
+            popVariable(destination);
+        }
+    }
+
+    public Void visit(TemporaryAssignmentInstruction irTempAssignmentInstruction) {
+        var value = irTempAssignmentInstruction.value;
+        value.accept(this);
+        assignResult(irTempAssignmentInstruction.destination);
+
+        if (value instanceof IRConstant && ((IRConstant<?>) value).value() instanceof String) {
+            int length = ((String) ((IRConstant<?>) value).value()).length();
+            constantStringLengths.put(irTempAssignmentInstruction.destination.globalIndex(), length);
+        }
+
+        return null;
+    }
+
+    public Void visit(Temporary irTemp) {
+        throw new UnsupportedOperationException("visit called with abstract Temporary parameter");
+    }
+
+    public Void visit(TrueTemp irTemp) {
+        pushVariable(irTemp);
+        return null;
+    }
+}
@@ -0,0 +1,86 @@
+package codegen;
+
+import common.Label;
+
+/**
+ * A single symbolic JVM instruction held by a {@link MethodAssembler}.
+ * Operands are kept in their symbolic form (e.g. labels, constants and
+ * member references) and are only resolved when the method is encoded.
+ *
+ * Label definitions are also represented as JvmInstructions so that they
+ * can be kept in order with the real instructions. They have no opcode.
+ */
+public class JvmInstruction {
+
+    public final Opcode opcode;
+    public final Object operand;
+
+    private JvmInstruction(Opcode opcode, Object operand) {
+        this.opcode = opcode;
+        this.operand = operand;
+    }
+
+    /**
+     * Creates an instruction with no operand.
+     */
+    public static JvmInstruction of(Opcode opcode) {
+        return new JvmInstruction(opcode, null);
+    }
+
+    /**
+     * Creates an instruction with the given operand. The type of the operand
+     * depends on the opcode:
+     *  - Integer for local variable indices, pushed values, and newarray types
+     *  - Integer, Float or String for ldc constants
+     *  - Label for branches
+     *  - MemberReference for field accesses and invokes
+     *  - DynamicCallSite for invokedynamic
+     *  - String for class names used by new and anewarray
+     */
+    public static JvmInstruction of(Opcode opcode, Object operand) {
+        assert opcode != null;
+        assert operand != null;
+        return new JvmInstruction(opcode, operand);
+    }
+
+    /**
+     * Creates the definition of a label at the current position.
+     */
+    public static JvmInstruction label(Label label) {
+        assert label != null;
+        return new JvmInstruction(null, label);
+    }
+
+    public boolean isLabel() {
+        return opcode == null;
+    }
+
+    public Label label() {
+        assert isLabel() || opcode.isBranch();
+        return (Label) operand;
+    }
+
+    public int intOperand() {
+        return (Integer) operand;
+    }
+
+    public MemberReference memberOperand() {
+        return (MemberReference) operand;
+    }
+
+    public DynamicCallSite callSiteOperand() {
+        return (DynamicCallSite) operand;
+    }
+
+    public String toString() {
+        if (isLabel()) {
+            return label().toJasminString() + ':';
+        }
+        else if (operand == null) {
+            return opcode.mnemonic();
+        }
+        else {
+            return opcode.mnemonic() + ' ' + operand.toString();
+        }
+    }
+}
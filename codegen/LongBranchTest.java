@@ -0,0 +1,152 @@
+package codegen;
+
+import common.Label;
+import common.LabelFactory;
+import common.TestUtils;
+
+/**
+ * Tests that branches whose targets are more than 32K bytes away, which
+ * large generated functions can have, are widened into goto_w, and that
+ * the resulting methods pass verification.
+ */
+public class LongBranchTest {
+
+    static final String CLASS_NAME = "LongBranches";
+
+    // The padding between a branch and its target is twice this many bytes.
+    static final int PADDING_PAIRS = 17000;
+
+    private static void addPadding(MethodAssembler method) {
+        for (int i = 0; i < PADDING_PAIRS; ++i) {
+            method.addInstruction(Opcode.ICONST_0);
+            method.addInstruction(Opcode.POP);
+        }
+    }
+
+    /**
+     * Builds a method which counts down its argument in a loop whose body
+     * is too long for 16-bit offsets, so both the conditional branch out of
+     * the loop and the jump back to its start are widened:
+     *      int count(int n) {
+     *          int count = 0;
+     *      loop:
+     *          if (n <= 0) goto done;
+     *          ...padding...
+     *          count = count + 1;
+     *          n = n - 1;
+     *          goto loop;
+     *      done:
+     *          return count;
+     *      }
+     */
+    static MethodAssembler countMethod() {
+        var labels = new LabelFactory();
+        Label loop = labels.getLabel();
+        Label done = labels.getLabel();
+        Label end = labels.getLabel();
+
+        var method = new MethodAssembler(MethodAssembler.ACC_PUBLIC | MethodAssembler.ACC_STATIC, CLASS_NAME, "count", "(I)I");
+        method.declareVariable(1, "count", "I", loop, end);
+        method.pushInt(0);
+        method.addInstruction(Opcode.ISTORE, 1);
+
+        method.placeLabel(loop);
+        method.addInstruction(Opcode.ILOAD, 0);
+        method.addInstruction(Opcode.IFLE, done);
+        addPadding(method);
+        method.addInstruction(Opcode.ILOAD, 1);
+        method.pushInt(1);
+        method.addInstruction(Opcode.IADD);
+        method.addInstruction(Opcode.ISTORE, 1);
+        method.addInstruction(Opcode.ILOAD, 0);
+        method.pushInt(1);
+        method.addInstruction(Opcode.ISUB);
+        method.addInstruction(Opcode.ISTORE, 0);
+        method.addInstruction(Opcode.GOTO, loop);
+
+        method.placeLabel(done);
+        method.addInstruction(Opcode.ILOAD, 1);
+        method.addInstruction(Opcode.IRETURN);
+        method.placeLabel(end);
+        return method;
+    }
+
+    /**
+     * Builds a method with a forward jump over the padding, and a
+     * conditional branch which is near enough to stay short:
+     *      int pick(int n) {
+     *          if (n == 0) goto zero;
+     *          goto other;
+     *      zero:
+     *          ...padding...
+     *          return 2;
+     *      other:
+     *          return 1;
+     *      }
+     */
+    static MethodAssembler pickMethod() {
+        var labels = new LabelFactory();
+        Label zero = labels.getLabel();
+        Label other = labels.getLabel();
+
+        var method = new MethodAssembler(MethodAssembler.ACC_PUBLIC | MethodAssembler.ACC_STATIC, CLASS_NAME, "pick", "(I)I");
+        method.addInstruction(Opcode.ILOAD, 0);
+        method.addInstruction(Opcode.IFEQ, zero);
+        method.addInstruction(Opcode.GOTO, other);
+
+        method.placeLabel(zero);
+        addPadding(method);
+        method.pushInt(2);
+        method.addInstruction(Opcode.IRETURN);
+
+        method.placeLabel(other);
+        method.pushInt(1);
+        method.addInstruction(Opcode.IRETURN);
+        return method;
+    }
+
+    static Class<?> load(MethodAssembler... methods) throws Exception {
+        var classWriter = new ClassFileWriter(CLASS_NAME, CLASS_NAME + ".ir");
+        for (var method : methods) {
+            classWriter.addMethod(method);
+        }
+        byte[] classFile = classWriter.toByteArray();
+
+        // Classes defined by this loader are verified.
+        var loader = new ClassLoader(LongBranchTest.class.getClassLoader()) {
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                if (!name.equals(CLASS_NAME)) {
+                    throw new ClassNotFoundException(name);
+                }
+                return defineClass(name, classFile, 0, classFile.length);
+            }
+        };
+        return loader.loadClass(CLASS_NAME);
+    }
+
+    private static void testLongBranches() throws Exception {
+        var count = countMethod();
+        var pick = pickMethod();
+        var generated = load(count, pick);
+
+        var countMethod = generated.getMethod("count", int.class);
+        assert countMethod.invoke(null, 0).equals(0);
+        assert countMethod.invoke(null, 3).equals(3);
+
+        var pickMethod = generated.getMethod("pick", int.class);
+        assert pickMethod.invoke(null, 0).equals(2);
+        assert pickMethod.invoke(null, 5).equals(1);
+
+        // iload_0, a short ifeq, a goto_w, the padding, and two pairs of
+        // iconst and ireturn.
+        assert pick.getCodeLength() == 1 + 3 + 5 + 2 * PADDING_PAIRS + 4 : pick.getCodeLength();
+    }
+
+    public static void main(String[] args) throws Exception {
+        TestUtils.startTestRun("LongBranchTest");
+
+        testLongBranches();
+
+        TestUtils.finishTestRun(true);
+    }
+}
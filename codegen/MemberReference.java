@@ -0,0 +1,44 @@
+package codegen;
+
+/**
+ * A symbolic reference to a field or method of a class, used as the
+ * operand of field-access and invoke instructions.
+ */
+public class MemberReference {
+
+    public final String owner;
+    public final String name;
+    public final String descriptor;
+
+    /**
+     * @param owner The internal name of the class declaring the member
+     *              (e.g. java/lang/String).
+     * @param name The name of the member.
+     * @param descriptor The field or method descriptor of the member.
+     */
+    public MemberReference(String owner, String name, String descriptor) {
+        this.owner = owner;
+        this.name = name;
+        this.descriptor = descriptor;
+    }
+
+    /**
+     * Returns the representation used by Jasmin for method references,
+     * e.g. java/io/PrintStream/println(I)V
+     */
+    public String toJasminMethodString() {
+        return owner + '/' + name + descriptor;
+    }
+
+    /**
+     * Returns the representation used by Jasmin for field references,
+     * e.g. java/lang/System/out Ljava/io/PrintStream;
+     */
+    public String toJasminFieldString() {
+        return owner + '/' + name + ' ' + descriptor;
+    }
+
+    public String toString() {
+        return toJasminMethodString();
+    }
+}
@@ -0,0 +1,1150 @@
+package codegen;
+
+import common.Label;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the symbolic instructions of a single JVM method and encodes
+ * them as the method's Code attribute.
+ *
+ * Before a method is encoded it is analyzed by simulating the effect of
+ * each instruction on the local variables and the operand stack, following
+ * branches until the state at every reachable instruction is stable. This
+ * yields the exact maximum stack depth and the frames needed for the
+ * StackMapTable attribute. Instructions that can never be reached are not
+ * encoded.
+ *
+ * Every local variable has a single declared type for the whole method,
+ * so the analysis only needs to track which locals are definitely assigned
+ * at each point.
+ */
+public class MethodAssembler {
+
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_STATIC = 0x0008;
+
+    // Element type codes used as the operand of newarray
+    public static final int T_BOOLEAN = 4;
+    public static final int T_CHAR = 5;
+    public static final int T_FLOAT = 6;
+    public static final int T_INT = 10;
+
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    // The lengths of a goto_w, and of a conditional branch which has been
+    // widened into the opposite branch around a goto_w.
+    private static final int WIDE_GOTO_LENGTH = 5;
+    private static final int WIDE_CONDITIONAL_BRANCH_LENGTH = 3 + WIDE_GOTO_LENGTH;
+
+    // Frame types used in the StackMapTable attribute
+    private static final int SAME_FRAME_MAX = 63;
+    private static final int SAME_LOCALS_1_STACK_ITEM = 64;
+    private static final int SAME_LOCALS_1_STACK_ITEM_EXTENDED = 247;
+    private static final int CHOP_FRAME = 251; // Minus the number of chopped locals
+    private static final int SAME_FRAME_EXTENDED = 251;
+    private static final int APPEND_FRAME = 251; // Plus the number of appended locals
+    private static final int FULL_FRAME = 255;
+
+    /**
+     * The debugging information for a local variable, equivalent to a
+     * Jasmin .var directive.
+     */
+    public static class LocalVariable {
+        public final int index;
+        public final String name;
+        public final String descriptor;
+        public final Label start;
+        public final Label end;
+
+        public LocalVariable(int index, String name, String descriptor, Label start, Label end) {
+            this.index = index;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * The state of the local variables and operand stack before an
+     * instruction executes.
+     */
+    private static class Frame {
+        final BitSet assignedLocals;
+        final ArrayList<VerificationType> stack;
+
+        Frame(BitSet assignedLocals, ArrayList<VerificationType> stack) {
+            this.assignedLocals = assignedLocals;
+            this.stack = stack;
+        }
+
+        Frame copy() {
+            return new Frame((BitSet) assignedLocals.clone(), new ArrayList<VerificationType>(stack));
+        }
+    }
+
+    public final int accessFlags;
+    public final String owner;
+    public final String name;
+    public final String descriptor;
+
+    private final List<JvmInstruction> instructions;
+    private final List<LocalVariable> localVariables;
+    private final Map<Integer, VerificationType> declaredTypes;
+    private final int parameterSlots;
+
+    // Comments to print before the instruction at each index. These are
+    // only used for listings and are not part of the encoded method.
+    private final Map<Integer, List<String>> comments;
+
+    // Results of the analysis. The frames are only stored for instructions
+    // which begin a basic block.
+    private boolean isAnalyzed;
+    private Frame[] frames;
+    private boolean[] isReachable;
+    private boolean[] isBranchTarget;
+    private int maxStack;
+    private int maxLocals;
+
+    // The length of the encoded bytecode, once the Code attribute has been
+    // written.
+    private int codeLength = -1;
+
+    /**
+     * Creates an empty method.
+     * @param accessFlags The method's access flags (e.g. ACC_PUBLIC | ACC_STATIC)
+     * @param owner The internal name of the class the method belongs to.
+     * @param name The name of the method
+     * @param descriptor The method descriptor, e.g. (I[C)V
+     */
+    public MethodAssembler(int accessFlags, String owner, String name, String descriptor) {
+        this.accessFlags = accessFlags;
+        this.owner = owner;
+        this.name = name;
+        this.descriptor = descriptor;
+
+        instructions = new ArrayList<JvmInstruction>();
+        localVariables = new ArrayList<LocalVariable>();
+        declaredTypes = new HashMap<Integer, VerificationType>();
+        comments = new HashMap<Integer, List<String>>();
+
+        // The receiver and the parameters are assigned on entry.
+        int slot = 0;
+        if ((accessFlags & ACC_STATIC) == 0) {
+            declaredTypes.put(slot++, VerificationType.object(owner));
+        }
+        for (var parameter : parameterDescriptors(descriptor)) {
+            declaredTypes.put(slot++, VerificationType.fromDescriptor(parameter));
+        }
+        parameterSlots = slot;
+    }
+
+    /**
+     * Splits a method descriptor into the descriptors of its parameters.
+     */
+    static List<String> parameterDescriptors(String methodDescriptor) {
+        List<String> parameters = new ArrayList<String>();
+
+        int i = 1; // Skip the opening parenthesis
+        while (methodDescriptor.charAt(i) != ')') {
+            int start = i;
+            while (methodDescriptor.charAt(i) == '[') {
+                ++i;
+            }
+            if (methodDescriptor.charAt(i) == 'L') {
+                i = methodDescriptor.indexOf(';', i);
+            }
+            ++i;
+            parameters.add(methodDescriptor.substring(start, i));
+        }
+
+        return parameters;
+    }
+
+    /**
+     * Returns the descriptor of the elements of an array created by a
+     * newarray instruction with the given type code.
+     */
+    static String newArrayElementDescriptor(int typeCode) {
+        switch (typeCode) {
+            case T_BOOLEAN: return "Z";
+            case T_CHAR: return "C";
+            case T_FLOAT: return "F";
+            case T_INT: return "I";
+            default: throw new IllegalArgumentException("Unsupported newarray type " + typeCode);
+        }
+    }
+
+    /**
+     * Returns the descriptor of the return type of a method descriptor.
+     */
+    static String returnDescriptor(String methodDescriptor) {
+        return methodDescriptor.substring(methodDescriptor.indexOf(')') + 1);
+    }
+
+    /**
+     * Declares a local variable with the given type and records debugging
+     * information for it. A variable slot must always hold values of the
+     * same type.
+     */
+    public void declareVariable(int index, String name, String descriptor, Label start, Label end) {
+        var type = VerificationType.fromDescriptor(descriptor);
+        var existing = declaredTypes.putIfAbsent(index, type);
+        if (existing != null && !existing.equals(type)) {
+            throw new IllegalArgumentException("Local " + index + " of " + this.name + " is declared with two types");
+        }
+
+        localVariables.add(new LocalVariable(index, name, descriptor, start, end));
+    }
+
+    public void addInstruction(Opcode opcode) {
+        instructions.add(JvmInstruction.of(opcode));
+    }
+
+    public void addInstruction(Opcode opcode, Object operand) {
+        instructions.add(JvmInstruction.of(opcode, operand));
+    }
+
+    /**
+     * Defines the given label at the current position in the method.
+     */
+    public void placeLabel(Label label) {
+        instructions.add(JvmInstruction.label(label));
+    }
+
+    /**
+     * Adds the shortest instruction which pushes the given integer.
+     */
+    public void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            addInstruction(Opcode.values()[Opcode.ICONST_0.ordinal() + value]);
+        }
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            addInstruction(Opcode.BIPUSH, value);
+        }
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            addInstruction(Opcode.SIPUSH, value);
+        }
+        else {
+            addInstruction(Opcode.LDC, value);
+        }
+    }
+
+    /**
+     * Adds the shortest instruction which pushes the given float.
+     */
+    public void pushFloat(float value) {
+        // Compare the bits so that -0.0 is not treated as 0.0
+        int bits = Float.floatToRawIntBits(value);
+        if (bits == Float.floatToRawIntBits(0.0f)) {
+            addInstruction(Opcode.FCONST_0);
+        }
+        else if (bits == Float.floatToRawIntBits(1.0f)) {
+            addInstruction(Opcode.FCONST_1);
+        }
+        else if (bits == Float.floatToRawIntBits(2.0f)) {
+            addInstruction(Opcode.FCONST_2);
+        }
+        else {
+            addInstruction(Opcode.LDC, value);
+        }
+    }
+
+    public void pushString(String value) {
+        addInstruction(Opcode.LDC, value);
+    }
+
+    /**
+     * Attaches a comment to the position of the next instruction.
+     */
+    public void addComment(String comment) {
+        comments.computeIfAbsent(instructions.size(), i -> new ArrayList<String>()).add(comment);
+    }
+
+    /**
+     * Returns the comments attached before the instruction at the given
+     * index. The index may be one past the last instruction.
+     */
+    public List<String> getComments(int index) {
+        return comments.getOrDefault(index, Collections.emptyList());
+    }
+
+    /**
+     * Answers whether the instruction at the given index can be executed.
+     */
+    public boolean isReachable(int index) {
+        analyze();
+        return isReachable[index];
+    }
+
+    /**
+     * An unmodifiable view of the instructions added so far.
+     */
+    public List<JvmInstruction> getInstructions() {
+        return Collections.unmodifiableList(instructions);
+    }
+
+    public List<LocalVariable> getLocalVariables() {
+        return Collections.unmodifiableList(localVariables);
+    }
+
+    /**
+     * Returns the length in bytes of the method's bytecode, or -1 if its
+     * Code attribute has not been written.
+     */
+    public int getCodeLength() {
+        return codeLength;
+    }
+
+    public int getMaxStack() {
+        analyze();
+        return maxStack;
+    }
+
+    public int getMaxLocals() {
+        analyze();
+        return maxLocals;
+    }
+
+    /**
+     * Simulates the method to find the reachable instructions, the maximum
+     * stack depth and the state at the start of each basic block. This only
+     * needs to be done once, after all instructions have been added.
+     */
+    public void analyze() {
+        if (isAnalyzed) {
+            return;
+        }
+
+        int count = instructions.size();
+        frames = new Frame[count + 1];
+        isReachable = new boolean[count];
+        isBranchTarget = new boolean[count + 1];
+        maxStack = 0;
+        maxLocals = computeMaxLocals();
+
+        var labelIndices = findLabels();
+        boolean[] isBlockStart = findBlockStarts();
+
+        Deque<Integer> worklist = new ArrayDeque<Integer>();
+        var initialLocals = new BitSet();
+        initialLocals.set(0, parameterSlots);
+        mergeInto(0, new Frame(initialLocals, new ArrayList<VerificationType>()), worklist);
+
+        while (!worklist.isEmpty()) {
+            int start = worklist.pop();
+            Frame frame = frames[start].copy();
+
+            // Run through the block until it ends in a branch, or falls
+            // through into the next block.
+            for (int i = start; ; ++i) {
+                if (i == count) {
+                    throw new IllegalStateException("Execution can fall off the end of method " + name);
+                }
+                else if (i != start && isBlockStart[i]) {
+                    mergeInto(i, frame, worklist);
+                    break;
+                }
+
+                isReachable[i] = true;
+                var instruction = instructions.get(i);
+                if (instruction.isLabel()) {
+                    continue;
+                }
+
+                execute(i, instruction, frame);
+                maxStack = Math.max(maxStack, frame.stack.size());
+
+                if (instruction.opcode.isBranch()) {
+                    Integer target = labelIndices.get(instruction.label());
+                    if (target == null) {
+                        throw new IllegalStateException("Undefined label " + instruction.label().toJasminString() + " in method " + name);
+                    }
+                    isBranchTarget[target] = true;
+                    mergeInto(target, frame, worklist);
+                }
+
+                if (instruction.opcode.isUnconditionalTransfer()) {
+                    break;
+                }
+            }
+        }
+
+        isAnalyzed = true;
+    }
+
+    private int computeMaxLocals() {
+        int max = parameterSlots;
+        for (int index : declaredTypes.keySet()) {
+            max = Math.max(max, index + 1);
+        }
+        for (var instruction : instructions) {
+            if (!instruction.isLabel() && instruction.opcode.isLocalVariableInstruction()) {
+                max = Math.max(max, instruction.intOperand() + 1);
+            }
+        }
+        return max;
+    }
+
+    private Map<Label, Integer> findLabels() {
+        var labelIndices = new HashMap<Label, Integer>();
+        for (int i = 0; i < instructions.size(); ++i) {
+            var instruction = instructions.get(i);
+            if (instruction.isLabel() && labelIndices.put(instruction.label(), i) != null) {
+                throw new IllegalStateException("Label " + instruction.label().toJasminString() + " is defined twice in method " + name);
+            }
+        }
+        return labelIndices;
+    }
+
+    /**
+     * Finds the instructions which begin a basic block: labels and the
+     * instructions following a branch.
+     */
+    private boolean[] findBlockStarts() {
+        boolean[] isBlockStart = new boolean[instructions.size() + 1];
+        isBlockStart[0] = true;
+
+        for (int i = 0; i < instructions.size(); ++i) {
+            var instruction = instructions.get(i);
+            if (instruction.isLabel()) {
+                isBlockStart[i] = true;
+            }
+            else if (instruction.opcode.isBranch() || instruction.opcode.isUnconditionalTransfer()) {
+                isBlockStart[i + 1] = true;
+            }
+        }
+
+        return isBlockStart;
+    }
+
+    /**
+     * Merges a state flowing into the block starting at the given index with
+     * the state already recorded for it, scheduling the block to be
+     * (re-)simulated if anything changed.
+     */
+    private void mergeInto(int index, Frame incoming, Deque<Integer> worklist) {
+        Frame existing = frames[index];
+        if (existing == null) {
+            frames[index] = incoming.copy();
+            worklist.push(index);
+            return;
+        }
+
+        if (existing.stack.size() != incoming.stack.size()) {
+            throw new IllegalStateException("Inconsistent stack depth at a branch target in method " + name);
+        }
+
+        boolean changed = false;
+
+        var assigned = (BitSet) existing.assignedLocals.clone();
+        assigned.and(incoming.assignedLocals);
+        if (!assigned.equals(existing.assignedLocals)) {
+            existing.assignedLocals.and(incoming.assignedLocals);
+            changed = true;
+        }
+
+        for (int i = 0; i < existing.stack.size(); ++i) {
+            var merged = VerificationType.merge(existing.stack.get(i), incoming.stack.get(i));
+            if (merged == VerificationType.TOP) {
+                throw new IllegalStateException("Inconsistent stack types at a branch target in method " + name);
+            }
+            else if (!merged.equals(existing.stack.get(i))) {
+                existing.stack.set(i, merged);
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            worklist.push(index);
+        }
+    }
+
+    private VerificationType declaredType(int index) {
+        var type = declaredTypes.get(index);
+        if (type == null) {
+            throw new IllegalStateException("Local " + index + " of method " + name + " has no declared type");
+        }
+        return type;
+    }
+
+    private static VerificationType pop(Frame frame) {
+        if (frame.stack.isEmpty()) {
+            throw new IllegalStateException("Operand stack underflow");
+        }
+        return frame.stack.remove(frame.stack.size() - 1);
+    }
+
+    private static void pop(Frame frame, int n) {
+        for (int i = 0; i < n; ++i) {
+            pop(frame);
+        }
+    }
+
+    /**
+     * Updates the frame with the effect of executing the given instruction.
+     */
+    private void execute(int index, JvmInstruction instruction, Frame frame) {
+        var stack = frame.stack;
+
+        switch (instruction.opcode) {
+            case NOP:
+                break;
+
+            case ICONST_M1:
+            case ICONST_0:
+            case ICONST_1:
+            case ICONST_2:
+            case ICONST_3:
+            case ICONST_4:
+            case ICONST_5:
+            case BIPUSH:
+            case SIPUSH:
+                stack.add(VerificationType.INTEGER);
+                break;
+
+            case FCONST_0:
+            case FCONST_1:
+            case FCONST_2:
+                stack.add(VerificationType.FLOAT);
+                break;
+
+            case LDC:
+                var constant = instruction.operand;
+                if (constant instanceof Integer) {
+                    stack.add(VerificationType.INTEGER);
+                }
+                else if (constant instanceof Float) {
+                    stack.add(VerificationType.FLOAT);
+                }
+                else {
+                    stack.add(VerificationType.object("java/lang/String"));
+                }
+                break;
+
+            case ILOAD:
+            case FLOAD:
+            case ALOAD:
+                // Reading an unassigned local is left for the JVM's verifier
+                // to reject.
+                stack.add(declaredType(instruction.intOperand()));
+                break;
+
+            case ISTORE:
+            case FSTORE:
+            case ASTORE:
+                pop(frame);
+                frame.assignedLocals.set(instruction.intOperand());
+                break;
+
+            case IALOAD:
+            case BALOAD:
+            case CALOAD:
+                pop(frame, 2);
+                stack.add(VerificationType.INTEGER);
+                break;
+
+            case FALOAD:
+                pop(frame, 2);
+                stack.add(VerificationType.FLOAT);
+                break;
+
+            case AALOAD:
+                pop(frame);
+                stack.add(pop(frame).elementType());
+                break;
+
+            case IASTORE:
+            case FASTORE:
+            case AASTORE:
+            case BASTORE:
+            case CASTORE:
+                pop(frame, 3);
+                break;
+
+            case POP:
+                pop(frame);
+                break;
+
+            case DUP:
+                var top = pop(frame);
+                stack.add(top);
+                stack.add(top);
+                break;
+
+            case SWAP:
+                var first = pop(frame);
+                var second = pop(frame);
+                stack.add(first);
+                stack.add(second);
+                break;
+
+            case IADD:
+            case ISUB:
+            case IMUL:
+            case IXOR:
+            case FCMPL:
+            case FCMPG:
+                pop(frame, 2);
+                stack.add(VerificationType.INTEGER);
+                break;
+
+            case FADD:
+            case FSUB:
+            case FMUL:
+                pop(frame, 2);
+                stack.add(VerificationType.FLOAT);
+                break;
+
+            case I2C:
+                pop(frame);
+                stack.add(VerificationType.INTEGER);
+                break;
+
+            case IFEQ:
+            case IFNE:
+            case IFLT:
+            case IFGE:
+            case IFGT:
+            case IFLE:
+            case IRETURN:
+            case FRETURN:
+            case ARETURN:
+            case ATHROW:
+                pop(frame);
+                break;
+
+            case IF_ICMPEQ:
+            case IF_ICMPNE:
+            case IF_ICMPLT:
+            case IF_ICMPGE:
+            case IF_ICMPGT:
+            case IF_ICMPLE:
+            case IF_ACMPEQ:
+            case IF_ACMPNE:
+                pop(frame, 2);
+                break;
+
+            case GOTO:
+            case RETURN:
+                break;
+
+            case GETSTATIC:
+                stack.add(VerificationType.fromDescriptor(instruction.memberOperand().descriptor));
+                break;
+
+            case INVOKEVIRTUAL:
+            case INVOKESPECIAL:
+            case INVOKESTATIC:
+            case INVOKEDYNAMIC:
+                executeInvoke(instruction, frame);
+                break;
+
+            case NEW:
+                stack.add(VerificationType.uninitialized(index));
+                break;
+
+            case NEWARRAY:
+                pop(frame);
+                stack.add(VerificationType.object("[" + newArrayElementDescriptor(instruction.intOperand())));
+                break;
+
+            case ANEWARRAY:
+                pop(frame);
+                stack.add(VerificationType.object("[L" + instruction.operand + ";"));
+                break;
+
+            default:
+                throw new IllegalStateException("Cannot simulate instruction " + instruction);
+        }
+    }
+
+    private void executeInvoke(JvmInstruction instruction, Frame frame) {
+        if (instruction.opcode == Opcode.INVOKEDYNAMIC) {
+            var callSite = instruction.callSiteOperand();
+            pop(frame, parameterDescriptors(callSite.descriptor).size());
+
+            String returnType = returnDescriptor(callSite.descriptor);
+            if (!returnType.equals("V")) {
+                frame.stack.add(VerificationType.fromDescriptor(returnType));
+            }
+            return;
+        }
+
+        var method = instruction.memberOperand();
+        pop(frame, parameterDescriptors(method.descriptor).size());
+
+        if (instruction.opcode != Opcode.INVOKESTATIC) {
+            var receiver = pop(frame);
+
+            // Calling a constructor initializes every copy of the reference.
+            if (method.name.equals("<init>") && receiver.isUninitialized()) {
+                var initialized = VerificationType.object(method.owner);
+                for (int i = 0; i < frame.stack.size(); ++i) {
+                    if (frame.stack.get(i).equals(receiver)) {
+                        frame.stack.set(i, initialized);
+                    }
+                }
+            }
+        }
+
+        String returnType = returnDescriptor(method.descriptor);
+        if (!returnType.equals("V")) {
+            frame.stack.add(VerificationType.fromDescriptor(returnType));
+        }
+    }
+
+    /**
+     * Writes a complete Code attribute for the method, adding any constants
+     * it refers to to the given pool.
+     */
+    public void writeCodeAttribute(ConstantPool pool, DataOutputStream out) throws IOException {
+        analyze();
+
+        // Lay out the reachable instructions to find the offset of each one.
+        // Labels take up no space and share the offset of the following
+        // instruction. A branch whose target is too far away for a 16-bit
+        // offset is widened, which moves the instructions after it further
+        // away, so this is repeated until no more branches are widened.
+        int count = instructions.size();
+        int[] offsets = new int[count + 1];
+        boolean[] isWide = new boolean[count];
+        var labelOffsets = new HashMap<Label, Integer>();
+        boolean isWidened = true;
+        while (isWidened) {
+            int offset = 0;
+            for (int i = 0; i < count; ++i) {
+                offsets[i] = offset;
+                if (isReachable[i]) {
+                    offset += isWide[i] ? wideBranchLength(instructions.get(i).opcode) : encodedLength(instructions.get(i), pool);
+                }
+            }
+            offsets[count] = offset;
+
+            for (int i = 0; i < count; ++i) {
+                var instruction = instructions.get(i);
+                if (instruction.isLabel()) {
+                    labelOffsets.put(instruction.label(), offsets[i]);
+                }
+            }
+
+            isWidened = false;
+            for (int i = 0; i < count; ++i) {
+                var instruction = instructions.get(i);
+                if (isReachable[i] && !isWide[i] && !instruction.isLabel() && instruction.opcode.isBranch()) {
+                    int branchOffset = labelOffsets.get(instruction.label()) - offsets[i];
+                    if (branchOffset < Short.MIN_VALUE || branchOffset > Short.MAX_VALUE) {
+                        isWide[i] = true;
+                        isWidened = true;
+                    }
+                }
+            }
+        }
+
+        codeLength = offsets[count];
+        if (codeLength > MAX_CODE_LENGTH) {
+            throw new IllegalStateException("Method " + name + " is too large for the JVM");
+        }
+
+        var code = new ByteArrayOutputStream(codeLength);
+        var codeOut = new DataOutputStream(code);
+        for (int i = 0; i < count; ++i) {
+            if (isReachable[i] && !instructions.get(i).isLabel()) {
+                encode(instructions.get(i), offsets[i], isWide[i], labelOffsets, pool, codeOut);
+            }
+        }
+        assert code.size() == codeLength;
+
+        byte[] stackMapTable = encodeStackMapTable(offsets, isWide, pool);
+        byte[] localVariableTable = encodeLocalVariableTable(labelOffsets, codeLength, pool);
+
+        int attributeCount = 0;
+        int attributesLength = 0;
+        if (stackMapTable != null) {
+            ++attributeCount;
+            attributesLength += 6 + stackMapTable.length;
+        }
+        if (localVariableTable != null) {
+            ++attributeCount;
+            attributesLength += 6 + localVariableTable.length;
+        }
+
+        out.writeShort(pool.addUtf8("Code"));
+        out.writeInt(2 + 2 + 4 + codeLength + 2 + 2 + attributesLength);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(codeLength);
+        code.writeTo(out);
+        out.writeShort(0); // No exception handlers
+        out.writeShort(attributeCount);
+
+        if (stackMapTable != null) {
+            out.writeShort(pool.addUtf8("StackMapTable"));
+            out.writeInt(stackMapTable.length);
+            out.write(stackMapTable);
+        }
+        if (localVariableTable != null) {
+            out.writeShort(pool.addUtf8("LocalVariableTable"));
+            out.writeInt(localVariableTable.length);
+            out.write(localVariableTable);
+        }
+    }
+
+    /**
+     * Returns the number of bytes used to encode the instruction. Any
+     * constants the instruction loads are added to the pool, since their
+     * indices determine which form of ldc is used.
+     */
+    private static int encodedLength(JvmInstruction instruction, ConstantPool pool) {
+        if (instruction.isLabel()) {
+            return 0;
+        }
+
+        var opcode = instruction.opcode;
+        if (opcode.isLocalVariableInstruction()) {
+            int index = instruction.intOperand();
+            if (index <= 3) {
+                return 1;
+            }
+            else if (index <= 255) {
+                return 2;
+            }
+            else {
+                return 4; // wide
+            }
+        }
+
+        switch (opcode) {
+            case BIPUSH:
+            case NEWARRAY:
+                return 2;
+
+            case LDC:
+                return pool.addLoadableConstant(instruction.operand) <= 255 ? 2 : 3;
+
+            case SIPUSH:
+            case GETSTATIC:
+            case INVOKEVIRTUAL:
+            case INVOKESPECIAL:
+            case INVOKESTATIC:
+            case NEW:
+            case ANEWARRAY:
+                return 3;
+
+            case INVOKEDYNAMIC:
+                return 5;
+
+            default:
+                return opcode.isBranch() ? 3 : 1;
+        }
+    }
+
+    private static int wideBranchLength(Opcode opcode) {
+        return opcode == Opcode.GOTO ? WIDE_GOTO_LENGTH : WIDE_CONDITIONAL_BRANCH_LENGTH;
+    }
+
+    private void encode(JvmInstruction instruction,
+                        int offset,
+                        boolean isWide,
+                        Map<Label, Integer> labelOffsets,
+                        ConstantPool pool,
+                        DataOutputStream out) throws IOException {
+        var opcode = instruction.opcode;
+
+        if (opcode.isLocalVariableInstruction()) {
+            encodeLocalVariableInstruction(opcode, instruction.intOperand(), out);
+            return;
+        }
+        else if (opcode.isBranch()) {
+            int branchOffset = labelOffsets.get(instruction.label()) - offset;
+            if (!isWide) {
+                assert branchOffset >= Short.MIN_VALUE && branchOffset <= Short.MAX_VALUE;
+                out.writeByte(opcode.code);
+                out.writeShort(branchOffset);
+            }
+            else if (opcode == Opcode.GOTO) {
+                out.writeByte(Opcode.GOTO_W);
+                out.writeInt(branchOffset);
+            }
+            else {
+                // There is no wide conditional branch, so the opposite
+                // branch skips over a goto_w when the original isn't taken.
+                out.writeByte(opcode.oppositeBranchCode());
+                out.writeShort(WIDE_CONDITIONAL_BRANCH_LENGTH);
+                out.writeByte(Opcode.GOTO_W);
+                out.writeInt(branchOffset - 3);
+            }
+            return;
+        }
+
+        switch (opcode) {
+            case BIPUSH:
+            case NEWARRAY:
+                out.writeByte(opcode.code);
+                out.writeByte(instruction.intOperand());
+                break;
+
+            case SIPUSH:
+                out.writeByte(opcode.code);
+                out.writeShort(instruction.intOperand());
+                break;
+
+            case LDC:
+                int constantIndex = pool.addLoadableConstant(instruction.operand);
+                if (constantIndex <= 255) {
+                    out.writeByte(opcode.code);
+                    out.writeByte(constantIndex);
+                }
+                else {
+                    out.writeByte(Opcode.LDC_W);
+                    out.writeShort(constantIndex);
+                }
+                break;
+
+            case GETSTATIC:
+                out.writeByte(opcode.code);
+                out.writeShort(pool.addFieldReference(instruction.memberOperand()));
+                break;
+
+            case INVOKEVIRTUAL:
+            case INVOKESPECIAL:
+            case INVOKESTATIC:
+                out.writeByte(opcode.code);
+                out.writeShort(pool.addMethodReference(instruction.memberOperand()));
+                break;
+
+            case INVOKEDYNAMIC:
+                out.writeByte(opcode.code);
+                out.writeShort(pool.addInvokeDynamic(instruction.callSiteOperand()));
+                out.writeShort(0); // Two bytes which must be zero
+                break;
+
+            case NEW:
+            case ANEWARRAY:
+                out.writeByte(opcode.code);
+                out.writeShort(pool.addClass((String) instruction.operand));
+                break;
+
+            default:
+                out.writeByte(opcode.code);
+                break;
+        }
+    }
+
+    private static void encodeLocalVariableInstruction(Opcode opcode, int index, DataOutputStream out) throws IOException {
+        if (index <= 3) {
+            int shortForm;
+            switch (opcode) {
+                case ILOAD: shortForm = Opcode.ILOAD_0; break;
+                case FLOAD: shortForm = Opcode.FLOAD_0; break;
+                case ALOAD: shortForm = Opcode.ALOAD_0; break;
+                case ISTORE: shortForm = Opcode.ISTORE_0; break;
+                case FSTORE: shortForm = Opcode.FSTORE_0; break;
+                default: shortForm = Opcode.ASTORE_0; break;
+            }
+            out.writeByte(shortForm + index);
+        }
+        else if (index <= 255) {
+            out.writeByte(opcode.code);
+            out.writeByte(index);
+        }
+        else {
+            out.writeByte(Opcode.WIDE);
+            out.writeByte(opcode.code);
+            out.writeShort(index);
+        }
+    }
+
+    /**
+     * Returns the types of the locals for the frame, omitting trailing
+     * unassigned locals.
+     */
+    private List<VerificationType> frameLocals(Frame frame) {
+        var locals = new ArrayList<VerificationType>();
+        int length = frame.assignedLocals.length();
+        for (int i = 0; i < length; ++i) {
+            locals.add(frame.assignedLocals.get(i) ? declaredType(i) : VerificationType.TOP);
+        }
+        return locals;
+    }
+
+    /**
+     * Encodes a frame for each reachable branch target, including the
+     * instructions after widened conditional branches, which their opposite
+     * branches jump to. Returns null if there are no branch targets.
+     */
+    private byte[] encodeStackMapTable(int[] offsets, boolean[] isWide, ConstantPool pool) throws IOException {
+        var table = new ByteArrayOutputStream();
+        var out = new DataOutputStream(table);
+        int frameCount = 0;
+
+        // The implicit initial frame holds only the parameters.
+        var initialLocals = new BitSet();
+        initialLocals.set(0, parameterSlots);
+        List<VerificationType> previousLocals = frameLocals(new Frame(initialLocals, new ArrayList<VerificationType>()));
+        int previousOffset = -1;
+
+        // A run of consecutive labels shares one offset. The frame for it is
+        // the one flowing into the first real instruction after them.
+        boolean needsFrame = false;
+        Frame frame = null;
+        for (int i = 0; i < instructions.size(); ++i) {
+            if (!isReachable[i]) {
+                continue;
+            }
+
+            // The opposite branch of a widened conditional branch jumps to
+            // the following instruction, which begins a block and so has a
+            // recorded frame.
+            if (i > 0 && isWide[i - 1] && instructions.get(i - 1).opcode != Opcode.GOTO) {
+                needsFrame = true;
+                frame = frames[i];
+            }
+
+            if (instructions.get(i).isLabel()) {
+                needsFrame |= isBranchTarget[i];
+                frame = frames[i];
+                continue;
+            }
+            else if (!needsFrame || offsets[i] == previousOffset) {
+                needsFrame = false;
+                continue;
+            }
+
+            int offsetDelta = previousOffset < 0 ? offsets[i] : offsets[i] - previousOffset - 1;
+            var locals = frameLocals(frame);
+            writeFrame(offsetDelta, previousLocals, locals, frame.stack, offsets, pool, out);
+            ++frameCount;
+
+            previousLocals = locals;
+            previousOffset = offsets[i];
+            needsFrame = false;
+        }
+
+        if (frameCount == 0) {
+            return null;
+        }
+
+        var result = new ByteArrayOutputStream();
+        var resultOut = new DataOutputStream(result);
+        resultOut.writeShort(frameCount);
+        table.writeTo(resultOut);
+        return result.toByteArray();
+    }
+
+    /**
+     * Writes a single frame using the most compact encoding available.
+     */
+    private void writeFrame(int offsetDelta,
+                            List<VerificationType> previousLocals,
+                            List<VerificationType> locals,
+                            List<VerificationType> stack,
+                            int[] offsets,
+                            ConstantPool pool,
+                            DataOutputStream out) throws IOException {
+        int localsDifference = locals.size() - previousLocals.size();
+        boolean isSameLocals = locals.equals(previousLocals);
+
+        if (isSameLocals && stack.isEmpty()) {
+            if (offsetDelta <= SAME_FRAME_MAX) {
+                out.writeByte(offsetDelta);
+            }
+            else {
+                out.writeByte(SAME_FRAME_EXTENDED);
+                out.writeShort(offsetDelta);
+            }
+        }
+        else if (isSameLocals && stack.size() == 1) {
+            if (offsetDelta <= SAME_FRAME_MAX) {
+                out.writeByte(SAME_LOCALS_1_STACK_ITEM + offsetDelta);
+            }
+            else {
+                out.writeByte(SAME_LOCALS_1_STACK_ITEM_EXTENDED);
+                out.writeShort(offsetDelta);
+            }
+            writeVerificationType(stack.get(0), offsets, pool, out);
+        }
+        else if (stack.isEmpty()
+                    && localsDifference < 0
+                    && localsDifference >= -3
+                    && previousLocals.subList(0, locals.size()).equals(locals)) {
+            out.writeByte(CHOP_FRAME + localsDifference);
+            out.writeShort(offsetDelta);
+        }
+        else if (stack.isEmpty()
+                    && localsDifference > 0
+                    && localsDifference <= 3
+                    && locals.subList(0, previousLocals.size()).equals(previousLocals)) {
+            out.writeByte(APPEND_FRAME + localsDifference);
+            out.writeShort(offsetDelta);
+            for (var local : locals.subList(previousLocals.size(), locals.size())) {
+                writeVerificationType(local, offsets, pool, out);
+            }
+        }
+        else {
+            out.writeByte(FULL_FRAME);
+            out.writeShort(offsetDelta);
+            out.writeShort(locals.size());
+            for (var local : locals) {
+                writeVerificationType(local, offsets, pool, out);
+            }
+            out.writeShort(stack.size());
+            for (var item : stack) {
+                writeVerificationType(item, offsets, pool, out);
+            }
+        }
+    }
+
+    private static void writeVerificationType(VerificationType type,
+                                              int[] offsets,
+                                              ConstantPool pool,
+                                              DataOutputStream out) throws IOException {
+        out.writeByte(type.tag());
+        if (type.isObject()) {
+            out.writeShort(pool.addClass(type.className()));
+        }
+        else if (type.isUninitialized()) {
+            out.writeShort(offsets[type.newInstructionIndex()]);
+        }
+    }
+
+    /**
+     * Encodes the debugging information for the local variables. Returns
+     * null if none were declared.
+     */
+    private byte[] encodeLocalVariableTable(Map<Label, Integer> labelOffsets, int codeLength, ConstantPool pool) throws IOException {
+        if (localVariables.isEmpty()) {
+            return null;
+        }
+
+        var table = new ByteArrayOutputStream();
+        var out = new DataOutputStream(table);
+        out.writeShort(localVariables.size());
+
+        for (var variable : localVariables) {
+            Integer start = labelOffsets.get(variable.start);
+            Integer end = labelOffsets.get(variable.end);
+            if (start == null || end == null) {
+                throw new IllegalStateException("Variable " + variable.name + " in method " + name + " uses an undefined label");
+            }
+
+            out.writeShort(start);
+            out.writeShort(Math.min(end, codeLength) - start);
+            out.writeShort(pool.addUtf8(variable.name));
+            out.writeShort(pool.addUtf8(variable.descriptor));
+            out.writeShort(variable.index);
+        }
+
+        return table.toByteArray();
+    }
+}
@@ -0,0 +1,242 @@
+package codegen;
+
+import common.Label;
+import common.LabelFactory;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the symbolic contents of a {@link MethodAssembler} to a stream
+ * and reads them back, so that a method generated by one compilation can
+ * be reused by another. Only what was added to the method is written: its
+ * signature, local variables, instructions and comments. The analysis is
+ * repeated when the method read back is encoded.
+ */
+public class MethodSerializer {
+
+    // Written at the start of each method, and changed whenever the format
+    // changes, so that methods in an older format are not read.
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int NO_OPERAND = 0;
+    private static final int INT_OPERAND = 1;
+    private static final int FLOAT_OPERAND = 2;
+    private static final int STRING_OPERAND = 3;
+    private static final int LABEL_OPERAND = 4;
+    private static final int MEMBER_OPERAND = 5;
+    private static final int CALL_SITE_OPERAND = 6;
+
+    private MethodSerializer() {
+    }
+
+    // DataOutputStream.writeUTF is limited to 64K bytes, which a string
+    // constant could exceed.
+    private static void writeString(String s, DataOutputStream out) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeMember(MemberReference member, DataOutputStream out) throws IOException {
+        writeString(member.owner, out);
+        writeString(member.name, out);
+        writeString(member.descriptor, out);
+    }
+
+    private static MemberReference readMember(DataInputStream in) throws IOException {
+        return new MemberReference(readString(in), readString(in), readString(in));
+    }
+
+    private static void writeOperand(Object operand, DataOutputStream out) throws IOException {
+        if (operand == null) {
+            out.writeByte(NO_OPERAND);
+        }
+        else if (operand instanceof Integer) {
+            out.writeByte(INT_OPERAND);
+            out.writeInt((Integer) operand);
+        }
+        else if (operand instanceof Float) {
+            out.writeByte(FLOAT_OPERAND);
+            out.writeInt(Float.floatToRawIntBits((Float) operand));
+        }
+        else if (operand instanceof String) {
+            out.writeByte(STRING_OPERAND);
+            writeString((String) operand, out);
+        }
+        else if (operand instanceof Label) {
+            out.writeByte(LABEL_OPERAND);
+            out.writeInt(((Label) operand).index);
+        }
+        else if (operand instanceof MemberReference) {
+            out.writeByte(MEMBER_OPERAND);
+            writeMember((MemberReference) operand, out);
+        }
+        else if (operand instanceof DynamicCallSite) {
+            var callSite = (DynamicCallSite) operand;
+            out.writeByte(CALL_SITE_OPERAND);
+            writeString(callSite.name, out);
+            writeString(callSite.descriptor, out);
+            writeMember(callSite.bootstrapMethod, out);
+            out.writeInt(callSite.bootstrapArguments.size());
+            for (var argument : callSite.bootstrapArguments) {
+                writeString(argument, out);
+            }
+        }
+        else {
+            throw new IllegalArgumentException("Cannot write operand " + operand);
+        }
+    }
+
+    /**
+     * Labels are identified by their index, and the same Label instance
+     * must be used for every reference to a label within a method.
+     */
+    private static Label label(int index, Map<Integer, Label> labels) {
+        return labels.computeIfAbsent(index, i -> new LabelFactory(i).getLabel());
+    }
+
+    private static Object readOperand(DataInputStream in, Map<Integer, Label> labels) throws IOException {
+        int kind = in.readByte();
+        switch (kind) {
+            case NO_OPERAND:
+                return null;
+            case INT_OPERAND:
+                return in.readInt();
+            case FLOAT_OPERAND:
+                return Float.intBitsToFloat(in.readInt());
+            case STRING_OPERAND:
+                return readString(in);
+            case LABEL_OPERAND:
+                return label(in.readInt(), labels);
+            case MEMBER_OPERAND:
+                return readMember(in);
+            case CALL_SITE_OPERAND: {
+                String name = readString(in);
+                String descriptor = readString(in);
+                MemberReference bootstrapMethod = readMember(in);
+                int argumentCount = in.readInt();
+                List<String> arguments = new ArrayList<String>(argumentCount);
+                for (int i = 0; i < argumentCount; ++i) {
+                    arguments.add(readString(in));
+                }
+                return new DynamicCallSite(name, descriptor, bootstrapMethod, arguments);
+            }
+            default:
+                throw new IOException("Unknown operand kind " + kind);
+        }
+    }
+
+    private static void writeComments(List<String> comments, DataOutputStream out) throws IOException {
+        out.writeInt(comments.size());
+        for (var comment : comments) {
+            writeString(comment, out);
+        }
+    }
+
+    private static void readComments(MethodAssembler method, DataInputStream in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; ++i) {
+            method.addComment(readString(in));
+        }
+    }
+
+    public static void write(MethodAssembler method, DataOutputStream out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(method.accessFlags);
+        writeString(method.owner, out);
+        writeString(method.name, out);
+        writeString(method.descriptor, out);
+
+        var localVariables = method.getLocalVariables();
+        out.writeInt(localVariables.size());
+        for (var variable : localVariables) {
+            out.writeInt(variable.index);
+            writeString(variable.name, out);
+            writeString(variable.descriptor, out);
+            out.writeInt(variable.start.index);
+            out.writeInt(variable.end.index);
+        }
+
+        var instructions = method.getInstructions();
+        out.writeInt(instructions.size());
+        for (int i = 0; i < instructions.size(); ++i) {
+            writeComments(method.getComments(i), out);
+
+            var instruction = instructions.get(i);
+            writeString(instruction.isLabel() ? "" : instruction.opcode.name(), out);
+            writeOperand(instruction.operand, out);
+        }
+        writeComments(method.getComments(instructions.size()), out);
+    }
+
+    /**
+     * Reads a method written by {@link #write}.
+     * @throws IOException If the method could not be read, or was written
+     *                     in a different format.
+     */
+    public static MethodAssembler read(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported method format version " + version);
+        }
+
+        int accessFlags = in.readInt();
+        String owner = readString(in);
+        String name = readString(in);
+        String descriptor = readString(in);
+        var method = new MethodAssembler(accessFlags, owner, name, descriptor);
+
+        Map<Integer, Label> labels = new HashMap<Integer, Label>();
+        int localVariableCount = in.readInt();
+        for (int i = 0; i < localVariableCount; ++i) {
+            int index = in.readInt();
+            String variableName = readString(in);
+            String variableDescriptor = readString(in);
+            Label start = label(in.readInt(), labels);
+            Label end = label(in.readInt(), labels);
+            method.declareVariable(index, variableName, variableDescriptor, start, end);
+        }
+
+        int instructionCount = in.readInt();
+        for (int i = 0; i < instructionCount; ++i) {
+            readComments(method, in);
+
+            String opcodeName = readString(in);
+            Object operand = readOperand(in, labels);
+            if (opcodeName.isEmpty()) {
+                method.placeLabel((Label) operand);
+            }
+            else {
+                Opcode opcode;
+                try {
+                    opcode = Opcode.valueOf(opcodeName);
+                }
+                catch (IllegalArgumentException e) {
+                    throw new IOException("Unknown opcode " + opcodeName);
+                }
+
+                if (operand == null) {
+                    method.addInstruction(opcode);
+                }
+                else {
+                    method.addInstruction(opcode, operand);
+                }
+            }
+        }
+        readComments(method, in);
+
+        return method;
+    }
+}
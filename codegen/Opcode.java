@@ -0,0 +1,156 @@
+package codegen;
+
+/**
+ * The subset of JVM instructions used by the code generator, along with
+ * their binary encodings. The lower-cased enumerant name is the mnemonic
+ * used for the instruction in Jasmin assembly.
+ *
+ * Loads and stores are always represented by their general forms (e.g.
+ * iload) and are narrowed to the short (e.g. iload_0) or widened forms
+ * when the method is encoded.
+ */
+public enum Opcode {
+    NOP(0x00),
+    ICONST_M1(0x02),
+    ICONST_0(0x03),
+    ICONST_1(0x04),
+    ICONST_2(0x05),
+    ICONST_3(0x06),
+    ICONST_4(0x07),
+    ICONST_5(0x08),
+    FCONST_0(0x0b),
+    FCONST_1(0x0c),
+    FCONST_2(0x0d),
+    BIPUSH(0x10),
+    SIPUSH(0x11),
+    LDC(0x12),
+    ILOAD(0x15),
+    FLOAD(0x17),
+    ALOAD(0x19),
+    IALOAD(0x2e),
+    FALOAD(0x30),
+    AALOAD(0x32),
+    BALOAD(0x33),
+    CALOAD(0x34),
+    ISTORE(0x36),
+    FSTORE(0x38),
+    ASTORE(0x3a),
+    IASTORE(0x4f),
+    FASTORE(0x51),
+    AASTORE(0x53),
+    BASTORE(0x54),
+    CASTORE(0x55),
+    POP(0x57),
+    DUP(0x59),
+    SWAP(0x5f),
+    IADD(0x60),
+    FADD(0x62),
+    ISUB(0x64),
+    FSUB(0x66),
+    IMUL(0x68),
+    FMUL(0x6a),
+    IXOR(0x82),
+    I2C(0x92),
+    FCMPL(0x95),
+    FCMPG(0x96),
+    IFEQ(0x99),
+    IFNE(0x9a),
+    IFLT(0x9b),
+    IFGE(0x9c),
+    IFGT(0x9d),
+    IFLE(0x9e),
+    IF_ICMPEQ(0x9f),
+    IF_ICMPNE(0xa0),
+    IF_ICMPLT(0xa1),
+    IF_ICMPGE(0xa2),
+    IF_ICMPGT(0xa3),
+    IF_ICMPLE(0xa4),
+    IF_ACMPEQ(0xa5),
+    IF_ACMPNE(0xa6),
+    GOTO(0xa7),
+    IRETURN(0xac),
+    FRETURN(0xae),
+    ARETURN(0xb0),
+    RETURN(0xb1),
+    GETSTATIC(0xb2),
+    INVOKEVIRTUAL(0xb6),
+    INVOKESPECIAL(0xb7),
+    INVOKESTATIC(0xb8),
+    INVOKEDYNAMIC(0xba),
+    NEW(0xbb),
+    NEWARRAY(0xbc),
+    ANEWARRAY(0xbd),
+    ATHROW(0xbf);
+
+    // Encodings of the instructions which only appear in encoded methods.
+    static final int LDC_W = 0x13;
+    static final int ILOAD_0 = 0x1a;
+    static final int FLOAD_0 = 0x22;
+    static final int ALOAD_0 = 0x2a;
+    static final int ISTORE_0 = 0x3b;
+    static final int FSTORE_0 = 0x43;
+    static final int ASTORE_0 = 0x4b;
+    static final int WIDE = 0xc4;
+    static final int GOTO_W = 0xc8;
+
+    /**
+     * The value of the opcode byte in an encoded method.
+     */
+    public final int code;
+
+    private Opcode(int code) {
+        this.code = code;
+    }
+
+    public String mnemonic() {
+        return name().toLowerCase();
+    }
+
+    /**
+     * Answers whether the instruction reads or writes a local variable.
+     */
+    public boolean isLocalVariableInstruction() {
+        return isLoad() || isStore();
+    }
+
+    public boolean isLoad() {
+        return this == ILOAD || this == FLOAD || this == ALOAD;
+    }
+
+    public boolean isStore() {
+        return this == ISTORE || this == FSTORE || this == ASTORE;
+    }
+
+    /**
+     * Answers whether the instruction transfers control to a label.
+     */
+    public boolean isBranch() {
+        return (code >= IFEQ.code && code <= GOTO.code);
+    }
+
+    /**
+     * Returns the encoding of the conditional branch which is taken exactly
+     * when this one is not. The conditional branches come in pairs of
+     * opposites, such as ifeq and ifne.
+     */
+    int oppositeBranchCode() {
+        assert isBranch() && this != GOTO;
+        return IFEQ.code + ((code - IFEQ.code) ^ 1);
+    }
+
+    /**
+     * Answers whether execution can never continue with the following
+     * instruction.
+     */
+    public boolean isUnconditionalTransfer() {
+        return this == GOTO || isReturn() || this == ATHROW;
+    }
+
+    public boolean isReturn() {
+        return code >= IRETURN.code && code <= RETURN.code;
+    }
+
+    public boolean isInvoke() {
+        return this == INVOKEVIRTUAL || this == INVOKESPECIAL || this == INVOKESTATIC;
+    }
+}
@@ -0,0 +1,150 @@
+package codegen;
+
+import common.LabelFactory;
+import common.TestUtils;
+import ir.*;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import type.*;
+
+/**
+ * Compares the time taken by a program which prints in a loop when it
+ * prints through System.out and through the buffered runtime.Output class.
+ * Each version is run in a new JVM with its output redirected to a file,
+ * and the outputs are checked to be the same.
+ *
+ * Run with: java codegen.PrintBenchmark [lines printed]
+ */
+public class PrintBenchmark {
+
+    private static final int RUNS = 5;
+
+    /**
+     * Builds a program which prints each number up to the line count,
+     * followed by a string and a character:
+     *      T0 := 0;
+     *      i := T0;
+     *  L0:
+     *      T1 := lineCount;
+     *      T2 := i < T1;
+     *      T3 := Z! T2;
+     *      IF T3 GOTO L1;
+     *      PRINT i;
+     *      T4 := " ";
+     *      PRINT T4;
+     *      T5 := 'x';
+     *      PRINTLN T5;
+     *      T6 := 1;
+     *      T7 := i + T6;
+     *      i := T7;
+     *      GOTO L0;
+     *  L1:
+     *      RETURN;
+     */
+    private static IRProgram printingProgram(String name, int lineCount) throws Exception {
+        var factory = new TempFactory();
+        var i = factory.acquireLocal(IntegerType.INSTANCE, "i");
+        var t0 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t1 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t2 = factory.acquireTemp(BooleanType.INSTANCE);
+        var t3 = factory.acquireTemp(BooleanType.INSTANCE);
+        var t4 = factory.acquireTemp(StringType.INSTANCE);
+        var t5 = factory.acquireTemp(CharacterType.INSTANCE);
+        var t6 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t7 = factory.acquireTemp(IntegerType.INSTANCE);
+        var labels = new LabelFactory();
+        var l0 = labels.getLabel();
+        var l1 = labels.getLabel();
+
+        var main = new IRFunction.Builder()
+            .withName("main")
+            .withMethodType(new MethodType(VoidType.INSTANCE))
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, IRConstant.forInteger(0)),
+                new TemporaryAssignmentInstruction(i, t0),
+                new LabelInstruction(l0),
+                new TemporaryAssignmentInstruction(t1, IRConstant.forInteger(lineCount)),
+                new TemporaryAssignmentInstruction(t2, BinaryOperation.getOperation(BinaryOperation.Operators.LESS, i, t1)),
+                new TemporaryAssignmentInstruction(t3, new NegationOperation(t2)),
+                new ConditionalJumpInstruction(t3, l1),
+                new PrintInstruction(i),
+                new TemporaryAssignmentInstruction(t4, IRConstant.forString(" ")),
+                new PrintInstruction(t4),
+                new TemporaryAssignmentInstruction(t5, IRConstant.forCharacter('x')),
+                new PrintlnInstruction(t5),
+                new TemporaryAssignmentInstruction(t6, IRConstant.forInteger(1)),
+                new TemporaryAssignmentInstruction(t7, BinaryOperation.getOperation(BinaryOperation.Operators.PLUS, i, t6)),
+                new TemporaryAssignmentInstruction(i, t7),
+                new JumpInstruction(l0),
+                new LabelInstruction(l1),
+                new ReturnInstruction()
+            )
+            .build();
+
+        return new IRProgram.Builder().withName(name).addFunction(main).build();
+    }
+
+    /**
+     * Runs the program in a new JVM, with its output redirected to the given
+     * file, and returns the time taken in milliseconds.
+     */
+    private static double run(File directory, String className, File output) throws Exception {
+        var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        var process = new ProcessBuilder(java, "-cp", directory.getPath(), className)
+            .redirectOutput(output)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+
+        long start = System.nanoTime();
+        int status = process.waitFor();
+        long elapsed = System.nanoTime() - start;
+
+        if (status != 0) {
+            throw new IllegalStateException(className + " exited with status " + status);
+        }
+        return elapsed / 1e6;
+    }
+
+    /**
+     * Returns the shortest time taken by the program over several runs.
+     */
+    private static double measure(File directory, String className, File output) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < RUNS; ++i) {
+            best = Math.min(best, run(directory, className, output));
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        var directory = Files.createTempDirectory("print-benchmark");
+
+        try {
+            var unbuffered = new BytecodeVisitor(directory.toFile());
+            unbuffered.visit(printingProgram("Unbuffered", lineCount));
+
+            var buffered = new BytecodeVisitor(directory.toFile());
+            buffered.setOutputBuffered(true);
+            buffered.visit(printingProgram("Buffered", lineCount));
+
+            var unbufferedOutput = directory.resolve("unbuffered.txt").toFile();
+            var bufferedOutput = directory.resolve("buffered.txt").toFile();
+            double unbufferedTime = measure(directory.toFile(), "Unbuffered", unbufferedOutput);
+            double bufferedTime = measure(directory.toFile(), "Buffered", bufferedOutput);
+
+            if (Files.mismatch(unbufferedOutput.toPath(), bufferedOutput.toPath()) != -1) {
+                throw new IllegalStateException("The buffered output is different");
+            }
+
+            System.out.println(String.format("%10s %16s %16s %10s", "lines", "System.out ms", "buffered ms", "speedup"));
+            System.out.println(String.format("%10d %16.1f %16.1f %9.1fx",
+                lineCount, unbufferedTime, bufferedTime, unbufferedTime / bufferedTime));
+        }
+        finally {
+            TestUtils.deleteRecursively(directory);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package codegen;
+
+/**
+ * The type of a value in a local variable or operand stack slot, as
+ * understood by the JVM's bytecode verifier. These are the entries of
+ * the frames in a StackMapTable attribute.
+ */
+public final class VerificationType {
+
+    private static enum Kind {
+        TOP(0),
+        INTEGER(1),
+        FLOAT(2),
+        OBJECT(7),
+        UNINITIALIZED(8);
+
+        final int tag;
+
+        private Kind(int tag) {
+            this.tag = tag;
+        }
+    }
+
+    public static final VerificationType TOP = new VerificationType(Kind.TOP, null, -1);
+    public static final VerificationType INTEGER = new VerificationType(Kind.INTEGER, null, -1);
+    public static final VerificationType FLOAT = new VerificationType(Kind.FLOAT, null, -1);
+    public static final VerificationType OBJECT = object("java/lang/Object");
+
+    /**
+     * A reference to an initialized object of the class with the given
+     * internal name. Array classes use their descriptor (e.g. [I).
+     */
+    public static VerificationType object(String internalName) {
+        return new VerificationType(Kind.OBJECT, internalName, -1);
+    }
+
+    /**
+     * A reference to an object created by the new instruction at the given
+     * index whose constructor has not yet been invoked.
+     */
+    public static VerificationType uninitialized(int newInstructionIndex) {
+        return new VerificationType(Kind.UNINITIALIZED, null, newInstructionIndex);
+    }
+
+    /**
+     * Returns the type of a value described by the given field descriptor.
+     */
+    public static VerificationType fromDescriptor(String descriptor) {
+        switch (descriptor.charAt(0)) {
+            case 'Z':
+            case 'B':
+            case 'C':
+            case 'S':
+            case 'I':
+                return INTEGER;
+
+            case 'F':
+                return FLOAT;
+
+            case 'L':
+                return object(descriptor.substring(1, descriptor.length() - 1));
+
+            case '[':
+                return object(descriptor);
+
+            default:
+                throw new IllegalArgumentException("No verification type for descriptor " + descriptor);
+        }
+    }
+
+    /**
+     * Returns the type which is assignable from both of the given types. If
+     * there is no such type, TOP is returned.
+     */
+    public static VerificationType merge(VerificationType a, VerificationType b) {
+        if (a.equals(b)) {
+            return a;
+        }
+        else if (a.kind == Kind.OBJECT && b.kind == Kind.OBJECT) {
+            return OBJECT;
+        }
+        else {
+            return TOP;
+        }
+    }
+
+    private final Kind kind;
+    private final String className;
+    private final int newInstructionIndex;
+
+    private VerificationType(Kind kind, String className, int newInstructionIndex) {
+        this.kind = kind;
+        this.className = className;
+        this.newInstructionIndex = newInstructionIndex;
+    }
+
+    public int tag() {
+        return kind.tag;
+    }
+
+    public boolean isObject() {
+        return kind == Kind.OBJECT;
+    }
+
+    /**
+     * Answers whether the value is a reference to an object whose constructor
+     * has not been invoked yet.
+     */
+    public boolean isUninitialized() {
+        return kind == Kind.UNINITIALIZED;
+    }
+
+    /**
+     * The internal name of the class of an object type.
+     */
+    public String className() {
+        assert isObject();
+        return className;
+    }
+
+    /**
+     * The index of the new instruction which created an uninitialized object.
+     */
+    public int newInstructionIndex() {
+        assert isUninitialized();
+        return newInstructionIndex;
+    }
+
+    /**
+     * The type of the elements of an array type.
+     */
+    public VerificationType elementType() {
+        assert isObject() && className.startsWith("[");
+        return fromDescriptor(className.substring(1));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof VerificationType)) {
+            return false;
+        }
+
+        VerificationType otherType = (VerificationType) other;
+        return kind == otherType.kind
+            && newInstructionIndex == otherType.newInstructionIndex
+            && (className == null ? otherType.className == null : className.equals(otherType.className));
+    }
+
+    @Override
+    public int hashCode() {
+        return kind.hashCode() * 31 + (className == null ? newInstructionIndex : className.hashCode());
+    }
+
+    public String toString() {
+        switch (kind) {
+            case OBJECT:
+                return className;
+            case UNINITIALIZED:
+                return "uninitialized(" + newInstructionIndex + ")";
+            default:
+                return kind.name().toLowerCase();
+        }
+    }
+}
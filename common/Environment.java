@@ -1,135 +1,160 @@
 package common;
 
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 /**
  * Represents an "environment" or "Symbol Table" used to track
  * the currently available keys and their bound values at a given
  * point during the type checking/semantic analysis and IR generation.
  * 
+ * Each key maps to a chain of its bindings, with the innermost (visible)
+ * binding at the head and the bindings it shadows behind it. The keys 
+ * bound in each scope are recorded in a log so that exiting a scope only
+ * has to undo those bindings. All operations therefore take expected 
+ * constant time, regardless of the number of bindings in the enclosing
+ * scopes.
+ * 
  * @param <K> The Key type used to identify envrionment entries.
  *            This type may be user-defined, but must have the .equals
- *            method implemented appropriately to allow duplicate keys
- *            to be used.
+ *            and .hashCode methods implemented appropriately to allow 
+ *            duplicate keys to be used.
  * 
  * @param <V> The Value type associated with each key.
  */
-public class Environment<K, V> {
-
-    // Holds all key-value bindings which have been defined.
-    private final Deque<EnvironmentEntry<K, V>> bindingStack;
+public class Environment<K, V> implements SymbolTable<K, V> {
 
-    private EnvironmentEntry<K, V> getMarker() {
-        return EnvironmentEntry.<K, V>getMarker();
+    /**
+     * A binding of a key along with the binding that it shadows, if any.
+     */
+    private static class Binding<V> {
+        final V value;
+        final int scopeDepth;
+        final Binding<V> shadowed;
+
+        Binding(V value, int scopeDepth, Binding<V> shadowed) {
+            this.value = value;
+            this.scopeDepth = scopeDepth;
+            this.shadowed = shadowed;
+        }
     }
 
+    // Maps each key to its innermost binding.
+    private final Map<K, Binding<V>> bindings;
+
+    // The keys in the order they were bound, and the position in this log
+    // at which each active scope began.
+    private final List<K> bindingLog;
+    private final List<Integer> scopeStarts;
+
     /** 
      * Create a new, empty environment with an empty global scope.
      */
     public Environment() {
-        bindingStack = new LinkedList<EnvironmentEntry<K, V>>();
+        bindings = new HashMap<K, Binding<V>>();
+        bindingLog = new ArrayList<K>();
+        scopeStarts = new ArrayList<Integer>();
         enterScope();
     }
 
-    /**
-     * Answers whether a binding with the provided key exists in the
-     * environment
-     * 
-     * @param key The key to search for. Must be non-null.
-     */
+    private int currentScopeDepth() {
+        return scopeStarts.size();
+    }
+
     public boolean exists(K key) {
         assert key != null;
-
-        for (var binding : bindingStack) {
-            if (!binding.isMarker() && binding.matches(key)) {
-                return true;
-            }
-        }
-
-        return false;
+        return bindings.containsKey(key);
     }
 
-    /**
-     * Answers whether a binding with the provided key exists in the
-     * deepest active scope of the environment.
-     * 
-     * @param key The key to search for. Must be non-null.
-     */
     public boolean existsInCurrentScope(K key) {
         assert key != null;
 
-        for (var binding : bindingStack) {
-            if (binding.isMarker()) {
-                break;
-            }
-            else if (binding.matches(key)) {
-                return true;
-            }
-        }
-
-        return false;
+        var binding = bindings.get(key);
+        return binding != null && binding.scopeDepth == currentScopeDepth();
     }
 
-    /**
-     * Enter a new scope level.
-     */
     public void enterScope() {
-        bindingStack.addFirst(getMarker());
+        scopeStarts.add(bindingLog.size());
     }
 
-
-    /**
-     * Remove all bindings from the deepest active scope.
-     */
     public void exitScope() {
-        if (bindingStack.isEmpty()) {
+        if (scopeStarts.isEmpty()) {
             throw new IllegalStateException("No scope to exit");
         }
 
-        // Pop all bindings from the current scope.
-        while (!bindingStack.isEmpty() && !bindingStack.getFirst().isMarker()) {
-            bindingStack.removeFirst();
-        }
-
-        // No scope marker preceeded the bindings.
-        if (bindingStack.isEmpty()) {
-            throw new IllegalStateException("Missing scope entry marker");
+        // Undo the current scope's bindings, restoring the ones they shadowed.
+        int scopeStart = scopeStarts.remove(scopeStarts.size() - 1);
+        for (int i = bindingLog.size() - 1; i >= scopeStart; --i) {
+            K key = bindingLog.remove(i);
+            var shadowed = bindings.get(key).shadowed;
+            if (shadowed == null) {
+                bindings.remove(key);
+            }
+            else {
+                bindings.put(key, shadowed);
+            }
         }
-
-        // Pop the scope marker.
-        assert bindingStack.getFirst().isMarker();
-        bindingStack.removeFirst();
     }
 
-    /**
-     * Returns the value of the matching binding found at the deepest active 
-     * scope level.
-     * @param key The key to search for. Must be non-null.
-     */
     public V lookup(K key) {
         assert key != null;
 
-        for (var binding : bindingStack) {
-            if (!binding.isMarker() && binding.matches(key)) {
-                return binding.getValue();
-            }
+        var binding = bindings.get(key);
+        if (binding == null) {
+            throw new NoSuchElementException("No binding exists with key " + key.toString());
         }
 
-        throw new NoSuchElementException("No binding exists with key " + key.toString());
+        return binding.value;
     }
 
-    /**
-     * Adds a key-value binding in the current scope.
-     * @param key The key of the binding. Must be non-null.
-     * @param value The value of the binding. Must be non-null.
-     */
     public void bind(K key, V value) {
         assert key != null;
         assert value != null;
 
-        bindingStack.push(new EnvironmentEntry<K, V> (key, value));
+        bindings.put(key, new Binding<V>(value, currentScopeDepth(), bindings.get(key)));
+        bindingLog.add(key);
+    }
+
+    /**
+     * Applies the same random sequence of operations to an Environment 
+     * and a LinearEnvironment, checking that every query agrees.
+     */
+    private static void checkMatchesLinearEnvironment(long seed) {
+        var random = new Random(seed);
+        var env = new Environment<String, Integer>();
+        var reference = new LinearEnvironment<String, Integer>();
+        int depth = 1;
+
+        for (int i = 0; i < 10000; ++i) {
+            String key = "k" + random.nextInt(20);
+            int operation = random.nextInt(10);
+
+            if (operation < 4) {
+                env.bind(key, i);
+                reference.bind(key, i);
+            }
+            else if (operation == 4) {
+                env.enterScope();
+                reference.enterScope();
+                ++depth;
+            }
+            else if (operation == 5 && depth > 1) {
+                env.exitScope();
+                reference.exitScope();
+                --depth;
+            }
+            else {
+                assert env.exists(key) == reference.exists(key);
+                assert env.existsInCurrentScope(key) == reference.existsInCurrentScope(key);
+                if (reference.exists(key)) {
+                    assert env.lookup(key).equals(reference.lookup(key));
+                }
+            }
+        }
     }
 
     public static void main(String[] args) {
@@ -204,6 +229,35 @@ public class Environment<K, V> {
         assert env.lookup("Foo") == 1; // Original value should be restored
         assert env.lookup("Bar") == 2;
 
+        // Shadow a binding several scopes deep, and re-bind a key within 
+        // the same scope.
+        env.enterScope();
+        env.enterScope();
+        env.bind("Foo", 100);
+        env.bind("Foo", 101);
+        assert env.lookup("Foo") == 101;
+        env.exitScope();
+        assert env.lookup("Foo") == 1;
+        assert ! env.existsInCurrentScope("Foo");
+        env.exitScope();
+        assert env.existsInCurrentScope("Foo");
+
+        // Exiting the global scope removes everything, and there is nothing
+        // left to exit after that.
+        env.exitScope();
+        assert ! env.exists("Foo");
+        try {
+            env.exitScope();
+            assert false;
+        }
+        catch (IllegalStateException e) {
+            // Nothing to do here.
+        }
+
+        for (long seed = 0; seed < 10; ++seed) {
+            checkMatchesLinearEnvironment(seed);
+        }
+
         TestUtils.finishTestRun(true);
     }
 }
\ No newline at end of file
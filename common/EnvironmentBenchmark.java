@@ -0,0 +1,105 @@
+package common;
+
+import java.util.function.Supplier;
+
+/**
+ * Compares the time taken by {@link Environment} and
+ * {@link LinearEnvironment} on the access pattern of the type checker:
+ * a global scope holding every function, and a nested scope per function
+ * in which each local is declared and then looked up repeatedly.
+ *
+ * Run with: java common.EnvironmentBenchmark [max locals per function]
+ */
+public class EnvironmentBenchmark {
+
+    private static final int FUNCTION_COUNT = 100;
+    private static final int LOOKUPS_PER_LOCAL = 4;
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 5;
+
+    // Stops the JIT from optimizing away the lookups.
+    private static long sink;
+
+    private static String[] names(String prefix, int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; ++i) {
+            names[i] = prefix + i;
+        }
+        return names;
+    }
+
+    /**
+     * Simulates type checking a program and returns the number of
+     * environment operations performed.
+     */
+    private static long simulateTypeCheck(SymbolTable<String, Integer> env, String[] functions, String[] locals) {
+        long operations = 0;
+
+        for (int f = 0; f < functions.length; ++f) {
+            env.bind(functions[f], f);
+            ++operations;
+        }
+
+        for (int f = 0; f < functions.length; ++f) {
+            env.enterScope();
+
+            for (int i = 0; i < locals.length; ++i) {
+                if (!env.existsInCurrentScope(locals[i])) {
+                    env.bind(locals[i], i);
+                }
+                operations += 2;
+            }
+
+            // Statements referring to locals and calling other functions.
+            for (int n = 0; n < LOOKUPS_PER_LOCAL; ++n) {
+                for (int i = 0; i < locals.length; ++i) {
+                    sink += env.lookup(locals[(i * 31 + n) % locals.length]);
+                    sink += env.lookup(functions[(i + n) % functions.length]);
+                    operations += 2;
+                }
+            }
+
+            env.exitScope();
+            ++operations;
+        }
+
+        return operations;
+    }
+
+    /**
+     * Returns the average time per operation in nanoseconds.
+     */
+    private static double measure(Supplier<SymbolTable<String, Integer>> factory, String[] functions, String[] locals) {
+        for (int i = 0; i < WARMUP_RUNS; ++i) {
+            simulateTypeCheck(factory.get(), functions, locals);
+        }
+
+        long operations = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_RUNS; ++i) {
+            operations += simulateTypeCheck(factory.get(), functions, locals);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        return (double) elapsed / operations;
+    }
+
+    public static void main(String[] args) {
+        int maxLocals = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        String[] functions = names("function", FUNCTION_COUNT);
+
+        System.out.println(String.format("%8s %20s %20s %10s", "locals", "Environment ns/op", "Linear ns/op", "speedup"));
+        for (int localCount = 10; localCount <= maxLocals; localCount *= 3) {
+            String[] locals = names("local", localCount);
+
+            double hashed = measure(Environment::new, functions, locals);
+            double linear = measure(LinearEnvironment::new, functions, locals);
+
+            System.out.println(String.format("%8d %20.1f %20.1f %9.1fx", localCount, hashed, linear, linear / hashed));
+        }
+
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+}
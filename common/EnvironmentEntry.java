@@ -20,6 +20,9 @@ public class EnvironmentEntry<K, V> {
      *  (2) It does not let us explicitly model nested scopes where there is no binding
      *      before entering the second scope level. This can be worked-around with
      *      the introduction of counters, but is a much uglier solution than this. 
+     * 
+     * A new marker is created on each call rather than sharing a single instance, so
+     * environments used by compilations on different threads share no state.
      */
     public static <K, V> EnvironmentEntry<K, V> getMarker() {
         return new EnvironmentEntry<K, V>();
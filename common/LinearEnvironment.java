@@ -0,0 +1,138 @@
+package common;
+
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+/**
+ * The original {@link SymbolTable} implementation, which keeps all
+ * bindings in a single stack with a marker entry at the start of each
+ * scope. Every query scans the stack from the newest binding, so its
+ * cost grows with the number of bindings in all enclosing scopes.
+ * 
+ * {@link Environment} is used by the compiler instead. This is kept as 
+ * a reference implementation for tests and for EnvironmentBenchmark.
+ * 
+ * @param <K> The Key type used to identify envrionment entries.
+ *            This type may be user-defined, but must have the .equals
+ *            method implemented appropriately to allow duplicate keys
+ *            to be used.
+ * 
+ * @param <V> The Value type associated with each key.
+ */
+public class LinearEnvironment<K, V> implements SymbolTable<K, V> {
+
+    // Holds all key-value bindings which have been defined.
+    private final Deque<EnvironmentEntry<K, V>> bindingStack;
+
+    private EnvironmentEntry<K, V> getMarker() {
+        return EnvironmentEntry.<K, V>getMarker();
+    }
+
+    /** 
+     * Create a new, empty environment with an empty global scope.
+     */
+    public LinearEnvironment() {
+        bindingStack = new LinkedList<EnvironmentEntry<K, V>>();
+        enterScope();
+    }
+
+    /**
+     * Answers whether a binding with the provided key exists in the
+     * environment
+     * 
+     * @param key The key to search for. Must be non-null.
+     */
+    public boolean exists(K key) {
+        assert key != null;
+
+        for (var binding : bindingStack) {
+            if (!binding.isMarker() && binding.matches(key)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Answers whether a binding with the provided key exists in the
+     * deepest active scope of the environment.
+     * 
+     * @param key The key to search for. Must be non-null.
+     */
+    public boolean existsInCurrentScope(K key) {
+        assert key != null;
+
+        for (var binding : bindingStack) {
+            if (binding.isMarker()) {
+                break;
+            }
+            else if (binding.matches(key)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Enter a new scope level.
+     */
+    public void enterScope() {
+        bindingStack.addFirst(getMarker());
+    }
+
+
+    /**
+     * Remove all bindings from the deepest active scope.
+     */
+    public void exitScope() {
+        if (bindingStack.isEmpty()) {
+            throw new IllegalStateException("No scope to exit");
+        }
+
+        // Pop all bindings from the current scope.
+        while (!bindingStack.isEmpty() && !bindingStack.getFirst().isMarker()) {
+            bindingStack.removeFirst();
+        }
+
+        // No scope marker preceeded the bindings.
+        if (bindingStack.isEmpty()) {
+            throw new IllegalStateException("Missing scope entry marker");
+        }
+
+        // Pop the scope marker.
+        assert bindingStack.getFirst().isMarker();
+        bindingStack.removeFirst();
+    }
+
+    /**
+     * Returns the value of the matching binding found at the deepest active 
+     * scope level.
+     * @param key The key to search for. Must be non-null.
+     */
+    public V lookup(K key) {
+        assert key != null;
+
+        for (var binding : bindingStack) {
+            if (!binding.isMarker() && binding.matches(key)) {
+                return binding.getValue();
+            }
+        }
+
+        throw new NoSuchElementException("No binding exists with key " + key.toString());
+    }
+
+    /**
+     * Adds a key-value binding in the current scope.
+     * @param key The key of the binding. Must be non-null.
+     * @param value The value of the binding. Must be non-null.
+     */
+    public void bind(K key, V value) {
+        assert key != null;
+        assert value != null;
+
+        bindingStack.push(new EnvironmentEntry<K, V> (key, value));
+    }
+}
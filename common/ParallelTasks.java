@@ -0,0 +1,92 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs independent tasks, such as the work on each function of a program,
+ * concurrently and gathers their results in order. If tasks fail, the
+ * exception of the first failing task in order is rethrown, so errors are
+ * reported just as if the tasks had been run one after another.
+ */
+public class ParallelTasks {
+
+    /**
+     * A task which may throw a checked exception of type E.
+     */
+    public interface Task<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /**
+     * The result of a task, or the checked exception it threw. Checked
+     * exceptions are caught by the task itself, since some executors
+     * (such as ForkJoinPool) wrap them in RuntimeExceptions.
+     */
+    private static class Outcome<T> {
+        final T result;
+        final Exception failure;
+
+        Outcome(T result, Exception failure) {
+            this.result = result;
+            this.failure = failure;
+        }
+    }
+
+    private ParallelTasks() {
+    }
+
+    /**
+     * Runs the tasks on the executor and returns their results in the order
+     * of the tasks. Every task is run to completion, even if one fails.
+     * @throws E The exception thrown by the first task in order to fail.
+     * @throws CancellationException If the calling thread is interrupted.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, E extends Exception> List<T> invokeInOrder(ExecutorService executor, List<? extends Task<T, E>> tasks) throws E {
+        List<Callable<Outcome<T>>> callables = new ArrayList<Callable<Outcome<T>>>(tasks.size());
+        for (var task : tasks) {
+            callables.add(() -> {
+                try {
+                    return new Outcome<T>(task.call(), null);
+                }
+                catch (RuntimeException e) {
+                    throw e;
+                }
+                catch (Exception e) {
+                    return new Outcome<T>(null, e);
+                }
+            });
+        }
+
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            for (Future<Outcome<T>> future : executor.invokeAll(callables)) {
+                var outcome = future.get();
+                if (outcome.failure != null) {
+                    // A task can only throw an E or an unchecked exception.
+                    throw (E) outcome.failure;
+                }
+                results.add(outcome.result);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for tasks");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,28 @@
+package common;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event covering one phase of the compilation of a
+ * program, such as parsing or code generation. Like all JFR events, it
+ * costs almost nothing unless a recording has enabled it, so phases are
+ * always reported.
+ */
+@Name("ul.Phase")
+@Label("Compiler Phase")
+@Category("UL Compiler")
+@StackTrace(false)
+@Description("A phase of the compilation of a UL program")
+public class PhaseEvent extends Event {
+
+    @Label("Program")
+    public String program;
+
+    @Label("Phase")
+    public String phase;
+}
@@ -0,0 +1,57 @@
+package common;
+
+/**
+ * A "Symbol Table" which tracks the currently available keys and their
+ * bound values across nested scopes. A binding in a nested scope shadows
+ * any binding with the same key in the enclosing scopes until the nested
+ * scope is exited.
+ *
+ * @param <K> The Key type used to identify bindings. This must implement
+ *            .equals and .hashCode appropriately.
+ *
+ * @param <V> The Value type associated with each key.
+ */
+public interface SymbolTable<K, V> {
+
+    /**
+     * Answers whether a binding with the provided key exists in any active
+     * scope.
+     *
+     * @param key The key to search for. Must be non-null.
+     */
+    public boolean exists(K key);
+
+    /**
+     * Answers whether a binding with the provided key exists in the
+     * deepest active scope.
+     *
+     * @param key The key to search for. Must be non-null.
+     */
+    public boolean existsInCurrentScope(K key);
+
+    /**
+     * Enter a new scope level.
+     */
+    public void enterScope();
+
+    /**
+     * Remove all bindings from the deepest active scope.
+     */
+    public void exitScope();
+
+    /**
+     * Returns the value of the matching binding found at the deepest active
+     * scope level. Throws NoSuchElementException if there is none.
+     *
+     * @param key The key to search for. Must be non-null.
+     */
+    public V lookup(K key);
+
+    /**
+     * Adds a key-value binding in the current scope.
+     *
+     * @param key The key of the binding. Must be non-null.
+     * @param value The value of the binding. Must be non-null.
+     */
+    public void bind(K key, V value);
+}
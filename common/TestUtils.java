@@ -1,5 +1,15 @@
 package common;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
 /**
  * Utilities for the hacky, assertion-based testing we're 
  * doing because the test server doesn't have Gradle or 
@@ -34,4 +44,44 @@ public class TestUtils {
         }
     }
 
+    /**
+     * Deletes a file, or a directory and everything in it.
+     */
+    public static void deleteRecursively(Path path) throws Exception {
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Writes the source to name.ul in the directory, compiles it there with
+     * the given options, and returns the exit status followed by the
+     * compiler's output.
+     *
+     * The Compiler class is in the default package, which can't be named
+     * from this one, so Compiler.compile is found by reflection.
+     */
+    public static String compile(Path directory, String name, String source, String... options) throws Exception {
+        Files.writeString(directory.resolve(name + ".ul"), source);
+
+        var args = Arrays.copyOf(options, options.length + 1);
+        args[options.length] = name + ".ul";
+
+        var output = new ByteArrayOutputStream();
+        var stream = new PrintStream(output, true);
+        var compile = Class.forName("Compiler").getMethod("compile", String[].class, File.class, PrintStream.class, PrintStream.class);
+        int status;
+        try {
+            status = (Integer) compile.invoke(null, args, directory.toFile(), stream, stream);
+        }
+        catch (InvocationTargetException e) {
+            // Errors in the compiler are thrown as they would be by a call.
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw (Error) e.getCause();
+        }
+        return status + "\n" + output;
+    }
+
 }
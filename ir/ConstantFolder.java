@@ -0,0 +1,705 @@
+package ir;
+
+import common.TestUtils;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import type.*;
+
+/**
+ * An optimization pass over the IR which evaluates operations on values
+ * that are known when the program is compiled.
+ *
+ * A forward dataflow analysis finds the temporaries which hold the same
+ * constant on every path to each instruction. Assignments of operations
+ * whose operands are all constant are replaced by assignments of the
+ * result, and conditional jumps on a constant condition become a jump or
+ * are removed. The constant assignments to true temporaries which are no
+ * longer read are then removed.
+ *
+ * The analysis follows only the branch a constant condition always takes,
+ * so the blocks which are then never reached don't stop a temporary from
+ * being constant where they join the rest of the function. A single
+ * analysis and a single pass over the instructions are therefore enough.
+ *
+ * Operations are only folded when the result is exactly what the generated
+ * code would compute at run time.
+ */
+public class ConstantFolder {
+
+    // Longer strings might not fit in the constant pool, which stores
+    // up to 65535 bytes of modified UTF-8 (up to 3 bytes per character).
+    private static final int MAX_FOLDED_STRING_LENGTH = 65535 / 3;
+
+    private int removedInstructionCount;
+
+    public ConstantFolder() {
+        removedInstructionCount = 0;
+    }
+
+    /**
+     * The total number of instructions removed from the functions folded
+     * so far.
+     */
+    public int getRemovedInstructionCount() {
+        return removedInstructionCount;
+    }
+
+    /**
+     * Returns a copy of the program with the constants in each function
+     * folded.
+     */
+    public IRProgram fold(IRProgram program) {
+        var functions = new ArrayList<IRFunction>();
+        for (var function : program.functions) {
+            functions.add(fold(function));
+        }
+        return new IRProgram(program.programName, functions);
+    }
+
+    /**
+     * Returns a copy of the function with its constants folded.
+     */
+    public IRFunction fold(IRFunction function) {
+        var instructions = removeUnusedConstants(foldInstructions(function.instructions));
+
+        removedInstructionCount += function.instructions.size() - instructions.size();
+
+        return new IRFunction.Builder()
+            .withName(function.name)
+            .withMethodType(function.type)
+            .withTemps(function.temps)
+            .addInstructions(instructions.toArray(new IRInstruction[0]))
+            .build();
+    }
+
+    /**
+     * Returns the constant for the result of a float operation, or null if
+     * it is infinite or NaN, which Jasmin can't read as the operand of an
+     * ldc instruction.
+     */
+    private static IRConstant<?> floatConstant(float value) {
+        return Float.isFinite(value) ? IRConstant.forFloat(value) : null;
+    }
+
+    private static IRConstant<?> evaluate(BinaryOperation.Operators operator, Object left, Object right) {
+        switch (operator) {
+            // Character arithmetic is not folded, because the generated
+            // code does not truncate the result to 16 bits.
+            case PLUS:
+                if (left instanceof Integer) {
+                    return IRConstant.forInteger((Integer) left + (Integer) right);
+                }
+                else if (left instanceof Float) {
+                    return floatConstant((Float) left + (Float) right);
+                }
+                else if (left instanceof String) {
+                    var s = (String) left + (String) right;
+                    return s.length() <= MAX_FOLDED_STRING_LENGTH ? IRConstant.forString(s) : null;
+                }
+                return null;
+
+            case MINUS:
+                if (left instanceof Integer) {
+                    return IRConstant.forInteger((Integer) left - (Integer) right);
+                }
+                else if (left instanceof Float) {
+                    return floatConstant((Float) left - (Float) right);
+                }
+                return null;
+
+            case MULTIPLY:
+                if (left instanceof Integer) {
+                    return IRConstant.forInteger((Integer) left * (Integer) right);
+                }
+                else if (left instanceof Float) {
+                    return floatConstant((Float) left * (Float) right);
+                }
+                return null;
+
+            case EQUAL:
+                // Floats are compared as primitives, so that NaN is not
+                // equal to itself and 0.0 is equal to -0.0.
+                if (left instanceof Float) {
+                    return IRConstant.forBoolean((float) (Float) left == (float) (Float) right);
+                }
+                return IRConstant.forBoolean(left.equals(right));
+
+            case LESS:
+                if (left instanceof Integer) {
+                    return IRConstant.forBoolean((Integer) left < (Integer) right);
+                }
+                else if (left instanceof Character) {
+                    return IRConstant.forBoolean((Character) left < (Character) right);
+                }
+                else if (left instanceof Float) {
+                    return IRConstant.forBoolean((Float) left < (Float) right);
+                }
+                else if (left instanceof String) {
+                    return IRConstant.forBoolean(((String) left).compareTo((String) right) < 0);
+                }
+                return null;
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Finds the temporaries which are constant in a function.
+     *
+     * A true temporary which is assigned only once, as every one the IR
+     * generator creates is, holds the value of that assignment wherever it
+     * is read. So it has a single value for the whole function, which is
+     * kept in an array. Only the constants held by the other temporaries
+     * (parameters, locals, and any true temporary assigned more than once)
+     * are kept for the start of each block, and copied as each block is
+     * analyzed.
+     */
+    private static class ConstantAnalysis {
+
+        private final ControlFlowGraph cfg;
+        private final List<IRInstruction> instructions;
+
+        // The true temporaries assigned only once, the ones whose assignment
+        // has been evaluated, and their values, which are null if they
+        // aren't constant. All are indexed by global index.
+        private final BitSet isSingleAssignment;
+        private final BitSet isEvaluated;
+        private final IRConstant<?>[] values;
+
+        // For each single assignment temporary, the blocks which read it
+        // other than after the assignment in its own block. They must be
+        // analyzed again if its value changes.
+        private final Map<Integer, List<ControlFlowGraph.BasicBlock>> distantUses;
+
+        // The constants held by the other temporaries at the start of each
+        // block. Blocks which are never reached have no entry.
+        private final List<Map<Integer, IRConstant<?>>> blockConstants;
+
+        private final Deque<ControlFlowGraph.BasicBlock> worklist;
+        private final boolean[] isQueued;
+
+        ConstantAnalysis(ControlFlowGraph cfg) {
+            this.cfg = cfg;
+            instructions = cfg.getInstructions();
+
+            int tempCount = 0;
+            var isAssigned = new BitSet();
+            isSingleAssignment = new BitSet();
+            for (var instruction : instructions) {
+                if (instruction instanceof TemporaryAssignmentInstruction) {
+                    var destination = ((TemporaryAssignmentInstruction) instruction).destination;
+                    int index = destination.globalIndex();
+                    tempCount = Math.max(tempCount, index + 1);
+                    if (destination instanceof TrueTemp) {
+                        isSingleAssignment.set(index, !isAssigned.get(index));
+                        isAssigned.set(index);
+                    }
+                }
+            }
+            isEvaluated = new BitSet();
+            values = new IRConstant<?>[tempCount];
+
+            distantUses = new HashMap<Integer, List<ControlFlowGraph.BasicBlock>>();
+            findDistantUses();
+
+            blockConstants = new ArrayList<Map<Integer, IRConstant<?>>>();
+            for (int i = 0; i < cfg.getBlocks().size(); ++i) {
+                blockConstants.add(null);
+            }
+            worklist = new ArrayDeque<ControlFlowGraph.BasicBlock>();
+            isQueued = new boolean[cfg.getBlocks().size()];
+
+            if (cfg.getEntry() != null) {
+                blockConstants.set(0, new HashMap<Integer, IRConstant<?>>());
+                enqueue(cfg.getEntry());
+            }
+            while (!worklist.isEmpty()) {
+                var block = worklist.pop();
+                isQueued[block.index] = false;
+                analyze(block);
+            }
+        }
+
+        private void findDistantUses() {
+            for (var block : cfg.getBlocks()) {
+                var assigned = new BitSet();
+                for (var instruction : block.getInstructions()) {
+                    new TempRewriter() {
+                        protected Temporary rewriteUse(Temporary temp) {
+                            int index = temp.globalIndex();
+                            if (isSingleAssignment(temp) && !assigned.get(index)) {
+                                var blocks = distantUses.computeIfAbsent(index, k -> new ArrayList<ControlFlowGraph.BasicBlock>());
+                                if (blocks.isEmpty() || blocks.get(blocks.size() - 1) != block) {
+                                    blocks.add(block);
+                                }
+                            }
+                            return temp;
+                        }
+                    }.rewrite(instruction);
+
+                    if (instruction instanceof TemporaryAssignmentInstruction) {
+                        assigned.set(((TemporaryAssignmentInstruction) instruction).destination.globalIndex());
+                    }
+                }
+            }
+        }
+
+        private boolean isSingleAssignment(Temporary temp) {
+            return isSingleAssignment.get(temp.globalIndex());
+        }
+
+        private void enqueue(ControlFlowGraph.BasicBlock block) {
+            if (!isQueued[block.index]) {
+                isQueued[block.index] = true;
+                worklist.push(block);
+            }
+        }
+
+        /**
+         * Returns the constant value of a temporary, given the constants
+         * held by the temporaries which are assigned more than once, or
+         * null if it isn't constant.
+         */
+        IRConstant<?> valueOf(Temporary temp, Map<Integer, IRConstant<?>> constants) {
+            int index = temp.globalIndex();
+            return isSingleAssignment.get(index) ? values[index] : constants.get(index);
+        }
+
+        /**
+         * Returns the value of an expression, or null if it is not a
+         * constant.
+         */
+        IRConstant<?> evaluate(IRAssignableExpression expression, Map<Integer, IRConstant<?>> constants) {
+            if (expression instanceof IRConstant) {
+                return (IRConstant<?>) expression;
+            }
+            else if (expression instanceof Temporary) {
+                return valueOf((Temporary) expression, constants);
+            }
+            else if (expression instanceof BinaryOperation) {
+                var operation = (BinaryOperation) expression;
+                var left = valueOf(operation.left, constants);
+                var right = valueOf(operation.right, constants);
+                if (left == null || right == null) {
+                    return null;
+                }
+                return ConstantFolder.evaluate(operation.operator, left.value(), right.value());
+            }
+            else if (expression instanceof NegationOperation) {
+                var operand = valueOf(((NegationOperation) expression).operand, constants);
+                if (operand == null || !(operand.value() instanceof Boolean)) {
+                    return null;
+                }
+                return IRConstant.forBoolean(!(Boolean) operand.value());
+            }
+            else {
+                return null;
+            }
+        }
+
+        /**
+         * Updates the constant values of temporaries after an instruction.
+         */
+        void transfer(IRInstruction instruction, Map<Integer, IRConstant<?>> constants) {
+            if (!(instruction instanceof TemporaryAssignmentInstruction)) {
+                return;
+            }
+
+            var assignment = (TemporaryAssignmentInstruction) instruction;
+            int index = assignment.destination.globalIndex();
+            var value = evaluate(assignment.value, constants);
+            if (isSingleAssignment.get(index)) {
+                setValue(index, value);
+            }
+            else if (value != null) {
+                constants.put(index, value);
+            }
+            else {
+                constants.remove(index);
+            }
+        }
+
+        /**
+         * Records the value of an assignment to a single assignment
+         * temporary. It is only constant if every time the assignment is
+         * analyzed gives the same value.
+         */
+        private void setValue(int index, IRConstant<?> value) {
+            var current = values[index];
+            if (!isEvaluated.get(index)) {
+                isEvaluated.set(index);
+                values[index] = value;
+            }
+            else if (current != null && (value == null || !current.value().equals(value.value()))) {
+                values[index] = null;
+            }
+
+            if (values[index] != current) {
+                for (var block : distantUses.getOrDefault(index, List.of())) {
+                    if (blockConstants.get(block.index) != null) {
+                        enqueue(block);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the blocks which can follow a block. A conditional jump
+         * on a constant only leads to the block it always continues to.
+         */
+        List<ControlFlowGraph.BasicBlock> getSuccessors(ControlFlowGraph.BasicBlock block, Map<Integer, IRConstant<?>> constants) {
+            var last = block.getLastInstruction();
+            if (last instanceof ConditionalJumpInstruction) {
+                var jump = (ConditionalJumpInstruction) last;
+                var condition = valueOf(jump.condition, constants);
+                if (condition != null && (Boolean) condition.value()) {
+                    return List.of(cfg.getBlockOf(jump.label));
+                }
+                else if (condition != null) {
+                    var blocks = cfg.getBlocks();
+                    return block.index + 1 < blocks.size() ? List.of(blocks.get(block.index + 1)) : List.of();
+                }
+            }
+            return block.getSuccessors();
+        }
+
+        /**
+         * Runs through a block from the constants at its start, and merges
+         * the constants at its end into those of the blocks it can lead to.
+         * A temporary is only constant at the start of a block if it has the
+         * same value on every path, so each block keeps the entries on which
+         * all its predecessors agree.
+         */
+        private void analyze(ControlFlowGraph.BasicBlock block) {
+            var constants = new HashMap<Integer, IRConstant<?>>(blockConstants.get(block.index));
+            for (var instruction : block.getInstructions()) {
+                transfer(instruction, constants);
+            }
+
+            for (var successor : getSuccessors(block, constants)) {
+                var existing = blockConstants.get(successor.index);
+                if (existing == null) {
+                    blockConstants.set(successor.index, new HashMap<Integer, IRConstant<?>>(constants));
+                    enqueue(successor);
+                }
+                else if (existing.entrySet().removeIf(e -> !e.getValue().value().equals(valueAt(constants, e.getKey())))) {
+                    enqueue(successor);
+                }
+            }
+        }
+
+        private static Object valueAt(Map<Integer, IRConstant<?>> constants, int index) {
+            var constant = constants.get(index);
+            return constant == null ? null : constant.value();
+        }
+
+        /**
+         * Returns the constants held by the temporaries which are assigned
+         * more than once at the start of a block, or null if the block is
+         * never reached. The map is not copied, so it can only be used
+         * once.
+         */
+        Map<Integer, IRConstant<?>> getBlockConstants(ControlFlowGraph.BasicBlock block) {
+            return blockConstants.get(block.index);
+        }
+    }
+
+    /**
+     * Replaces constant operations and conditional jumps. Returns the same
+     * list if nothing is changed.
+     */
+    private static List<IRInstruction> foldInstructions(List<IRInstruction> instructions) {
+        var cfg = new ControlFlowGraph(instructions);
+        var analysis = new ConstantAnalysis(cfg);
+
+        var result = new ArrayList<IRInstruction>();
+        boolean changed = false;
+
+        for (var block : cfg.getBlocks()) {
+            var constants = analysis.getBlockConstants(block);
+
+            // Unreachable instructions are left alone.
+            if (constants == null) {
+                result.addAll(block.getInstructions());
+                continue;
+            }
+
+            for (var instruction : block.getInstructions()) {
+                if (instruction instanceof TemporaryAssignmentInstruction) {
+                    var assignment = (TemporaryAssignmentInstruction) instruction;
+                    var value = analysis.evaluate(assignment.value, constants);
+                    if (value != null && !(assignment.value instanceof IRConstant)) {
+                        instruction = new TemporaryAssignmentInstruction(assignment.destination, value);
+                        changed = true;
+                    }
+                }
+                else if (instruction instanceof ConditionalJumpInstruction) {
+                    var jump = (ConditionalJumpInstruction) instruction;
+                    var condition = analysis.valueOf(jump.condition, constants);
+                    if (condition != null) {
+                        changed = true;
+                        if ((Boolean) condition.value()) {
+                            instruction = new JumpInstruction(jump.label);
+                        }
+                        else {
+                            continue;
+                        }
+                    }
+                }
+
+                analysis.transfer(instruction, constants);
+                result.add(instruction);
+            }
+        }
+
+        return changed ? result : instructions;
+    }
+
+    /**
+     * Removes the assignments of constants to true temporaries which are
+     * never read. Returns the same list if nothing is removed.
+     */
+    private static List<IRInstruction> removeUnusedConstants(List<IRInstruction> instructions) {
+        var liveness = new Liveness(instructions);
+
+        boolean[] isUnused = new boolean[instructions.size()];
+        boolean changed = false;
+
+        for (var block : liveness.getControlFlowGraph().getBlocks()) {
+            var live = liveness.getLiveOut(block);
+
+            for (int i = block.end - 1; i >= block.start; --i) {
+                var instruction = instructions.get(i);
+                if (instruction instanceof TemporaryAssignmentInstruction) {
+                    var assignment = (TemporaryAssignmentInstruction) instruction;
+                    if (assignment.destination instanceof TrueTemp
+                            && assignment.value instanceof IRConstant
+                            && !live.get(assignment.destination.globalIndex())) {
+                        isUnused[i] = true;
+                        changed = true;
+                    }
+                }
+                Liveness.stepBackwards(instruction, live);
+            }
+        }
+
+        if (!changed) {
+            return instructions;
+        }
+
+        var result = new ArrayList<IRInstruction>();
+        for (int i = 0; i < instructions.size(); ++i) {
+            if (!isUnused[i]) {
+                result.add(instructions.get(i));
+            }
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        TestUtils.startTestRun("ConstantFolder");
+
+        testArithmeticIsFolded();
+        testStringsAreConcatenated();
+        testConstantConditionBecomesJump();
+        testMergedValuesAreNotConstant();
+        testIntegerOverflowWraps();
+        testNonFiniteFloatsAreNotFolded();
+
+        TestUtils.finishTestRun(true);
+    }
+
+    private static IRFunction.Builder newFunction() {
+        return new IRFunction.Builder()
+            .withName("f")
+            .withMethodType(new MethodType(VoidType.INSTANCE));
+    }
+
+    private static BinaryOperation operation(BinaryOperation.Operators operator, Temporary left, Temporary right) {
+        return BinaryOperation.getOperation(operator, left, right);
+    }
+
+    private static void testArithmeticIsFolded() throws Exception {
+        // T0 := 2; T1 := 3; T2 := T0 * T1; T3 := T2 + T0; PRINT T3;
+        var factory = new TempFactory();
+        var t0 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t1 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t2 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t3 = factory.acquireTemp(IntegerType.INSTANCE);
+
+        var function = newFunction()
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, IRConstant.forInteger(2)),
+                new TemporaryAssignmentInstruction(t1, IRConstant.forInteger(3)),
+                new TemporaryAssignmentInstruction(t2, operation(BinaryOperation.Operators.MULTIPLY, t0, t1)),
+                new TemporaryAssignmentInstruction(t3, operation(BinaryOperation.Operators.PLUS, t2, t0)),
+                new PrintInstruction(t3),
+                new ReturnInstruction()
+            )
+            .build();
+
+        var folder = new ConstantFolder();
+        var folded = folder.fold(function);
+        assert folded.instructions.size() == 3;
+        assert folder.getRemovedInstructionCount() == 3;
+
+        var assignment = (TemporaryAssignmentInstruction) folded.instructions.get(0);
+        assert assignment.destination == t3;
+        assert assignment.value instanceof IRConstant;
+        assert ((IRConstant<?>) assignment.value).value().equals(8);
+    }
+
+    private static void testStringsAreConcatenated() throws Exception {
+        // T0 := "ab"; T1 := "cd"; T2 := T0 + T1; T3 := T2 < T0; PRINT T2; PRINT T3;
+        var factory = new TempFactory();
+        var t0 = factory.acquireTemp(StringType.INSTANCE);
+        var t1 = factory.acquireTemp(StringType.INSTANCE);
+        var t2 = factory.acquireTemp(StringType.INSTANCE);
+        var t3 = factory.acquireTemp(BooleanType.INSTANCE);
+
+        var function = newFunction()
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, IRConstant.forString("ab")),
+                new TemporaryAssignmentInstruction(t1, IRConstant.forString("cd")),
+                new TemporaryAssignmentInstruction(t2, operation(BinaryOperation.Operators.PLUS, t0, t1)),
+                new TemporaryAssignmentInstruction(t3, operation(BinaryOperation.Operators.LESS, t2, t0)),
+                new PrintInstruction(t2),
+                new PrintInstruction(t3),
+                new ReturnInstruction()
+            )
+            .build();
+
+        var folded = new ConstantFolder().fold(function);
+        assert folded.instructions.size() == 5;
+
+        var concatenation = (TemporaryAssignmentInstruction) folded.instructions.get(0);
+        assert ((IRConstant<?>) concatenation.value).value().equals("abcd");
+        var comparison = (TemporaryAssignmentInstruction) folded.instructions.get(1);
+        assert ((IRConstant<?>) comparison.value).value().equals(false);
+    }
+
+    private static void testConstantConditionBecomesJump() throws Exception {
+        //      T0 := TRUE;
+        //      T1 := Z! T0;
+        //      IF T1 GOTO L0;
+        //      IF T0 GOTO L1;
+        //  L0:
+        //      RETURN;
+        //  L1:
+        //      RETURN;
+        var factory = new TempFactory();
+        var t0 = factory.acquireTemp(BooleanType.INSTANCE);
+        var t1 = factory.acquireTemp(BooleanType.INSTANCE);
+        var labels = new common.LabelFactory();
+        var l0 = labels.getLabel();
+        var l1 = labels.getLabel();
+
+        var function = newFunction()
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, IRConstant.forBoolean(true)),
+                new TemporaryAssignmentInstruction(t1, new NegationOperation(t0)),
+                new ConditionalJumpInstruction(t1, l0),
+                new ConditionalJumpInstruction(t0, l1),
+                new LabelInstruction(l0),
+                new ReturnInstruction(),
+                new LabelInstruction(l1),
+                new ReturnInstruction()
+            )
+            .build();
+
+        var folded = new ConstantFolder().fold(function);
+        assert folded.instructions.size() == 5;
+        assert !(folded.instructions.get(0) instanceof ConditionalJumpInstruction);
+        assert ((JumpInstruction) folded.instructions.get(0)).label == l1;
+    }
+
+    private static void testMergedValuesAreNotConstant() throws Exception {
+        //      x := 1;
+        //      IF p GOTO L0;
+        //      x := 2;
+        //  L0:
+        //      T0 := x + x;
+        //      PRINT T0;
+        //      RETURN;
+        var factory = new TempFactory();
+        var p = factory.acquireParam(BooleanType.INSTANCE, "p");
+        var x = factory.acquireLocal(IntegerType.INSTANCE, "x");
+        var t0 = factory.acquireTemp(IntegerType.INSTANCE);
+        var l0 = new common.LabelFactory().getLabel();
+
+        var function = newFunction()
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(x, IRConstant.forInteger(1)),
+                new ConditionalJumpInstruction(p, l0),
+                new TemporaryAssignmentInstruction(x, IRConstant.forInteger(2)),
+                new LabelInstruction(l0),
+                new TemporaryAssignmentInstruction(t0, operation(BinaryOperation.Operators.PLUS, x, x)),
+                new PrintInstruction(t0),
+                new ReturnInstruction()
+            )
+            .build();
+
+        var folder = new ConstantFolder();
+        var folded = folder.fold(function);
+        assert folder.getRemovedInstructionCount() == 0;
+        assert ((TemporaryAssignmentInstruction) folded.instructions.get(4)).value instanceof BinaryOperation;
+    }
+
+    private static void testIntegerOverflowWraps() throws Exception {
+        // T0 := 2147483647; T1 := 1; T2 := T0 + T1; PRINT T2;
+        var factory = new TempFactory();
+        var t0 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t1 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t2 = factory.acquireTemp(IntegerType.INSTANCE);
+
+        var function = newFunction()
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, IRConstant.forInteger(Integer.MAX_VALUE)),
+                new TemporaryAssignmentInstruction(t1, IRConstant.forInteger(1)),
+                new TemporaryAssignmentInstruction(t2, operation(BinaryOperation.Operators.PLUS, t0, t1)),
+                new PrintInstruction(t2),
+                new ReturnInstruction()
+            )
+            .build();
+
+        var folded = new ConstantFolder().fold(function);
+        var assignment = (TemporaryAssignmentInstruction) folded.instructions.get(0);
+        assert ((IRConstant<?>) assignment.value).value().equals(Integer.MIN_VALUE);
+    }
+
+    private static void testNonFiniteFloatsAreNotFolded() throws Exception {
+        // T0 := 3.0E38; T1 := T0 * T0; T2 := T1 - T1; PRINT T1; PRINT T2;
+        var factory = new TempFactory();
+        var t0 = factory.acquireTemp(FloatType.INSTANCE);
+        var t1 = factory.acquireTemp(FloatType.INSTANCE);
+        var t2 = factory.acquireTemp(FloatType.INSTANCE);
+
+        var function = newFunction()
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, IRConstant.forFloat(3.0e38f)),
+                new TemporaryAssignmentInstruction(t1, operation(BinaryOperation.Operators.MULTIPLY, t0, t0)),
+                new TemporaryAssignmentInstruction(t2, operation(BinaryOperation.Operators.MINUS, t1, t1)),
+                new PrintInstruction(t1),
+                new PrintInstruction(t2),
+                new ReturnInstruction()
+            )
+            .build();
+
+        // Infinity and NaN have no constant form in Jasmin, so both
+        // operations are left as they are.
+        var folded = new ConstantFolder().fold(function);
+        assert folded.instructions.equals(function.instructions) : folded.instructions;
+    }
+}
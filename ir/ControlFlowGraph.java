@@ -0,0 +1,570 @@
+package ir;
+
+import common.Label;
+import common.LabelFactory;
+import common.TestUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import type.*;
+
+/**
+ * The control flow graph of a list of IR instructions. The instructions
+ * are split into basic blocks, which are maximal runs of instructions that
+ * can only be entered at the first instruction and only left after the
+ * last one. A block starts at each label and after each jump or return.
+ *
+ * Besides the edges between blocks, the graph provides the reverse
+ * post-order of the reachable blocks and their dominator tree. A block A
+ * dominates a block B if every path from the entry to B passes through A.
+ *
+ * Blocks are numbered in program order, and everything is stored in
+ * arrays indexed by block number, so a graph can be built in time linear
+ * in the number of instructions.
+ */
+public class ControlFlowGraph {
+
+    /**
+     * A basic block: the instructions with indices from start (inclusive)
+     * to end (exclusive).
+     */
+    public class BasicBlock {
+        public final int index;
+        public final int start;
+        public final int end;
+
+        private BasicBlock(int index, int start, int end) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+        }
+
+        public List<IRInstruction> getInstructions() {
+            return instructions.subList(start, end);
+        }
+
+        public IRInstruction getLastInstruction() {
+            return instructions.get(end - 1);
+        }
+
+        public List<BasicBlock> getSuccessors() {
+            return toBlocks(successors[index]);
+        }
+
+        public List<BasicBlock> getPredecessors() {
+            return toBlocks(predecessors[index]);
+        }
+
+        public boolean isReachable() {
+            return reversePostOrderIndex[index] >= 0;
+        }
+
+        /**
+         * Returns the block which immediately dominates this one, or null for
+         * the entry block and unreachable blocks.
+         */
+        public BasicBlock getImmediateDominator() {
+            int dominator = immediateDominators[index];
+            return dominator < 0 || dominator == index ? null : blocks.get(dominator);
+        }
+
+        /**
+         * Answers whether this block dominates the given block. Every
+         * reachable block dominates itself. Unreachable blocks neither
+         * dominate nor are dominated by any block.
+         */
+        public boolean dominates(BasicBlock other) {
+            if (!isReachable() || !other.isReachable()) {
+                return false;
+            }
+
+            // Compare the intervals of a depth first walk of the dominator
+            // tree.
+            return dominatorTreeEntry[index] <= dominatorTreeEntry[other.index]
+                && dominatorTreeExit[other.index] <= dominatorTreeExit[index];
+        }
+
+        public String toString() {
+            return "B" + index;
+        }
+    }
+
+    private static final int[] NO_BLOCKS = new int[0];
+
+    private final List<IRInstruction> instructions;
+    private final List<BasicBlock> blocks;
+    private final int[] blockOfInstruction;
+    private final Map<Label, BasicBlock> labelBlocks;
+    private final int[][] successors;
+    private final int[][] predecessors;
+
+    private final int[] reversePostOrder;
+    private final int[] reversePostOrderIndex;
+    private final int[] immediateDominators;
+    private final int[] dominatorTreeEntry;
+    private final int[] dominatorTreeExit;
+
+    public ControlFlowGraph(IRFunction function) {
+        this(function.instructions);
+    }
+
+    public ControlFlowGraph(List<IRInstruction> instructions) {
+        this.instructions = instructions;
+        blocks = new ArrayList<BasicBlock>();
+        blockOfInstruction = new int[instructions.size()];
+        labelBlocks = new HashMap<Label, BasicBlock>();
+
+        findBlocks();
+
+        int count = blocks.size();
+        successors = new int[count][];
+        predecessors = new int[count][];
+        findEdges();
+
+        reversePostOrderIndex = new int[count];
+        reversePostOrder = computeReversePostOrder();
+
+        immediateDominators = new int[count];
+        dominatorTreeEntry = new int[count];
+        dominatorTreeExit = new int[count];
+        computeDominators();
+    }
+
+    private static boolean endsBlock(IRInstruction instruction) {
+        return instruction instanceof JumpInstruction || instruction instanceof ReturnInstruction;
+    }
+
+    private void findBlocks() {
+        int start = 0;
+        for (int i = 0; i < instructions.size(); ++i) {
+            var instruction = instructions.get(i);
+
+            if (instruction instanceof LabelInstruction && i != start) {
+                blocks.add(new BasicBlock(blocks.size(), start, i));
+                start = i;
+            }
+
+            blockOfInstruction[i] = blocks.size();
+
+            if (endsBlock(instruction) || i + 1 == instructions.size()) {
+                blocks.add(new BasicBlock(blocks.size(), start, i + 1));
+                start = i + 1;
+            }
+        }
+
+        for (var block : blocks) {
+            var first = instructions.get(block.start);
+            if (first instanceof LabelInstruction) {
+                labelBlocks.put(((LabelInstruction) first).label, block);
+            }
+        }
+    }
+
+    private int targetBlock(Label label) {
+        var block = labelBlocks.get(label);
+        if (block == null) {
+            throw new IllegalStateException("Jump to undefined label " + label);
+        }
+        return block.index;
+    }
+
+    private void findEdges() {
+        int count = blocks.size();
+        int[] predecessorCounts = new int[count];
+
+        for (var block : blocks) {
+            var last = block.getLastInstruction();
+            boolean hasNext = block.index + 1 < count;
+
+            int[] blockSuccessors;
+            if (last instanceof ConditionalJumpInstruction) {
+                int target = targetBlock(((JumpInstruction) last).label);
+                if (!hasNext || target == block.index + 1) {
+                    blockSuccessors = new int[] { target };
+                }
+                else {
+                    blockSuccessors = new int[] { block.index + 1, target };
+                }
+            }
+            else if (last instanceof JumpInstruction) {
+                blockSuccessors = new int[] { targetBlock(((JumpInstruction) last).label) };
+            }
+            else if (last instanceof ReturnInstruction || !hasNext) {
+                blockSuccessors = NO_BLOCKS;
+            }
+            else {
+                blockSuccessors = new int[] { block.index + 1 };
+            }
+
+            successors[block.index] = blockSuccessors;
+            for (int successor : blockSuccessors) {
+                ++predecessorCounts[successor];
+            }
+        }
+
+        for (int b = 0; b < count; ++b) {
+            predecessors[b] = predecessorCounts[b] == 0 ? NO_BLOCKS : new int[predecessorCounts[b]];
+            predecessorCounts[b] = 0;
+        }
+        for (int b = 0; b < count; ++b) {
+            for (int successor : successors[b]) {
+                predecessors[successor][predecessorCounts[successor]++] = b;
+            }
+        }
+    }
+
+    /**
+     * Walks the graph depth first from the entry block without recursion,
+     * since generated programs can have very long chains of blocks.
+     */
+    private int[] computeReversePostOrder() {
+        int count = blocks.size();
+        Arrays.fill(reversePostOrderIndex, -1);
+        if (count == 0) {
+            return NO_BLOCKS;
+        }
+
+        int[] postOrder = new int[count];
+        int postOrderCount = 0;
+
+        // The stack holds blocks being visited, and the index of the next
+        // successor of each one to look at.
+        int[] stack = new int[count];
+        int[] nextSuccessor = new int[count];
+        boolean[] isVisited = new boolean[count];
+        int depth = 0;
+
+        stack[depth++] = 0;
+        isVisited[0] = true;
+        while (depth > 0) {
+            int block = stack[depth - 1];
+            if (nextSuccessor[block] < successors[block].length) {
+                int successor = successors[block][nextSuccessor[block]++];
+                if (!isVisited[successor]) {
+                    isVisited[successor] = true;
+                    stack[depth++] = successor;
+                }
+            }
+            else {
+                postOrder[postOrderCount++] = block;
+                --depth;
+            }
+        }
+
+        int[] order = new int[postOrderCount];
+        for (int i = 0; i < postOrderCount; ++i) {
+            order[i] = postOrder[postOrderCount - 1 - i];
+            reversePostOrderIndex[order[i]] = i;
+        }
+        return order;
+    }
+
+    /**
+     * Computes the immediate dominators with the iterative algorithm of
+     * Cooper, Harvey and Kennedy, which converges in a couple of passes
+     * over the blocks in reverse post-order for the graphs the IR
+     * generator produces.
+     */
+    private void computeDominators() {
+        Arrays.fill(immediateDominators, -1);
+        if (reversePostOrder.length == 0) {
+            return;
+        }
+
+        int entry = reversePostOrder[0];
+        immediateDominators[entry] = entry;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < reversePostOrder.length; ++i) {
+                int block = reversePostOrder[i];
+
+                int dominator = -1;
+                for (int predecessor : predecessors[block]) {
+                    if (immediateDominators[predecessor] < 0) {
+                        continue;
+                    }
+                    dominator = dominator < 0 ? predecessor : intersect(predecessor, dominator);
+                }
+
+                if (immediateDominators[block] != dominator) {
+                    immediateDominators[block] = dominator;
+                    changed = true;
+                }
+            }
+        }
+
+        numberDominatorTree(entry);
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (reversePostOrderIndex[a] > reversePostOrderIndex[b]) {
+                a = immediateDominators[a];
+            }
+            while (reversePostOrderIndex[b] > reversePostOrderIndex[a]) {
+                b = immediateDominators[b];
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Numbers the blocks on entry to and exit from a depth first walk of
+     * the dominator tree, so that dominance can be checked in constant
+     * time.
+     */
+    private void numberDominatorTree(int entry) {
+        int count = blocks.size();
+
+        // Build the children lists of the tree in arrays.
+        int[] childCounts = new int[count + 1];
+        for (int block : reversePostOrder) {
+            if (block != entry) {
+                ++childCounts[immediateDominators[block] + 1];
+            }
+        }
+        for (int b = 0; b < count; ++b) {
+            childCounts[b + 1] += childCounts[b];
+        }
+        int[] childStart = Arrays.copyOf(childCounts, count + 1);
+        int[] children = new int[reversePostOrder.length];
+        for (int block : reversePostOrder) {
+            if (block != entry) {
+                children[childCounts[immediateDominators[block]]++] = block;
+            }
+        }
+
+        int[] stack = new int[count];
+        int[] nextChild = Arrays.copyOf(childStart, count);
+        int depth = 0;
+        int counter = 0;
+
+        stack[depth++] = entry;
+        dominatorTreeEntry[entry] = counter++;
+        while (depth > 0) {
+            int block = stack[depth - 1];
+            if (nextChild[block] < childStart[block + 1]) {
+                int child = children[nextChild[block]++];
+                dominatorTreeEntry[child] = counter++;
+                stack[depth++] = child;
+            }
+            else {
+                dominatorTreeExit[block] = counter++;
+                --depth;
+            }
+        }
+    }
+
+    private List<BasicBlock> toBlocks(int[] indices) {
+        var result = new ArrayList<BasicBlock>(indices.length);
+        for (int index : indices) {
+            result.add(blocks.get(index));
+        }
+        return result;
+    }
+
+    public List<IRInstruction> getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * All the blocks, in program order.
+     */
+    public List<BasicBlock> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * Returns the block execution starts in, or null if there are no
+     * instructions.
+     */
+    public BasicBlock getEntry() {
+        return blocks.isEmpty() ? null : blocks.get(0);
+    }
+
+    /**
+     * Returns the block containing the instruction with the given index.
+     */
+    public BasicBlock getBlockOf(int instructionIndex) {
+        return blocks.get(blockOfInstruction[instructionIndex]);
+    }
+
+    /**
+     * Returns the block which starts with the given label.
+     */
+    public BasicBlock getBlockOf(Label label) {
+        return blocks.get(targetBlock(label));
+    }
+
+    /**
+     * The reachable blocks in reverse post-order. Each block comes before
+     * its successors, except along the back edges of loops.
+     */
+    public List<BasicBlock> getReversePostOrder() {
+        return toBlocks(reversePostOrder);
+    }
+
+    public static void main(String[] args) throws Exception {
+        TestUtils.startTestRun("ControlFlowGraph");
+
+        testIfElse();
+        testLoop();
+        testUnreachableBlock();
+        testLargeFunction();
+
+        TestUtils.finishTestRun(true);
+    }
+
+    private static List<Integer> indices(List<BasicBlock> blocks) {
+        var result = new ArrayList<Integer>();
+        for (var block : blocks) {
+            result.add(block.index);
+        }
+        return result;
+    }
+
+    private static void testIfElse() throws Exception {
+        //  B0:     T0 := TRUE;
+        //          IF T0 GOTO L0;
+        //  B1:     PRINT T0;
+        //          GOTO L1;
+        //  B2: L0:
+        //          PRINTLN T0;
+        //  B3: L1:
+        //          RETURN;
+        var factory = new TempFactory();
+        var t0 = factory.acquireTemp(BooleanType.INSTANCE);
+        var labels = new LabelFactory();
+        var l0 = labels.getLabel();
+        var l1 = labels.getLabel();
+
+        var cfg = new ControlFlowGraph(List.of(
+            new TemporaryAssignmentInstruction(t0, IRConstant.forBoolean(true)),
+            new ConditionalJumpInstruction(t0, l0),
+            new PrintInstruction(t0),
+            new JumpInstruction(l1),
+            new LabelInstruction(l0),
+            new PrintlnInstruction(t0),
+            new LabelInstruction(l1),
+            new ReturnInstruction()
+        ));
+
+        var blocks = cfg.getBlocks();
+        assert blocks.size() == 4;
+        assert blocks.get(2).start == 4 && blocks.get(2).end == 6;
+        assert cfg.getBlockOf(l1) == blocks.get(3);
+        assert cfg.getBlockOf(5) == blocks.get(2);
+
+        assert indices(blocks.get(0).getSuccessors()).equals(List.of(1, 2));
+        assert indices(blocks.get(3).getPredecessors()).equals(List.of(1, 2));
+        assert blocks.get(3).getSuccessors().isEmpty();
+
+        assert blocks.get(3).getImmediateDominator() == blocks.get(0);
+        assert blocks.get(1).getImmediateDominator() == blocks.get(0);
+        assert blocks.get(0).getImmediateDominator() == null;
+        assert blocks.get(0).dominates(blocks.get(3));
+        assert !blocks.get(1).dominates(blocks.get(3));
+        assert blocks.get(2).dominates(blocks.get(2));
+
+        var order = indices(cfg.getReversePostOrder());
+        assert order.size() == 4;
+        assert order.get(0) == 0 && order.get(3) == 3;
+    }
+
+    private static void testLoop() throws Exception {
+        //  B0:     T0 := TRUE;
+        //  B1: L0:
+        //          IF T0 GOTO L1;
+        //  B2:     PRINT T0;
+        //          GOTO L0;
+        //  B3: L1:
+        //          RETURN;
+        var factory = new TempFactory();
+        var t0 = factory.acquireTemp(BooleanType.INSTANCE);
+        var labels = new LabelFactory();
+        var l0 = labels.getLabel();
+        var l1 = labels.getLabel();
+
+        var cfg = new ControlFlowGraph(List.of(
+            new TemporaryAssignmentInstruction(t0, IRConstant.forBoolean(true)),
+            new LabelInstruction(l0),
+            new ConditionalJumpInstruction(t0, l1),
+            new PrintInstruction(t0),
+            new JumpInstruction(l0),
+            new LabelInstruction(l1),
+            new ReturnInstruction()
+        ));
+
+        var blocks = cfg.getBlocks();
+        assert blocks.size() == 4;
+        assert indices(blocks.get(1).getPredecessors()).equals(List.of(0, 2));
+        assert blocks.get(2).getImmediateDominator() == blocks.get(1);
+        assert blocks.get(3).getImmediateDominator() == blocks.get(1);
+        assert blocks.get(1).dominates(blocks.get(2));
+        assert !blocks.get(2).dominates(blocks.get(1));
+
+        var order = indices(cfg.getReversePostOrder());
+        assert order.get(0) == 0 && order.get(1) == 1;
+    }
+
+    private static void testUnreachableBlock() throws Exception {
+        //  B0:     RETURN;
+        //  B1:     PRINT T0;
+        //  B2: L0:
+        //          RETURN;
+        var factory = new TempFactory();
+        var t0 = factory.acquireTemp(BooleanType.INSTANCE);
+        var l0 = new LabelFactory().getLabel();
+
+        var cfg = new ControlFlowGraph(List.of(
+            new ReturnInstruction(),
+            new PrintInstruction(t0),
+            new LabelInstruction(l0),
+            new ReturnInstruction()
+        ));
+
+        var blocks = cfg.getBlocks();
+        assert blocks.size() == 3;
+        assert blocks.get(0).isReachable();
+        assert !blocks.get(1).isReachable();
+        assert !blocks.get(2).isReachable();
+        assert indices(blocks.get(2).getPredecessors()).equals(List.of(1));
+        assert blocks.get(2).getImmediateDominator() == null;
+        assert !blocks.get(0).dominates(blocks.get(1));
+        assert cfg.getReversePostOrder().size() == 1;
+    }
+
+    private static void testLargeFunction() throws Exception {
+        // A chain of 25000 small if statements, which is 100001
+        // instructions.
+        var factory = new TempFactory();
+        var t0 = factory.acquireTemp(BooleanType.INSTANCE);
+        var labels = new LabelFactory();
+
+        var instructions = new ArrayList<IRInstruction>();
+        int ifCount = 25000;
+        for (int i = 0; i < ifCount; ++i) {
+            var label = labels.getLabel();
+            instructions.add(new ConditionalJumpInstruction(t0, label));
+            instructions.add(new PrintInstruction(t0));
+            instructions.add(new LabelInstruction(label));
+            instructions.add(new PrintlnInstruction(t0));
+        }
+        instructions.add(new ReturnInstruction());
+
+        var cfg = new ControlFlowGraph(instructions);
+        var blocks = cfg.getBlocks();
+        assert blocks.size() == 2 * ifCount + 1;
+        assert cfg.getReversePostOrder().size() == blocks.size();
+
+        var last = blocks.get(blocks.size() - 1);
+        assert last.getImmediateDominator() == blocks.get(blocks.size() - 3);
+        assert blocks.get(0).dominates(last);
+        assert !blocks.get(1).dominates(last);
+    }
+}
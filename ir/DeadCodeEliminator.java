@@ -0,0 +1,336 @@
+package ir;
+
+import common.Label;
+import common.LabelFactory;
+import common.TestUtils;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import type.*;
+
+/**
+ * An optimization pass over the IR which removes instructions that have
+ * no effect on the program:
+ *  - blocks which can never be reached,
+ *  - jumps to a label which directly follows them,
+ *  - labels which no jump refers to, and
+ *  - assignments to temporaries which are never read afterwards, when
+ *    evaluating the assigned value can't have side effects.
+ *
+ * Removing instructions of one kind can make others removable, so the
+ * steps are repeated until nothing changes.
+ */
+public class DeadCodeEliminator {
+
+    private int removedInstructionCount;
+
+    public DeadCodeEliminator() {
+        removedInstructionCount = 0;
+    }
+
+    /**
+     * The total number of instructions removed from the functions processed
+     * so far.
+     */
+    public int getRemovedInstructionCount() {
+        return removedInstructionCount;
+    }
+
+    /**
+     * Returns a copy of the program with the dead code in each function
+     * removed.
+     */
+    public IRProgram eliminate(IRProgram program) {
+        var functions = new ArrayList<IRFunction>();
+        for (var function : program.functions) {
+            functions.add(eliminate(function));
+        }
+        return new IRProgram(program.programName, functions);
+    }
+
+    /**
+     * Returns a copy of the function with its dead code removed.
+     */
+    public IRFunction eliminate(IRFunction function) {
+        var instructions = function.instructions;
+
+        boolean changed = true;
+        while (changed) {
+            var remaining = removeUnreachableBlocks(instructions);
+            remaining = removeJumpsToNextInstruction(remaining);
+            remaining = removeUnusedLabels(remaining);
+            remaining = removeDeadAssignments(remaining);
+
+            changed = remaining != instructions;
+            instructions = remaining;
+        }
+
+        removedInstructionCount += function.instructions.size() - instructions.size();
+
+        return new IRFunction.Builder()
+            .withName(function.name)
+            .withMethodType(function.type)
+            .withTemps(function.temps)
+            .addInstructions(instructions.toArray(new IRInstruction[0]))
+            .build();
+    }
+
+    /**
+     * Answers whether evaluating an expression can have an effect besides
+     * producing its value. Array accesses can throw an exception.
+     */
+    private static boolean hasSideEffects(IRAssignableExpression expression) {
+        return expression instanceof IRFunctionCall || expression instanceof IRArrayAccess;
+    }
+
+    /**
+     * Removes the blocks which can't be reached from the start of the
+     * function. Returns the same list if nothing is removed.
+     */
+    private static List<IRInstruction> removeUnreachableBlocks(List<IRInstruction> instructions) {
+        var cfg = new ControlFlowGraph(instructions);
+        if (cfg.getReversePostOrder().size() == cfg.getBlocks().size()) {
+            return instructions;
+        }
+
+        var result = new ArrayList<IRInstruction>();
+        for (var block : cfg.getBlocks()) {
+            if (block.isReachable()) {
+                result.addAll(block.getInstructions());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes the jumps whose target label comes before the next instruction
+     * which isn't a label, since execution would continue there anyway.
+     * Returns the same list if nothing is removed.
+     */
+    private static List<IRInstruction> removeJumpsToNextInstruction(List<IRInstruction> instructions) {
+        var result = new ArrayList<IRInstruction>();
+
+        for (int i = 0; i < instructions.size(); ++i) {
+            var instruction = instructions.get(i);
+
+            if (instruction instanceof JumpInstruction) {
+                var target = ((JumpInstruction) instruction).label;
+                boolean isNext = false;
+                for (int j = i + 1; j < instructions.size() && instructions.get(j) instanceof LabelInstruction; ++j) {
+                    if (((LabelInstruction) instructions.get(j)).label == target) {
+                        isNext = true;
+                        break;
+                    }
+                }
+
+                if (isNext) {
+                    continue;
+                }
+            }
+
+            result.add(instruction);
+        }
+
+        return result.size() == instructions.size() ? instructions : result;
+    }
+
+    /**
+     * Removes the labels which are not the target of any jump. Returns the
+     * same list if nothing is removed.
+     */
+    private static List<IRInstruction> removeUnusedLabels(List<IRInstruction> instructions) {
+        Set<Label> targets = new HashSet<Label>();
+        for (var instruction : instructions) {
+            if (instruction instanceof JumpInstruction) {
+                targets.add(((JumpInstruction) instruction).label);
+            }
+        }
+
+        var result = new ArrayList<IRInstruction>();
+        for (var instruction : instructions) {
+            if (instruction instanceof LabelInstruction
+                    && !targets.contains(((LabelInstruction) instruction).label)) {
+                continue;
+            }
+            result.add(instruction);
+        }
+
+        return result.size() == instructions.size() ? instructions : result;
+    }
+
+    /**
+     * Removes the assignments whose destination is not live afterwards.
+     * Each block is swept backwards from the temporaries live at its end,
+     * so an assignment which is only read by a removed assignment in the
+     * same block is also removed. Returns the same list if nothing is
+     * removed.
+     */
+    private static List<IRInstruction> removeDeadAssignments(List<IRInstruction> instructions) {
+        var liveness = new Liveness(instructions);
+
+        boolean[] isDead = new boolean[instructions.size()];
+        boolean changed = false;
+
+        for (var block : liveness.getControlFlowGraph().getBlocks()) {
+            var live = liveness.getLiveOut(block);
+
+            for (int i = block.end - 1; i >= block.start; --i) {
+                var instruction = instructions.get(i);
+
+                if (instruction instanceof TemporaryAssignmentInstruction) {
+                    var assignment = (TemporaryAssignmentInstruction) instruction;
+                    if (!live.get(assignment.destination.globalIndex()) && !hasSideEffects(assignment.value)) {
+                        isDead[i] = true;
+                        changed = true;
+                        continue;
+                    }
+                }
+
+                Liveness.stepBackwards(instruction, live);
+            }
+        }
+
+        if (!changed) {
+            return instructions;
+        }
+
+        var result = new ArrayList<IRInstruction>();
+        for (int i = 0; i < instructions.size(); ++i) {
+            if (!isDead[i]) {
+                result.add(instructions.get(i));
+            }
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        TestUtils.startTestRun("DeadCodeEliminator");
+
+        testUnreachableCodeIsRemoved();
+        testIfWithoutElse();
+        testDeadAssignmentChain();
+        testSideEffectsAreKept();
+
+        TestUtils.finishTestRun(true);
+    }
+
+    private static IRFunction.Builder newFunction() {
+        return new IRFunction.Builder()
+            .withName("f")
+            .withMethodType(new MethodType(VoidType.INSTANCE));
+    }
+
+    private static void testUnreachableCodeIsRemoved() throws Exception {
+        //      T0 := 1;
+        //      PRINT T0;
+        //      RETURN;
+        //      PRINT T0;
+        //  L0:
+        //      RETURN;
+        var factory = new TempFactory();
+        var t0 = factory.acquireTemp(IntegerType.INSTANCE);
+        var l0 = new LabelFactory().getLabel();
+
+        var function = newFunction()
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, IRConstant.forInteger(1)),
+                new PrintInstruction(t0),
+                new ReturnInstruction(),
+                new PrintInstruction(t0),
+                new LabelInstruction(l0),
+                new ReturnInstruction()
+            )
+            .build();
+
+        var eliminator = new DeadCodeEliminator();
+        var result = eliminator.eliminate(function);
+        assert result.instructions.size() == 3;
+        assert result.instructions.get(2) instanceof ReturnInstruction;
+        assert eliminator.getRemovedInstructionCount() == 3;
+    }
+
+    private static void testIfWithoutElse() throws Exception {
+        // The IR generated for an if statement without an else block:
+        //      T0 := Z! p;
+        //      IF T0 GOTO L0;
+        //      PRINT p;
+        //      GOTO L1;
+        //  L0:
+        //  L1:
+        //      RETURN;
+        var factory = new TempFactory();
+        var p = factory.acquireParam(BooleanType.INSTANCE, "p");
+        var t0 = factory.acquireTemp(BooleanType.INSTANCE);
+        var labels = new LabelFactory();
+        var l0 = labels.getLabel();
+        var l1 = labels.getLabel();
+
+        var function = newFunction()
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, new NegationOperation(p)),
+                new ConditionalJumpInstruction(t0, l0),
+                new PrintInstruction(p),
+                new JumpInstruction(l1),
+                new LabelInstruction(l0),
+                new LabelInstruction(l1),
+                new ReturnInstruction()
+            )
+            .build();
+
+        var result = new DeadCodeEliminator().eliminate(function);
+        assert result.instructions.size() == 5;
+        assert result.instructions.get(1) instanceof ConditionalJumpInstruction;
+        assert result.instructions.get(2) instanceof PrintInstruction;
+        assert ((LabelInstruction) result.instructions.get(3)).label == l0;
+    }
+
+    private static void testDeadAssignmentChain() throws Exception {
+        // T0 := 1; T1 := 2; T2 := T0 + T1; x := T2; PRINT T1; RETURN;
+        var factory = new TempFactory();
+        var x = factory.acquireLocal(IntegerType.INSTANCE, "x");
+        var t0 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t1 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t2 = factory.acquireTemp(IntegerType.INSTANCE);
+
+        var function = newFunction()
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, IRConstant.forInteger(1)),
+                new TemporaryAssignmentInstruction(t1, IRConstant.forInteger(2)),
+                new TemporaryAssignmentInstruction(t2, BinaryOperation.getOperation(BinaryOperation.Operators.PLUS, t0, t1)),
+                new TemporaryAssignmentInstruction(x, t2),
+                new PrintInstruction(t1),
+                new ReturnInstruction()
+            )
+            .build();
+
+        var result = new DeadCodeEliminator().eliminate(function);
+        assert result.instructions.size() == 3;
+        assert ((TemporaryAssignmentInstruction) result.instructions.get(0)).destination == t1;
+    }
+
+    private static void testSideEffectsAreKept() throws Exception {
+        // T0 := 1; T1 := g(T0); T2 := a[T0]; RETURN;
+        var factory = new TempFactory();
+        var a = factory.acquireParam(new ArrayType(2, IntegerType.INSTANCE), "a");
+        var t0 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t1 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t2 = factory.acquireTemp(IntegerType.INSTANCE);
+
+        var function = newFunction()
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, IRConstant.forInteger(1)),
+                new TemporaryAssignmentInstruction(t1, new IRFunctionCall("g", List.of(t0))),
+                new TemporaryAssignmentInstruction(t2, new IRArrayAccess(a, t0)),
+                new ReturnInstruction()
+            )
+            .build();
+
+        var result = new DeadCodeEliminator().eliminate(function);
+        assert result.instructions.size() == 4;
+    }
+}
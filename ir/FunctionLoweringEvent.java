@@ -0,0 +1,33 @@
+package ir;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event covering the generation of the IR for one
+ * function by {@link IRAstVisitor}. The sizes are only filled in when the
+ * event is recorded.
+ */
+@Name("ul.FunctionLowering")
+@Label("IR Generation")
+@Category("UL Compiler")
+@StackTrace(false)
+@Description("The generation of the IR for a UL function")
+public class FunctionLoweringEvent extends Event {
+
+    @Label("Function")
+    public String functionName;
+
+    @Label("Instructions")
+    public int instructionCount;
+
+    @Label("Temporaries")
+    public int tempCount;
+
+    @Label("Labels")
+    public int labelCount;
+}
@@ -5,6 +5,8 @@ import common.*;
 import java.io.BufferedWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Predicate;
 import type.*;
 
 /**
@@ -18,6 +20,12 @@ public class IRAstVisitor implements ASTVisitor<Temporary>  {
     private final LabelFactory labelFactory;
     private final Environment<String, Temporary> variableEnv;
     private final Environment<String, Type> functionEnv;
+
+    // Decides which functions of the program are built.
+    private Predicate<Function> isBuilt;
+
+    // If set, the functions are lowered concurrently on this pool.
+    private ExecutorService executor;
     private IRFunction.Builder currentIRFunctionBuilder;
     private MethodType.Builder currentIRFunctionTypeBuilder;
 
@@ -26,16 +34,79 @@ public class IRAstVisitor implements ASTVisitor<Temporary>  {
      * Returns an IRProgram from the provided AST.
      */
     public IRProgram buildIRProgram(Program astProgram, String programName) throws ASTVisitorException {
+        return buildIRProgram(astProgram, programName, function -> true);
+    }
+
+    /**
+     * Builds an IR program containing only the functions accepted by
+     * isBuilt, in program order. Calls to the other functions are still
+     * generated as usual.
+     */
+    public IRProgram buildIRProgram(Program astProgram, String programName, Predicate<Function> isBuilt) throws ASTVisitorException {
+        this.isBuilt = isBuilt;
         visit(astProgram);
         return programBuilder.withName(programName).build();
     }
+
+    /**
+     * Adds the return types of the functions with the given declarations to
+     * the environment, so that functions can then be built one at a time
+     * by {@link #buildIRFunction}.
+     */
+    public void declareFunctions(List<FunctionDecl> declarations) {
+        for (var declaration : declarations) {
+            functionEnv.bind(declaration.identifier.value, declaration.typeNode.type);
+        }
+    }
+
+    /**
+     * Returns the IR function for a single function, whose callees have
+     * been given to {@link #declareFunctions}.
+     */
+    public IRFunction buildIRFunction(Function astFunction) throws ASTVisitorException {
+        return lower(astFunction);
+    }
     
     public IRAstVisitor() {
+        this(new Environment<String, Type>());
+    }
+
+    /**
+     * Creates a visitor which looks up the return types of functions in the
+     * given table.
+     */
+    private IRAstVisitor(Environment<String, Type> functionEnv) {
         programBuilder = new IRProgram.Builder();
         tempPool = new TempFactory();
         labelFactory = new LabelFactory();
         variableEnv = new Environment<String, Temporary>();
-        functionEnv = new Environment<String, Type>();
+        this.functionEnv = functionEnv;
+        isBuilt = function -> true;
+        executor = null;
+    }
+
+    /**
+     * Chooses a pool on which the functions are lowered concurrently once
+     * the return types of all the functions are known. Each function is
+     * lowered by its own visitor, with its own TempFactory, LabelFactory and
+     * IRFunction.Builder, and they share the table of return types, which
+     * is only read by then. The functions are added to the program in their
+     * original order, so the result is the same as when they are lowered
+     * in order. If the pool is null, which is the default, the functions
+     * are lowered in order by this visitor.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    private static int countLabels(IRFunction function) {
+        int count = 0;
+        for (var instruction : function.instructions) {
+            if (instruction instanceof LabelInstruction) {
+                ++count;
+            }
+        }
+        return count;
     }
 
     /**
@@ -301,6 +372,19 @@ public class IRAstVisitor implements ASTVisitor<Temporary>  {
     }
 
 	public Temporary visit(Function node) throws ASTVisitorException {
+        programBuilder.addFunction(lower(node));
+
+        // Nothing meaningful to return
+        return null;
+    }
+
+    /**
+     * Generates the IR function for a function of the program.
+     */
+    private IRFunction lower(Function node) throws ASTVisitorException {
+        var event = new FunctionLoweringEvent();
+        event.begin();
+
         // Reset the per-function state
         tempPool.clear();
         labelFactory.clear();
@@ -313,12 +397,20 @@ public class IRAstVisitor implements ASTVisitor<Temporary>  {
         variableEnv.exitScope();
 
         // Add all the temporaries that were allocated to the function 
-        // builder, build the function instance, and add it to the program.
+        // builder and build the function instance.
         currentIRFunctionBuilder.withTemps(tempPool.getAllTemps());
-        programBuilder.addFunction(currentIRFunctionBuilder.build());
+        IRFunction function = currentIRFunctionBuilder.build();
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.functionName = function.name;
+            event.instructionCount = function.instructions.size();
+            event.tempCount = function.temps.size();
+            event.labelCount = countLabels(function);
+            event.commit();
+        }
 
-        // Nothing meaningful to return
-        return null;
+        return function;
     }
 
 	public Temporary visit(Identifier node) {
@@ -430,15 +522,30 @@ public class IRAstVisitor implements ASTVisitor<Temporary>  {
 	public Temporary visit(Program node) throws ASTVisitorException {    
         // Add all functions to the environment first, so function-calls 
         // can be generated appropriately
+        var declarations = new ArrayList<FunctionDecl>();
         for (var func : node.functions) {
-            String funcName = func.declaration.identifier.value;
-            Type returnType = func.declaration.typeNode.type;
-            functionEnv.bind(funcName, returnType);
+            declarations.add(func.declaration);
         }
+        declareFunctions(declarations);
 
         // Visit each function and generate IR code for it.
-        for (var func : node.functions) {
-            func.accept(this);
+        if (executor != null) {
+            var tasks = new ArrayList<ParallelTasks.Task<IRFunction, ASTVisitorException>>();
+            for (var func : node.functions) {
+                if (isBuilt.test(func)) {
+                    tasks.add(() -> new IRAstVisitor(functionEnv).lower(func));
+                }
+            }
+            for (var function : ParallelTasks.invokeInOrder(executor, tasks)) {
+                programBuilder.addFunction(function);
+            }
+        }
+        else {
+            for (var func : node.functions) {
+                if (isBuilt.test(func)) {
+                    func.accept(this);
+                }
+            }
         }
 
         return null;
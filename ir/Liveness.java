@@ -0,0 +1,126 @@
+package ir;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Liveness analysis of the temporaries of an IRFunction. Temporaries are
+ * identified by their global index.
+ *
+ * Only the temporaries live at the start and end of each basic block are
+ * kept. The temporaries live after each instruction of a block are found
+ * by walking the block backwards from its end with
+ * {@link #stepBackwards}, reusing a single set. Most true temporaries are
+ * only live within a block, so the sets kept stay small even for very
+ * large functions.
+ */
+public class Liveness {
+
+    /**
+     * Adds the temporaries read by an instruction to a set.
+     */
+    private static class UseMarker extends TempRewriter {
+        private final BitSet live;
+
+        UseMarker(BitSet live) {
+            this.live = live;
+        }
+
+        protected Temporary rewriteUse(Temporary temp) {
+            live.set(temp.globalIndex());
+            return temp;
+        }
+    }
+
+    private final ControlFlowGraph cfg;
+    private final BitSet[] liveIn;
+    private final BitSet[] liveOut;
+
+    public Liveness(IRFunction function) {
+        this(new ControlFlowGraph(function));
+    }
+
+    public Liveness(List<IRInstruction> instructions) {
+        this(new ControlFlowGraph(instructions));
+    }
+
+    /**
+     * Computes the temporaries live at the start and end of each block, by
+     * iterating the standard backwards dataflow equations to a fixed
+     * point.
+     */
+    public Liveness(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+
+        var blocks = cfg.getBlocks();
+        int count = blocks.size();
+        liveIn = new BitSet[count];
+        liveOut = new BitSet[count];
+        for (int b = 0; b < count; ++b) {
+            liveIn[b] = new BitSet();
+            liveOut[b] = new BitSet();
+        }
+
+        // Visiting the blocks in reverse order means that only loops
+        // require more than one pass.
+        var live = new BitSet();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (int b = count - 1; b >= 0; --b) {
+                var block = blocks.get(b);
+                var out = liveOut[b];
+                out.clear();
+                for (var successor : block.getSuccessors()) {
+                    out.or(liveIn[successor.index]);
+                }
+
+                live.clear();
+                live.or(out);
+                var instructions = block.getInstructions();
+                for (int i = instructions.size() - 1; i >= 0; --i) {
+                    stepBackwards(instructions.get(i), live);
+                }
+
+                if (!live.equals(liveIn[b])) {
+                    liveIn[b].clear();
+                    liveIn[b].or(live);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    public ControlFlowGraph getControlFlowGraph() {
+        return cfg;
+    }
+
+    /**
+     * Returns a new set of the temporaries live at the start of the block.
+     */
+    public BitSet getLiveIn(ControlFlowGraph.BasicBlock block) {
+        return (BitSet) liveIn[block.index].clone();
+    }
+
+    /**
+     * Returns a new set of the temporaries live at the end of the block,
+     * which is the set live after its last instruction.
+     */
+    public BitSet getLiveOut(ControlFlowGraph.BasicBlock block) {
+        return (BitSet) liveOut[block.index].clone();
+    }
+
+    /**
+     * Changes a set of the temporaries live after an instruction into the
+     * set live before it.
+     */
+    public static void stepBackwards(IRInstruction instruction, BitSet live) {
+        // The value is evaluated before the destination is assigned, so the
+        // destination is removed before the operands are added.
+        if (instruction instanceof TemporaryAssignmentInstruction) {
+            live.clear(((TemporaryAssignmentInstruction) instruction).destination.globalIndex());
+        }
+        new UseMarker(live).rewrite(instruction);
+    }
+}
@@ -0,0 +1,360 @@
+package ir;
+
+import common.TestUtils;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import type.*;
+
+/**
+ * A pass over the IR which lets true temporaries share JVM local variable
+ * slots. The IR generator uses a new true temporary for every intermediate
+ * value, but most of them are only live for an instruction or two. Two
+ * true temporaries with the same JVM type can use the same slot if neither
+ * is assigned while the other is live.
+ *
+ * Parameters and named locals are left in their own slots so that the
+ * debugging information for them stays accurate. Each slot shared by true
+ * temporaries is represented by a single new TrueTemp, and so gets a
+ * single .var declaration.
+ */
+public class TempCoalescer {
+
+    /**
+     * Returns a copy of the program with the true temporaries of each
+     * function coalesced.
+     * @throws TemporaryOverflowException If a function still needs more
+     *         than {@link TempPool#MAX_TEMPORARIES} local variable slots.
+     */
+    public static IRProgram coalesce(IRProgram program) throws TemporaryOverflowException {
+        var functions = new ArrayList<IRFunction>();
+        for (var function : program.functions) {
+            functions.add(coalesce(function));
+        }
+        return new IRProgram(program.programName, functions);
+    }
+
+    /**
+     * Returns a copy of the function in which true temporaries that are
+     * never live at the same time share a slot where possible.
+     * @throws TemporaryOverflowException If the function still needs more
+     *         than {@link TempPool#MAX_TEMPORARIES} local variable slots.
+     */
+    public static IRFunction coalesce(IRFunction function) throws TemporaryOverflowException {
+        var instructions = function.instructions;
+        Map<Integer, Set<Integer>> interference = computeInterference(function);
+
+        // Assign slots greedily, in order of appearance.
+        int firstTrueTemp = 0;
+        var trueTemps = new ArrayList<TrueTemp>();
+        for (var temp : function.temps) {
+            if (temp instanceof TrueTemp) {
+                trueTemps.add((TrueTemp) temp);
+            }
+            else {
+                firstTrueTemp = Math.max(firstTrueTemp, temp.globalIndex() + 1);
+            }
+        }
+
+        var slots = new ArrayList<TrueTemp>();
+        var replacements = new HashMap<Integer, TrueTemp>();
+        for (var temp : trueTemps) {
+            var neighbours = interference.getOrDefault(temp.globalIndex(), Set.of());
+            var descriptor = temp.type().toJasminString();
+
+            // Slots already holding an interfering temporary can't be used.
+            var unavailable = new HashSet<TrueTemp>();
+            for (int neighbour : neighbours) {
+                var slot = replacements.get(neighbour);
+                if (slot != null) {
+                    unavailable.add(slot);
+                }
+            }
+
+            TrueTemp chosen = null;
+            for (var slot : slots) {
+                if (slot.type().toJasminString().equals(descriptor) && !unavailable.contains(slot)) {
+                    chosen = slot;
+                    break;
+                }
+            }
+
+            if (chosen == null) {
+                chosen = new TrueTemp(slots.size(), firstTrueTemp, temp.type());
+                slots.add(chosen);
+            }
+
+            replacements.put(temp.globalIndex(), chosen);
+        }
+
+        // The IR generator doesn't limit the number of true temporaries,
+        // since most of them are only needed until they are coalesced.
+        if (firstTrueTemp + slots.size() > TempPool.MAX_TEMPORARIES) {
+            throw new TemporaryOverflowException();
+        }
+
+        var rewriter = new TempRewriter() {
+            private Temporary replace(Temporary temp) {
+                return temp instanceof TrueTemp ? replacements.get(temp.globalIndex()) : temp;
+            }
+
+            protected Temporary rewriteUse(Temporary temp) {
+                return replace(temp);
+            }
+
+            protected Temporary rewriteDefinition(Temporary temp) {
+                return replace(temp);
+            }
+        };
+
+        var builder = new IRFunction.Builder()
+            .withName(function.name)
+            .withMethodType(function.type);
+
+        for (var temp : function.temps) {
+            if (!(temp instanceof TrueTemp)) {
+                builder.withTemp(temp);
+            }
+        }
+        for (var slot : slots) {
+            builder.withTemp(slot);
+        }
+        for (var instruction : instructions) {
+            builder.addInstruction(rewriter.rewrite(instruction));
+        }
+
+        return builder.build();
+    }
+
+    private static void addInterference(Map<Integer, Set<Integer>> interference, int a, int b) {
+        interference.computeIfAbsent(a, k -> new HashSet<Integer>()).add(b);
+        interference.computeIfAbsent(b, k -> new HashSet<Integer>()).add(a);
+    }
+
+    /**
+     * Finds the pairs of true temporaries which can't share a slot, because
+     * one is assigned while the other is live.
+     */
+    private static Map<Integer, Set<Integer>> computeInterference(IRFunction function) {
+        var trueTemps = new BitSet();
+        for (var temp : function.temps) {
+            if (temp instanceof TrueTemp) {
+                trueTemps.set(temp.globalIndex());
+            }
+        }
+
+        // The true temporaries are numbered after the parameters and
+        // locals, which are skipped when looking for live true temporaries.
+        int firstTrueTemp = Math.max(trueTemps.nextSetBit(0), 0);
+
+        var interference = new HashMap<Integer, Set<Integer>>();
+        var instructions = function.instructions;
+        var liveness = new Liveness(function);
+        var cfg = liveness.getControlFlowGraph();
+
+        for (var block : cfg.getBlocks()) {
+            // The temporaries live after each instruction, walking backwards.
+            var live = liveness.getLiveOut(block);
+
+            for (int i = block.end - 1; i >= block.start; --i) {
+                var instruction = instructions.get(i);
+                if (instruction instanceof TemporaryAssignmentInstruction
+                        && ((TemporaryAssignmentInstruction) instruction).destination instanceof TrueTemp) {
+                    int defined = ((TemporaryAssignmentInstruction) instruction).destination.globalIndex();
+                    for (int other = live.nextSetBit(firstTrueTemp); other >= 0; other = live.nextSetBit(other + 1)) {
+                        if (other != defined && trueTemps.get(other)) {
+                            addInterference(interference, defined, other);
+                        }
+                    }
+                }
+
+                Liveness.stepBackwards(instruction, live);
+            }
+        }
+
+        // A true temporary could be read before it is assigned on some path.
+        // The IR generator never does this, but such a temporary would have
+        // to keep its value from the start of the function.
+        if (cfg.getEntry() != null) {
+            var liveAtEntry = liveness.getLiveIn(cfg.getEntry());
+            liveAtEntry.and(trueTemps);
+
+            for (int a = liveAtEntry.nextSetBit(0); a >= 0; a = liveAtEntry.nextSetBit(a + 1)) {
+                for (int b = liveAtEntry.nextSetBit(a + 1); b >= 0; b = liveAtEntry.nextSetBit(b + 1)) {
+                    addInterference(interference, a, b);
+                }
+            }
+        }
+
+        return interference;
+    }
+
+    public static void main(String[] args) throws Exception {
+        TestUtils.startTestRun("TempCoalescer");
+
+        testSequentialTempsShareSlot();
+        testOverlappingTempsDoNotShareSlot();
+        testTypesAreNotMixed();
+        testLoopCarriedTempKeepsSlot();
+        testMoreTempsThanSlots();
+
+        TestUtils.finishTestRun(true);
+    }
+
+    private static IRFunction.Builder newFunction() {
+        return new IRFunction.Builder()
+            .withName("f")
+            .withMethodType(new MethodType(VoidType.INSTANCE));
+    }
+
+    private static List<TrueTemp> trueTemps(IRFunction function) {
+        var result = new ArrayList<TrueTemp>();
+        for (var temp : function.temps) {
+            if (temp instanceof TrueTemp) {
+                result.add((TrueTemp) temp);
+            }
+        }
+        return result;
+    }
+
+    private static void testSequentialTempsShareSlot() throws Exception {
+        // T1 := 1; PRINT T1; T2 := 2; PRINT T2;
+        var factory = new TempFactory();
+        var local = factory.acquireLocal(IntegerType.INSTANCE, "x");
+        var t1 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t2 = factory.acquireTemp(IntegerType.INSTANCE);
+
+        var function = newFunction()
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t1, IRConstant.forInteger(1)),
+                new PrintInstruction(t1),
+                new TemporaryAssignmentInstruction(t2, IRConstant.forInteger(2)),
+                new PrintInstruction(t2),
+                new TemporaryAssignmentInstruction(local, t2),
+                new ReturnInstruction()
+            )
+            .build();
+
+        var coalesced = coalesce(function);
+        var slots = trueTemps(coalesced);
+        assert slots.size() == 1;
+        assert slots.get(0).globalIndex() == 1; // Directly after the local
+        assert coalesced.temps.size() == 2;
+        assert coalesced.temps.get(0) == local;
+
+        var print1 = (PrintInstruction) coalesced.instructions.get(1);
+        var print2 = (PrintInstruction) coalesced.instructions.get(3);
+        assert print1.temp == slots.get(0);
+        assert print2.temp == slots.get(0);
+
+        var assignment = (TemporaryAssignmentInstruction) coalesced.instructions.get(4);
+        assert assignment.destination == local;
+        assert assignment.value == slots.get(0);
+    }
+
+    private static void testOverlappingTempsDoNotShareSlot() throws Exception {
+        // T0 := 1; T1 := 2; T2 := T0 + T1; PRINT T2;
+        var factory = new TempFactory();
+        var t0 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t1 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t2 = factory.acquireTemp(IntegerType.INSTANCE);
+
+        var function = newFunction()
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, IRConstant.forInteger(1)),
+                new TemporaryAssignmentInstruction(t1, IRConstant.forInteger(2)),
+                new TemporaryAssignmentInstruction(t2, BinaryOperation.getOperation(BinaryOperation.Operators.PLUS, t0, t1)),
+                new PrintInstruction(t2),
+                new ReturnInstruction()
+            )
+            .build();
+
+        var coalesced = coalesce(function);
+        assert trueTemps(coalesced).size() == 2;
+
+        var sum = (BinaryOperation) ((TemporaryAssignmentInstruction) coalesced.instructions.get(2)).value;
+        assert sum.left != sum.right;
+
+        // The result can re-use an operand's slot, since neither operand
+        // is live after the addition.
+        var result = ((TemporaryAssignmentInstruction) coalesced.instructions.get(2)).destination;
+        assert result == sum.left || result == sum.right;
+    }
+
+    private static void testTypesAreNotMixed() throws Exception {
+        // T0 := 1; PRINT T0; T1 := 'c'; PRINT T1;
+        var factory = new TempFactory();
+        var t0 = factory.acquireTemp(IntegerType.INSTANCE);
+        var t1 = factory.acquireTemp(CharacterType.INSTANCE);
+
+        var function = newFunction()
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, IRConstant.forInteger(1)),
+                new PrintInstruction(t0),
+                new TemporaryAssignmentInstruction(t1, IRConstant.forCharacter('c')),
+                new PrintInstruction(t1),
+                new ReturnInstruction()
+            )
+            .build();
+
+        var slots = trueTemps(coalesce(function));
+        assert slots.size() == 2;
+        assert slots.get(0).type() == IntegerType.INSTANCE;
+        assert slots.get(1).type() == CharacterType.INSTANCE;
+    }
+
+    private static void testLoopCarriedTempKeepsSlot() throws Exception {
+        //      T0 := 1;
+        //  L0:
+        //      T1 := TRUE;
+        //      PRINT T0;
+        //      IF T1 GOTO L0;
+        //      RETURN;
+        // T0 is live throughout the loop, so T1 can't share its slot even
+        // though T0 is not used after T1's assignment in program order.
+        var factory = new TempFactory();
+        var t0 = factory.acquireTemp(BooleanType.INSTANCE);
+        var t1 = factory.acquireTemp(BooleanType.INSTANCE);
+        var loop = new common.LabelFactory().getLabel();
+
+        var function = newFunction()
+            .withTemps(factory.getAllTemps())
+            .addInstructions(
+                new TemporaryAssignmentInstruction(t0, IRConstant.forBoolean(true)),
+                new LabelInstruction(loop),
+                new TemporaryAssignmentInstruction(t1, IRConstant.forBoolean(true)),
+                new PrintInstruction(t0),
+                new ConditionalJumpInstruction(t1, loop),
+                new ReturnInstruction()
+            )
+            .build();
+
+        assert trueTemps(coalesce(function)).size() == 2;
+    }
+
+    private static void testMoreTempsThanSlots() throws Exception {
+        // More true temporaries than the JVM has local variable slots, which
+        // all fit in one slot once coalesced:
+        // T0 := 0; PRINT T0; T1 := 1; PRINT T1; ...
+        var factory = new TempFactory();
+        var function = newFunction();
+        for (int i = 0; i <= TempPool.MAX_TEMPORARIES; ++i) {
+            var temp = factory.acquireTemp(IntegerType.INSTANCE);
+            function.addInstructions(
+                new TemporaryAssignmentInstruction(temp, IRConstant.forInteger(i)),
+                new PrintInstruction(temp)
+            );
+        }
+        function.addInstruction(new ReturnInstruction());
+
+        var coalesced = coalesce(function.withTemps(factory.getAllTemps()).build());
+        assert trueTemps(coalesced).size() == 1;
+    }
+}
@@ -69,8 +69,10 @@ public class TempFactory implements TempPool {
     }
 
     public TrueTemp acquireTemp(Type type) throws TemporaryOverflowException {
+        // True temporaries are not counted against MAX_TEMPORARIES here,
+        // as TempCoalescer lets them share slots. The limit is checked
+        // once they have been coalesced.
         updateGroup(TempGroups.TRUE_TEMPORARIES);
-        throwIfIndexSpaceFull();
 
         int offset = paramCount + localCount;
         var temp = new TrueTemp(trueTempCount, offset, type);
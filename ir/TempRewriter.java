@@ -0,0 +1,157 @@
+package ir;
+
+import common.Label;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Visitor which copies IR instructions, replacing each temporary they
+ * refer to. Subclasses choose the replacements by overriding
+ * {@link #rewriteUse} and {@link #rewriteDefinition}. By default every
+ * temporary is kept, so the visitor can also be used to find all the
+ * temporaries an instruction reads and writes.
+ *
+ * Each visit method returns the copy of the visited instruction or
+ * expression.
+ */
+public class TempRewriter implements IRProgramVisitor<Object> {
+
+    /**
+     * Returns the temporary to use in place of one which is read.
+     */
+    protected Temporary rewriteUse(Temporary temp) {
+        return temp;
+    }
+
+    /**
+     * Returns the temporary to use in place of one which is assigned to.
+     */
+    protected Temporary rewriteDefinition(Temporary temp) {
+        return temp;
+    }
+
+    /**
+     * Returns a copy of the instruction with its temporaries replaced.
+     */
+    public IRInstruction rewrite(IRInstruction instruction) {
+        return (IRInstruction) instruction.accept(this);
+    }
+
+    private IRAssignableExpression rewrite(IRAssignableExpression expression) {
+        return (IRAssignableExpression) expression.accept(this);
+    }
+
+    public Object visit(ArrayAssignmentInstruction irArrayAssignment) {
+        var arrayAccess = (IRArrayAccess) irArrayAssignment.arrayAccess.accept(this);
+        return new ArrayAssignmentInstruction(arrayAccess, rewriteUse(irArrayAssignment.value));
+    }
+
+    public Object visit(BinaryOperation irBinaryOperation) {
+        return BinaryOperation.getOperation(
+            irBinaryOperation.operator,
+            rewriteUse(irBinaryOperation.left),
+            rewriteUse(irBinaryOperation.right)
+        );
+    }
+
+    public Object visit(ConditionalJumpInstruction irConditionalJump) {
+        return new ConditionalJumpInstruction(rewriteUse(irConditionalJump.condition), irConditionalJump.label);
+    }
+
+    public Object visit(FunctionCallInstruction irFunctionCall) {
+        return new FunctionCallInstruction((IRFunctionCall) irFunctionCall.functionCall.accept(this));
+    }
+
+    public Object visit(IRArrayAccess irArrayAccess) {
+        return new IRArrayAccess(rewriteUse(irArrayAccess.array), rewriteUse(irArrayAccess.index));
+    }
+
+    public Object visit(IRArrayCreation irArrayCreation) {
+        return irArrayCreation;
+    }
+
+    public Object visit(IRAssignableExpression irAssignableExpression) {
+        throw new UnsupportedOperationException("visit called with abstract IRAssignableExpression parameter");
+    }
+
+    public Object visit(IRConstant irConstant) {
+        return irConstant;
+    }
+
+    public Object visit(IRFunctionCall irFunctionCall) {
+        List<Temporary> args = new ArrayList<Temporary>();
+        for (var arg : irFunctionCall.args) {
+            args.add(rewriteUse(arg));
+        }
+
+        return new IRFunctionCall(irFunctionCall.functionName, args);
+    }
+
+    public Object visit(IRFunction irFunction) {
+        throw new UnsupportedOperationException("TempRewriter only rewrites instructions");
+    }
+
+    public Object visit(IRInstruction irInstruction) {
+        throw new UnsupportedOperationException("visit called with IRInstruction parameter");
+    }
+
+    public Object visit(IRProgram irProgram) {
+        throw new UnsupportedOperationException("TempRewriter only rewrites instructions");
+    }
+
+    public Object visit(JumpInstruction irJumpInstruction) {
+        return irJumpInstruction;
+    }
+
+    public Object visit(LabelInstruction irLabelInstruction) {
+        return irLabelInstruction;
+    }
+
+    public Object visit(Label irLabel) {
+        return irLabel;
+    }
+
+    public Object visit(LocalTemp irLocalTemp) {
+        return rewriteUse(irLocalTemp);
+    }
+
+    public Object visit(NegationOperation irNegationOperation) {
+        return new NegationOperation(rewriteUse(irNegationOperation.operand));
+    }
+
+    public Object visit(ParamTemp irTempParam) {
+        return rewriteUse(irTempParam);
+    }
+
+    public Object visit(PrintInstruction irPrintInstruction) {
+        return new PrintInstruction(rewriteUse(irPrintInstruction.temp));
+    }
+
+    public Object visit(PrintlnInstruction irPrintlnInstruction) {
+        return new PrintlnInstruction(rewriteUse(irPrintlnInstruction.temp));
+    }
+
+    public Object visit(ReturnInstruction irReturnInstruction) {
+        if (irReturnInstruction.operand.isPresent()) {
+            return new ReturnInstruction(rewriteUse(irReturnInstruction.operand.get()));
+        }
+        else {
+            return irReturnInstruction;
+        }
+    }
+
+    public Object visit(TemporaryAssignmentInstruction irTempAssignmentInstruction) {
+        // The value is evaluated before the destination is assigned.
+        var value = rewrite(irTempAssignmentInstruction.value);
+        var destination = rewriteDefinition(irTempAssignmentInstruction.destination);
+        return new TemporaryAssignmentInstruction(destination, value);
+    }
+
+    public Object visit(Temporary irTemp) {
+        throw new UnsupportedOperationException("visit called with abstract Temporary parameter");
+    }
+
+    public Object visit(TrueTemp irTemp) {
+        return rewriteUse(irTemp);
+    }
+}
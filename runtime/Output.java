@@ -0,0 +1,149 @@
+package runtime;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Buffered standard output for compiled UL programs. With --buffered-output,
+ * print statements call the static methods of this class rather than those
+ * of System.out, which writes to the operating system for every line. Here
+ * the output is collected in a large buffer, and only written when the
+ * buffer is full, when the program's main function returns, or when the JVM
+ * exits.
+ *
+ * The compiler copies this class next to the programs it generates, so it
+ * must only depend on the Java class library. UL programs are single
+ * threaded, so the methods are not synchronized.
+ */
+public final class Output {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // The length of the longest int, -2147483648.
+    private static final int MAX_INT_LENGTH = 11;
+
+    private static final char[] buffer = new char[BUFFER_SIZE];
+    private static final char[] digits = new char[MAX_INT_LENGTH];
+    private static int length = 0;
+
+    // The default charset is the one System.out uses when the output is not
+    // a console.
+    private static final Writer out = new OutputStreamWriter(new FileOutputStream(FileDescriptor.out));
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    static {
+        // Output is not lost if the program ends with an exception.
+        Runtime.getRuntime().addShutdownHook(new Thread(Output::flush));
+    }
+
+    private Output() {
+    }
+
+    /**
+     * Writes out everything printed so far.
+     */
+    public static void flush() {
+        writeBuffer();
+        try {
+            out.flush();
+        }
+        catch (IOException e) {
+            // As with System.out, errors are ignored.
+        }
+    }
+
+    private static void writeBuffer() {
+        try {
+            out.write(buffer, 0, length);
+        }
+        catch (IOException e) {
+            // As with System.out, errors are ignored.
+        }
+        length = 0;
+    }
+
+    public static void print(int i) {
+        // The digits are taken from the negative value, since the negation
+        // of Integer.MIN_VALUE does not fit in an int.
+        boolean isNegative = i < 0;
+        int n = isNegative ? i : -i;
+
+        int start = MAX_INT_LENGTH;
+        do {
+            digits[--start] = (char) ('0' - n % 10);
+            n /= 10;
+        } while (n != 0);
+
+        if (isNegative) {
+            digits[--start] = '-';
+        }
+
+        if (length + MAX_INT_LENGTH > BUFFER_SIZE) {
+            writeBuffer();
+        }
+        System.arraycopy(digits, start, buffer, length, MAX_INT_LENGTH - start);
+        length += MAX_INT_LENGTH - start;
+    }
+
+    public static void print(float f) {
+        print(Float.toString(f));
+    }
+
+    public static void print(char c) {
+        if (length == BUFFER_SIZE) {
+            writeBuffer();
+        }
+        buffer[length++] = c;
+    }
+
+    public static void print(boolean b) {
+        print(b ? "true" : "false");
+    }
+
+    public static void print(String s) {
+        // Elements of string arrays are null until they are assigned.
+        if (s == null) {
+            s = "null";
+        }
+
+        int offset = 0;
+        while (offset < s.length()) {
+            if (length == BUFFER_SIZE) {
+                writeBuffer();
+            }
+
+            int count = Math.min(s.length() - offset, BUFFER_SIZE - length);
+            s.getChars(offset, offset + count, buffer, length);
+            length += count;
+            offset += count;
+        }
+    }
+
+    public static void println(int i) {
+        print(i);
+        print(LINE_SEPARATOR);
+    }
+
+    public static void println(float f) {
+        print(f);
+        print(LINE_SEPARATOR);
+    }
+
+    public static void println(char c) {
+        print(c);
+        print(LINE_SEPARATOR);
+    }
+
+    public static void println(boolean b) {
+        print(b);
+        print(LINE_SEPARATOR);
+    }
+
+    public static void println(String s) {
+        print(s);
+        print(LINE_SEPARATOR);
+    }
+}
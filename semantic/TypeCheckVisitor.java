@@ -2,6 +2,11 @@ package semantic;
 
 import ast.*;
 import common.Environment;
+import common.ParallelTasks;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Predicate;
 import type.*;
 
 /**
@@ -40,15 +45,62 @@ public class TypeCheckVisitor implements ASTVisitor<Type>  {
         return type instanceof ArrayType;
     }
 
+    /**
+     * Answers whether execution can reach the end of a list of statements
+     * without returning. A while loop may not run at all, whatever its
+     * condition, and an if statement only always returns if it has an else
+     * block and both of its blocks always return.
+     */
+    private static boolean canCompleteNormally(List<Statement> statements) {
+        for (var statement : statements) {
+            if (statement instanceof ReturnStatement) {
+                return false;
+            }
+            else if (statement instanceof IfStatement) {
+                var ifStatement = (IfStatement) statement;
+                if (ifStatement.elseBlock.isPresent()
+                        && !canCompleteNormally(ifStatement.ifBlock.statements)
+                        && !canCompleteNormally(ifStatement.elseBlock.get().statements)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     private final Environment<String, Type> variableEnv;
     private final Environment<String, FunctionDecl> functionEnv;
     
     private Type currentFunctionReturnType;
 
+    // If set, the function bodies are checked concurrently on this pool.
+    private ExecutorService executor;
+
     public TypeCheckVisitor() {
+        this(new Environment<String, FunctionDecl>());
+    }
+
+    /**
+     * Creates a visitor which looks up functions in the given table.
+     */
+    private TypeCheckVisitor(Environment<String, FunctionDecl> functionEnv) {
         variableEnv = new Environment<String, Type>();
-        functionEnv = new Environment<String, FunctionDecl>();
+        this.functionEnv = functionEnv;
         currentFunctionReturnType = null;
+        executor = null;
+    }
+
+    /**
+     * Chooses a pool on which the function bodies are type checked
+     * concurrently once all the signatures are known. Each body is checked
+     * by its own visitor, with its own variables, and they share the
+     * function table, which is only read after the signatures have been
+     * bound. The error reported is that of the first function which has
+     * one, as when they are checked in order. If the pool is null, which
+     * is the default, the bodies are checked in order by this visitor.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
     }
 
     public Type visit(AddExpression node) throws ASTVisitorException {
@@ -286,6 +338,13 @@ public class TypeCheckVisitor implements ASTVisitor<Type>  {
         // Type check the body using the cached return type value.
         node.body.accept(this);
 
+        // A non-void function must not be able to run off the end of its
+        // body, which the JVM would reject.
+        if (!isVoid(currentFunctionReturnType) && canCompleteNormally(node.body.statements)) {
+            String name = node.declaration.identifier.value;
+            throw new SemanticException("Missing return statement in function '" + name + "'", node.declaration);
+        }
+
         // Remove the cached return type and clear the variables
         // and parameters declared in the function.
         currentFunctionReturnType = null;
@@ -397,10 +456,53 @@ public class TypeCheckVisitor implements ASTVisitor<Type>  {
     }
 
 	public Type visit(Program node) throws ASTVisitorException {
-        // Add all functions to the symbol table so they are all accessible
-        // when type checking each one.
+        return visit(node, function -> true);
+    }
+
+    /**
+     * Type checks the program, but only the functions accepted by isChecked.
+     * The signatures of all the functions are still checked to be unique
+     * and to include a valid main(). This is used to skip the functions
+     * whose code is reused from an earlier compilation, which can only
+     * depend on their own text and the signatures of the functions they
+     * call.
+     */
+    public Type visit(Program node, Predicate<Function> isChecked) throws ASTVisitorException {
+        var declarations = new ArrayList<FunctionDecl>();
         for (var function : node.functions) {
-            var functionDecl = function.declaration;
+            declarations.add(function.declaration);
+        }
+        declareFunctions(declarations);
+
+        // Main exists and is well formed. Now type check each function.
+        if (executor != null) {
+            var tasks = new ArrayList<ParallelTasks.Task<Type, ASTVisitorException>>();
+            for (Function function : node.functions) {
+                if (isChecked.test(function)) {
+                    tasks.add(() -> function.accept(new TypeCheckVisitor(functionEnv)));
+                }
+            }
+            ParallelTasks.invokeInOrder(executor, tasks);
+        }
+        else {
+            for (Function function : node.functions) {
+                if (isChecked.test(function)) {
+                    function.accept(this);
+                }
+            }
+        }
+
+        // Nothing to return
+        return null;
+    }
+
+    /**
+     * Adds the functions with the given declarations to the symbol table,
+     * so that each function can then be type checked on its own by visiting
+     * it. The names must be unique, and there must be a valid main().
+     */
+    public void declareFunctions(List<FunctionDecl> declarations) throws SemanticException {
+        for (var functionDecl : declarations) {
             String functionName = functionDecl.identifier.value;
 
             // Prevent the re-use of a function name
@@ -427,14 +529,17 @@ public class TypeCheckVisitor implements ASTVisitor<Type>  {
                 throw new SemanticException("Invalid main() declaration: main() must not take formal parameters", mainDecl);
             }
         }
+    }
 
-        // Main exists and is well formed. Now type check each function.
-        for (Function function : node.functions) {
-            function.accept(this);
-        }
-
-        // Nothing to return
-        return null;
+    /**
+     * Checks the declaration of a function on its own, without its body.
+     * This lets the declarations of all the functions be checked before
+     * any function is compiled, when they are compiled one at a time.
+     */
+    public void checkDeclaration(FunctionDecl declaration) throws ASTVisitorException {
+        variableEnv.enterScope();
+        declaration.accept(this);
+        variableEnv.exitScope();
     }
 
 	public Type visit(ReturnStatement node) throws ASTVisitorException {